@@ -19,25 +19,45 @@ import com.android.ddmlib.Log;
 import com.android.tradefed.command.FatalHostError;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.HostThreadFactory;
 
 import com.google.common.annotations.VisibleForTesting;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * A helper class that maintains a local filesystem LRU cache of downloaded files.
+ *
+ * <p>Concurrent requests for the same remote file share a single download. Cached files are
+ * protected by a fixed set of striped locks: copies of a cached file hold the read lock of its
+ * stripe, and eviction only deletes files whose write lock it can acquire without waiting.
+ * Eviction, and persisting the cache index that avoids rescanning the cache directory on startup,
+ * are done by a background thread rather than by the requesting threads.
  */
 public class FileDownloadCache {
 
@@ -45,27 +65,76 @@ public class FileDownloadCache {
 
     private static final char REL_PATH_SEPARATOR = '/';
 
+    /** Name of the file in the cache root persisting the cache index. */
+    @VisibleForTesting static final String INDEX_FILE_NAME = ".tradefed-cache-index";
+
+    private static final String INDEX_SEPARATOR = "\t";
+
+    /** Number of lock stripes protecting the cached files. */
+    private static final int LOCK_STRIPES = 64;
+
+    /** Number of times a fetch is attempted when its cached file is concurrently removed. */
+    private static final int MAX_FETCH_ATTEMPTS = 3;
+
     /** fixed location of download cache. */
     private final File mCacheRoot;
 
+    /** The file persisting the cache index. */
+    private final File mIndexFile;
+
     /**
-     * The map of remote file paths to local files, stored in least-recently-used order.
+     * The map of remote file paths to cached entries. Least-recently-used order is tracked by the
+     * access sequence of each entry.
      * <p/>
      * Used for performance reasons. Functionally speaking, this data structure is not needed,
      * since all info could be obtained from inspecting the filesystem.
      */
-    private final Map<String, File> mCacheMap = new LinkedHashMap<String, File>();
+    private final Map<String, CacheEntry> mCacheMap = new ConcurrentHashMap<>();
 
-    /** the lock for <var>mCacheMap</var> */
-    private final ReentrantLock mCacheMapLock = new ReentrantLock();
+    /** The downloads in progress, shared by all the requests for the same remote path. */
+    private final Map<String, FutureTask<CacheEntry>> mPendingDownloads =
+            new ConcurrentHashMap<>();
 
-    /** A map of remote file paths to locks. */
-    private final Map<String, ReentrantLock> mFileLocks = new HashMap<String, ReentrantLock>();
+    /** The striped locks protecting the cached files. */
+    private final ReadWriteLock[] mFileLocks = new ReadWriteLock[LOCK_STRIPES];
 
-    private long mCurrentCacheSize = 0;
+    /** Sequence used to order entries by last access. */
+    private final AtomicLong mAccessSequence = new AtomicLong();
+
+    private final AtomicLong mCurrentCacheSize = new AtomicLong();
 
     /** The approximate maximum allowed size of the local file cache. Default to 20 gig */
-    private long mMaxFileCacheSize = 20L * 1024L * 1024L * 1024L;
+    private volatile long mMaxFileCacheSize = 20L * 1024L * 1024L * 1024L;
+
+    /** Single background thread evicting files and persisting the index. */
+    private final ThreadPoolExecutor mMaintenanceExecutor;
+
+    /** Whether a maintenance task is queued and not started yet. */
+    private final AtomicBoolean mMaintenanceScheduled = new AtomicBoolean(false);
+
+    /** Guards the state of the index on disk. */
+    private final Object mIndexLock = new Object();
+    /** Whether the index on disk reflects the content of the cache. */
+    private volatile boolean mIndexClean = false;
+    /** Incremented on each change of the cache content, guarded by {@link #mIndexLock}. */
+    private long mIndexVersion = 0;
+
+    /** A cached file, with its size and its last access sequence. */
+    private class CacheEntry {
+        final File mFile;
+        final long mSize;
+        volatile long mLastAccess;
+
+        CacheEntry(File file, long size, long lastAccess) {
+            mFile = file;
+            mSize = size;
+            mLastAccess = lastAccess;
+        }
+
+        void touch() {
+            mLastAccess = mAccessSequence.incrementAndGet();
+        }
+    }
 
     /**
      * Struct for a {@link File} and its remote relative path
@@ -80,6 +149,19 @@ public class FileDownloadCache {
         }
     }
 
+    /** Snapshot of the last access of an entry, so eviction candidates can be stably sorted. */
+    private static class EvictionCandidate {
+        final String mRemotePath;
+        final CacheEntry mEntry;
+        final long mLastAccess;
+
+        EvictionCandidate(String remotePath, CacheEntry entry) {
+            mRemotePath = remotePath;
+            mEntry = entry;
+            mLastAccess = entry.mLastAccess;
+        }
+    }
+
     /**
      * A {@link Comparator} for comparing {@link File}s based on {@link File#lastModified()}.
      */
@@ -93,7 +175,7 @@ public class FileDownloadCache {
     }
 
     /**
-     * Create a {@link FileDownloadCache}, deleting any previous cache contents from disk.
+     * Create a {@link FileDownloadCache}, loading any previous cache contents from disk.
      * <p/>
      * Assumes that the current process has exclusive access to the <var>cacheRoot</var> directory.
      * <p/>
@@ -101,6 +183,15 @@ public class FileDownloadCache {
      */
     FileDownloadCache(File cacheRoot) {
         mCacheRoot = cacheRoot;
+        mIndexFile = new File(mCacheRoot, INDEX_FILE_NAME);
+        for (int i = 0; i < mFileLocks.length; i++) {
+            mFileLocks[i] = new ReentrantReadWriteLock();
+        }
+        mMaintenanceExecutor =
+                new ThreadPoolExecutor(
+                        1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                        new HostThreadFactory("FileDownloadCache-maintenance-"));
+        mMaintenanceExecutor.allowCoreThreadTimeOut(true);
         if (!mCacheRoot.exists()) {
             Log.d(LOG_TAG, String.format("Creating file cache at %s",
                     mCacheRoot.getAbsolutePath()));
@@ -108,7 +199,7 @@ public class FileDownloadCache {
                 throw new FatalHostError(String.format("Could not create cache directory at %s",
                         mCacheRoot.getAbsolutePath()));
             }
-        } else {
+        } else if (!loadIndex()) {
             Log.d(LOG_TAG, String.format("Building file cache from contents at %s",
                     mCacheRoot.getAbsolutePath()));
             // create an unsorted list of all the files in mCacheRoot. Need to create list first
@@ -119,14 +210,60 @@ public class FileDownloadCache {
             Collections.sort(cacheEntryList, new FileTimeComparator());
             // now insert them into the map
             for (FilePair cacheEntry : cacheEntryList) {
-                mCacheMap.put(cacheEntry.mRelPath, cacheEntry.mFile);
-                mCurrentCacheSize += cacheEntry.mFile.length();
+                long size = cacheEntry.mFile.length();
+                mCacheMap.put(
+                        cacheEntry.mRelPath,
+                        new CacheEntry(
+                                cacheEntry.mFile, size, mAccessSequence.incrementAndGet()));
+                mCurrentCacheSize.addAndGet(size);
             }
-            // this would be an unusual situation, but check if current cache is already too big
-            if (mCurrentCacheSize > getMaxFileCacheSize()) {
-                incrementAndAdjustCache(0);
+        }
+        // this would be an unusual situation, but check if current cache is already too big.
+        // Also persist the index so the next startup does not need to scan the cache.
+        runMaintenance();
+    }
+
+    /**
+     * Load the cache map from the index persisted by a previous process.
+     *
+     * @return true if the index was loaded, false if the cache needs to be rebuilt from the
+     *     contents on disk.
+     */
+    private boolean loadIndex() {
+        if (!mIndexFile.isFile()) {
+            return false;
+        }
+        long maxAccess = 0;
+        try (BufferedReader reader =
+                Files.newBufferedReader(mIndexFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // remote path is last, so it can contain the separator
+                String[] parts = line.split(INDEX_SEPARATOR, 3);
+                if (parts.length != 3) {
+                    throw new IOException(String.format("Invalid index line '%s'", line));
+                }
+                long size = Long.parseLong(parts[0]);
+                long lastAccess = Long.parseLong(parts[1]);
+                File file = new File(mCacheRoot, convertPath(parts[2]));
+                mCacheMap.put(parts[2], new CacheEntry(file, size, lastAccess));
+                mCurrentCacheSize.addAndGet(size);
+                maxAccess = Math.max(maxAccess, lastAccess);
             }
+        } catch (IOException | NumberFormatException e) {
+            CLog.w("Failed to load cache index %s, rebuilding it: %s", mIndexFile, e.toString());
+            mCacheMap.clear();
+            mCurrentCacheSize.set(0);
+            return false;
         }
+        mAccessSequence.set(maxAccess);
+        // Entries whose file was removed out of band are dropped when fetched.
+        Log.d(LOG_TAG, String.format("Loaded file cache index with %d entries from %s",
+                mCacheMap.size(), mIndexFile.getAbsolutePath()));
+        synchronized (mIndexLock) {
+            mIndexClean = true;
+        }
+        return true;
     }
 
     /**
@@ -148,6 +285,10 @@ public class FileDownloadCache {
             return;
         }
         for (File childFile : fileList) {
+            if (relPathSegments.isEmpty() && childFile.getName().startsWith(INDEX_FILE_NAME)) {
+                // the index is not part of the cache
+                continue;
+            }
             if (childFile.isDirectory()) {
                 relPathSegments.push(childFile.getName());
                 addFiles(childFile, relPathSegments, cacheEntryList);
@@ -167,51 +308,9 @@ public class FileDownloadCache {
         }
     }
 
-    /** Acquires the lock for a file. */
-    protected void lockFile(String remoteFilePath) {
-        ReentrantLock fileLock;
-
-        synchronized (mFileLocks) {
-            fileLock = mFileLocks.get(remoteFilePath);
-            if (fileLock == null) {
-                fileLock = new ReentrantLock();
-                mFileLocks.put(remoteFilePath, fileLock);
-            }
-        }
-        fileLock.lock();
-    }
-
-    /**
-     * Acquire the lock for a file only if it is not held by another thread.
-     *
-     * @return true if the lock was acquired, and false otherwise.
-     */
-    protected boolean tryLockFile(String remoteFilePath) {
-        synchronized (mFileLocks) {
-            ReentrantLock fileLock = mFileLocks.get(remoteFilePath);
-            if (fileLock == null) {
-                fileLock = new ReentrantLock();
-                mFileLocks.put(remoteFilePath, fileLock);
-            }
-            try {
-                return fileLock.tryLock(0, TimeUnit.SECONDS);
-            } catch (InterruptedException e) {
-                return false;
-            }
-        }
-    }
-
-    /** Attempt to release a lock for a file. */
-    protected void unlockFile(String remoteFilePath) {
-        synchronized (mFileLocks) {
-            ReentrantLock fileLock = mFileLocks.get(remoteFilePath);
-            if (fileLock != null) {
-                if (!fileLock.hasQueuedThreads()) {
-                    mFileLocks.remove(remoteFilePath);
-                }
-                fileLock.unlock();
-            }
-        }
+    /** Returns the lock of the stripe protecting the cached file of a remote path. */
+    protected ReadWriteLock getFileLock(String remoteFilePath) {
+        return mFileLocks[(remoteFilePath.hashCode() & Integer.MAX_VALUE) % mFileLocks.length];
     }
 
     /**
@@ -223,17 +322,15 @@ public class FileDownloadCache {
      * @param numBytes
      */
     public void setMaxCacheSize(long numBytes) {
-        // for simplicity, get global lock
-        mCacheMapLock.lock();
         mMaxFileCacheSize = numBytes;
-        mCacheMapLock.unlock();
     }
 
     /**
      * Returns a local file corresponding to the given <var>remotePath</var>
      * <p/>
      * The local {@link File} will be copied from the cache if it exists, otherwise will be
-     * downloaded via the given {@link IFileDownloader}.
+     * downloaded via the given {@link IFileDownloader}. Concurrent requests for a file not in the
+     * cache wait for a single download.
      *
      * @param downloader the {@link IFileDownloader}
      * @param remotePath the remote file.
@@ -242,50 +339,168 @@ public class FileDownloadCache {
      */
     public File fetchRemoteFile(IFileDownloader downloader, String remotePath)
             throws BuildRetrievalError {
-        boolean download = false;
-        File cachedFile, copyFile;
+        for (int attempt = 1; ; attempt++) {
+            CacheEntry entry = mCacheMap.get(remotePath);
+            if (entry == null) {
+                entry = downloadOnce(downloader, remotePath, attempt >= MAX_FETCH_ATTEMPTS);
+                if (entry == null) {
+                    // the shared download of another request failed, try our own.
+                    continue;
+                }
+            } else {
+                Log.d(
+                        LOG_TAG,
+                        String.format(
+                                "Retrieved remote file %s from cached file %s",
+                                remotePath, entry.mFile.getAbsolutePath()));
+            }
+            File copyFile = copyCachedFile(remotePath, entry);
+            if (copyFile != null) {
+                return copyFile;
+            }
+            if (attempt >= MAX_FETCH_ATTEMPTS) {
+                throw new BuildRetrievalError(
+                        String.format(
+                                "Cached file for %s was removed %d times while being fetched",
+                                remotePath, attempt));
+            }
+        }
+    }
 
-        lockFile(remotePath);
-        try {
-            mCacheMapLock.lock();
+    /**
+     * Download a remote file to the cache, or wait for the download already in progress for the
+     * same file.
+     *
+     * @param downloader the {@link IFileDownloader}
+     * @param remotePath the remote file.
+     * @param lastAttempt whether to throw the error of a failed download started by another
+     *     request.
+     * @return the {@link CacheEntry} of the downloaded file, or null if the download started by
+     *     another request failed.
+     * @throws BuildRetrievalError if the download failed
+     */
+    private CacheEntry downloadOnce(
+            final IFileDownloader downloader, final String remotePath, boolean lastAttempt)
+            throws BuildRetrievalError {
+        FutureTask<CacheEntry> task =
+                new FutureTask<>(
+                        new Callable<CacheEntry>() {
+                            @Override
+                            public CacheEntry call() throws BuildRetrievalError {
+                                return downloadToCache(downloader, remotePath);
+                            }
+                        });
+        FutureTask<CacheEntry> pending = mPendingDownloads.putIfAbsent(remotePath, task);
+        boolean owner = pending == null;
+        if (owner) {
+            pending = task;
             try {
-                cachedFile = mCacheMap.remove(remotePath);
-                if (cachedFile == null) {
-                    download = true;
-                    String localRelativePath = convertPath(remotePath);
-                    cachedFile = new File(mCacheRoot, localRelativePath);
-                }
-                mCacheMap.put(remotePath, cachedFile);
+                task.run();
             } finally {
-                mCacheMapLock.unlock();
+                mPendingDownloads.remove(remotePath, task);
+            }
+        }
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            throw new BuildRetrievalError(
+                    String.format("Interrupted while waiting for download of %s", remotePath), e);
+        } catch (ExecutionException e) {
+            if (!owner && !lastAttempt) {
+                return null;
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof BuildRetrievalError) {
+                throw (BuildRetrievalError) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
             }
+            throw new BuildRetrievalError(
+                    String.format("Failed to download %s", remotePath), cause);
+        }
+    }
 
+    /**
+     * Download a remote file to the cache and add it to the cache map, unless a previous download
+     * already completed. Runs once for all the concurrent requests of a remote file.
+     */
+    private CacheEntry downloadToCache(IFileDownloader downloader, String remotePath)
+            throws BuildRetrievalError {
+        CacheEntry existing = mCacheMap.get(remotePath);
+        if (existing != null && existing.mFile.exists()) {
+            return existing;
+        }
+        File cachedFile = new File(mCacheRoot, convertPath(remotePath));
+        markIndexDirty();
+        try {
+            cachedFile.getParentFile().mkdirs();
+            downloadFile(downloader, remotePath, cachedFile);
+        } catch (BuildRetrievalError | RuntimeException e) {
+            // cached file is likely incomplete, delete it.
+            FileUtil.deleteFile(cachedFile);
+            throw e;
+        }
+        long size = cachedFile.length();
+        CacheEntry entry = new CacheEntry(cachedFile, size, mAccessSequence.incrementAndGet());
+        Lock lock = getFileLock(remotePath).writeLock();
+        lock.lock();
+        try {
+            CacheEntry previous = mCacheMap.put(remotePath, entry);
+            // again, in case an index written during the download was installed
+            markIndexDirty();
+            if (previous != null) {
+                // replaced an entry whose file went missing
+                mCurrentCacheSize.addAndGet(-previous.mSize);
+            }
+        } finally {
+            lock.unlock();
+        }
+        // Only the thread that downloads the file should increment the cache.
+        incrementAndAdjustCache(size);
+        return entry;
+    }
+
+    /**
+     * Copy a cached file, protecting it from eviction during the copy.
+     *
+     * @return the copy, or null if the entry was removed from the cache before it could be copied.
+     * @throws BuildRetrievalError if the copy failed, in which case the entry is removed.
+     */
+    private File copyCachedFile(String remotePath, CacheEntry entry) throws BuildRetrievalError {
+        boolean missing = false;
+        boolean failed = false;
+        Lock lock = getFileLock(remotePath).readLock();
+        lock.lock();
+        try {
+            if (mCacheMap.get(remotePath) != entry) {
+                // evicted or deleted since we looked it up
+                return null;
+            }
+            if (!entry.mFile.exists()) {
+                missing = true;
+                return null;
+            }
+            entry.touch();
             try {
-                if (download || !cachedFile.exists()) {
-                    cachedFile.getParentFile().mkdirs();
-                    downloadFile(downloader, remotePath, cachedFile);
-                } else {
-                    Log.d(
-                            LOG_TAG,
-                            String.format(
-                                    "Retrieved remote file %s from cached file %s",
-                                    remotePath, cachedFile.getAbsolutePath()));
-                }
-                copyFile = copyFile(remotePath, cachedFile);
+                return copyFile(remotePath, entry.mFile);
             } catch (BuildRetrievalError | RuntimeException e) {
-                // cached file is likely incomplete, delete it.
-                deleteCacheEntry(remotePath);
+                failed = true;
                 throw e;
             }
-
-            // Only the thread that first downloads the file should increment the cache.
-            if (download) {
-               incrementAndAdjustCache(cachedFile.length());
-            }
         } finally {
-            unlockFile(remotePath);
+            lock.unlock();
+            // Removing the entry requires the write lock, so it must be done after releasing the
+            // read lock.
+            if (missing) {
+                CLog.i("Cached file for %s is missing, downloading it again.", remotePath);
+                removeEntry(remotePath, entry);
+            } else if (failed) {
+                // cached file is likely corrupted, delete it.
+                deleteCacheEntry(remotePath);
+            }
         }
-        return copyFile;
     }
 
     /** Do the actual file download, clean up on exception is done by the caller. */
@@ -330,49 +545,171 @@ public class FileDownloadCache {
     }
 
     /**
-     * Adjust file cache size to mMaxFileCacheSize if necessary by deleting old files
+     * Account for a new cached file, and schedule the adjustment of the cache size to
+     * mMaxFileCacheSize on the maintenance thread.
      */
     private void incrementAndAdjustCache(long length) {
-        mCacheMapLock.lock();
-        try {
-            mCurrentCacheSize += length;
-            Iterator<String> keyIterator = mCacheMap.keySet().iterator();
-            while (mCurrentCacheSize > getMaxFileCacheSize() && keyIterator.hasNext()) {
-                String remotePath = keyIterator.next();
-                // Only delete the file if it is not being used by another thread.
-                if (tryLockFile(remotePath)) {
-                    try {
-                        File file = mCacheMap.get(remotePath);
-                        mCurrentCacheSize -= file.length();
-                        file.delete();
-                        keyIterator.remove();
-                    } finally {
-                        unlockFile(remotePath);
+        mCurrentCacheSize.addAndGet(length);
+        scheduleMaintenance();
+    }
+
+    /** Schedule a maintenance pass, unless one is already waiting to run. */
+    private void scheduleMaintenance() {
+        if (mMaintenanceScheduled.compareAndSet(false, true)) {
+            mMaintenanceExecutor.execute(
+                    HostThreadFactory.wrap(
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    mMaintenanceScheduled.set(false);
+                                    runMaintenance();
+                                }
+                            }));
+        }
+    }
+
+    /** Adjust the cache size and persist the index if needed. */
+    private synchronized void runMaintenance() {
+        adjustCache();
+        if (!mIndexClean) {
+            writeIndex();
+        }
+    }
+
+    /**
+     * Adjust file cache size to mMaxFileCacheSize if necessary by deleting old files
+     */
+    private void adjustCache() {
+        if (mCurrentCacheSize.get() <= getMaxFileCacheSize()) {
+            return;
+        }
+        List<EvictionCandidate> candidates = new ArrayList<>(mCacheMap.size());
+        for (Map.Entry<String, CacheEntry> entry : mCacheMap.entrySet()) {
+            candidates.add(new EvictionCandidate(entry.getKey(), entry.getValue()));
+        }
+        Collections.sort(
+                candidates,
+                new Comparator<EvictionCandidate>() {
+                    @Override
+                    public int compare(EvictionCandidate o1, EvictionCandidate o2) {
+                        return Long.compare(o1.mLastAccess, o2.mLastAccess);
                     }
-                } else {
-                    CLog.i(
-                            String.format(
-                                    "File %s is being used by another invocation. Skipping.",
-                                    remotePath));
+                });
+        for (EvictionCandidate candidate : candidates) {
+            if (mCurrentCacheSize.get() <= getMaxFileCacheSize()) {
+                break;
+            }
+            Lock lock = getFileLock(candidate.mRemotePath).writeLock();
+            // Only delete the file if it is not being used by another thread.
+            if (lock.tryLock()) {
+                try {
+                    if (mCacheMap.remove(candidate.mRemotePath, candidate.mEntry)) {
+                        markIndexDirty();
+                        mCurrentCacheSize.addAndGet(-candidate.mEntry.mSize);
+                        candidate.mEntry.mFile.delete();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            } else {
+                CLog.i(
+                        String.format(
+                                "File %s is being used by another invocation. Skipping.",
+                                candidate.mRemotePath));
+            }
+        }
+        // audit cache size
+        if (mCurrentCacheSize.get() < 0) {
+            // should never happen
+            Log.e(LOG_TAG, "Cache size is less than 0!");
+            // TODO: throw fatal error?
+        } else if (mCurrentCacheSize.get() > getMaxFileCacheSize()) {
+            // May occur if the cache is configured to be too small or if mCurrentCacheSize is
+            // accounting for non-existent files.
+            Log.w(LOG_TAG, "File cache is over-capacity.");
+        }
+    }
+
+    /**
+     * Invalidate the index on disk when the cache content changes, so that the cache is rebuilt
+     * from the disk content if the process stops before the index is written again. An index
+     * being written concurrently is not installed.
+     */
+    private void markIndexDirty() {
+        synchronized (mIndexLock) {
+            mIndexVersion++;
+            if (mIndexClean) {
+                mIndexClean = false;
+                FileUtil.deleteFile(mIndexFile);
+            }
+        }
+    }
+
+    /**
+     * Write the current cache map to the index file. The index is only installed if the cache did
+     * not change while it was written, otherwise it stays dirty until the next maintenance.
+     */
+    private void writeIndex() {
+        long version;
+        synchronized (mIndexLock) {
+            version = mIndexVersion;
+        }
+        File tmpIndex = new File(mCacheRoot, INDEX_FILE_NAME + ".tmp");
+        try {
+            try (Writer writer =
+                    Files.newBufferedWriter(tmpIndex.toPath(), StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, CacheEntry> entry : mCacheMap.entrySet()) {
+                    writer.write(
+                            entry.getValue().mSize
+                                    + INDEX_SEPARATOR
+                                    + entry.getValue().mLastAccess
+                                    + INDEX_SEPARATOR
+                                    + entry.getKey()
+                                    + "\n");
                 }
             }
-            // audit cache size
-            if (mCurrentCacheSize < 0) {
-                // should never happen
-                Log.e(LOG_TAG, "Cache size is less than 0!");
-                // TODO: throw fatal error?
-            } else if (mCurrentCacheSize > getMaxFileCacheSize()) {
-                // May occur if the cache is configured to be too small or if mCurrentCacheSize is
-                // accounting for non-existent files.
-                Log.w(LOG_TAG, "File cache is over-capacity.");
+            synchronized (mIndexLock) {
+                if (version != mIndexVersion) {
+                    FileUtil.deleteFile(tmpIndex);
+                    return;
+                }
+                Files.move(
+                        tmpIndex.toPath(),
+                        mIndexFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                mIndexClean = true;
             }
-        } finally {
-            mCacheMapLock.unlock();
+        } catch (IOException e) {
+            CLog.w("Failed to write cache index %s: %s", mIndexFile, e.toString());
+            FileUtil.deleteFile(tmpIndex);
+        }
+    }
+
+    /**
+     * Wait for the maintenance tasks scheduled so far to complete.
+     * <p/>
+     * Exposed for unit testing
+     */
+    @VisibleForTesting
+    void waitForMaintenance() {
+        FutureTask<Void> marker = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                // no-op, only used to wait for the previous tasks.
+            }
+        }, null);
+        mMaintenanceExecutor.execute(marker);
+        try {
+            marker.get();
+        } catch (InterruptedException | ExecutionException e) {
+            CLog.e(e);
         }
     }
 
     /**
      * Returns the cached file for given remote path, or <code>null</code> if no cached file exists.
+     * A file being downloaded is considered cached.
      * <p/>
      * Exposed for unit testing
      *
@@ -380,12 +717,14 @@ public class FileDownloadCache {
      * @return the cached {@link File} or <code>null</code>
      */
      File getCachedFile(String remoteFilePath) {
-        mCacheMapLock.lock();
-        try {
-            return mCacheMap.get(remoteFilePath);
-        } finally {
-            mCacheMapLock.unlock();
+        CacheEntry entry = mCacheMap.get(remoteFilePath);
+        if (entry != null) {
+            return entry.mFile;
         }
+        if (mPendingDownloads.containsKey(remoteFilePath)) {
+            return new File(mCacheRoot, convertPath(remoteFilePath));
+        }
+        return null;
      }
 
     /**
@@ -394,10 +733,11 @@ public class FileDownloadCache {
      * exposed for unit testing
      */
      void empty() {
+        waitForMaintenance();
         long currentMax = getMaxFileCacheSize();
-        // reuse incrementAndAdjustCache to clear cache, by setting cache cap to 0
+        // reuse runMaintenance to clear cache, by setting cache cap to 0
         setMaxCacheSize(0L);
-        incrementAndAdjustCache(0);
+        runMaintenance();
         setMaxCacheSize(currentMax);
     }
 
@@ -409,16 +749,16 @@ public class FileDownloadCache {
      * @return the remote path or <code>null</null> if cache is empty
      */
     String getOldestEntry() {
-        mCacheMapLock.lock();
-        try {
-            if (!mCacheMap.isEmpty()) {
-                return mCacheMap.keySet().iterator().next();
-            } else {
-                return null;
+        String oldest = null;
+        long oldestAccess = Long.MAX_VALUE;
+        for (Map.Entry<String, CacheEntry> entry : mCacheMap.entrySet()) {
+            long lastAccess = entry.getValue().mLastAccess;
+            if (lastAccess < oldestAccess) {
+                oldest = entry.getKey();
+                oldestAccess = lastAccess;
             }
-        } finally {
-            mCacheMapLock.unlock();
         }
+        return oldest;
     }
 
     /**
@@ -432,25 +772,37 @@ public class FileDownloadCache {
         return mMaxFileCacheSize;
     }
 
+    /** Remove an entry from the cache map if it was not replaced in the meantime. */
+    private void removeEntry(String remoteFilePath, CacheEntry entry) {
+        Lock lock = getFileLock(remoteFilePath).writeLock();
+        lock.lock();
+        try {
+            if (mCacheMap.remove(remoteFilePath, entry)) {
+                markIndexDirty();
+                mCurrentCacheSize.addAndGet(-entry.mSize);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * Allow deleting an entry from the cache. In case the entry is invalid or corrupted.
      */
     public void deleteCacheEntry(String remoteFilePath) {
-        lockFile(remoteFilePath);
+        Lock lock = getFileLock(remoteFilePath).writeLock();
+        lock.lock();
         try {
-            mCacheMapLock.lock();
-            try {
-                File file = mCacheMap.remove(remoteFilePath);
-                if (file != null) {
-                    FileUtil.recursiveDelete(file);
-                } else {
-                    CLog.i("No cache entry to delete for %s", remoteFilePath);
-                }
-            } finally {
-                mCacheMapLock.unlock();
+            CacheEntry entry = mCacheMap.remove(remoteFilePath);
+            if (entry != null) {
+                markIndexDirty();
+                mCurrentCacheSize.addAndGet(-entry.mSize);
+                FileUtil.recursiveDelete(entry.mFile);
+            } else {
+                CLog.i("No cache entry to delete for %s", remoteFilePath);
             }
         } finally {
-            unlockFile(remoteFilePath);
+            lock.unlock();
         }
     }
 }
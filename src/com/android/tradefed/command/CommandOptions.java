@@ -23,6 +23,9 @@ import com.android.tradefed.config.OptionUpdateRule;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.util.UniqueMultiMap;
 
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 /**
  * Implementation of {@link ICommandOptions}.
  */
@@ -137,6 +140,49 @@ public class CommandOptions implements ICommandOptions {
     )
     private boolean mUseTfSharding = false;
 
+    @Option(
+        name = "stream-shard-results",
+        description =
+                "Forward the results of each local shard to the reporters as soon as each module "
+                        + "or run completes, instead of buffering them until the shard ends."
+    )
+    private boolean mStreamShardResults = false;
+
+    @Option(
+        name = "compact-shard-results",
+        description =
+                "Store the results buffered by each local shard in a compact form, spilling them "
+                        + "to disk when they grow large. Reduces the memory used by invocations "
+                        + "with a very large number of tests."
+    )
+    private boolean mCompactShardResults = false;
+
+    @Option(
+        name = "async-result-reporter",
+        description =
+                "Fully qualified class name of a result reporter that should receive the results "
+                        + "asynchronously, so that it does not slow down the test execution. "
+                        + "Can be repeated."
+    )
+    private Set<String> mAsyncResultReporters = new LinkedHashSet<>();
+
+    @Option(
+        name = "async-result-reporter-queue-size",
+        description =
+                "Maximum number of results queued for each asynchronous result reporter. "
+                        + "Reporting a result waits while the queue is full."
+    )
+    private int mAsyncResultReporterQueueSize = 10000;
+
+    @Option(
+        name = "parallel-setup",
+        description =
+                "Run the target preparers of each device of a multi-device invocation in "
+                        + "parallel. The multi target preparers run once all the devices are set "
+                        + "up."
+    )
+    private boolean mParallelSetup = false;
+
     public static final String USE_SANDBOX = "use-sandbox";
 
     @Option(
@@ -398,6 +444,36 @@ public class CommandOptions implements ICommandOptions {
         return mUseTfSharding;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public boolean shouldStreamShardResults() {
+        return mStreamShardResults;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean shouldCompactShardResults() {
+        return mCompactShardResults;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Set<String> getAsyncResultReporters() {
+        return mAsyncResultReporters;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getAsyncResultReporterQueueSize() {
+        return mAsyncResultReporterQueueSize;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean shouldRunParallelSetup() {
+        return mParallelSetup;
+    }
+
     /** {@inheritDoc} */
     @Override
     public boolean shouldUseSandboxing() {
@@ -40,6 +40,7 @@ import com.android.tradefed.config.SandboxConfigurationFactory;
 import com.android.tradefed.device.DeviceAllocationState;
 import com.android.tradefed.device.DeviceManager;
 import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.DeviceSelectionOptions;
 import com.android.tradefed.device.DeviceUnresponsiveException;
 import com.android.tradefed.device.FreeDeviceState;
 import com.android.tradefed.device.IDeviceManager;
@@ -987,22 +988,34 @@ public class CommandScheduler extends Thread implements ICommandScheduler, IComm
 
     protected void processReadyCommands(IDeviceManager manager) {
         CLog.d("processReadyCommands...");
+        long startTime = System.currentTimeMillis();
         Map<ExecutableCommand, IInvocationContext> scheduledCommandMap = new HashMap<>();
+        // device requirements that could not be satisfied during this pass. Commands sharing the
+        // same requirements would not match either, so they are not evaluated again.
+        Set<String> unmatchedSignatures = new HashSet<>();
+        int readyCount = 0;
+        int allocationAttempts = 0;
         // minimize length of synchronized block by just matching commands with device first,
         // then scheduling invocations/adding looping commands back to queue
         synchronized (this) {
+            readyCount = mReadyCommands.size();
             // sort ready commands by priority, so high priority commands are matched first
             Collections.sort(mReadyCommands, new ExecutableCommandComparator());
             Iterator<ExecutableCommand> cmdIter = mReadyCommands.iterator();
             while (cmdIter.hasNext()) {
                 ExecutableCommand cmd = cmdIter.next();
                 IConfiguration config = cmd.getConfiguration();
-                IInvocationContext context = new InvocationContext();
-                context.setConfigurationDescriptor(config.getConfigurationDescription());
-                Map<String, ITestDevice> devices = allocateDevices(config, manager);
+                String signature = getDeviceRequirementsSignature(config);
+                Map<String, ITestDevice> devices = Collections.emptyMap();
+                if (signature == null || !unmatchedSignatures.contains(signature)) {
+                    allocationAttempts++;
+                    devices = allocateDevices(config, manager);
+                }
                 if (!devices.isEmpty()) {
                     cmdIter.remove();
                     mExecutingCommands.add(cmd);
+                    IInvocationContext context = new InvocationContext();
+                    context.setConfigurationDescriptor(config.getConfigurationDescription());
                     context.addAllocatedDevice(devices);
 
                     // track command matched with device
@@ -1010,6 +1023,9 @@ public class CommandScheduler extends Thread implements ICommandScheduler, IComm
                     // clean warned list to avoid piling over time.
                     mUnscheduledWarning.remove(cmd);
                 } else {
+                    if (signature != null) {
+                        unmatchedSignatures.add(signature);
+                    }
                     if (!mUnscheduledWarning.contains(cmd)) {
                         CLog.logAndDisplay(LogLevel.DEBUG, "No available device matching all the "
                                 + "config's requirements for cmd id %d.",
@@ -1024,6 +1040,8 @@ public class CommandScheduler extends Thread implements ICommandScheduler, IComm
                 }
             }
         }
+        reportSchedulerPass(System.currentTimeMillis() - startTime, readyCount,
+                allocationAttempts, scheduledCommandMap.size());
 
         // now actually execute the commands
         for (Map.Entry<ExecutableCommand, IInvocationContext> cmdDeviceEntry : scheduledCommandMap
@@ -1038,6 +1056,57 @@ public class CommandScheduler extends Thread implements ICommandScheduler, IComm
         CLog.d("done processReadyCommands...");
     }
 
+    /**
+     * Returns a key identifying the device requirements of a configuration, or null if the
+     * requirements cannot be compared with the ones of other configurations.
+     */
+    @VisibleForTesting
+    static String getDeviceRequirementsSignature(IConfiguration config) {
+        StringBuilder signature = new StringBuilder();
+        for (IDeviceConfiguration deviceConfig : config.getDeviceConfig()) {
+            if (!(deviceConfig.getDeviceRequirements() instanceof DeviceSelectionOptions)) {
+                return null;
+            }
+            DeviceSelectionOptions options =
+                    (DeviceSelectionOptions) deviceConfig.getDeviceRequirements();
+            signature.append(deviceConfig.getDeviceName());
+            signature.append("=");
+            signature.append(options.getSelectionSignature());
+            signature.append(";");
+        }
+        return signature.toString();
+    }
+
+    /**
+     * Log and report to the host monitors the cost of one pass of matching the ready commands
+     * against the devices.
+     */
+    private void reportSchedulerPass(
+            long elapsedTime, int readyCount, int allocationAttempts, int matchedCount) {
+        CLog.d(
+                "Scheduler pass took %s: %d ready commands, %d allocation attempts, %d matched.",
+                TimeUtil.formatElapsedTime(elapsedTime),
+                readyCount,
+                allocationAttempts,
+                matchedCount);
+        List<IHostMonitor> hostMonitors = null;
+        try {
+            hostMonitors = getHostMonitor();
+        } catch (IllegalStateException e) {
+            // Global configuration has not been created, only log the pass.
+        }
+        if (hostMonitors != null) {
+            String info =
+                    String.format(
+                            "ready=%d,attempts=%d,matched=%d",
+                            readyCount, allocationAttempts, matchedCount);
+            for (IHostMonitor hm : hostMonitors) {
+                HostDataPoint data = new HostDataPoint("schedulerPassMs", (int) elapsedTime, info);
+                hm.addHostEvent(HostMetricType.SCHEDULER_PASS, data);
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -1690,6 +1759,7 @@ public class CommandScheduler extends Thread implements ICommandScheduler, IComm
     protected void initLogging() {
         DdmPreferences.setLogLevel(LogLevel.VERBOSE.getStringValue());
         Log.setLogOutput(LogRegistry.getLogRegistry());
+        CLog.setLogRegistry(LogRegistry.getLogRegistry());
     }
 
     /**
@@ -18,6 +18,8 @@ package com.android.tradefed.command;
 
 import com.android.tradefed.util.UniqueMultiMap;
 
+import java.util.Set;
+
 /**
  *  Container for execution options for commands.
  */
@@ -155,6 +157,21 @@ public interface ICommandOptions {
     /** Returns true if we should use Tf new sharding logic */
     public boolean shouldUseTfSharding();
 
+    /** Returns true if local shards should forward their results as they complete. */
+    public boolean shouldStreamShardResults();
+
+    /** Returns true if local shards should store the results they buffer in a compact form. */
+    public boolean shouldCompactShardResults();
+
+    /** Returns the class names of the result reporters that should be called asynchronously. */
+    public Set<String> getAsyncResultReporters();
+
+    /** Returns the maximum number of results queued for each asynchronous result reporter. */
+    public int getAsyncResultReporterQueueSize();
+
+    /** Returns true if the devices of a multi-device invocation should be set up in parallel. */
+    public boolean shouldRunParallelSetup();
+
     /** Returns true if we should use Tf containers to run the invocation */
     public boolean shouldUseSandboxing();
 
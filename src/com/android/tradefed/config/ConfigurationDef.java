@@ -16,7 +16,10 @@
 
 package com.android.tradefed.config;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -165,6 +168,108 @@ public class ConfigurationDef {
         return false;
     }
 
+    /**
+     * Returns the source files used to load this {@link ConfigurationDef}, with the modification
+     * time they had when it was loaded.
+     */
+    Map<File, Long> getSourceFiles() {
+        return mSourceFiles;
+    }
+
+    /**
+     * Writes this {@link ConfigurationDef} in a compact binary form that can be read back with
+     * {@link #readFrom(DataInput)}.
+     *
+     * @param out the {@link DataOutput} to write to
+     * @throws IOException if the definition could not be written
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(mName);
+        out.writeUTF(mDescription);
+        out.writeBoolean(mMultiDeviceMode);
+        out.writeInt(mExpectedDevices.size());
+        for (String device : mExpectedDevices) {
+            out.writeUTF(device);
+        }
+        out.writeInt(mObjectClassMap.size());
+        for (Map.Entry<String, List<ConfigObjectDef>> entry : mObjectClassMap.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (ConfigObjectDef objectDef : entry.getValue()) {
+                out.writeUTF(objectDef.mClassName);
+                out.writeInt(objectDef.mAppearanceNum);
+            }
+        }
+        out.writeInt(mClassFrequency.size());
+        for (Map.Entry<String, Integer> entry : mClassFrequency.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+        out.writeInt(mOptionList.size());
+        for (OptionDef optionDef : mOptionList) {
+            out.writeUTF(optionDef.name);
+            writeNullableString(out, optionDef.key);
+            writeNullableString(out, optionDef.value);
+            writeNullableString(out, optionDef.source);
+        }
+        out.writeInt(mSourceFiles.size());
+        for (Map.Entry<File, Long> entry : mSourceFiles.entrySet()) {
+            out.writeUTF(entry.getKey().getPath());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    /**
+     * Reads a {@link ConfigurationDef} written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in the {@link DataInput} to read from
+     * @return the {@link ConfigurationDef}
+     * @throws IOException if the definition could not be read
+     */
+    static ConfigurationDef readFrom(DataInput in) throws IOException {
+        ConfigurationDef def = new ConfigurationDef(in.readUTF());
+        def.mDescription = in.readUTF();
+        def.mMultiDeviceMode = in.readBoolean();
+        for (int i = in.readInt(); i > 0; i--) {
+            def.mExpectedDevices.add(in.readUTF());
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            String typeName = in.readUTF();
+            int count = in.readInt();
+            List<ConfigObjectDef> classList = new ArrayList<>(count);
+            for (int j = 0; j < count; j++) {
+                classList.add(new ConfigObjectDef(in.readUTF(), in.readInt()));
+            }
+            def.mObjectClassMap.put(typeName, classList);
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            def.mClassFrequency.put(in.readUTF(), in.readInt());
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            def.mOptionList.add(
+                    new OptionDef(
+                            in.readUTF(),
+                            readNullableString(in),
+                            readNullableString(in),
+                            readNullableString(in)));
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            def.mSourceFiles.put(new File(in.readUTF()), in.readLong());
+        }
+        return def;
+    }
+
+    private static void writeNullableString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
     /**
      * Get the object type name-class map.
      *
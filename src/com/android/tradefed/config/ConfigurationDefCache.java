@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.config;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.ClassPathScanner;
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.StreamUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An on-disk cache of parsed {@link ConfigurationDef}s, so that a new Tradefed process (console,
+ * sandbox subprocess) does not have to parse again the xml configs it already parsed.
+ *
+ * <p>Entries are stored in a directory named after a fingerprint of the classpath, so a change in
+ * any of the jars holding the bundled configs invalidates all of them. Local config files are
+ * validated against the modification time they had when the entry was written.
+ *
+ * <p>The cache is only used when the {@link #CACHE_DIR_VARIABLE} environment variable gives its
+ * directory. Entries are trusted as they are read, so the directory must be owned by the user
+ * running Tradefed and only accessible to them, otherwise the cache is not used.
+ */
+class ConfigurationDefCache {
+
+    /** Environment variable giving the cache directory, the cache is disabled if not set. */
+    static final String CACHE_DIR_VARIABLE = "TF_CONFIG_DEF_CACHE_DIR";
+    private static final int FORMAT_VERSION = 1;
+    /** Fingerprint directories unused for this long are deleted. */
+    private static final long MAX_UNUSED_AGE_MS = TimeUnit.DAYS.toMillis(7);
+
+    private final File mRootDir;
+    private final String mConfigPrefix;
+    private File mCacheDir = null;
+    private boolean mDisabled = false;
+
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicLong mTimeSavedMs = new AtomicLong();
+
+    /**
+     * Creates a cache of the configs with the given classpath prefix.
+     *
+     * @param rootDir the directory holding the entries of every classpath fingerprint
+     * @param configPrefix the path prefix of the config xml files on classpath
+     */
+    ConfigurationDefCache(File rootDir, String configPrefix) {
+        mRootDir = rootDir;
+        mConfigPrefix = configPrefix;
+    }
+
+    /**
+     * Returns the cache root directory given by {@link #CACHE_DIR_VARIABLE}, shared by the Tradefed
+     * processes of the user, or null if the cache is not enabled.
+     */
+    static File getRootDirFromEnv() {
+        String path = System.getenv(CACHE_DIR_VARIABLE);
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        return new File(path);
+    }
+
+    /**
+     * Loads a cached {@link ConfigurationDef}.
+     *
+     * <p>When found, the template names that were resolved while parsing the config are removed
+     * from <var>templateMap</var>, as parsing it would have done.
+     *
+     * @param configName the name of the bundled config or path of the local config
+     * @param isGlobal whether the config is a global configuration
+     * @param templateMap the template map used to load the config, can be null
+     * @return the {@link ConfigurationDef}, or null if it is not cached or no longer valid.
+     */
+    ConfigurationDef load(String configName, boolean isGlobal, Map<String, String> templateMap) {
+        long start = System.currentTimeMillis();
+        String key = getKey(configName, isGlobal, templateMap);
+        File entry = getEntryFile(key);
+        if (entry == null || !entry.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)));
+            if (in.readInt() != FORMAT_VERSION || !key.equals(in.readUTF())) {
+                return null;
+            }
+            long parseTimeMs = in.readLong();
+            Set<String> resolvedTemplates = new HashSet<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                resolvedTemplates.add(in.readUTF());
+            }
+            ConfigurationDef def = ConfigurationDef.readFrom(in);
+            for (Map.Entry<File, Long> source : def.getSourceFiles().entrySet()) {
+                if (source.getKey().lastModified() != source.getValue()) {
+                    CLog.d("Cached config %s is outdated by %s", configName, source.getKey());
+                    return null;
+                }
+            }
+            if (templateMap != null) {
+                templateMap.keySet().removeAll(resolvedTemplates);
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            mHits.incrementAndGet();
+            mTimeSavedMs.addAndGet(Math.max(0, parseTimeMs - elapsed));
+            CLog.d(
+                    "Loaded config %s from the config cache in %d ms (parsed in %d ms)",
+                    configName, elapsed, parseTimeMs);
+            return def;
+        } catch (IOException | RuntimeException e) {
+            CLog.w("Failed to read cached config %s: %s", configName, e.toString());
+            FileUtil.deleteFile(entry);
+            return null;
+        } finally {
+            StreamUtil.close(in);
+        }
+    }
+
+    /**
+     * Stores a freshly parsed {@link ConfigurationDef}.
+     *
+     * @param configName the name of the bundled config or path of the local config
+     * @param isGlobal whether the config is a global configuration
+     * @param templateMap the template map before parsing the config, can be null
+     * @param unresolvedTemplates the template map after parsing the config, can be null
+     * @param def the parsed {@link ConfigurationDef}
+     * @param parseTimeMs the time it took to parse the config
+     */
+    void store(
+            String configName,
+            boolean isGlobal,
+            Map<String, String> templateMap,
+            Map<String, String> unresolvedTemplates,
+            ConfigurationDef def,
+            long parseTimeMs) {
+        String key = getKey(configName, isGlobal, templateMap);
+        File entry = getEntryFile(key);
+        if (entry == null) {
+            return;
+        }
+        List<String> resolvedTemplates = new ArrayList<>();
+        if (templateMap != null) {
+            resolvedTemplates.addAll(templateMap.keySet());
+            if (unresolvedTemplates != null) {
+                resolvedTemplates.removeAll(unresolvedTemplates.keySet());
+            }
+        }
+        File tmpFile = null;
+        DataOutputStream out = null;
+        try {
+            // write then rename, so concurrent processes never read a partial entry
+            tmpFile = FileUtil.createTempFile(entry.getName(), ".tmp", entry.getParentFile());
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(key);
+            out.writeLong(parseTimeMs);
+            out.writeInt(resolvedTemplates.size());
+            for (String template : resolvedTemplates) {
+                out.writeUTF(template);
+            }
+            def.writeTo(out);
+            out.close();
+            if (!tmpFile.renameTo(entry)) {
+                CLog.w("Failed to add %s to the config cache", configName);
+            }
+        } catch (IOException e) {
+            CLog.w("Failed to cache config %s: %s", configName, e.toString());
+        } finally {
+            StreamUtil.close(out);
+            FileUtil.deleteFile(tmpFile);
+        }
+    }
+
+    /** Returns the number of configs loaded from the cache so far. */
+    int getHits() {
+        return mHits.get();
+    }
+
+    /** Returns the parsing time saved so far by loading configs from the cache. */
+    long getTimeSavedMs() {
+        return mTimeSavedMs.get();
+    }
+
+    private static String getKey(
+            String configName, boolean isGlobal, Map<String, String> templateMap) {
+        // sort the templates so that the key does not depend on the map ordering
+        Map<String, String> templates = new TreeMap<>();
+        if (templateMap != null) {
+            templates.putAll(templateMap);
+        }
+        return String.format("%s|%s|%s", isGlobal, configName, templates);
+    }
+
+    /** Returns the file of an entry, or null if the cache directory is not usable. */
+    private File getEntryFile(String key) {
+        File cacheDir = getCacheDir();
+        if (cacheDir == null) {
+            return null;
+        }
+        return new File(cacheDir, hash(key));
+    }
+
+    /**
+     * Returns the directory holding the entries of the current classpath, creating it on first
+     * use, or null if it could not be created or is not private.
+     */
+    private synchronized File getCacheDir() {
+        if (mCacheDir == null && !mDisabled) {
+            File cacheDir = new File(mRootDir, computeClasspathFingerprint());
+            // other users must not be able to add or replace entries
+            if (!FileUtil.mkdirPrivate(mRootDir) || !FileUtil.mkdirPrivate(cacheDir)) {
+                CLog.w("Not using the config cache, %s is not a private directory", cacheDir);
+                mDisabled = true;
+                return null;
+            }
+            // mark the entries of this classpath as used
+            cacheDir.setLastModified(System.currentTimeMillis());
+            deleteUnusedDirs(cacheDir);
+            mCacheDir = cacheDir;
+        }
+        return mCacheDir;
+    }
+
+    /**
+     * Computes a fingerprint of the classpath from the size and modification time of its jars, and
+     * of the config files of its directories.
+     */
+    private String computeClasspathFingerprint() {
+        StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append(FORMAT_VERSION);
+        for (String element : ClassPathScanner.getClassPath()) {
+            File file = new File(element);
+            if (file.isDirectory()) {
+                appendDirFingerprint(fingerprint, new File(file, mConfigPrefix));
+            } else {
+                appendFileFingerprint(fingerprint, file);
+            }
+        }
+        return hash(fingerprint.toString());
+    }
+
+    private static String hash(String value) {
+        try {
+            return StreamUtil.calculateMd5(
+                    new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            // reading from memory cannot fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void appendDirFingerprint(StringBuilder fingerprint, File dir) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                appendDirFingerprint(fingerprint, child);
+            } else {
+                appendFileFingerprint(fingerprint, child);
+            }
+        }
+    }
+
+    private static void appendFileFingerprint(StringBuilder fingerprint, File file) {
+        fingerprint.append(
+                String.format(
+                        "%s:%d:%d;", file.getAbsolutePath(), file.length(), file.lastModified()));
+    }
+
+    /** Deletes the entries of other classpaths that were not used for a while. */
+    private static void deleteUnusedDirs(File currentDir) {
+        File[] dirs = currentDir.getParentFile().listFiles();
+        if (dirs == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (File dir : dirs) {
+            if (!dir.equals(currentDir) && now - dir.lastModified() > MAX_UNUSED_AGE_MS) {
+                FileUtil.recursiveDelete(dir);
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@ import com.android.tradefed.util.DirectedGraph;
 import com.android.tradefed.util.FileUtil;
 import com.android.tradefed.util.StreamUtil;
 import com.android.tradefed.util.SystemUtil;
+import com.android.tradefed.util.TimeUtil;
 import com.android.tradefed.util.keystore.DryRunKeyStore;
 import com.android.tradefed.util.keystore.IKeyStoreClient;
 
@@ -63,6 +64,8 @@ public class ConfigurationFactory implements IConfigurationFactory {
     private static final String CONFIG_ERROR_PATTERN = "(Could not find option with name )(.*)";
 
     private Map<ConfigId, ConfigurationDef> mConfigDefMap;
+    /** On-disk cache of the parsed configs, shared with the other processes. Can be null. */
+    private ConfigurationDefCache mDefCache = null;
 
     /**
      * A simple struct-like class that stores a configuration's name alongside
@@ -267,8 +270,13 @@ public class ConfigurationFactory implements IConfigurationFactory {
             ConfigurationDef def = mConfigDefMap.get(configId);
 
             if (def == null || def.isStale()) {
-                def = new ConfigurationDef(configName);
-                loadConfiguration(configName, def, null, templateMap);
+                def = null;
+                if (mDefCache != null) {
+                    def = mDefCache.load(configName, mIsGlobalConfig, templateMap);
+                }
+                if (def == null) {
+                    def = parseConfigurationDef(configName, templateMap);
+                }
                 mConfigDefMap.put(configId, def);
             } else {
                 if (templateMap != null) {
@@ -280,6 +288,31 @@ public class ConfigurationFactory implements IConfigurationFactory {
             return def;
         }
 
+        /**
+         * Parses a configuration, and adds it to the on-disk cache if there is one.
+         */
+        private ConfigurationDef parseConfigurationDef(
+                String configName, Map<String, String> templateMap)
+                throws ConfigurationException {
+            Map<String, String> templates = null;
+            if (templateMap != null) {
+                templates = new HashMap<>(templateMap);
+            }
+            long start = System.currentTimeMillis();
+            ConfigurationDef def = new ConfigurationDef(configName);
+            loadConfiguration(configName, def, null, templateMap);
+            if (mDefCache != null) {
+                mDefCache.store(
+                        configName,
+                        mIsGlobalConfig,
+                        templates,
+                        templateMap,
+                        def,
+                        System.currentTimeMillis() - start);
+            }
+            return def;
+        }
+
         /**
          * Returns true if it is a config file found inside the classpath.
          */
@@ -357,9 +390,10 @@ public class ConfigurationFactory implements IConfigurationFactory {
                 }
             }
 
-            mConfigGraph.addEdge(parentName, config_name);
             // If the inclusion of configurations is a cycle we throw an exception.
-            if (!mConfigGraph.isDag()) {
+            boolean cycle = mConfigGraph.isReachable(config_name, parentName);
+            mConfigGraph.addEdge(parentName, config_name);
+            if (cycle) {
                 CLog.e("%s", mConfigGraph);
                 throw new ConfigurationException(String.format(
                         "Circular configuration include: config '%s' is already included",
@@ -416,7 +450,13 @@ public class ConfigurationFactory implements IConfigurationFactory {
      */
     public static IConfigurationFactory getInstance() {
         if (sInstance == null) {
-            sInstance = new ConfigurationFactory();
+            ConfigurationFactory factory = new ConfigurationFactory();
+            File cacheDir = ConfigurationDefCache.getRootDirFromEnv();
+            if (cacheDir != null) {
+                factory.setConfigurationDefCache(
+                        new ConfigurationDefCache(cacheDir, CONFIG_PREFIX));
+            }
+            sInstance = factory;
         }
         return sInstance;
     }
@@ -669,6 +709,12 @@ public class ConfigurationFactory implements IConfigurationFactory {
                 failed = true;
             }
         }
+        if (mDefCache != null && mDefCache.getHits() > 0) {
+            CLog.d(
+                    "%d configs loaded from the config cache, saving %s of parsing",
+                    mDefCache.getHits(),
+                    TimeUtil.formatElapsedTime(mDefCache.getTimeSavedMs()));
+        }
         if (failed) {
             if (discardExceptions) {
                 CLog.e("Failure loading configs");
@@ -824,6 +870,15 @@ public class ConfigurationFactory implements IConfigurationFactory {
         return new HashMap<ConfigId, ConfigurationDef>(mConfigDefMap);
     }
 
+    /**
+     * Sets the on-disk cache of the parsed configs, or null to parse every config. Exposed for
+     * testing.
+     */
+    @VisibleForTesting
+    void setConfigurationDefCache(ConfigurationDefCache defCache) {
+        mDefCache = defCache;
+    }
+
     /** In some particular case, we need to clear the map. */
     @VisibleForTesting
     public void clearMapConfig() {
@@ -92,7 +92,7 @@ public class ConfigurationUtil {
     @SuppressWarnings({"rawtypes", "unchecked"})
     private static void dumpOptionsToXml(KXmlSerializer serializer, Object obj) throws IOException {
         for (Field field : OptionSetter.getOptionFieldsForClass(obj.getClass())) {
-            Option option = field.getAnnotation(Option.class);
+            Option option = OptionSetter.getOption(field);
             Object fieldVal = OptionSetter.getFieldValue(field, obj);
             if (fieldVal == null) {
                 continue;
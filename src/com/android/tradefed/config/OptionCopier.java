@@ -20,6 +20,7 @@ import com.android.tradefed.log.LogUtil.CLog;
 
 import java.lang.reflect.Field;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -29,6 +30,15 @@ import java.util.Map;
  */
 public class OptionCopier {
 
+    /** The {@link Option#name()} to {@link Field} map of each class, computed once per class. */
+    private static final ClassValue<Map<String, Field>> FIELD_OPTION_MAPS =
+            new ClassValue<Map<String, Field>>() {
+                @Override
+                protected Map<String, Field> computeValue(Class<?> type) {
+                    return getFieldOptionMap(type);
+                }
+            };
+
     /**
      * Copy the values from {@link Option} fields in <var>origObject</var> to <var>destObject</var>
      *
@@ -39,9 +49,10 @@ public class OptionCopier {
     public static void copyOptions(Object origObject, Object destObject)
             throws ConfigurationException {
         Collection<Field> origFields = OptionSetter.getOptionFieldsForClass(origObject.getClass());
-        Map<String, Field> destFieldMap = getFieldOptionMap(destObject);
+        Map<String, Field> destFieldMap =
+                new HashMap<String, Field>(FIELD_OPTION_MAPS.get(destObject.getClass()));
         for (Field origField : origFields) {
-            final Option option = origField.getAnnotation(Option.class);
+            final Option option = OptionSetter.getOption(origField);
             Field destField = destFieldMap.remove(option.name());
             if (destField != null) {
                 Object origValue = OptionSetter.getFieldValue(origField,
@@ -64,18 +75,18 @@ public class OptionCopier {
     }
 
     /**
-     * Build a map of {@link Option#name()} to {@link Field} for given {@link Object}.
+     * Build a map of {@link Option#name()} to {@link Field} for given {@link Class}.
      *
-     * @param destObject
-     * @return a {@link Map}
+     * @param destClass
+     * @return an unmodifiable {@link Map}
      */
-    private static Map<String, Field> getFieldOptionMap(Object destObject) {
-        Collection<Field> destFields = OptionSetter.getOptionFieldsForClass(destObject.getClass());
+    private static Map<String, Field> getFieldOptionMap(Class<?> destClass) {
+        Collection<Field> destFields = OptionSetter.getOptionFieldsForClass(destClass);
         Map<String, Field> fieldMap = new HashMap<String, Field>(destFields.size());
         for (Field field : destFields) {
-            Option o = field.getAnnotation(Option.class);
+            Option o = OptionSetter.getOption(field);
             fieldMap.put(o.name(), field);
         }
-        return fieldMap;
+        return Collections.unmodifiableMap(fieldMap);
     }
 }
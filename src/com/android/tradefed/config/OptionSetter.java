@@ -32,9 +32,11 @@ import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -66,6 +68,18 @@ public class OptionSetter {
 
     static final String BOOL_FALSE_PREFIX = "no-";
     private static final HashMap<Class<?>, Handler> handlers = new HashMap<Class<?>, Handler>();
+    /**
+     * The {@link Option} fields of each class mapped to their annotation. Computed once per class,
+     * since walking the class hierarchy for every object set or copied is a hotspot when cloning
+     * many configurations.
+     */
+    private static final ClassValue<Map<Field, Option>> OPTION_FIELDS =
+            new ClassValue<Map<Field, Option>>() {
+                @Override
+                protected Map<Field, Option> computeValue(Class<?> type) {
+                    return buildOptionFieldsForClass(type);
+                }
+            };
     static final char NAMESPACE_SEPARATOR = ':';
     static final Pattern USE_KEYSTORE_REGEX = Pattern.compile("USE_KEYSTORE@(.*)");
     private IKeyStoreClient mKeyStoreClient = null;
@@ -200,7 +214,7 @@ public class OptionSetter {
     private Handler getHandlerOrTimeVal(Field field, Object optionSource)
             throws ConfigurationException {
         // Do some magic to distinguish TimeVal long fields from normal long fields
-        final Option option = field.getAnnotation(Option.class);
+        final Option option = getOption(field);
         if (option == null) {
             // Shouldn't happen, but better to check.
             throw new ConfigurationException(String.format(
@@ -498,7 +512,7 @@ public class OptionSetter {
                     throw new ConfigurationException(String.format(
                             "Key not applicable when setting non-map field '%s'", field.getName()));
                 }
-                final Option option = field.getAnnotation(Option.class);
+                final Option option = getOption(field);
                 if (option == null) {
                     // By virtue of us having gotten here, this should never happen.  But better
                     // safe than sorry
@@ -602,8 +616,15 @@ public class OptionSetter {
             Map<String, OptionFieldsForName> optionMap, Integer index, String deviceName)
             throws ConfigurationException {
         Collection<Field> optionFields = getOptionFieldsForClass(optionSource.getClass());
+        // Allow classes to opt out of the global Option namespace
+        boolean addToGlobalNamespace = true;
+        final OptionClass classAnnotation = optionSource.getClass().getAnnotation(
+                OptionClass.class);
+        if (classAnnotation != null) {
+            addToGlobalNamespace = classAnnotation.global_namespace();
+        }
         for (Field field : optionFields) {
-            final Option option = field.getAnnotation(Option.class);
+            final Option option = getOption(field);
             if (option.name().indexOf(NAMESPACE_SEPARATOR) != -1) {
                 throw new ConfigurationException(String.format(
                         "Option name '%s' in class '%s' is invalid. " +
@@ -635,14 +656,6 @@ public class OptionSetter {
                 }
             }
 
-            // Allow classes to opt out of the global Option namespace
-            boolean addToGlobalNamespace = true;
-            if (optionSource.getClass().isAnnotationPresent(OptionClass.class)) {
-                final OptionClass classAnnotation = optionSource.getClass().getAnnotation(
-                        OptionClass.class);
-                addToGlobalNamespace = classAnnotation.global_namespace();
-            }
-
             if (addToGlobalNamespace) {
                 addNameToMap(optionMap, optionSource, option.name(), field);
                 if (deviceName != null) {
@@ -698,7 +711,7 @@ public class OptionSetter {
             for (Map.Entry<Object, Field> fieldEntry : optionFields) {
                 final Object obj = fieldEntry.getKey();
                 final Field field = fieldEntry.getValue();
-                final Option option = field.getAnnotation(Option.class);
+                final Option option = getOption(field);
                 if (option == null) {
                     continue;
                 } else if (!option.mandatory()) {
@@ -746,29 +759,45 @@ public class OptionSetter {
      * @return a {@link Collection} of fields annotated with {@link Option}
      */
     static Collection<Field> getOptionFieldsForClass(final Class<?> optionClass) {
-        Collection<Field> fieldList = new ArrayList<Field>();
-        buildOptionFieldsForClass(optionClass, fieldList);
-        return fieldList;
+        return OPTION_FIELDS.get(optionClass).keySet();
     }
 
     /**
-     * Recursive method that adds all option fields (both declared and inherited) to the
-     * <var>optionFields</var> for provided <var>optionClass</var>
+     * Returns the {@link Option} annotation of the given field, from the per-class cache when the
+     * field is an option field.
+     *
+     * @param field the {@link Field}
+     * @return the {@link Option} of the field, or <code>null</code> if the field is not annotated
+     */
+    static Option getOption(Field field) {
+        Option option = OPTION_FIELDS.get(field.getDeclaringClass()).get(field);
+        if (option == null) {
+            option = field.getAnnotation(Option.class);
+        }
+        return option;
+    }
+
+    /**
+     * Builds the option fields (both declared and inherited) of the provided <var>optionClass</var>
+     * mapped to their {@link Option}, declared fields first.
      *
      * @param optionClass
-     * @param optionFields
+     * @return an unmodifiable {@link Map}
      */
-    private static void buildOptionFieldsForClass(final Class<?> optionClass,
-            Collection<Field> optionFields) {
+    private static Map<Field, Option> buildOptionFieldsForClass(final Class<?> optionClass) {
+        Map<Field, Option> optionFields = new LinkedHashMap<>();
         for (Field field : optionClass.getDeclaredFields()) {
-            if (field.isAnnotationPresent(Option.class)) {
-                optionFields.add(field);
+            Option option = field.getAnnotation(Option.class);
+            if (option != null) {
+                field.setAccessible(true);
+                optionFields.put(field, option);
             }
         }
         Class<?> superClass = optionClass.getSuperclass();
         if (superClass != null) {
-            buildOptionFieldsForClass(superClass, optionFields);
+            optionFields.putAll(OPTION_FIELDS.get(superClass));
         }
+        return Collections.unmodifiableMap(optionFields);
     }
 
     /**
@@ -0,0 +1,532 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.device;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.CommandStatus;
+import com.android.tradefed.util.HostThreadFactory;
+import com.android.tradefed.util.IRunUtil;
+import com.android.tradefed.util.StreamUtil;
+import com.android.tradefed.util.TimeUtil;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transfers whole directories between the host and a device in bulk, instead of one adb round
+ * trip per file and directory.
+ *
+ * <p>When the device has tar, the directory is streamed as a tar archive through a single adb
+ * connection and packed or unpacked on the device. Otherwise, or if the tar transfer fails, the
+ * files are transferred over several sync connections in parallel. The number of files, bytes
+ * and the rate of each transfer are logged.
+ */
+class BulkDirTransfer {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Keep the shell commands creating directories well under the adb command size limit. */
+    private static final int MAX_COMMAND_LENGTH = 1000;
+
+    /** Statistics of a directory transfer. */
+    static class TransferStats {
+        private final long mFiles;
+        private final long mBytes;
+        private final long mElapsedMs;
+
+        TransferStats(long files, long bytes, long elapsedMs) {
+            mFiles = files;
+            mBytes = bytes;
+            mElapsedMs = elapsedMs;
+        }
+
+        public long getFiles() {
+            return mFiles;
+        }
+
+        public long getBytes() {
+            return mBytes;
+        }
+
+        public long getElapsedMs() {
+            return mElapsedMs;
+        }
+
+        public long getBytesPerSecond() {
+            return mBytes * 1000 / Math.max(1, mElapsedMs);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%d files, %d bytes in %s (%d KB/s)",
+                    mFiles,
+                    mBytes,
+                    TimeUtil.formatElapsedTime(mElapsedMs),
+                    getBytesPerSecond() / 1024);
+        }
+    }
+
+    private final NativeDevice mDevice;
+    private TransferStats mLastStats = null;
+
+    BulkDirTransfer(NativeDevice device) {
+        mDevice = device;
+    }
+
+    /** Returns the statistics of the last transfer, null if none completed. */
+    TransferStats getLastStats() {
+        return mLastStats;
+    }
+
+    /**
+     * Push the content of a local directory into a device directory, created if needed.
+     *
+     * @return True if all the files were pushed, False otherwise.
+     */
+    boolean push(File localDir, String deviceDir) throws DeviceNotAvailableException {
+        deviceDir = mDevice.interpolatePathVariables(deviceDir);
+        long start = System.currentTimeMillis();
+        AtomicLong files = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        boolean tar = hasTar();
+        if (tar && !pushTar(localDir, deviceDir, files, bytes)) {
+            CLog.w("Falling back to parallel sync to push %s", localDir.getAbsolutePath());
+            tar = false;
+            files.set(0);
+            bytes.set(0);
+        }
+        boolean result = tar || pushParallel(localDir, deviceDir, files, bytes);
+        return logStats(result, "Pushed", tar, localDir.getAbsolutePath(), deviceDir,
+                files, bytes, start);
+    }
+
+    /**
+     * Pull the content of a device directory into a local directory.
+     *
+     * @return True if all the files were pulled, False otherwise.
+     */
+    boolean pull(String deviceDir, File localDir) throws DeviceNotAvailableException {
+        deviceDir = mDevice.interpolatePathVariables(deviceDir);
+        long start = System.currentTimeMillis();
+        AtomicLong files = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        boolean tar = hasTar();
+        if (tar && !pullTar(deviceDir, localDir, files, bytes)) {
+            CLog.w("Falling back to parallel sync to pull %s", deviceDir);
+            tar = false;
+            files.set(0);
+            bytes.set(0);
+        }
+        boolean result = tar || pullParallel(deviceDir, localDir, files, bytes);
+        return logStats(result, "Pulled", tar, deviceDir, localDir.getAbsolutePath(),
+                files, bytes, start);
+    }
+
+    private boolean logStats(boolean result, String action, boolean tar, String from,
+            String to, AtomicLong files, AtomicLong bytes, long start) {
+        if (!result) {
+            CLog.w("Failed to transfer %s to %s on %s in bulk", from, to,
+                    mDevice.getSerialNumber());
+            return false;
+        }
+        mLastStats = new TransferStats(files.get(), bytes.get(),
+                System.currentTimeMillis() - start);
+        CLog.i("%s %s to %s on %s with %s: %s", action, from, to, mDevice.getSerialNumber(),
+                tar ? "tar" : "parallel sync", mLastStats);
+        return true;
+    }
+
+    /** Returns True if the device can pack and unpack tar archives. */
+    @VisibleForTesting
+    boolean hasTar() throws DeviceNotAvailableException {
+        String output = mDevice.executeShellCommand("tar --help > /dev/null 2>&1 && echo ok");
+        return output != null && output.trim().equals("ok");
+    }
+
+    /** Returns the number of regular files in a device directory, or -1 if unknown. */
+    private long countDeviceFiles(String deviceDir) throws DeviceNotAvailableException {
+        String output = mDevice.executeShellCommand(
+                String.format("find %s -type f | wc -l", quote(deviceDir)));
+        try {
+            return Long.parseLong(output.trim());
+        } catch (NumberFormatException e) {
+            CLog.w("Could not count the files in %s: %s", deviceDir, output);
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the paths of the regular files in a device directory, relative to it, or null if
+     * they could not be listed.
+     */
+    private Set<String> listDeviceFiles(String deviceDir) throws DeviceNotAvailableException {
+        String output = mDevice.executeShellCommand(
+                String.format("cd %s && find . -type f", quote(deviceDir)));
+        if (output == null) {
+            return null;
+        }
+        Set<String> deviceFiles = new HashSet<>();
+        for (String line : output.split("\r?\n")) {
+            if (line.startsWith("./")) {
+                deviceFiles.add(line.substring(2));
+            }
+        }
+        return deviceFiles;
+    }
+
+    private boolean pushTar(final File localDir, String deviceDir, final AtomicLong files,
+            final AtomicLong bytes) throws DeviceNotAvailableException {
+        final List<String> pushed = new ArrayList<>();
+        final List<String> command = Arrays.asList(mDevice.buildAdbCommand("exec-in",
+                String.format("mkdir -p %s && tar -xf - -C %s", quote(deviceDir),
+                        quote(deviceDir))));
+        final ByteArrayOutputStream adbOutput = new ByteArrayOutputStream();
+        StreamTransfer transfer = new StreamTransfer() {
+            @Override
+            public boolean run() throws Exception {
+                mProcess = mDevice.getRunUtil().runCmdInBackground(command, adbOutput);
+                try (TarArchiveOutputStream out = new TarArchiveOutputStream(
+                        new BufferedOutputStream(mProcess.getOutputStream(), BUFFER_SIZE))) {
+                    out.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+                    out.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+                    addToTar(out, localDir, "", pushed, bytes);
+                }
+                return mProcess.waitFor() == 0;
+            }
+        };
+        if (!runTransfer(transfer)) {
+            CLog.w("tar push failed: %s", adbOutput.toString());
+            return false;
+        }
+        files.set(pushed.size());
+        // adb exec-in does not report the status of the command, so check the files are there.
+        Set<String> deviceFiles = listDeviceFiles(deviceDir);
+        if (deviceFiles == null) {
+            CLog.w("Could not list the files in %s after pushing them", deviceDir);
+            return false;
+        }
+        for (String file : pushed) {
+            if (!deviceFiles.contains(file)) {
+                CLog.w("%s not found in %s after pushing %d files", file, deviceDir,
+                        pushed.size());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addToTar(TarArchiveOutputStream out, File dir, String prefix,
+            List<String> files, AtomicLong bytes) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            throw new IOException(String.format("Could not read files in %s",
+                    dir.getAbsolutePath()));
+        }
+        for (File child : children) {
+            String name = prefix + child.getName();
+            if (child.isDirectory()) {
+                out.putArchiveEntry(new TarArchiveEntry(child, name + "/"));
+                out.closeArchiveEntry();
+                addToTar(out, child, name + "/", files, bytes);
+            } else if (child.isFile()) {
+                TarArchiveEntry entry = new TarArchiveEntry(child, name);
+                out.putArchiveEntry(entry);
+                try (InputStream in = new FileInputStream(child)) {
+                    StreamUtil.copyStreams(in, out);
+                }
+                bytes.addAndGet(entry.getSize());
+                out.closeArchiveEntry();
+                files.add(name);
+            }
+        }
+    }
+
+    private boolean pullTar(String deviceDir, final File localDir, final AtomicLong files,
+            final AtomicLong bytes) throws DeviceNotAvailableException {
+        long deviceFiles = countDeviceFiles(deviceDir);
+        // errors are dropped so they can't corrupt the archive, the file count catches them.
+        final List<String> command = Arrays.asList(mDevice.buildAdbCommand("exec-out",
+                String.format("tar -cf - -C %s . 2>/dev/null", quote(deviceDir))));
+        StreamTransfer transfer = new StreamTransfer() {
+            @Override
+            public boolean run() throws Exception {
+                mProcess = mDevice.getRunUtil().runCmdInBackground(command);
+                mProcess.getOutputStream().close();
+                try (TarArchiveInputStream in = new TarArchiveInputStream(
+                        new BufferedInputStream(mProcess.getInputStream(), BUFFER_SIZE))) {
+                    extractTar(in, localDir, files, bytes);
+                }
+                return mProcess.waitFor() == 0;
+            }
+        };
+        if (!runTransfer(transfer)) {
+            return false;
+        }
+        if (deviceFiles >= 0 && deviceFiles != files.get()) {
+            CLog.w("Pulled %d files from %s, expected %d", files.get(), deviceDir, deviceFiles);
+            return false;
+        }
+        return true;
+    }
+
+    private void extractTar(TarArchiveInputStream in, File localDir, AtomicLong files,
+            AtomicLong bytes) throws IOException {
+        String root = localDir.getCanonicalPath() + File.separator;
+        TarArchiveEntry entry = null;
+        while ((entry = in.getNextTarEntry()) != null) {
+            File dest = new File(localDir, entry.getName());
+            if (!(dest.getCanonicalPath() + File.separator).startsWith(root)) {
+                throw new IOException(String.format("Invalid tar entry %s", entry.getName()));
+            }
+            if (entry.isDirectory()) {
+                if (!dest.isDirectory() && !dest.mkdirs()) {
+                    throw new IOException(String.format("Could not create directory %s",
+                            dest.getAbsolutePath()));
+                }
+            } else if (entry.isFile()) {
+                dest.getParentFile().mkdirs();
+                try (OutputStream out =
+                        new BufferedOutputStream(new FileOutputStream(dest), BUFFER_SIZE)) {
+                    StreamUtil.copyStreams(in, out);
+                }
+                bytes.addAndGet(entry.getSize());
+                files.incrementAndGet();
+            } else {
+                // links and special files are not pulled by the per file transfer either.
+                CLog.d("Skipping %s, not a file nor a directory", entry.getName());
+            }
+        }
+    }
+
+    /** A transfer streaming data to or from an adb process. */
+    private abstract static class StreamTransfer implements IRunUtil.IRunnableResult {
+        protected volatile Process mProcess = null;
+
+        @Override
+        public void cancel() {
+            if (mProcess != null) {
+                mProcess.destroy();
+            }
+        }
+    }
+
+    private boolean runTransfer(StreamTransfer transfer) {
+        CommandStatus status = mDevice.getRunUtil().runTimed(
+                mDevice.getLongCommandTimeout(), transfer, true);
+        // make sure the process does not outlive a failed or timed out transfer.
+        transfer.cancel();
+        return CommandStatus.SUCCESS.equals(status);
+    }
+
+    private boolean pushParallel(File localDir, String deviceDir, AtomicLong files,
+            final AtomicLong bytes) throws DeviceNotAvailableException {
+        List<String> deviceDirs = new ArrayList<>();
+        final List<File> localFiles = new ArrayList<>();
+        final List<String> deviceFiles = new ArrayList<>();
+        deviceDirs.add(deviceDir);
+        if (!listLocal(localDir, deviceDir, deviceDirs, localFiles, deviceFiles)) {
+            return false;
+        }
+        // create all the directories with a few commands instead of one per directory
+        StringBuilder mkdir = new StringBuilder();
+        for (String dir : deviceDirs) {
+            mkdir.append(' ').append(quote(dir));
+            if (mkdir.length() > MAX_COMMAND_LENGTH) {
+                mDevice.executeShellCommand("mkdir -p" + mkdir);
+                mkdir.setLength(0);
+            }
+        }
+        if (mkdir.length() > 0) {
+            mDevice.executeShellCommand("mkdir -p" + mkdir);
+        }
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (int i = 0; i < localFiles.size(); i++) {
+            final File localFile = localFiles.get(i);
+            final String deviceFile = deviceFiles.get(i);
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws DeviceNotAvailableException {
+                    if (!mDevice.pushFile(localFile, deviceFile)) {
+                        return false;
+                    }
+                    bytes.addAndGet(localFile.length());
+                    return true;
+                }
+            });
+        }
+        files.set(tasks.size());
+        return runParallel(tasks);
+    }
+
+    private boolean listLocal(File localDir, String deviceDir, List<String> deviceDirs,
+            List<File> localFiles, List<String> deviceFiles) {
+        File[] children = localDir.listFiles();
+        if (children == null) {
+            CLog.e("Could not read files in %s", localDir.getAbsolutePath());
+            return false;
+        }
+        for (File child : children) {
+            String devicePath = String.format("%s/%s", deviceDir, child.getName());
+            if (child.isDirectory()) {
+                deviceDirs.add(devicePath);
+                if (!listLocal(child, devicePath, deviceDirs, localFiles, deviceFiles)) {
+                    return false;
+                }
+            } else if (child.isFile()) {
+                localFiles.add(child);
+                deviceFiles.add(devicePath);
+            }
+        }
+        return true;
+    }
+
+    private boolean pullParallel(String deviceDir, File localDir, AtomicLong files,
+            final AtomicLong bytes) throws DeviceNotAvailableException {
+        final List<String> deviceFiles = new ArrayList<>();
+        final List<File> localFiles = new ArrayList<>();
+        if (!listDevice(deviceDir, localDir, deviceFiles, localFiles)) {
+            return false;
+        }
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (int i = 0; i < deviceFiles.size(); i++) {
+            final String deviceFile = deviceFiles.get(i);
+            final File localFile = localFiles.get(i);
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws DeviceNotAvailableException {
+                    if (!mDevice.pullFile(deviceFile, localFile)) {
+                        return false;
+                    }
+                    bytes.addAndGet(localFile.length());
+                    return true;
+                }
+            });
+        }
+        files.set(tasks.size());
+        return runParallel(tasks);
+    }
+
+    /** List the files of a device directory, creating the matching local directories. */
+    private boolean listDevice(String deviceDir, File localDir, List<String> deviceFiles,
+            List<File> localFiles) throws DeviceNotAvailableException {
+        String lsOutput = mDevice.executeShellCommand(String.format("ls -Ap1 %s",
+                quote(deviceDir)));
+        for (String item : lsOutput.split("\r?\n")) {
+            if (item.isEmpty()) {
+                continue;
+            }
+            if (item.endsWith("/")) {
+                item = item.substring(0, item.length() - 1);
+                File subDir = new File(localDir, item);
+                if (!subDir.isDirectory() && !subDir.mkdir()) {
+                    CLog.w("Failed to create sub directory %s", subDir.getAbsolutePath());
+                    return false;
+                }
+                if (!listDevice(String.format("%s/%s", deviceDir, item), subDir, deviceFiles,
+                        localFiles)) {
+                    return false;
+                }
+            } else {
+                deviceFiles.add(String.format("%s/%s", deviceDir, item));
+                localFiles.add(new File(localDir, item));
+            }
+        }
+        return true;
+    }
+
+    /** Run the transfers on several connections, stopping at the first failure. */
+    private boolean runParallel(List<Callable<Boolean>> tasks)
+            throws DeviceNotAvailableException {
+        if (tasks.isEmpty()) {
+            return true;
+        }
+        int connections = Math.max(1, Math.min(tasks.size(),
+                mDevice.getOptions().getBulkDirTransferConnections()));
+        ExecutorService executor = Executors.newFixedThreadPool(connections,
+                new HostThreadFactory("BulkDirTransfer-"));
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (Callable<Boolean> task : tasks) {
+                results.add(executor.submit(HostThreadFactory.wrap(task)));
+            }
+            for (Future<Boolean> result : results) {
+                if (!result.get()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DeviceNotAvailableException) {
+                throw (DeviceNotAvailableException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+            awaitWorkers(executor);
+        }
+    }
+
+    /**
+     * Wait for the transfers still running to finish, so that no push or pull (and no device
+     * recovery it triggers) is left running once the transfer returns.
+     */
+    private static void awaitWorkers(ExecutorService executor) {
+        boolean interrupted = false;
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Quote a device path for the shell. */
+    static String quote(String path) {
+        return "'" + path.replace("'", "'\\''") + "'";
+    }
+}
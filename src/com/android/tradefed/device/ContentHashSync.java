@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.device;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.TimeUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Syncs a local directory to a device by comparing file contents rather than timestamps.
+ *
+ * <p>The device tree is listed with a single batched stat command. Files whose size differs or
+ * which are missing are pushed. Files whose size and modification time on the device match the
+ * {@link DeviceSyncManifest} are compared with the recorded md5. The remaining files are hashed
+ * on the device with batched md5sum commands, and only pushed if the content differs.
+ */
+class ContentHashSync {
+
+    /** Keep the batched shell commands well under the adb command size limit. */
+    private static final int MAX_COMMAND_LENGTH = 4000;
+
+    private final NativeDevice mDevice;
+
+    ContentHashSync(NativeDevice device) {
+        mDevice = device;
+    }
+
+    /**
+     * Sync the content of a local directory into a device directory, created if needed. Hidden
+     * files are ignored, and device files that do not exist locally are left untouched.
+     *
+     * @return True if all the changed files were pushed, False otherwise.
+     */
+    boolean sync(File localDir, String deviceDir) throws DeviceNotAvailableException {
+        long start = System.currentTimeMillis();
+        Map<String, File> localFiles = new LinkedHashMap<>();
+        if (!listLocal(localDir, deviceDir, localFiles)) {
+            return false;
+        }
+        Map<String, long[]> deviceStats = statDeviceFiles(
+                String.format("find %s -type f -exec stat -c '%%s %%Y %%n' {} + 2>/dev/null",
+                        BulkDirTransfer.quote(deviceDir)));
+        DeviceSyncManifest manifest = DeviceSyncManifest.get(mDevice.getSerialNumber());
+        List<String> toPush = new ArrayList<>();
+        List<String> toHash = new ArrayList<>();
+        try {
+            for (Map.Entry<String, File> localFile : localFiles.entrySet()) {
+                String devicePath = localFile.getKey();
+                long[] stat = deviceStats.get(devicePath);
+                if (stat == null || stat[0] != localFile.getValue().length()) {
+                    manifest.removeEntry(devicePath);
+                    toPush.add(devicePath);
+                    continue;
+                }
+                DeviceSyncManifest.Entry recorded = manifest.getEntry(devicePath);
+                if (recorded != null && recorded.mSize == stat[0]
+                        && recorded.mModified == stat[1]) {
+                    if (!recorded.mMd5.equals(
+                            DeviceSyncManifest.getLocalMd5(localFile.getValue()))) {
+                        toPush.add(devicePath);
+                    }
+                } else {
+                    toHash.add(devicePath);
+                }
+            }
+            Map<String, String> deviceHashes = hashDeviceFiles(toHash);
+            for (String devicePath : toHash) {
+                String md5 = DeviceSyncManifest.getLocalMd5(localFiles.get(devicePath));
+                if (md5.equals(deviceHashes.get(devicePath))) {
+                    long[] stat = deviceStats.get(devicePath);
+                    manifest.putEntry(devicePath,
+                            new DeviceSyncManifest.Entry(stat[0], stat[1], md5));
+                } else {
+                    toPush.add(devicePath);
+                }
+            }
+            if (!push(localDir, deviceDir, localFiles, toPush, deviceStats.isEmpty())) {
+                return false;
+            }
+            recordPushed(localFiles, toPush, manifest);
+        } catch (IOException e) {
+            CLog.e("Failed to hash the files of %s", localDir.getAbsolutePath());
+            CLog.e(e);
+            return false;
+        }
+        CLog.i("Synced %d of %d files to %s on %s in %s, %d verified by hash on the device",
+                toPush.size(), localFiles.size(), deviceDir, mDevice.getSerialNumber(),
+                TimeUtil.formatElapsedTime(System.currentTimeMillis() - start), toHash.size());
+        return true;
+    }
+
+    /** List the non hidden local files recursively, keyed by their device path. */
+    private boolean listLocal(File localDir, String deviceDir, Map<String, File> localFiles) {
+        File[] children = localDir.listFiles();
+        if (children == null) {
+            CLog.e("Could not read files in %s", localDir.getAbsolutePath());
+            return false;
+        }
+        for (File child : children) {
+            if (child.getName().startsWith(".")) {
+                continue;
+            }
+            String devicePath = String.format("%s/%s", deviceDir, child.getName());
+            if (child.isDirectory()) {
+                if (!listLocal(child, devicePath, localFiles)) {
+                    return false;
+                }
+            } else if (child.isFile()) {
+                localFiles.put(devicePath, child);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Push the changed files. When nothing exists on the device yet and bulk transfers are
+     * enabled, the whole directory is pushed at once instead.
+     */
+    private boolean push(File localDir, String deviceDir, Map<String, File> localFiles,
+            List<String> toPush, boolean deviceEmpty) throws DeviceNotAvailableException {
+        if (toPush.isEmpty()) {
+            return true;
+        }
+        if (deviceEmpty && mDevice.getOptions().isBulkDirTransferEnabled()) {
+            return mDevice.pushDir(localDir, deviceDir);
+        }
+        Set<String> parents = new LinkedHashSet<>();
+        for (String devicePath : toPush) {
+            parents.add(devicePath.substring(0, devicePath.lastIndexOf('/')));
+        }
+        runBatched("mkdir -p", parents);
+        for (String devicePath : toPush) {
+            if (!mDevice.pushFile(localFiles.get(devicePath), devicePath)) {
+                CLog.e("Failed to push %s to %s", localFiles.get(devicePath), devicePath);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Record the device state of the pushed files in the manifest. */
+    private void recordPushed(Map<String, File> localFiles, List<String> pushed,
+            DeviceSyncManifest manifest) throws DeviceNotAvailableException, IOException {
+        if (pushed.isEmpty()) {
+            return;
+        }
+        Map<String, long[]> stats = statDeviceFiles(runBatched("stat -c '%s %Y %n'", pushed));
+        for (String devicePath : pushed) {
+            long[] stat = stats.get(devicePath);
+            File localFile = localFiles.get(devicePath);
+            if (stat != null && stat[0] == localFile.length()) {
+                manifest.putEntry(devicePath, new DeviceSyncManifest.Entry(stat[0], stat[1],
+                        DeviceSyncManifest.getLocalMd5(localFile)));
+            }
+        }
+    }
+
+    /**
+     * Parse the output of a 'stat -c "%s %Y %n"' command.
+     *
+     * @return the size and modification time of the files, keyed by device path.
+     */
+    private Map<String, long[]> statDeviceFiles(String output) {
+        Map<String, long[]> stats = new HashMap<>();
+        for (String line : output.split("\r?\n")) {
+            String[] parts = line.split(" ", 3);
+            if (parts.length != 3) {
+                continue;
+            }
+            try {
+                stats.put(parts[2],
+                        new long[] {Long.parseLong(parts[0]), Long.parseLong(parts[1])});
+            } catch (NumberFormatException e) {
+                CLog.d("Ignoring unexpected stat output: %s", line);
+            }
+        }
+        return stats;
+    }
+
+    /** Returns the md5 of the given device files, keyed by device path. */
+    private Map<String, String> hashDeviceFiles(Collection<String> devicePaths)
+            throws DeviceNotAvailableException {
+        Map<String, String> hashes = new HashMap<>();
+        if (devicePaths.isEmpty()) {
+            return hashes;
+        }
+        String output = runBatched("md5sum", devicePaths);
+        for (String line : output.split("\r?\n")) {
+            // md5sum separates the hash and the path with two spaces
+            String[] parts = line.split("  ", 2);
+            if (parts.length == 2) {
+                hashes.put(parts[1], parts[0].trim().toLowerCase());
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Run a command taking device paths as arguments, as few times as possible.
+     *
+     * @return the concatenated output of the commands.
+     */
+    private String runBatched(String command, Collection<String> devicePaths)
+            throws DeviceNotAvailableException {
+        StringBuilder output = new StringBuilder();
+        StringBuilder batch = new StringBuilder(command);
+        for (String devicePath : devicePaths) {
+            batch.append(' ').append(BulkDirTransfer.quote(devicePath));
+            if (batch.length() > MAX_COMMAND_LENGTH) {
+                output.append(mDevice.executeShellCommand(batch + " 2>/dev/null"));
+                output.append('\n');
+                batch = new StringBuilder(command);
+            }
+        }
+        if (batch.length() > command.length()) {
+            output.append(mDevice.executeShellCommand(batch + " 2>/dev/null"));
+            output.append('\n');
+        }
+        return output.toString();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.device;
+
+import com.android.tradefed.device.IManagedTestDevice.DeviceEventResponse;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the last known {@link DeviceAllocationState} of each device held by {@link
+ * ManagedDeviceList}.
+ *
+ * <p>The index is only fed by the allocation events that go through {@link ManagedDeviceList}, so
+ * it allows allocation to skip devices that are known to be allocated without evaluating the
+ * {@link IDeviceSelection} against them (which can require querying the device for properties and
+ * battery level).
+ */
+class DeviceAllocationIndex {
+
+    private final Map<IManagedTestDevice, DeviceAllocationState> mStates =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Record the result of an allocation event for a device.
+     *
+     * @param device the {@link IManagedTestDevice} that handled the event.
+     * @param response the {@link DeviceEventResponse} returned by the device, can be null.
+     */
+    void update(IManagedTestDevice device, DeviceEventResponse response) {
+        if (response == null || response.allocationState == null) {
+            return;
+        }
+        if (DeviceAllocationState.Unknown.equals(response.allocationState)) {
+            mStates.remove(device);
+        } else {
+            mStates.put(device, response.allocationState);
+        }
+    }
+
+    /** Forget everything known about a device. */
+    void remove(IManagedTestDevice device) {
+        if (device != null) {
+            mStates.remove(device);
+        }
+    }
+
+    /** Forget everything known about all devices. */
+    void clear() {
+        mStates.clear();
+    }
+
+    /**
+     * Returns true if the device is known to be allocated, and therefore cannot be a candidate for
+     * a new allocation.
+     */
+    boolean isAllocated(IManagedTestDevice device) {
+        return DeviceAllocationState.Allocated.equals(mStates.get(device));
+    }
+}
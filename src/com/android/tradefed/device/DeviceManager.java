@@ -483,7 +483,8 @@ public class DeviceManager implements IDeviceManager {
         checkInit();
         IManagedTestDevice d = mManagedDeviceList.findOrCreate(new StubDevice(serial, false));
         if (d != null) {
-            DeviceEventResponse r = d.handleAllocationEvent(DeviceEvent.FORCE_ALLOCATE_REQUEST);
+            DeviceEventResponse r =
+                    mManagedDeviceList.handleDeviceEvent(d, DeviceEvent.FORCE_ALLOCATE_REQUEST);
             if (r.stateChanged && r.allocationState == DeviceAllocationState.Allocated) {
                 return d;
             }
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.device;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A cache of the properties of a device, filled from the output of a single `getprop` dump.
+ *
+ * <p>Read-only properties, starting with {@code ro.}, only change when the device reboots or is
+ * flashed, so they are kept for longer than the other properties. The cache is meant to be
+ * cleared with {@link #invalidate()} whenever the properties might have changed.
+ */
+class DevicePropertyCache {
+
+    static final String READ_ONLY_PREFIX = "ro.";
+
+    /** A line of `getprop` output, such as "[ro.hardware]: [bullhead]". */
+    private static final Pattern PROP_PATTERN =
+            Pattern.compile("^\\[([^\\]]+)\\]: \\[(.*)\\]$", Pattern.MULTILINE);
+
+    private final long mReadOnlyTtlMs;
+    private final long mMutableTtlMs;
+    private Map<String, String> mProperties = null;
+    private long mLoadTime = 0;
+    private long mHits = 0;
+    private long mMisses = 0;
+
+    /**
+     * @param readOnlyTtlMs the time in ms a read-only property is served from the cache
+     * @param mutableTtlMs the time in ms any other property is served from the cache
+     */
+    DevicePropertyCache(long readOnlyTtlMs, long mutableTtlMs) {
+        mReadOnlyTtlMs = readOnlyTtlMs;
+        mMutableTtlMs = mutableTtlMs;
+    }
+
+    /**
+     * Check whether the value of a property can be served from the cache, and count a hit or a
+     * miss accordingly.
+     *
+     * @param name the name of the property
+     * @return <code>true</code> if {@link #get(String)} returns an up to date value
+     */
+    synchronized boolean contains(String name) {
+        if (mProperties != null && getCurrentTime() - mLoadTime < getTtl(name)) {
+            mHits++;
+            return true;
+        }
+        mMisses++;
+        return false;
+    }
+
+    /**
+     * Returns the cached value of a property, or <code>null</code> if the property was not set
+     * when the cache was loaded.
+     */
+    synchronized String get(String name) {
+        return mProperties == null ? null : mProperties.get(name);
+    }
+
+    /**
+     * Replace the content of the cache with the output of `getprop`.
+     *
+     * @param getpropOutput the output of `adb shell getprop`
+     * @return <code>false</code> if the output did not contain any property, in which case the
+     *     cache is left unchanged
+     */
+    synchronized boolean load(String getpropOutput) {
+        Map<String, String> properties = parse(getpropOutput);
+        if (properties.isEmpty()) {
+            return false;
+        }
+        mProperties = properties;
+        mLoadTime = getCurrentTime();
+        return true;
+    }
+
+    /** Drop all the cached properties. */
+    synchronized void invalidate() {
+        mProperties = null;
+    }
+
+    /** Returns the number of properties served from the cache. */
+    synchronized long getHits() {
+        return mHits;
+    }
+
+    /** Returns the number of properties that could not be served from the cache. */
+    synchronized long getMisses() {
+        return mMisses;
+    }
+
+    private long getTtl(String name) {
+        return name.startsWith(READ_ONLY_PREFIX) ? mReadOnlyTtlMs : mMutableTtlMs;
+    }
+
+    /** Exposed for unit testing. */
+    long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /** Parse the output of `getprop` into a map of property names to values. */
+    static Map<String, String> parse(String getpropOutput) {
+        Map<String, String> properties = new HashMap<>();
+        if (getpropOutput == null) {
+            return properties;
+        }
+        Matcher matcher = PROP_PATTERN.matcher(getpropOutput.replace("\r", ""));
+        while (matcher.find()) {
+            properties.put(matcher.group(1), matcher.group(2));
+        }
+        return properties;
+    }
+}
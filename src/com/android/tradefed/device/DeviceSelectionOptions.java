@@ -25,6 +25,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -307,6 +309,28 @@ public class DeviceSelectionOptions implements IDeviceSelection {
         return listCopy;
     }
 
+    /**
+     * Returns a key describing all the selection criteria of these options. Two options with the
+     * same signature match exactly the same devices, which allows callers to evaluate the match
+     * of a group of identical requirements only once.
+     */
+    public String getSelectionSignature() {
+        StringBuilder sig = new StringBuilder(getClass().getName());
+        sig.append("|serial=").append(new TreeSet<>(getSerials()));
+        sig.append("|exclude=").append(new TreeSet<>(getExcludeSerials()));
+        sig.append("|product=").append(new TreeSet<>(getProductTypes()));
+        sig.append("|property=").append(new TreeMap<>(getProperties()));
+        sig.append("|emulator=").append(mEmulatorRequested);
+        sig.append("|device=").append(mDeviceRequested);
+        sig.append("|stub=").append(mStubEmulatorRequested);
+        sig.append("|null=").append(mNullDeviceRequested);
+        sig.append("|tcp=").append(mTcpDeviceRequested);
+        sig.append("|battery=").append(mMinBattery).append(":").append(mMaxBattery);
+        sig.append(":").append(mRequireBatteryCheck);
+        sig.append("|sdk=").append(mMinSdk).append(":").append(mMaxSdk);
+        return sig.toString();
+    }
+
     /**
      * Helper function used to fetch environment variable. It is essentially a wrapper around
      * {@link System#getenv(String)} This is done for unit testing purposes.
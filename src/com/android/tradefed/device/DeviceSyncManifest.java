@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.device;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Host side record of the files synced to each device, used to only push the files whose content
+ * changed.
+ *
+ * <p>For each device file, the manifest records the md5 of the content that was pushed along with
+ * the size and modification time the device reported afterwards. As long as the device still
+ * reports the same size and modification time, the content is assumed to be unchanged and does not
+ * need to be hashed on the device again.
+ *
+ * <p>The manifest of a device must be invalidated whenever its storage is flashed or wiped, see
+ * {@link #invalidate(String)}.
+ */
+public class DeviceSyncManifest {
+
+    private static final Map<String, DeviceSyncManifest> sManifests = new ConcurrentHashMap<>();
+    /** Most local file hashes kept, so a long running host does not keep every file it synced. */
+    private static final int MAX_LOCAL_HASHES = 10000;
+    /**
+     * Hashes of the local files, keyed by absolute path, reused while the file is unchanged. The
+     * least recently used hashes are dropped past {@link #MAX_LOCAL_HASHES}, they are computed
+     * again if needed.
+     */
+    private static final Map<String, LocalHash> sLocalHashes =
+            Collections.synchronizedMap(
+                    new LinkedHashMap<String, LocalHash>(16, 0.75f, true) {
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        protected boolean removeEldestEntry(Map.Entry<String, LocalHash> eldest) {
+                            return size() > MAX_LOCAL_HASHES;
+                        }
+                    });
+
+    /** The state of a file on the device, as recorded after it was synced. */
+    static class Entry {
+        final long mSize;
+        final long mModified;
+        final String mMd5;
+
+        Entry(long size, long modified, String md5) {
+            mSize = size;
+            mModified = modified;
+            mMd5 = md5;
+        }
+    }
+
+    private static class LocalHash {
+        final long mSize;
+        final long mModified;
+        final String mMd5;
+
+        LocalHash(long size, long modified, String md5) {
+            mSize = size;
+            mModified = modified;
+            mMd5 = md5;
+        }
+    }
+
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    /** Returns the manifest of the given device, created empty if needed. */
+    static DeviceSyncManifest get(String serial) {
+        DeviceSyncManifest manifest = sManifests.get(serial);
+        if (manifest == null) {
+            sManifests.putIfAbsent(serial, new DeviceSyncManifest());
+            manifest = sManifests.get(serial);
+        }
+        return manifest;
+    }
+
+    /**
+     * Forget all the files recorded for a device. To be called when the content of the device
+     * storage cannot be trusted anymore, for example after it was flashed or wiped.
+     *
+     * @param serial the serial of the device
+     */
+    public static void invalidate(String serial) {
+        if (sManifests.remove(serial) != null) {
+            CLog.d("Invalidated the sync manifest of %s", serial);
+        }
+    }
+
+    /** Returns the recorded state of a device file, or null if it is not known. */
+    synchronized Entry getEntry(String devicePath) {
+        return mEntries.get(devicePath);
+    }
+
+    /** Record the state of a device file after it was synced. */
+    synchronized void putEntry(String devicePath, Entry entry) {
+        mEntries.put(devicePath, entry);
+    }
+
+    /** Forget the state of a device file. */
+    synchronized void removeEntry(String devicePath) {
+        mEntries.remove(devicePath);
+    }
+
+    /**
+     * Returns the md5 of a local file. The hash is only computed again if the size or the
+     * modification time of the file changed since the last call.
+     */
+    static String getLocalMd5(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        long size = file.length();
+        long modified = file.lastModified();
+        LocalHash hash = sLocalHashes.get(path);
+        if (hash == null || hash.mSize != size || hash.mModified != modified) {
+            hash = new LocalHash(size, modified, FileUtil.calculateMd5(file));
+            sLocalHashes.put(path, hash);
+        }
+        return hash.mMd5;
+    }
+}
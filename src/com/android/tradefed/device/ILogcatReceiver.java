@@ -32,5 +32,12 @@ public interface ILogcatReceiver {
     public InputStreamSource getLogcatData();
 
     public InputStreamSource getLogcatData(int maxBytes);
+
+    /**
+     * Get the logcat data received since the given host time, without querying the device.
+     *
+     * @param time the host time in milliseconds since the epoch.
+     */
+    public InputStreamSource getLogcatDataSince(long time);
 }
 
@@ -195,6 +195,19 @@ public interface ITestDevice extends INativeDevice {
     public InputStreamSource getScreenshot(String format, boolean rescale)
             throws DeviceNotAvailableException;
 
+    /**
+     * Grabs a screenshot from the device, and compresses it in the background so that the caller
+     * can continue. Creating a stream from the returned {@link InputStreamSource} waits for the
+     * compression to complete.
+     *
+     * @param format supported PNG, JPEG
+     * @param rescale if screenshot should be rescaled to reduce the size of resulting image
+     * @return a {@link InputStreamSource} of the screenshot in format.
+     * @throws DeviceNotAvailableException
+     */
+    public InputStreamSource getScreenshotAsync(String format, boolean rescale)
+            throws DeviceNotAvailableException;
+
     /**
      * Clears the last connected wifi network. This should be called when starting a new invocation
      * to avoid connecting to the wifi network used in the previous test after device reboots.
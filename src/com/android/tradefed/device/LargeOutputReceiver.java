@@ -20,14 +20,14 @@ package com.android.tradefed.device;
 import com.android.ddmlib.IShellOutputReceiver;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.result.ByteArrayInputStreamSource;
+import com.android.tradefed.result.FileInputStreamSource;
 import com.android.tradefed.result.InputStreamSource;
 import com.android.tradefed.result.SnapshotInputStreamSource;
-import com.android.tradefed.util.FixedByteArrayOutputStream;
+import com.android.tradefed.util.FileUtil;
 import com.android.tradefed.util.SizeLimitedOutputStream;
-import com.android.tradefed.util.StreamUtil;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 
 /**
  * A class designed to help run long running commands collect output.
@@ -36,6 +36,10 @@ import java.io.InputStream;
  * To prevent data loss when the limit has been reached, this file keeps set of tmp host
  * files.
  * </p>
+ * <p>
+ * The time at which the output is received is indexed about every second, at line boundaries, so
+ * the output received since a given time can be retrieved without reading all of it.
+ * </p>
  */
 public class LargeOutputReceiver implements IShellOutputReceiver {
     private String mSerialNumber;
@@ -45,6 +49,10 @@ public class LargeOutputReceiver implements IShellOutputReceiver {
     private SizeLimitedOutputStream mOutStream;
     private long mMaxDataSize;
 
+    /** Minimum time between two entries of the time index. */
+    private static final long INDEX_INTERVAL_MS = 1000;
+    private long mLastIndexTime = 0;
+
     /**
      * Creates a {@link LargeOutputReceiver}.
      *
@@ -68,6 +76,20 @@ public class LargeOutputReceiver implements IShellOutputReceiver {
             return;
         }
         try {
+            long now = System.currentTimeMillis();
+            if (now - mLastIndexTime >= INDEX_INTERVAL_MS) {
+                // index the start of the first complete line of this output.
+                for (int i = offset; i < offset + length; i++) {
+                    if (data[i] == '\n') {
+                        mOutStream.write(data, offset, i + 1 - offset);
+                        mOutStream.addIndexEntry(now);
+                        mLastIndexTime = now;
+                        length -= i + 1 - offset;
+                        offset = i + 1;
+                        break;
+                    }
+                }
+            }
             mOutStream.write(data, offset, length);
         } catch (IOException e) {
             CLog.w("failed to write %s data for %s.", mDescriptor, mSerialNumber);
@@ -102,33 +124,37 @@ public class LargeOutputReceiver implements IShellOutputReceiver {
      */
     public synchronized InputStreamSource getData(final int maxBytes) {
         if (mOutStream != null) {
-            InputStream fullStream = null;
             try {
-                fullStream = mOutStream.getData();
-                final FixedByteArrayOutputStream os = new FixedByteArrayOutputStream(maxBytes);
-                StreamUtil.copyStreams(fullStream, os);
-                return new InputStreamSource() {
-
-                    @Override
-                    public InputStream createInputStream() {
-                        return os.getData();
-                    }
+                return new ByteArrayInputStreamSource(mOutStream.getLastData(maxBytes));
+            } catch (IOException e) {
+                CLog.e("failed to get %s data for %s.", mDescriptor, mSerialNumber);
+                CLog.e(e);
+            }
+        }
 
-                    @Override
-                    public void close() {
-                        // ignore, nothing to do
-                    }
+        // return an empty InputStreamSource
+        return new ByteArrayInputStreamSource(new byte[0]);
+    }
 
-                    @Override
-                    public long size() {
-                        return os.size();
-                    }
-                };
+    /**
+     * Gets the output received since the given time as a {@link InputStreamSource}. The output
+     * starts at a line boundary, and can include up to a second of output received before the
+     * given time. If the time is older than the output kept, all of it is returned.
+     *
+     * @param time the host time in milliseconds since the epoch.
+     * @return The collected output from the command, stored in a file.
+     */
+    public synchronized InputStreamSource getDataSince(long time) {
+        if (mOutStream != null) {
+            File snapshot = null;
+            try {
+                snapshot = FileUtil.createTempFile(String.format("%s_since_", mDescriptor), ".txt");
+                mOutStream.writeDataSince(time, snapshot);
+                return new FileInputStreamSource(snapshot, true);
             } catch (IOException e) {
                 CLog.e("failed to get %s data for %s.", mDescriptor, mSerialNumber);
                 CLog.e(e);
-            } finally {
-                StreamUtil.close(fullStream);
+                FileUtil.deleteFile(snapshot);
             }
         }
 
@@ -153,6 +179,7 @@ public class LargeOutputReceiver implements IShellOutputReceiver {
     public synchronized void clear() {
         delete();
         mOutStream = createOutputStream();
+        mLastIndexTime = 0;
     }
 
     private SizeLimitedOutputStream createOutputStream() {
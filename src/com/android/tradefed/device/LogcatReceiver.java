@@ -79,6 +79,11 @@ public class LogcatReceiver implements ILogcatReceiver {
         return mReceiver.getData(maxBytes);
     }
 
+    @Override
+    public InputStreamSource getLogcatDataSince(long time) {
+        return mReceiver.getDataSince(time);
+    }
+
     @Override
     public void clear() {
         mReceiver.clear();
@@ -66,6 +66,7 @@ class ManagedDeviceList implements Iterable<IManagedTestDevice> {
     @GuardedBy("mListLock")
     private List<IManagedTestDevice> mList = new LinkedList<IManagedTestDevice>();
     private final IManagedTestDeviceFactory mDeviceFactory;
+    private final DeviceAllocationIndex mAllocationIndex = new DeviceAllocationIndex();
 
     public ManagedDeviceList(IManagedTestDeviceFactory d) {
         mDeviceFactory = d;
@@ -167,9 +168,15 @@ class ManagedDeviceList implements Iterable<IManagedTestDevice> {
             Iterator<IManagedTestDevice> iterator = mList.iterator();
             while (iterator.hasNext()) {
                 IManagedTestDevice d = iterator.next();
+                if (mAllocationIndex.isAllocated(d)) {
+                    // avoid evaluating the selection against devices already in use
+                    continue;
+                }
                 if (m.matches(d)) {
                     iterator.remove();
                     mList.add(d);
+                    mAllocationIndex.update(
+                            d, new DeviceEventResponse(DeviceAllocationState.Allocated, true));
                     return d;
                 }
             }
@@ -202,6 +209,7 @@ class ManagedDeviceList implements Iterable<IManagedTestDevice> {
          mListLock.lock();
          try {
              mList.clear();
+             mAllocationIndex.clear();
          } finally {
              mListLock.unlock();
          }
@@ -223,6 +231,7 @@ class ManagedDeviceList implements Iterable<IManagedTestDevice> {
             IManagedTestDevice d = find(idevice.getSerialNumber());
             if (d == null || DeviceAllocationState.Unavailable.equals(d.getAllocationState())) {
                 mList.remove(d);
+                mAllocationIndex.remove(d);
                 d = mDeviceFactory.createDevice(idevice);
                 mList.add(d);
             }
@@ -255,6 +264,7 @@ class ManagedDeviceList implements Iterable<IManagedTestDevice> {
      */
     public DeviceEventResponse handleDeviceEvent(IManagedTestDevice d, DeviceEvent event) {
         DeviceEventResponse r = d.handleAllocationEvent(event);
+        mAllocationIndex.update(d, r);
         if (r != null && r.allocationState == DeviceAllocationState.Unknown) {
            remove(d);
         }
@@ -265,6 +275,7 @@ class ManagedDeviceList implements Iterable<IManagedTestDevice> {
         mListLock.lock();
         try {
             mList.remove(d);
+            mAllocationIndex.remove(d);
         } finally {
             mListLock.unlock();
         }
@@ -41,6 +41,7 @@ import com.android.tradefed.result.InputStreamSource;
 import com.android.tradefed.result.LogDataType;
 import com.android.tradefed.result.SnapshotInputStreamSource;
 import com.android.tradefed.result.StubTestRunListener;
+import com.android.tradefed.result.ZipEntryInputStreamSource;
 import com.android.tradefed.targetprep.TargetSetupError;
 import com.android.tradefed.util.ArrayUtil;
 import com.android.tradefed.util.Bugreport;
@@ -56,12 +57,14 @@ import com.android.tradefed.util.SizeLimitedOutputStream;
 import com.android.tradefed.util.StreamUtil;
 import com.android.tradefed.util.ZipUtil2;
 
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipFile;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -176,6 +179,11 @@ public class NativeDevice implements IManagedTestDevice {
     private TestDeviceState mState = TestDeviceState.ONLINE;
     private final ReentrantLock mFastbootLock = new ReentrantLock();
     private LogcatReceiver mLogcatReceiver;
+    /**
+     * Lower bound of the difference in ms between host and device time, measured by the last
+     * {@link #getDeviceDate()}. Null if unknown.
+     */
+    private volatile Long mHostDeviceTimeOffset = null;
     private boolean mFastbootEnabled = true;
     private String mFastbootPath = "fastboot";
 
@@ -194,6 +202,7 @@ public class NativeDevice implements IManagedTestDevice {
     private String mLastConnectedWifiSsid = null;
     private String mLastConnectedWifiPsk = null;
     private boolean mNetworkMonitorEnabled = false;
+    private DevicePropertyCache mPropertyCache = null;
 
     /**
      * Interface for a generic device communication attempt.
@@ -275,6 +284,10 @@ public class NativeDevice implements IManagedTestDevice {
     public void setOptions(TestDeviceOptions options) {
         throwIfNull(options);
         mOptions = options;
+        synchronized (this) {
+            // the cache time to live might have changed
+            mPropertyCache = null;
+        }
         mStateMonitor.setDefaultOnlineTimeout(options.getOnlineTimeout());
         mStateMonitor.setDefaultAvailableTimeout(options.getAvailableTimeout());
     }
@@ -374,6 +387,14 @@ public class NativeDevice implements IManagedTestDevice {
             CLog.d("Device %s is not online cannot get property %s.", getSerialNumber(), name);
             return null;
         }
+        if (mOptions.isPropertyCacheEnabled()) {
+            DevicePropertyCache cache = getPropertyCache();
+            if (cache.contains(name) || cache.load(executeShellCommand("getprop"))) {
+                return cache.get(name);
+            }
+            CLog.w("Could not load the properties of %s, querying %s alone", getSerialNumber(),
+                    name);
+        }
         final String[] result = new String[1];
         DeviceAction propAction = new DeviceAction() {
 
@@ -408,6 +429,52 @@ public class NativeDevice implements IManagedTestDevice {
         return result[0];
     }
 
+    /**
+     * Returns the property cache of this device, created from the current options if needed.
+     */
+    synchronized DevicePropertyCache getPropertyCache() {
+        if (mPropertyCache == null) {
+            mPropertyCache = new DevicePropertyCache(mOptions.getPropertyCacheReadOnlyTtl(),
+                    mOptions.getPropertyCacheMutableTtl());
+        }
+        return mPropertyCache;
+    }
+
+    /**
+     * Drop the cached properties of the device, so that the next {@link #getProperty(String)}
+     * queries the device again. Should be called after any operation changing the properties in
+     * a way this class cannot detect.
+     */
+    public synchronized void invalidatePropertyCache() {
+        if (mPropertyCache != null) {
+            mPropertyCache.invalidate();
+        }
+    }
+
+    /**
+     * Returns the number of properties served from the property cache.
+     */
+    public long getPropertyCacheHits() {
+        return getPropertyCache().getHits();
+    }
+
+    /**
+     * Returns the number of properties that could not be served from the property cache.
+     */
+    public long getPropertyCacheMisses() {
+        return getPropertyCache().getMisses();
+    }
+
+    /**
+     * Invalidate the property cache if the command may set a property. Called both before and
+     * after the command runs, so that a property read while it runs is not cached past it.
+     */
+    private void invalidatePropertyCacheIfSetprop(String command) {
+        if (command.contains("setprop")) {
+            invalidatePropertyCache();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -559,7 +626,12 @@ public class NativeDevice implements IManagedTestDevice {
                 return true;
             }
         };
-        performDeviceAction(String.format("shell %s", command), action, MAX_RETRY_ATTEMPTS);
+        invalidatePropertyCacheIfSetprop(command);
+        try {
+            performDeviceAction(String.format("shell %s", command), action, MAX_RETRY_ATTEMPTS);
+        } finally {
+            invalidatePropertyCacheIfSetprop(command);
+        }
     }
 
     /**
@@ -578,7 +650,12 @@ public class NativeDevice implements IManagedTestDevice {
                 return true;
             }
         };
-        performDeviceAction(String.format("shell %s", command), action, retryAttempts);
+        invalidatePropertyCacheIfSetprop(command);
+        try {
+            performDeviceAction(String.format("shell %s", command), action, retryAttempts);
+        } finally {
+            invalidatePropertyCacheIfSetprop(command);
+        }
     }
 
     /** {@inheritDoc} */
@@ -607,7 +684,12 @@ public class NativeDevice implements IManagedTestDevice {
                         return true;
                     }
                 };
-        performDeviceAction(String.format("shell %s", command), action, retryAttempts);
+        invalidatePropertyCacheIfSetprop(command);
+        try {
+            performDeviceAction(String.format("shell %s", command), action, retryAttempts);
+        } finally {
+            invalidatePropertyCacheIfSetprop(command);
+        }
     }
 
     /**
@@ -1211,6 +1293,9 @@ public class NativeDevice implements IManagedTestDevice {
             CLog.e("file %s is not a directory", localFileDir.getAbsolutePath());
             return false;
         }
+        if (mOptions.isBulkDirTransferEnabled()) {
+            return new BulkDirTransfer(this).push(localFileDir, deviceFilePath);
+        }
         File[] childFiles = localFileDir.listFiles();
         if (childFiles == null) {
             CLog.e("Could not read files in %s", localFileDir.getAbsolutePath());
@@ -1246,6 +1331,9 @@ public class NativeDevice implements IManagedTestDevice {
             CLog.e("Device path %s is not a directory", deviceFilePath);
             return false;
         }
+        if (mOptions.isBulkDirTransferEnabled()) {
+            return new BulkDirTransfer(this).pull(deviceFilePath, localDir);
+        }
         String lsOutput = executeShellCommand(String.format("ls -Ap1 %s", deviceFilePath));
         if (lsOutput.trim().isEmpty()) {
             CLog.i("Device path is empty, nothing to do.");
@@ -1304,7 +1392,14 @@ public class NativeDevice implements IManagedTestDevice {
         // implementation will add localFileDir.getName() to destination path
         deviceFilePath = String.format("%s/%s", interpolatePathVariables(deviceFilePath),
                 localFileDir.getName());
+        if (mOptions.isContentHashSyncEnabled()) {
+            return new ContentHashSync(this).sync(localFileDir, deviceFilePath);
+        }
         if (!doesFileExist(deviceFilePath)) {
+            if (mOptions.isBulkDirTransferEnabled()) {
+                // nothing to compare against, all the files have to be pushed.
+                return pushDir(localFileDir, deviceFilePath);
+            }
             executeShellCommand(String.format("mkdir -p \"%s\"", deviceFilePath));
         }
         IFileEntry remoteFileEntry = getFileEntry(deviceFilePath);
@@ -1528,6 +1623,8 @@ public class NativeDevice implements IManagedTestDevice {
                     "Attempted to fastboot on device %s , but fastboot is not available. Aborting.",
                     getSerialNumber()));
         }
+        // fastboot commands flash, wipe or reboot the device
+        invalidatePropertyCache();
         final String[] fullCmd = buildFastbootCommand(cmdArgs);
         for (int i = 0; i < MAX_RETRY_ATTEMPTS; i++) {
             CommandResult result = new CommandResult(CommandStatus.EXCEPTION);
@@ -1638,7 +1735,7 @@ public class NativeDevice implements IManagedTestDevice {
     /**
      * Builds the OS command for the given adb command and args
      */
-    private String[] buildAdbCommand(String... commandArgs) {
+    String[] buildAdbCommand(String... commandArgs) {
         return ArrayUtil.buildArray(new String[] {"adb", "-s", getSerialNumber()},
                 commandArgs);
     }
@@ -1745,6 +1842,7 @@ public class NativeDevice implements IManagedTestDevice {
      */
     @Override
     public void recoverDevice() throws DeviceNotAvailableException {
+        invalidatePropertyCache();
         if (mRecoveryMode.equals(RecoveryMode.NONE)) {
             CLog.i("Skipping recovery on %s", getSerialNumber());
             getRunUtil().sleep(NONE_RECOVERY_MODE_DELAY);
@@ -1856,6 +1954,10 @@ public class NativeDevice implements IManagedTestDevice {
      */
     @Override
     public InputStreamSource getLogcatSince(long date) {
+        if (mLogcatReceiver != null && mHostDeviceTimeOffset != null) {
+            // the background capture indexes the host time at which logcat was received.
+            return mLogcatReceiver.getLogcatDataSince(date * 1000 + mHostDeviceTimeOffset);
+        }
         try {
             if (getApiLevel() <= 22) {
                 CLog.i("Api level too low to use logcat -t 'time' reverting to dump");
@@ -1966,30 +2068,37 @@ public class NativeDevice implements IManagedTestDevice {
             return new ByteArrayInputStreamSource(receiver.getOutput());
         } else {
             CLog.d("Api level above 24, using bugreportz instead.");
-            File mainEntry = null;
-            File bugreportzFile = null;
+            File bugreportzFile = getBugreportzInternal();
+            if (bugreportzFile == null) {
+                CLog.w("Fail to collect the bugreportz.");
+                return bugreportzFallback();
+            }
+            ZipFile zip = null;
             try {
-                bugreportzFile = getBugreportzInternal();
-                if (bugreportzFile == null) {
-                    CLog.w("Fail to collect the bugreportz.");
-                    return bugreportzFallback();
-                }
-                try (ZipFile zip = new ZipFile(bugreportzFile)) {
-                    // We get the main_entry.txt that contains the bugreport name.
-                    mainEntry = ZipUtil2.extractFileFromZip(zip, "main_entry.txt");
-                    String bugreportName = FileUtil.readStringFromFile(mainEntry).trim();
+                zip = new ZipFile(bugreportzFile);
+                // We get the main_entry.txt that contains the bugreport name.
+                ZipArchiveEntry mainEntry = zip.getEntry("main_entry.txt");
+                if (mainEntry != null) {
+                    String bugreportName;
+                    try (InputStream stream = zip.getInputStream(mainEntry)) {
+                        bugreportName = StreamUtil.getStringFromStream(stream).trim();
+                    }
                     CLog.d("bugreport name: '%s'", bugreportName);
-                    File bugreport = ZipUtil2.extractFileFromZip(zip, bugreportName);
-                    return new FileInputStreamSource(bugreport, true);
+                    ZipArchiveEntry bugreport = zip.getEntry(bugreportName);
+                    if (bugreport != null) {
+                        // The bugreport is read from the zip on demand instead of being
+                        // extracted, the source owns the zip and deletes it when closed.
+                        return new ZipEntryInputStreamSource(zip, bugreport, bugreportzFile);
+                    }
                 }
+                CLog.e("Could not find the bugreport main entry in the bugreportz");
             } catch (IOException e) {
                 CLog.e("Error while unzipping bugreportz");
                 CLog.e(e);
-                return bugreportzFallback();
-            } finally {
-                FileUtil.deleteFile(bugreportzFile);
-                FileUtil.deleteFile(mainEntry);
             }
+            ZipUtil2.closeZip(zip);
+            FileUtil.deleteFile(bugreportzFile);
+            return bugreportzFallback();
         }
     }
 
@@ -2099,7 +2208,7 @@ public class NativeDevice implements IManagedTestDevice {
             checkApiLevelAgainst("getBugreportz", 24);
             File bugreportZip = getBugreportzInternal();
             if (bugreportZip != null) {
-                return new FileInputStreamSource(bugreportZip, true);
+                return new FileInputStreamSource(bugreportZip, true, true);
             }
         } catch (IllegalArgumentException e) {
             CLog.e("API level error when checking bugreportz support.");
@@ -2178,6 +2287,18 @@ public class NativeDevice implements IManagedTestDevice {
         throw new UnsupportedOperationException("No support for Screenshot");
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Grabs the screenshot with {@link #getScreenshot(String, boolean)}, on the calling thread.
+     * </p>
+     */
+    @Override
+    public InputStreamSource getScreenshotAsync(String format, boolean rescale)
+            throws DeviceNotAvailableException {
+        return getScreenshot(format, rescale);
+    }
+
     /** {@inheritDoc} */
     @Override
     public void clearLastConnectedWifiNetwork() {
@@ -2630,6 +2751,7 @@ public class NativeDevice implements IManagedTestDevice {
      * @throws DeviceNotAvailableException
      */
     protected void doAdbReboot(final String into) throws DeviceNotAvailableException {
+        invalidatePropertyCache();
         DeviceAction rebootAction = new DeviceAction() {
             @Override
             public boolean run() throws TimeoutException, IOException,
@@ -3394,6 +3516,7 @@ public class NativeDevice implements IManagedTestDevice {
      */
     @Override
     public long getDeviceDate() throws DeviceNotAvailableException {
+        long hostTime = System.currentTimeMillis();
         String deviceTimeString = executeShellCommand("date +%s");
         Long deviceTime = null;
         try {
@@ -3402,6 +3525,8 @@ public class NativeDevice implements IManagedTestDevice {
             CLog.i("Invalid device time: \"%s\", ignored.", nfe);
             return 0;
         }
+        // the device time is truncated to the second, so it can be up to a second later.
+        mHostDeviceTimeOffset = hostTime - deviceTime * 1000 - 1000;
         return deviceTime;
     }
 
@@ -3690,7 +3815,10 @@ public class NativeDevice implements IManagedTestDevice {
      */
     @Override
     public void postInvocationTearDown() {
-        // Default implementation empty on purpose
+        if (mOptions.isPropertyCacheEnabled()) {
+            CLog.d("Property cache of %s: %d hits, %d misses", getSerialNumber(),
+                    getPropertyCacheHits(), getPropertyCacheMisses());
+        }
     }
 
     /**
@@ -25,6 +25,7 @@ import com.android.ddmlib.TimeoutException;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.result.ByteArrayInputStreamSource;
 import com.android.tradefed.result.InputStreamSource;
+import com.android.tradefed.util.HostThreadFactory;
 import com.android.tradefed.util.KeyguardControllerState;
 import com.android.tradefed.util.RunUtil;
 import com.android.tradefed.util.StreamUtil;
@@ -32,11 +33,14 @@ import com.android.tradefed.util.StreamUtil;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 
-import java.awt.Image;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -44,6 +48,12 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -89,6 +99,19 @@ public class TestDevice extends NativeDevice {
     private static final int API_LEVEL_GET_CURRENT_USER = 24;
     /** Timeout to wait for a screenshot before giving up to avoid hanging forever */
     private static final long MAX_SCREENSHOT_TIMEOUT = 5 * 60 * 1000; // 5 min
+    /** Screenshots with a shorter edge above this size are cut in half when rescaled */
+    private static final int RESCALE_MIN_EDGE = 720;
+    private static final String SCREENSHOT_ERROR = "Error: device reported null for screenshot.";
+    /** Threads compressing the screenshots taken with {@link #getScreenshotAsync}. */
+    private static final int SCREENSHOT_ENCODER_THREADS = 2;
+    /**
+     * Screenshots waiting to be compressed. Raw screenshots are several MB, so once the queue is
+     * full the next screenshot is compressed on the calling thread.
+     */
+    private static final int MAX_PENDING_SCREENSHOTS = 4;
+    private static final long SCREENSHOT_ENCODER_KEEP_ALIVE = 60 * 1000;
+
+    private static ThreadPoolExecutor sScreenshotEncoder = null;
 
     /** adb shell am dumpheap <service pid> <dump file path> */
     private static final String DUMPHEAP_CMD = "am dumpheap %s %s";
@@ -276,21 +299,49 @@ public class TestDevice extends NativeDevice {
     @Override
     public InputStreamSource getScreenshot(String format, boolean rescale)
             throws DeviceNotAvailableException {
-        if (!format.equalsIgnoreCase("PNG") && !format.equalsIgnoreCase("JPEG")){
-            CLog.e("Screenshot: Format %s is not supported, defaulting to PNG.", format);
-            format = "PNG";
-        }
+        format = getScreenshotFormat(format);
         ScreenshotAction action = new ScreenshotAction();
         if (performDeviceAction("screenshot", action, MAX_RETRY_ATTEMPTS)) {
-            byte[] imageData =
-                    compressRawImage(action.mRawScreenshot, format.toUpperCase(), rescale);
+            byte[] imageData = compressRawImage(action.mRawScreenshot, format, rescale);
             if (imageData != null) {
                 return new ByteArrayInputStreamSource(imageData);
             }
         }
         // Return an error in the buffer
-        return new ByteArrayInputStreamSource(
-                "Error: device reported null for screenshot.".getBytes());
+        return new ByteArrayInputStreamSource(SCREENSHOT_ERROR.getBytes());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public InputStreamSource getScreenshotAsync(String format, final boolean rescale)
+            throws DeviceNotAvailableException {
+        final String imageFormat = getScreenshotFormat(format);
+        ScreenshotAction action = new ScreenshotAction();
+        if (!performDeviceAction("screenshot", action, MAX_RETRY_ATTEMPTS)) {
+            return new ByteArrayInputStreamSource(SCREENSHOT_ERROR.getBytes());
+        }
+        final RawImage rawScreenshot = action.mRawScreenshot;
+        Future<byte[]> imageData =
+                getScreenshotEncoder()
+                        .submit(
+                                HostThreadFactory.wrap(
+                                        new Callable<byte[]>() {
+                                            @Override
+                                            public byte[] call() {
+                                                return compressRawImage(
+                                                        rawScreenshot, imageFormat, rescale);
+                                            }
+                                        }));
+        return new EncodedScreenshotSource(imageData);
+    }
+
+    /** Returns the upper case screenshot format, defaulting to PNG if not supported. */
+    private String getScreenshotFormat(String format) {
+        if (!format.equalsIgnoreCase("PNG") && !format.equalsIgnoreCase("JPEG")){
+            CLog.e("Screenshot: Format %s is not supported, defaulting to PNG.", format);
+            return "PNG";
+        }
+        return format.toUpperCase();
     }
 
     private class ScreenshotAction implements DeviceAction {
@@ -309,6 +360,74 @@ public class TestDevice extends NativeDevice {
         }
     }
 
+    /**
+     * A {@link InputStreamSource} of a screenshot being compressed in the background. Creating a
+     * stream waits for the compression to complete.
+     */
+    private static class EncodedScreenshotSource implements InputStreamSource {
+
+        private final Future<byte[]> mImageData;
+
+        EncodedScreenshotSource(Future<byte[]> imageData) {
+            mImageData = imageData;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public InputStream createInputStream() {
+            return new ByteArrayInputStream(getImageData());
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public long size() {
+            return getImageData().length;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void close() {
+            mImageData.cancel(false);
+        }
+
+        private byte[] getImageData() {
+            byte[] imageData = null;
+            try {
+                imageData = mImageData.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                CLog.e("Interrupted while compressing screenshot");
+            } catch (ExecutionException | CancellationException e) {
+                CLog.e("Failed to compress screenshot");
+                CLog.e(e);
+            }
+            if (imageData == null) {
+                return SCREENSHOT_ERROR.getBytes();
+            }
+            return imageData;
+        }
+    }
+
+    /**
+     * Get the pool of host threads compressing the screenshots of all the devices. Its queue is
+     * bounded: when full, screenshots are compressed on the calling thread.
+     */
+    private static synchronized ThreadPoolExecutor getScreenshotEncoder() {
+        if (sScreenshotEncoder == null) {
+            sScreenshotEncoder =
+                    new ThreadPoolExecutor(
+                            SCREENSHOT_ENCODER_THREADS,
+                            SCREENSHOT_ENCODER_THREADS,
+                            SCREENSHOT_ENCODER_KEEP_ALIVE,
+                            TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<Runnable>(MAX_PENDING_SCREENSHOTS),
+                            new HostThreadFactory("TestDevice-screenshot-encoder-"),
+                            new ThreadPoolExecutor.CallerRunsPolicy());
+            sScreenshotEncoder.allowCoreThreadTimeOut(true);
+        }
+        return sScreenshotEncoder;
+    }
+
     /**
      * Helper to compress a rawImage obtained from the screen.
      *
@@ -319,15 +438,11 @@ public class TestDevice extends NativeDevice {
      */
     @VisibleForTesting
     byte[] compressRawImage(RawImage rawImage, String format, boolean rescale) {
-        BufferedImage image = rawImageToBufferedImage(rawImage, format);
-
         // Rescale to reduce size if needed
         // Screenshot default format is 1080 x 1920, 8-bit/color RGBA
         // By cutting in half we can easily keep good quality and smaller size
-        if (rescale) {
-            image = rescaleImage(image);
-        }
-
+        boolean halve = rescale && Math.min(rawImage.width, rawImage.height) > RESCALE_MIN_EDGE;
+        BufferedImage image = rawImageToBufferedImage(rawImage, format, halve);
         return getImageData(image, format);
     }
 
@@ -340,29 +455,51 @@ public class TestDevice extends NativeDevice {
      */
     @VisibleForTesting
     BufferedImage rawImageToBufferedImage(RawImage rawImage, String format) {
-        BufferedImage image = null;
+        return rawImageToBufferedImage(rawImage, format, false);
+    }
+
+    /**
+     * Converts {@link RawImage} to {@link BufferedImage} in specified format, optionally cutting it
+     * in half.
+     * <p>
+     * The pixels are decoded in bulk and written straight into the array backing the image. When
+     * cut in half, each pixel of the image is the average of 2x2 pixels of the raw image.
+     * </p>
+     *
+     * @param rawImage {@link RawImage} to convert.
+     * @param format resulting format of image. PNG and JPEG are supported.
+     * @param halve if the width and height of the image should be cut in half.
+     * @return converted image.
+     */
+    @VisibleForTesting
+    BufferedImage rawImageToBufferedImage(RawImage rawImage, String format, boolean halve) {
+        int scale = halve ? 2 : 1;
+        int width = rawImage.width / scale;
+        int height = rawImage.height / scale;
+        RawPixelDecoder decoder = new RawPixelDecoder(rawImage);
 
         if ("JPEG".equalsIgnoreCase(format)) {
             //JPEG does not support ARGB without a special encoder
-            image =
-                    new BufferedImage(
-                            rawImage.width, rawImage.height, BufferedImage.TYPE_3BYTE_BGR);
-        }
-        else {
-            image = new BufferedImage(rawImage.width, rawImage.height, BufferedImage.TYPE_INT_ARGB);
-        }
-
-        // borrowed conversion logic from platform/sdk/screenshot/.../Screenshot.java
-        int index = 0;
-        int IndexInc = rawImage.bpp >> 3;
-        for (int y = 0 ; y < rawImage.height ; y++) {
-            for (int x = 0 ; x < rawImage.width ; x++) {
-                int value = rawImage.getARGB(index);
-                index += IndexInc;
-                image.setRGB(x, y, value);
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            int[] row = new int[width];
+            int index = 0;
+            for (int y = 0; y < height; y++) {
+                decoder.decodeRow(y, halve, row, 0);
+                for (int x = 0; x < width; x++) {
+                    int value = row[x];
+                    pixels[index++] = (byte) value;
+                    pixels[index++] = (byte) (value >> 8);
+                    pixels[index++] = (byte) (value >> 16);
+                }
             }
+            return image;
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int y = 0; y < height; y++) {
+            decoder.decodeRow(y, halve, pixels, y * width);
         }
-
         return image;
     }
 
@@ -375,18 +512,134 @@ public class TestDevice extends NativeDevice {
     @VisibleForTesting
     BufferedImage rescaleImage(BufferedImage image) {
         int shortEdge = Math.min(image.getHeight(), image.getWidth());
-        if (shortEdge > 720) {
-            Image resized =
-                    image.getScaledInstance(
-                            image.getWidth() / 2, image.getHeight() / 2, Image.SCALE_SMOOTH);
-            image =
+        if (shortEdge > RESCALE_MIN_EDGE) {
+            int width = image.getWidth() / 2;
+            int height = image.getHeight() / 2;
+            int type = image.getType();
+            BufferedImage resized =
                     new BufferedImage(
-                            image.getWidth() / 2, image.getHeight() / 2, Image.SCALE_REPLICATE);
-            image.getGraphics().drawImage(resized, 0, 0, null);
+                            width,
+                            height,
+                            type == BufferedImage.TYPE_CUSTOM ? BufferedImage.TYPE_INT_ARGB : type);
+            int[] rows = new int[image.getWidth() * 2];
+            int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, 2 * y, image.getWidth(), 2, rows, 0, image.getWidth());
+                for (int x = 0; x < width; x++) {
+                    int top = 2 * x;
+                    int bottom = top + image.getWidth();
+                    row[x] =
+                            averagePixels(
+                                    rows[top], rows[top + 1], rows[bottom], rows[bottom + 1]);
+                }
+                resized.setRGB(0, y, width, 1, row, 0, width);
+            }
+            image = resized;
         }
         return image;
     }
 
+    /** Returns the average of each channel of four ARGB pixels, rounded. */
+    private static int averagePixels(int p00, int p01, int p10, int p11) {
+        // alpha and green, then red and blue, are summed in 16 bits lanes of a single int
+        int ag = ((p00 >>> 8) & 0x00FF00FF) + ((p01 >>> 8) & 0x00FF00FF)
+                + ((p10 >>> 8) & 0x00FF00FF) + ((p11 >>> 8) & 0x00FF00FF) + 0x00020002;
+        int rb = (p00 & 0x00FF00FF) + (p01 & 0x00FF00FF) + (p10 & 0x00FF00FF)
+                + (p11 & 0x00FF00FF) + 0x00020002;
+        return (((ag >>> 2) & 0x00FF00FF) << 8) | ((rb >>> 2) & 0x00FF00FF);
+    }
+
+    /**
+     * Decodes the pixels of a {@link RawImage} to ARGB, like {@link RawImage#getARGB(int)} but
+     * with the masks and shifts of each channel computed once.
+     */
+    private static class RawPixelDecoder {
+        private final byte[] mData;
+        private final int mWidth;
+        private final int mBytesPerPixel;
+        private final int mRedOffset;
+        private final int mRedMask;
+        private final int mRedShift;
+        private final int mGreenOffset;
+        private final int mGreenMask;
+        private final int mGreenShift;
+        private final int mBlueOffset;
+        private final int mBlueMask;
+        private final int mBlueShift;
+        private final int mAlphaOffset;
+        private final int mAlphaMask;
+        private final int mAlphaShift;
+        private final boolean mOpaque;
+
+        RawPixelDecoder(RawImage rawImage) {
+            if (rawImage.bpp != 16 && rawImage.bpp != 32) {
+                throw new UnsupportedOperationException(
+                        "Screenshots are only supported in 16 and 32 bit mode.");
+            }
+            mData = rawImage.data;
+            mWidth = rawImage.width;
+            mBytesPerPixel = rawImage.bpp >> 3;
+            mRedOffset = rawImage.red_offset;
+            mRedMask = (1 << rawImage.red_length) - 1;
+            mRedShift = 8 - rawImage.red_length;
+            mGreenOffset = rawImage.green_offset;
+            mGreenMask = (1 << rawImage.green_length) - 1;
+            mGreenShift = 8 - rawImage.green_length;
+            mBlueOffset = rawImage.blue_offset;
+            mBlueMask = (1 << rawImage.blue_length) - 1;
+            mBlueShift = 8 - rawImage.blue_length;
+            mAlphaOffset = rawImage.alpha_offset;
+            mAlphaMask = (1 << rawImage.alpha_length) - 1;
+            mAlphaShift = 8 - rawImage.alpha_length;
+            // force alpha to opaque if there is no alpha value in the framebuffer
+            mOpaque = rawImage.alpha_length == 0;
+        }
+
+        /**
+         * Decode a row of pixels.
+         *
+         * @param y the row of the image to decode, in the halved image if <code>halve</code>
+         * @param halve if each decoded pixel should be the average of 2x2 pixels
+         * @param pixels the array to write the ARGB pixels to
+         * @param offset the index of the first pixel of the row in <code>pixels</code>
+         */
+        void decodeRow(int y, boolean halve, int[] pixels, int offset) {
+            int rowSize = mWidth * mBytesPerPixel;
+            if (!halve) {
+                int index = y * rowSize;
+                for (int x = 0; x < mWidth; x++) {
+                    pixels[offset + x] = decode(index);
+                    index += mBytesPerPixel;
+                }
+                return;
+            }
+            int top = 2 * y * rowSize;
+            int bottom = top + rowSize;
+            for (int x = 0; x < mWidth / 2; x++) {
+                pixels[offset + x] =
+                        averagePixels(
+                                decode(top),
+                                decode(top + mBytesPerPixel),
+                                decode(bottom),
+                                decode(bottom + mBytesPerPixel));
+                top += 2 * mBytesPerPixel;
+                bottom += 2 * mBytesPerPixel;
+            }
+        }
+
+        private int decode(int index) {
+            int value = (mData[index] & 0xFF) | (mData[index + 1] & 0xFF) << 8;
+            if (mBytesPerPixel == 4) {
+                value |= (mData[index + 2] & 0xFF) << 16 | (mData[index + 3] & 0xFF) << 24;
+            }
+            int r = ((value >>> mRedOffset) & mRedMask) << mRedShift;
+            int g = ((value >>> mGreenOffset) & mGreenMask) << mGreenShift;
+            int b = ((value >>> mBlueOffset) & mBlueMask) << mBlueShift;
+            int a = mOpaque ? 0xFF : ((value >>> mAlphaOffset) & mAlphaMask) << mAlphaShift;
+            return a << 24 | r << 16 | g << 8 | b;
+        }
+    }
+
     /**
      * Gets byte array representation of {@link BufferedImage}.
      *
@@ -107,6 +107,36 @@ public class TestDeviceOptions {
             "the minimum battery level required to continue the invocation. Scale: 0-100")
     private Integer mCutoffBattery = null;
 
+    @Option(name = "bulk-dir-transfer", description =
+            "push and pull directories as a tar stream over a single adb connection, or with "
+            + "several parallel connections if the device does not have tar.")
+    private boolean mBulkDirTransfer = false;
+
+    @Option(name = "bulk-dir-transfer-connections", description =
+            "the number of parallel adb connections used to transfer directories in bulk when "
+            + "the device does not have tar.")
+    private int mBulkDirTransferConnections = 4;
+
+    @Option(name = "sync-files-content-hash", description =
+            "decide which files to sync based on their size and md5 rather than their timestamp, "
+            + "using a host side manifest of the files already synced to the device.")
+    private boolean mContentHashSync = false;
+
+    @Option(name = "property-cache", description =
+            "serve device properties from a cache filled by a single getprop dump, cleared when "
+            + "the device reboots, is recovered or flashed, or a property is set.")
+    private boolean mPropertyCache = false;
+
+    @Option(name = "property-cache-ro-ttl", description =
+            "time in ms read-only (ro.*) properties are served from the property cache.",
+            isTimeVal = true)
+    private long mPropertyCacheReadOnlyTtl = 30 * 60 * 1000;
+
+    @Option(name = "property-cache-ttl", description =
+            "time in ms properties other than read-only ones are served from the property cache.",
+            isTimeVal = true)
+    private long mPropertyCacheMutableTtl = 5 * 1000;
+
     /**
      * Check whether adb root should be enabled on boot for this device
      */
@@ -334,4 +364,67 @@ public class TestDeviceOptions {
     public String getWifiUtilAPKPath() {
         return mWifiUtilAPKPath;
     }
+
+    /**
+     * @return if directories should be transferred in bulk.
+     */
+    public boolean isBulkDirTransferEnabled() {
+        return mBulkDirTransfer;
+    }
+
+    /**
+     * Set whether directories should be transferred in bulk.
+     */
+    public void setBulkDirTransfer(boolean bulkDirTransfer) {
+        mBulkDirTransfer = bulkDirTransfer;
+    }
+
+    /**
+     * @return the number of parallel connections used to transfer directories without tar.
+     */
+    public int getBulkDirTransferConnections() {
+        return mBulkDirTransferConnections;
+    }
+
+    /**
+     * @return true if syncFiles should compare the content of the files rather than timestamps.
+     */
+    public boolean isContentHashSyncEnabled() {
+        return mContentHashSync;
+    }
+
+    /**
+     * Set whether syncFiles should compare the content of the files rather than timestamps.
+     */
+    public void setContentHashSync(boolean contentHashSync) {
+        mContentHashSync = contentHashSync;
+    }
+
+    /**
+     * @return true if device properties should be served from a cache.
+     */
+    public boolean isPropertyCacheEnabled() {
+        return mPropertyCache;
+    }
+
+    /**
+     * Set whether device properties should be served from a cache.
+     */
+    public void setPropertyCache(boolean propertyCache) {
+        mPropertyCache = propertyCache;
+    }
+
+    /**
+     * @return the time in ms read-only properties are served from the property cache.
+     */
+    public long getPropertyCacheReadOnlyTtl() {
+        return mPropertyCacheReadOnlyTtl;
+    }
+
+    /**
+     * @return the time in ms other properties are served from the property cache.
+     */
+    public long getPropertyCacheMutableTtl() {
+        return mPropertyCacheMutableTtl;
+    }
 }
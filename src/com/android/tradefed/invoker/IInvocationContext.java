@@ -125,6 +125,17 @@ public interface IInvocationContext extends Serializable {
     /** Returns a copy of the map containing all the invocation attributes. */
     public MultiMap<String, String> getAttributes();
 
+    /**
+     * Record how long the setup of a device took.
+     *
+     * @param deviceName the device configuration name
+     * @param elapsedMs the time spent in the target preparers of the device, in milliseconds
+     */
+    public void addDeviceSetupTime(String deviceName, long elapsedMs);
+
+    /** Returns the setup time in milliseconds of each device, keyed by configuration name. */
+    public Map<String, Long> getDeviceSetupTimes();
+
     /** Sets the descriptor associated with the test configuration that launched the invocation */
     public void setConfigurationDescriptor(ConfigurationDescriptor configurationDescriptor);
 
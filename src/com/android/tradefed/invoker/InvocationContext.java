@@ -47,6 +47,8 @@ public class InvocationContext implements IInvocationContext {
     private Map<String, IBuildInfo> mNameAndBuildinfoMap;
     private final UniqueMultiMap<String, String> mInvocationAttributes =
             new UniqueMultiMap<String, String>();
+    /** Setup time of each device, keyed by configuration device name */
+    private Map<String, Long> mDeviceSetupTimes = new LinkedHashMap<String, Long>();
     /** Invocation test-tag **/
     private String mTestTag;
     /** configuration descriptor */
@@ -211,6 +213,22 @@ public class InvocationContext implements IInvocationContext {
         return copy;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void addDeviceSetupTime(String deviceName, long elapsedMs) {
+        synchronized (mDeviceSetupTimes) {
+            mDeviceSetupTimes.put(deviceName, elapsedMs);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Map<String, Long> getDeviceSetupTimes() {
+        synchronized (mDeviceSetupTimes) {
+            return new LinkedHashMap<String, Long>(mDeviceSetupTimes);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -299,5 +317,9 @@ public class InvocationContext implements IInvocationContext {
         // now we are a "live" object again, so let's init the transient field
         mAllocatedDeviceAndBuildMap = new LinkedHashMap<ITestDevice, IBuildInfo>();
         mNameAndDeviceMap = new LinkedHashMap<String, ITestDevice>();
+        if (mDeviceSetupTimes == null) {
+            // serialized by a version that did not record setup times
+            mDeviceSetupTimes = new LinkedHashMap<String, Long>();
+        }
     }
 }
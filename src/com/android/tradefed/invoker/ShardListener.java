@@ -28,16 +28,30 @@ import com.android.tradefed.result.LogDataType;
 import com.android.tradefed.util.TimeUtil;
 
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * A {@link ITestInvocationListener} that collects results from a invocation shard (aka an
  * invocation split to run on multiple resources in parallel), and forwards them to another
  * listener.
+ *
+ * <p>By default the results are buffered until the shard completes. In streaming mode, each
+ * completed module (or run outside of a module) is handed to a dedicated dispatcher thread that
+ * forwards it to the master listener, so only the results not yet forwarded are kept in memory.
  */
 public class ShardListener extends CollectingTestListener {
 
+    /** Maximum number of completed modules or runs waiting to be forwarded by one shard. */
+    private static final int MAX_PENDING_RESULTS = 4;
+
     private ITestInvocationListener mMasterListener;
+    private final boolean mStreamResults;
+    private boolean mInModule = false;
+    private BlockingQueue<Map<TestRunResult, IInvocationContext>> mPendingResults;
+    private ResultDispatcher mDispatcher;
 
     /**
      * Create a {@link ShardListener}.
@@ -48,7 +62,71 @@ public class ShardListener extends CollectingTestListener {
      *     invocation shard completes.
      */
     public ShardListener(ITestInvocationListener master) {
+        this(master, false);
+    }
+
+    /**
+     * Create a {@link ShardListener}.
+     *
+     * @param master the {@link ITestInvocationListener} the results should be forwarded.
+     * @param streamResults if true, results are forwarded each time a module or a run outside of a
+     *     module completes instead of once the invocation shard completes.
+     */
+    public ShardListener(ITestInvocationListener master, boolean streamResults) {
+        this(master, streamResults, false);
+    }
+
+    /**
+     * Create a {@link ShardListener}.
+     *
+     * @param master the {@link ITestInvocationListener} the results should be forwarded.
+     * @param streamResults if true, results are forwarded each time a module or a run outside of a
+     *     module completes instead of once the invocation shard completes.
+     * @param compactResults if true, the results are stored in a compact form until forwarded,
+     *     and spilled to disk when they grow large.
+     */
+    public ShardListener(
+            ITestInvocationListener master, boolean streamResults, boolean compactResults) {
         mMasterListener = master;
+        mStreamResults = streamResults;
+        setCompactResults(compactResults);
+    }
+
+    /**
+     * Thread forwarding in order the completed results of the shard to the master listener. An
+     * empty map signals the end of the shard.
+     */
+    private class ResultDispatcher extends Thread {
+
+        ResultDispatcher(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Map<TestRunResult, IInvocationContext> results;
+                try {
+                    results = mPendingResults.take();
+                } catch (InterruptedException e) {
+                    CLog.e("Shard result dispatcher was interrupted.");
+                    return;
+                }
+                if (results.isEmpty()) {
+                    return;
+                }
+                try {
+                    synchronized (mMasterListener) {
+                        forwardRunResults(results);
+                    }
+                } catch (RuntimeException e) {
+                    // keep draining, the shard would otherwise block on the full queue.
+                    CLog.e("Failed to forward shard results.");
+                    CLog.e(e);
+                }
+            }
+        }
     }
 
     /**
@@ -60,6 +138,11 @@ public class ShardListener extends CollectingTestListener {
         synchronized (mMasterListener) {
             mMasterListener.invocationStarted(context);
         }
+        if (mStreamResults) {
+            mPendingResults = new ArrayBlockingQueue<>(MAX_PENDING_RESULTS);
+            mDispatcher = new ResultDispatcher("ShardResultDispatcher-" + getShardName());
+            mDispatcher.start();
+        }
     }
 
     /**
@@ -85,6 +168,23 @@ public class ShardListener extends CollectingTestListener {
         }
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void testModuleStarted(IInvocationContext moduleContext) {
+        super.testModuleStarted(moduleContext);
+        mInModule = true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testModuleEnded() {
+        super.testModuleEnded();
+        mInModule = false;
+        if (mStreamResults) {
+            dispatchCompletedResults();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -93,6 +193,9 @@ public class ShardListener extends CollectingTestListener {
         super.testRunEnded(elapsedTime, runMetrics);
         CLog.logAndDisplay(LogLevel.INFO, "Sharded test completed: %s",
                 getCurrentRunResults().getName());
+        if (mStreamResults && !mInModule) {
+            dispatchCompletedResults();
+        }
     }
 
     /**
@@ -111,34 +214,97 @@ public class ShardListener extends CollectingTestListener {
     @Override
     public void invocationEnded(long elapsedTime) {
         super.invocationEnded(elapsedTime);
+        if (mStreamResults) {
+            // forward what is left (e.g. an interrupted module) then wait for the dispatcher to
+            // drain all the results of the shard before ending it.
+            dispatchCompletedResults();
+            enqueue(new LinkedHashMap<TestRunResult, IInvocationContext>());
+            try {
+                mDispatcher.join();
+            } catch (InterruptedException e) {
+                CLog.e("Interrupted while waiting for shard results to be forwarded.");
+                Thread.currentThread().interrupt();
+            }
+            synchronized (mMasterListener) {
+                mMasterListener.invocationEnded(elapsedTime);
+            }
+            return;
+        }
         synchronized (mMasterListener) {
             logShardContent(getRunResults());
-            IInvocationContext moduleContext = null;
-            for (TestRunResult runResult : getRunResults()) {
-                // Stop or start the module
-                if (moduleContext != null
-                        && !getModuleContextForRunResult(runResult).equals(moduleContext)) {
-                    mMasterListener.testModuleEnded();
-                    moduleContext = null;
-                }
-                if (moduleContext == null && getModuleContextForRunResult(runResult) != null) {
-                    moduleContext = getModuleContextForRunResult(runResult);
-                    mMasterListener.testModuleStarted(moduleContext);
-                }
+            forwardRunResults(collectRunResults());
+            mMasterListener.invocationEnded(elapsedTime);
+        }
+    }
+
+    /** Returns the run results not forwarded yet associated with their module context. */
+    private Map<TestRunResult, IInvocationContext> collectRunResults() {
+        Map<TestRunResult, IInvocationContext> results = new LinkedHashMap<>();
+        for (TestRunResult runResult : getRunResults()) {
+            results.put(runResult, getModuleContextForRunResult(runResult));
+        }
+        return results;
+    }
 
-                mMasterListener.testRunStarted(runResult.getName(), runResult.getNumTests());
-                forwardTestResults(runResult.getTestResults());
-                if (runResult.isRunFailure()) {
-                    mMasterListener.testRunFailed(runResult.getRunFailureMessage());
+    /** Hand over all the run results collected so far to the dispatcher. */
+    private void dispatchCompletedResults() {
+        Map<TestRunResult, IInvocationContext> results = collectRunResults();
+        if (results.isEmpty()) {
+            return;
+        }
+        clearRunResults(results.keySet());
+        enqueue(results);
+    }
+
+    /**
+     * Add results to the queue of the dispatcher, waiting for space if the master listener is
+     * slower than the shard.
+     */
+    private void enqueue(Map<TestRunResult, IInvocationContext> results) {
+        try {
+            mPendingResults.put(results);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (!results.isEmpty()) {
+                // do not lose the results, forward them directly.
+                synchronized (mMasterListener) {
+                    forwardRunResults(results);
                 }
-                mMasterListener.testRunEnded(runResult.getElapsedTime(), runResult.getRunMetrics());
+            } else {
+                mDispatcher.interrupt();
             }
-            // Close the last module
-            if (moduleContext != null) {
+        }
+    }
+
+    /**
+     * Forward the given run results to the master listener, reporting the module boundaries.
+     * Caller must hold the lock on the master listener.
+     */
+    private void forwardRunResults(Map<TestRunResult, IInvocationContext> results) {
+        IInvocationContext moduleContext = null;
+        for (Map.Entry<TestRunResult, IInvocationContext> entry : results.entrySet()) {
+            TestRunResult runResult = entry.getKey();
+            IInvocationContext runModuleContext = entry.getValue();
+            // Stop or start the module
+            if (moduleContext != null && !moduleContext.equals(runModuleContext)) {
                 mMasterListener.testModuleEnded();
                 moduleContext = null;
             }
-            mMasterListener.invocationEnded(elapsedTime);
+            if (moduleContext == null && runModuleContext != null) {
+                moduleContext = runModuleContext;
+                mMasterListener.testModuleStarted(moduleContext);
+            }
+
+            mMasterListener.testRunStarted(runResult.getName(), runResult.getNumTests());
+            forwardTestResults(runResult.getTestResults());
+            if (runResult.isRunFailure()) {
+                mMasterListener.testRunFailed(runResult.getRunFailureMessage());
+            }
+            mMasterListener.testRunEnded(runResult.getElapsedTime(), runResult.getRunMetrics());
+        }
+        // Close the last module
+        if (moduleContext != null) {
+            mMasterListener.testModuleEnded();
         }
     }
 
@@ -169,12 +335,15 @@ public class ShardListener extends CollectingTestListener {
         }
     }
 
+    /** Returns the serial of the primary device of the shard. */
+    private String getShardName() {
+        return getInvocationContext().getDevices().get(0).getSerialNumber();
+    }
+
     /** Log the content of the shard for easier debugging. */
     private void logShardContent(Collection<TestRunResult> listResults) {
         CLog.d("=================================================");
-        CLog.d(
-                "========== Shard Primary Device %s ==========",
-                getInvocationContext().getDevices().get(0).getSerialNumber());
+        CLog.d("========== Shard Primary Device %s ==========", getShardName());
         for (TestRunResult runRes : listResults) {
             CLog.d(
                     "\tRan '%s' in %s",
@@ -37,9 +37,11 @@ import com.android.tradefed.invoker.shard.IShardHelper;
 import com.android.tradefed.invoker.shard.ShardBuildCloner;
 import com.android.tradefed.log.ILeveledLogOutput;
 import com.android.tradefed.log.ILogRegistry;
+import com.android.tradefed.log.ITestLogger;
 import com.android.tradefed.log.LogRegistry;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.result.AggregatingProfilerListener;
+import com.android.tradefed.result.AsyncResultForwarder;
 import com.android.tradefed.result.ITestInvocationListener;
 import com.android.tradefed.result.ITestLoggerReceiver;
 import com.android.tradefed.result.InputStreamSource;
@@ -68,6 +70,7 @@ import com.android.tradefed.util.RunInterruptedException;
 import com.android.tradefed.util.RunUtil;
 import com.android.tradefed.util.StreamUtil;
 import com.android.tradefed.util.SystemUtil;
+import com.android.tradefed.util.TimeUtil;
 
 import com.google.common.annotations.VisibleForTesting;
 
@@ -75,10 +78,19 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -99,6 +111,10 @@ public class TestInvocation implements ITestInvocation {
     private static final String BATTERY_ATTRIBUTE_FORMAT_KEY = "%s-battery-%s";
     /** Key of the command line args attributes */
     private static final String COMMAND_ARGS_KEY = "command_line_args";
+    /** How often the parallel setup of the devices checks if the invocation was interrupted. */
+    private static final long SETUP_POLL_INTERVAL_MS = 1000;
+    /** How long to wait for the setup of the devices to stop once it was cancelled. */
+    private static final long SETUP_TERMINATION_TIMEOUT_MS = 5 * 60 * 1000;
 
     static final String TRADEFED_LOG_NAME = "host_log";
     static final String DEVICE_LOG_NAME_PREFIX = "device_logcat_";
@@ -478,13 +494,45 @@ public class TestInvocation implements ITestInvocation {
             IConfiguration config,
             final ITestInvocationListener listener)
             throws TargetSetupError, BuildError, DeviceNotAvailableException {
-        // TODO: evaluate doing device setup in parallel
+        if (config.getCommandOptions().shouldRunParallelSetup()
+                && context.getDeviceConfigNames().size() > 1) {
+            doParallelDeviceSetup(context, config, listener);
+        } else {
+            for (String deviceName : context.getDeviceConfigNames()) {
+                doDeviceSetup(context, config, listener, deviceName);
+            }
+        }
+        // After all the individual setup, make the multi-devices setup
+        for (IMultiTargetPreparer multipreparer : config.getMultiTargetPreparers()) {
+            if (multipreparer instanceof ITestLoggerReceiver) {
+                ((ITestLoggerReceiver) multipreparer).setTestLogger(listener);
+            }
+            CLog.d("Starting multi target preparer '%s'", multipreparer);
+            multipreparer.setUp(context);
+            CLog.d("done with multi target preparer '%s'", multipreparer);
+        }
+        if (config.getProfiler() != null) {
+            config.getProfiler().setUp(context);
+        }
+        // Upload setup logcat after setup is complete
         for (String deviceName : context.getDeviceConfigNames()) {
-            ITestDevice device = context.getDevice(deviceName);
-            CLog.d("Starting setup for device: '%s'", device.getSerialNumber());
+            reportLogs(context.getDevice(deviceName), listener, Stage.SETUP);
+        }
+    }
+
+    /** Run the pre invocation setup and the target preparers of one device. */
+    private void doDeviceSetup(
+            IInvocationContext context,
+            IConfiguration config,
+            ITestLogger logger,
+            String deviceName)
+            throws TargetSetupError, BuildError, DeviceNotAvailableException {
+        long start = System.currentTimeMillis();
+        ITestDevice device = context.getDevice(deviceName);
+        CLog.d("Starting setup for device: '%s'", device.getSerialNumber());
+        try {
             if (device instanceof ITestLoggerReceiver) {
-                ((ITestLoggerReceiver) context.getDevice(deviceName))
-                        .setTestLogger(listener);
+                ((ITestLoggerReceiver) device).setTestLogger(logger);
             }
             if (!config.getCommandOptions().shouldSkipPreDeviceSetup()) {
                 device.preInvocationSetup(context.getBuildInfo(deviceName));
@@ -492,7 +540,7 @@ public class TestInvocation implements ITestInvocation {
             for (ITargetPreparer preparer : config.getDeviceConfigByName(deviceName)
                     .getTargetPreparers()) {
                 if (preparer instanceof ITestLoggerReceiver) {
-                    ((ITestLoggerReceiver) preparer).setTestLogger(listener);
+                    ((ITestLoggerReceiver) preparer).setTestLogger(logger);
                 }
                 CLog.d(
                         "starting preparer '%s' on device: '%s'",
@@ -502,23 +550,126 @@ public class TestInvocation implements ITestInvocation {
                         "done with preparer '%s' on device: '%s'",
                         preparer, device.getSerialNumber());
             }
-            CLog.d("Done with setup of device: '%s'", device.getSerialNumber());
+        } finally {
+            long elapsed = System.currentTimeMillis() - start;
+            context.addDeviceSetupTime(deviceName, elapsed);
+            CLog.d("Done with setup of device: '%s' in %s", device.getSerialNumber(),
+                    TimeUtil.formatElapsedTime(elapsed));
         }
-        // After all the individual setup, make the multi-devices setup
-        for (IMultiTargetPreparer multipreparer : config.getMultiTargetPreparers()) {
-            if (multipreparer instanceof ITestLoggerReceiver) {
-                ((ITestLoggerReceiver) multipreparer).setTestLogger(listener);
+    }
+
+    /**
+     * Set up each device on its own thread. On the first failure, or if the invocation is
+     * interrupted, the setup of the other devices is cancelled and the exception is thrown once
+     * they are all stopped, or after {@link #SETUP_TERMINATION_TIMEOUT_MS}.
+     */
+    private void doParallelDeviceSetup(
+            final IInvocationContext context,
+            final IConfiguration config,
+            final ITestInvocationListener listener)
+            throws TargetSetupError, BuildError, DeviceNotAvailableException {
+        // preparers of different devices may log at the same time
+        final ITestLogger logger =
+                new ITestLogger() {
+                    @Override
+                    public void testLog(
+                            String dataName, LogDataType dataType, InputStreamSource dataStream) {
+                        synchronized (listener) {
+                            listener.testLog(dataName, dataType, dataStream);
+                        }
+                    }
+                };
+        List<String> deviceNames = context.getDeviceConfigNames();
+        // threads are created from the invocation thread, so they log in the invocation log
+        ExecutorService executor = Executors.newFixedThreadPool(deviceNames.size());
+        CompletionService<String> completion = new ExecutorCompletionService<>(executor);
+        Map<Future<String>, String> setups = new HashMap<>();
+        final List<Thread> workers = Collections.synchronizedList(new ArrayList<Thread>());
+        Throwable failure = null;
+        try {
+            for (final String deviceName : deviceNames) {
+                Future<String> setup =
+                        completion.submit(
+                                new Callable<String>() {
+                                    @Override
+                                    public String call() throws Exception {
+                                        workers.add(Thread.currentThread());
+                                        // always cancellable, whatever the invocation thread
+                                        // allows, so that no device is left being set up.
+                                        getRunUtil().allowInterrupt(true);
+                                        doDeviceSetup(context, config, logger, deviceName);
+                                        return deviceName;
+                                    }
+                                });
+                setups.put(setup, deviceName);
+            }
+            int done = 0;
+            while (done < deviceNames.size() && failure == null) {
+                getRunUtil().checkInterrupted();
+                Future<String> setup =
+                        completion.poll(SETUP_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (setup == null) {
+                    continue;
+                }
+                done++;
+                try {
+                    setup.get();
+                } catch (ExecutionException e) {
+                    failure = e.getCause();
+                    CLog.e(
+                            "Setup of device '%s' failed, cancelling the setup of the other "
+                                    + "devices: %s",
+                            setups.get(setup), failure.toString());
+                }
+            }
+        } catch (InterruptedException e) {
+            failure = new RunInterruptedException(e);
+        } catch (RunInterruptedException e) {
+            CLog.e("Invocation interrupted, cancelling the setup of the devices");
+            failure = e;
+        } finally {
+            if (failure != null) {
+                // preparers mostly wait in run operations, which only stop on a run interrupt.
+                synchronized (workers) {
+                    for (Thread worker : workers) {
+                        getRunUtil().interrupt(worker, "The setup of the devices was cancelled");
+                    }
+                }
+            }
+            executor.shutdownNow();
+            // the interrupted flag is set by a run interrupt, clear it to wait for the workers.
+            boolean interrupted = Thread.interrupted();
+            try {
+                // do not tear down while a device is still being set up
+                if (!executor.awaitTermination(
+                        SETUP_TERMINATION_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    CLog.e("The setup of the devices did not stop within %s",
+                            TimeUtil.formatElapsedTime(SETUP_TERMINATION_TIMEOUT_MS));
+                }
+            } catch (InterruptedException e) {
+                CLog.w("Interrupted while waiting for the setup of the devices to stop");
+                interrupted = true;
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
             }
-            CLog.d("Starting multi target preparer '%s'", multipreparer);
-            multipreparer.setUp(context);
-            CLog.d("done with multi target preparer '%s'", multipreparer);
         }
-        if (config.getProfiler() != null) {
-            config.getProfiler().setUp(context);
+        for (Entry<String, Long> setupTime : context.getDeviceSetupTimes().entrySet()) {
+            CLog.i("Setup time of device '%s': %s", setupTime.getKey(),
+                    TimeUtil.formatElapsedTime(setupTime.getValue()));
         }
-        // Upload setup logcat after setup is complete
-        for (String deviceName : context.getDeviceConfigNames()) {
-            reportLogs(context.getDevice(deviceName), listener, Stage.SETUP);
+        if (failure instanceof TargetSetupError) {
+            throw (TargetSetupError) failure;
+        } else if (failure instanceof BuildError) {
+            throw (BuildError) failure;
+        } else if (failure instanceof DeviceNotAvailableException) {
+            throw (DeviceNotAvailableException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
         }
     }
 
@@ -941,6 +1092,11 @@ public class TestInvocation implements ITestInvocation {
         if (config.getProfiler() != null) {
             allListeners.add(new AggregatingProfilerListener(config.getProfiler()));
         }
+        allListeners =
+                AsyncResultForwarder.wrapListeners(
+                        allListeners,
+                        config.getCommandOptions().getAsyncResultReporters(),
+                        config.getCommandOptions().getAsyncResultReporterQueueSize());
         ITestInvocationListener listener =
                 new LogSaverResultForwarder(config.getLogSaver(), allListeners);
         try {
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.invoker.shard;
+
+import com.android.tradefed.testtype.IRemoteTest;
+import com.android.tradefed.testtype.IRuntimeHintProvider;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * {@link Comparator} ordering {@link IRemoteTest}s from the longest to the shortest expected
+ * runtime, so the longest work of a pool is handed out first. Tests that do not provide a runtime
+ * hint are ordered last.
+ *
+ * <p>The runtime hints are read once when the comparator is created: a hint can be expensive to
+ * compute and is not guaranteed to stay the same, while a sorted collection needs the order of its
+ * elements to stay fixed.
+ */
+public class RuntimeHintComparator implements Comparator<IRemoteTest> {
+
+    private final Map<IRemoteTest, Long> mHints = new IdentityHashMap<>();
+
+    /**
+     * Creates a comparator for the given tests.
+     *
+     * @param tests the tests to compare, their runtime hint is read once here.
+     */
+    public RuntimeHintComparator(Collection<IRemoteTest> tests) {
+        for (IRemoteTest test : tests) {
+            mHints.put(test, getRuntimeHint(test));
+        }
+    }
+
+    @Override
+    public int compare(IRemoteTest test1, IRemoteTest test2) {
+        return Long.compare(getStoredHint(test2), getStoredHint(test1));
+    }
+
+    /** Returns the hint read at creation, or the current hint of a test not known then. */
+    private long getStoredHint(IRemoteTest test) {
+        Long hint = mHints.get(test);
+        return hint != null ? hint : getRuntimeHint(test);
+    }
+
+    /** Returns the runtime hint of a test or 0 if it does not provide one. */
+    public static long getRuntimeHint(IRemoteTest test) {
+        if (test instanceof IRuntimeHintProvider) {
+            return ((IRuntimeHintProvider) test).getRuntimeHint();
+        }
+        return 0l;
+    }
+}
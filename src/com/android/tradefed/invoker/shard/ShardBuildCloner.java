@@ -21,6 +21,7 @@ import com.android.tradefed.config.ConfigurationException;
 import com.android.tradefed.config.IConfiguration;
 import com.android.tradefed.invoker.IInvocationContext;
 import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.TimeUtil;
 
 /**
  * Helper class that handles cloning a build info from the command line. Shard will get the build
@@ -38,7 +39,12 @@ public class ShardBuildCloner {
     public static void cloneBuildInfos(
             IConfiguration fromConfig, IConfiguration toConfig, IInvocationContext context) {
         for (String deviceName : context.getDeviceConfigNames()) {
+            long startTime = System.currentTimeMillis();
             IBuildInfo toBuild = context.getBuildInfo(deviceName).clone();
+            CLog.d(
+                    "Cloned build info of %s in %s",
+                    deviceName,
+                    TimeUtil.formatElapsedTime(System.currentTimeMillis() - startTime));
             try {
                 toConfig.getDeviceConfigByName(deviceName)
                         .addSpecificConfig(
@@ -35,8 +35,12 @@ import com.android.tradefed.util.QuotationAwareTokenizer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
 
 /** Helper class that handles creating the shards and scheduling them for an invocation. */
 public class ShardHelper implements IShardHelper {
@@ -86,22 +90,26 @@ public class ShardHelper implements IShardHelper {
             // available (like 4) for autosharding.
             if (shardCount != null) {
                 // We shuffle the tests for best results: avoid having the same module sub-tests
-                // contiguously in the list.
+                // contiguously in the list when they have the same runtime hint.
                 Collections.shuffle(shardableTests);
+                Collection<IRemoteTest> pool = createTestsPool(shardableTests);
                 int maxShard = Math.min(shardCount, shardableTests.size());
                 CountDownLatch tracker = new CountDownLatch(maxShard);
+                Map<String, Long> pollersEndTime = new HashMap<>();
                 for (int i = 0; i < maxShard; i++) {
                     IConfiguration shardConfig = config.clone();
-                    shardConfig.setTest(new TestsPoolPoller(shardableTests, tracker));
+                    shardConfig.setTest(new TestsPoolPoller(pool, tracker, pollersEndTime));
                     rescheduleConfig(shardConfig, config, context, rescheduler, resultCollector);
                 }
             } else {
+                Collection<IRemoteTest> pool = createTestsPool(shardableTests);
                 CountDownLatch tracker = new CountDownLatch(shardableTests.size());
+                Map<String, Long> pollersEndTime = new HashMap<>();
                 for (IRemoteTest testShard : shardableTests) {
                     CLog.i("Rescheduling sharded config...");
                     IConfiguration shardConfig = config.clone();
                     if (config.getCommandOptions().shouldUseDynamicSharding()) {
-                        shardConfig.setTest(new TestsPoolPoller(shardableTests, tracker));
+                        shardConfig.setTest(new TestsPoolPoller(pool, tracker, pollersEndTime));
                     } else {
                         shardConfig.setTest(testShard);
                     }
@@ -118,6 +126,19 @@ public class ShardHelper implements IShardHelper {
         return true;
     }
 
+    /**
+     * Creates the pool of tests shared by the {@link TestsPoolPoller}s. The pool hands out the
+     * tests with the longest runtime hint first, so the shortest ones fill in the end of the
+     * invocation. The hint of each test is read once, here.
+     */
+    static Collection<IRemoteTest> createTestsPool(List<IRemoteTest> tests) {
+        Queue<IRemoteTest> pool =
+                new PriorityBlockingQueue<>(
+                        Math.max(1, tests.size()), new RuntimeHintComparator(tests));
+        pool.addAll(tests);
+        return pool;
+    }
+
     public void rescheduleConfig(
             IConfiguration shardConfig,
             IConfiguration config,
@@ -128,7 +149,11 @@ public class ShardHelper implements IShardHelper {
         ShardBuildCloner.cloneBuildInfos(config, shardConfig, context);
 
         shardConfig.setTestInvocationListeners(
-                buildShardListeners(resultCollector, config.getTestInvocationListeners()));
+                buildShardListeners(
+                        resultCollector,
+                        config.getTestInvocationListeners(),
+                        config.getCommandOptions().shouldStreamShardResults(),
+                        config.getCommandOptions().shouldCompactShardResults()));
         shardConfig.setLogOutput(config.getLogOutput().clone());
         shardConfig.setCommandOptions(config.getCommandOptions().clone());
         // use the same {@link ITargetPreparer}, {@link IDeviceRecovery} etc as original config
@@ -214,14 +239,18 @@ public class ShardHelper implements IShardHelper {
      * shard collector.
      */
     private static List<ITestInvocationListener> buildShardListeners(
-            ITestInvocationListener resultCollector, List<ITestInvocationListener> origListeners) {
+            ITestInvocationListener resultCollector,
+            List<ITestInvocationListener> origListeners,
+            boolean streamResults,
+            boolean compactResults) {
         List<ITestInvocationListener> shardListeners = new ArrayList<ITestInvocationListener>();
         for (ITestInvocationListener l : origListeners) {
             if (l instanceof IShardableListener) {
                 shardListeners.add(((IShardableListener) l).clone());
             }
         }
-        ShardListener origConfigListener = new ShardListener(resultCollector);
+        ShardListener origConfigListener =
+                new ShardListener(resultCollector, streamResults, compactResults);
         shardListeners.add(origConfigListener);
         return shardListeners;
     }
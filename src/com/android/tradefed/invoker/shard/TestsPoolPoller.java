@@ -36,11 +36,13 @@ import com.android.tradefed.testtype.IMultiDeviceTest;
 import com.android.tradefed.testtype.IRemoteTest;
 import com.android.tradefed.testtype.ITestCollector;
 import com.android.tradefed.util.StreamUtil;
+import com.android.tradefed.util.TimeUtil;
 
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 
 /**
@@ -63,6 +65,7 @@ public class TestsPoolPoller
 
     private Collection<IRemoteTest> mGenericPool;
     private CountDownLatch mTracker;
+    private Map<String, Long> mPollersEndTime;
 
     private ITestDevice mDevice;
     private IBuildInfo mBuildInfo;
@@ -79,12 +82,33 @@ public class TestsPoolPoller
      * @param tracker a {@link CountDownLatch} shared to get the number of running poller.
      */
     public TestsPoolPoller(Collection<IRemoteTest> tests, CountDownLatch tracker) {
+        this(tests, tracker, null);
+    }
+
+    /**
+     * Ctor where the pool of {@link IRemoteTest} is provided, along with a map shared by all the
+     * pollers of the pool to record when each of them ran out of tests.
+     *
+     * @param tests {@link IRemoteTest}s pool of all tests. If the pool is a {@link BlockingQueue},
+     *     tests are polled in its order without additional locking.
+     * @param tracker a {@link CountDownLatch} shared to get the number of running poller.
+     * @param pollersEndTime map shared by the pollers, used to report how long each of them stayed
+     *     idle at the end of the invocation. Can be null.
+     */
+    public TestsPoolPoller(
+            Collection<IRemoteTest> tests,
+            CountDownLatch tracker,
+            Map<String, Long> pollersEndTime) {
         mGenericPool = tests;
         mTracker = tracker;
+        mPollersEndTime = pollersEndTime;
     }
 
     /** Returns the first {@link IRemoteTest} from the pool or null if none remaining. */
     IRemoteTest poll() {
+        if (mGenericPool instanceof BlockingQueue) {
+            return ((BlockingQueue<IRemoteTest>) mGenericPool).poll();
+        }
         synchronized (mGenericPool) {
             if (mGenericPool.isEmpty()) {
                 return null;
@@ -147,7 +171,39 @@ public class TestsPoolPoller
                 }
             }
         } finally {
+            if (mPollersEndTime == null) {
+                mTracker.countDown();
+            } else {
+                recordEndTime();
+            }
+        }
+    }
+
+    /**
+     * Record when this poller ran out of tests. The last poller to finish reports how long each
+     * poller stayed idle while the others were still running.
+     */
+    private void recordEndTime() {
+        synchronized (mPollersEndTime) {
+            String name = mDevice != null ? mDevice.getSerialNumber() : toString();
+            long endTime = System.currentTimeMillis();
+            mPollersEndTime.put(name, endTime);
             mTracker.countDown();
+            if (mTracker.getCount() > 0) {
+                return;
+            }
+            long maxIdle = 0l;
+            for (Map.Entry<String, Long> entry : mPollersEndTime.entrySet()) {
+                long idle = endTime - entry.getValue();
+                maxIdle = Math.max(maxIdle, idle);
+                CLog.i(
+                        "Poller for %s was idle for %s at the end of the invocation.",
+                        entry.getKey(), TimeUtil.formatElapsedTime(idle));
+            }
+            CLog.logAndDisplay(
+                    LogLevel.INFO,
+                    "Longest poller idle time at the end of the invocation: %s",
+                    TimeUtil.formatElapsedTime(maxIdle));
         }
     }
 
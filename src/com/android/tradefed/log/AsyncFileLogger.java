@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.log;
+
+import com.android.tradefed.config.OptionClass;
+import com.android.tradefed.config.OptionCopier;
+import com.android.tradefed.result.InputStreamSource;
+import com.android.tradefed.util.HostThreadFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link FileLogger} that does not write to its file from the logging threads.
+ *
+ * <p>Log messages of all the {@link AsyncFileLogger}s go to a shared lock-free {@link
+ * LogRingBuffer}, drained by a single writer thread into the file of each logger. Logging threads
+ * therefore never contend on the file streams, and only wait for the writer when the buffer is
+ * full. The writer is parked while the buffer is empty, and unparked by the next message logged.
+ * The log data is flushed before being read or closed, so {@link #getLog()} contains every message
+ * logged before the call.
+ */
+@OptionClass(alias = "async-file")
+public class AsyncFileLogger extends FileLogger {
+
+    private static final int BUFFER_CAPACITY = 64 * 1024;
+
+    private static final LogRingBuffer<Record> BUFFER = new LogRingBuffer<>(BUFFER_CAPACITY);
+    /** Created in the host group, whichever thread first loads the class. */
+    private static final Thread WRITER =
+            new HostThreadFactory("AsyncFileLogger-writer-").newThread(new Writer());
+    /** The number of messages written so far, only written by the writer thread. */
+    private static volatile long sWrittenCount = 0;
+    /** Whether the writer is about to park or parked, so the next message must unpark it. */
+    private static volatile boolean sWriterIdle = false;
+    /** Notified by the writer after each message while {@link #flush()} waits on it. */
+    private static final Object FLUSH_LOCK = new Object();
+    /** The number of threads waiting in {@link #flush()}, only written with the lock held. */
+    private static volatile int sFlushWaiters = 0;
+
+    static {
+        WRITER.start();
+    }
+
+    /** A message waiting to be written to the file of its logger. */
+    private static class Record {
+        private final AsyncFileLogger mLogger;
+        private final String mMessage;
+
+        Record(AsyncFileLogger logger, String message) {
+            mLogger = logger;
+            mMessage = message;
+        }
+    }
+
+    /** Writes the messages of the buffer in order, for as long as the process runs. */
+    private static class Writer implements Runnable {
+        @Override
+        public void run() {
+            while (true) {
+                Record record = BUFFER.poll();
+                if (record == null) {
+                    waitForRecords();
+                    continue;
+                }
+                try {
+                    record.mLogger.writeNow(record.mMessage);
+                } catch (IOException | RuntimeException e) {
+                    // not logged, to not loop on a failing log
+                    System.err.println(
+                            String.format("Failed to write a message to the log: %s", e));
+                }
+                sWrittenCount = sWrittenCount + 1;
+                if (sFlushWaiters > 0) {
+                    synchronized (FLUSH_LOCK) {
+                        FLUSH_LOCK.notifyAll();
+                    }
+                }
+            }
+        }
+
+        /** Park until a message is added to the buffer. */
+        private void waitForRecords() {
+            sWriterIdle = true;
+            // a message added before the writer was seen idle would not unpark it, check again.
+            if (BUFFER.getAddedCount() == BUFFER.getRemovedCount()) {
+                LockSupport.park(this);
+            }
+            sWriterIdle = false;
+        }
+    }
+
+    /**
+     * Creates a new {@link AsyncFileLogger} with the same log level settings as the current
+     * object.
+     */
+    @Override
+    public ILeveledLogOutput clone() {
+        AsyncFileLogger logger = new AsyncFileLogger();
+        OptionCopier.copyOptionsNoThrow(this, logger);
+        return logger;
+    }
+
+    /**
+     * Queue the message to be written by the writer thread.
+     */
+    @Override
+    void writeToLog(String outMessage) throws IOException {
+        Record record = new Record(this, outMessage);
+        while (!BUFFER.offer(record)) {
+            // buffer full: let the writer catch up
+            LockSupport.unpark(WRITER);
+            Thread.yield();
+        }
+        if (sWriterIdle) {
+            LockSupport.unpark(WRITER);
+        }
+    }
+
+    /** Writes a message to the log file, from the writer thread. */
+    private void writeNow(String outMessage) throws IOException {
+        super.writeToLog(outMessage);
+    }
+
+    /**
+     * Wait until all the messages logged so far, by any {@link AsyncFileLogger}, are written.
+     */
+    void flush() {
+        long target = BUFFER.getAddedCount();
+        if (sWrittenCount >= target) {
+            return;
+        }
+        synchronized (FLUSH_LOCK) {
+            sFlushWaiters++;
+            try {
+                while (sWrittenCount < target) {
+                    FLUSH_LOCK.wait();
+                }
+            } catch (InterruptedException e) {
+                // the log may miss the last messages
+                Thread.currentThread().interrupt();
+            } finally {
+                sFlushWaiters--;
+            }
+        }
+    }
+
+    /** Returns the writer thread. Exposed for testing. */
+    static Thread getWriterThread() {
+        return WRITER;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStreamSource getLog() {
+        flush();
+        return super.getLog();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void doCloseLog() {
+        flush();
+        super.doCloseLog();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void dumpToLog(InputStream inputStream) throws IOException {
+        flush();
+        super.dumpToLog(inputStream);
+    }
+}
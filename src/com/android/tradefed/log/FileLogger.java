@@ -53,7 +53,8 @@ public class FileLogger implements ILeveledLogOutput {
     @Option(name = "max-log-size", description = "maximum allowable size of tmp log data in mB.")
     private long mMaxLogSizeMbytes = 20;
 
-    private SizeLimitedOutputStream mLogStream;
+    /** Volatile since {@link AsyncFileLogger} writes from another thread than the one closing. */
+    private volatile SizeLimitedOutputStream mLogStream;
 
     /**
      * Adds tags to the log-tag-display list
@@ -148,8 +149,9 @@ public class FileLogger implements ILeveledLogOutput {
      * @throws IOException
      */
     void writeToLog(String outMessage) throws IOException {
-        if (mLogStream != null) {
-            mLogStream.write(outMessage.getBytes());
+        SizeLimitedOutputStream stream = mLogStream;
+        if (stream != null) {
+            stream.write(outMessage.getBytes());
         }
     }
 
@@ -197,11 +199,12 @@ public class FileLogger implements ILeveledLogOutput {
      */
     @Override
     public InputStreamSource getLog() {
-        if (mLogStream != null) {
+        SizeLimitedOutputStream stream = mLogStream;
+        if (stream != null) {
             try {
                 // create a InputStream from log file
-                mLogStream.flush();
-                return new SnapshotInputStreamSource("FileLogger", mLogStream.getData());
+                stream.flush();
+                return new SnapshotInputStreamSource("FileLogger", stream.getData());
             } catch (IOException e) {
                 System.err.println("Failed to get log");
                 e.printStackTrace();
@@ -239,8 +242,9 @@ public class FileLogger implements ILeveledLogOutput {
      * @throws IOException
      */
     void dumpToLog(InputStream inputStream) throws IOException {
-        if (mLogStream != null) {
-            StreamUtil.copyStreams(inputStream, mLogStream);
+        SizeLimitedOutputStream stream = mLogStream;
+        if (stream != null) {
+            StreamUtil.copyStreams(inputStream, stream);
         }
     }
 }
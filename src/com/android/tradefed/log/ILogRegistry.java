@@ -59,11 +59,40 @@ public interface ILogRegistry extends ILogOutput {
      */
     public LogLevel getGlobalLogDisplayLevel();
 
+    /**
+     * Check whether a message at the given level would be logged for the current thread, so that
+     * callers can skip building messages that would be filtered out.
+     *
+     * @param logLevel the {@link LogLevel} of the message
+     * @return <code>false</code> if the message would not be logged
+     */
+    public default boolean isLoggable(LogLevel logLevel) {
+        return true;
+    }
+
     /**
      * Registers the logger as the instance to use for the current thread.
      */
     public void registerLogger(ILeveledLogOutput log);
 
+    /**
+     * Returns the {@link ThreadGroup} whose logger is used for the current thread.
+     */
+    public default ThreadGroup getLoggingThreadGroup() {
+        return Thread.currentThread().getThreadGroup();
+    }
+
+    /**
+     * Use the logger of another {@link ThreadGroup} for the current thread, e.g. for a pooled
+     * thread running a task on behalf of an invocation.
+     *
+     * @param group the {@link ThreadGroup} whose logger to use, or <code>null</code> to use the
+     *     logger of the thread's own group again.
+     */
+    public default void setLoggingThreadGroup(ThreadGroup group) {
+        // logs are only routed by the group of the thread by default.
+    }
+
     /**
      * Unregisters the current logger in effect for the current thread.
      */
@@ -26,9 +26,9 @@ import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
 import java.util.Date;
-import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A {@link ILogRegistry} implementation that multiplexes and manages different loggers,
@@ -44,9 +44,12 @@ public class LogRegistry implements ILogRegistry {
     private static final String GLOBAL_LOG_PREFIX = "tradefed_global_log_";
     private static final String HISTORY_LOG_PREFIX = "tradefed_history_log_";
     private static LogRegistry mLogRegistry = null;
-    private Map<ThreadGroup, ILeveledLogOutput> mLogTable = new Hashtable<>();
+    /** Looked up on every log message, so reads must not lock. */
+    private Map<ThreadGroup, ILeveledLogOutput> mLogTable = new ConcurrentHashMap<>();
     private FileLogger mGlobalLogger;
     private HistoryLogger mHistoryLogger;
+    /** Group whose logger the current thread uses instead of the one of its own group. */
+    private final ThreadLocal<ThreadGroup> mLoggingThreadGroup = new ThreadLocal<>();
 
     /**
      * Package-private constructor; callers should use {@link #getLogRegistry} to get an instance of
@@ -153,15 +156,37 @@ public class LogRegistry implements ILogRegistry {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ThreadGroup getLoggingThreadGroup() {
+        return getCurrentThreadGroup();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setLoggingThreadGroup(ThreadGroup group) {
+        if (group == null) {
+            mLoggingThreadGroup.remove();
+        } else {
+            mLoggingThreadGroup.set(group);
+        }
+    }
+
     /**
      * Gets the current thread Group.
      * <p/>
      * Exposed so unit tests can mock
      *
-     * @return the ThreadGroup that the current thread belongs to
+     * @return the ThreadGroup that the current thread belongs to, or the one set by
+     *     {@link #setLoggingThreadGroup(ThreadGroup)}
      */
     ThreadGroup getCurrentThreadGroup() {
-        return Thread.currentThread().getThreadGroup();
+        ThreadGroup group = mLoggingThreadGroup.get();
+        return group != null ? group : Thread.currentThread().getThreadGroup();
     }
 
     /**
@@ -176,6 +201,14 @@ public class LogRegistry implements ILogRegistry {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isLoggable(LogLevel logLevel) {
+        return logLevel.getPriority() >= getLogger().getLogLevel().getPriority();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -190,14 +223,12 @@ public class LogRegistry implements ILogRegistry {
      * @return the logger for this thread, or null if one has not been registered.
      */
     ILeveledLogOutput getLogger() {
-        synchronized (mLogTable) {
-            ILeveledLogOutput log = mLogTable.get(getCurrentThreadGroup());
-            if (log == null) {
-                // If there's no logger set for this thread, use global logger
-                log = mGlobalLogger;
-            }
-            return log;
+        ILeveledLogOutput log = mLogTable.get(getCurrentThreadGroup());
+        if (log == null) {
+            // If there's no logger set for this thread, use global logger
+            log = mGlobalLogger;
         }
+        return log;
     }
 
     /**
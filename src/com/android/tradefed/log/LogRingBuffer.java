@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded lock-free ring buffer, with many producers and a single consumer.
+ *
+ * <p>Producers claim a slot by advancing the tail with a compare and set, then publish their
+ * element in it. The consumer empties the slots in order and advances the head, so a slot is
+ * only reused once consumed.
+ *
+ * @param <E> the type of the elements
+ */
+class LogRingBuffer<E> {
+
+    private final AtomicReferenceArray<E> mSlots;
+    private final int mMask;
+    private final AtomicLong mTail = new AtomicLong();
+    /** Only written by the consumer. */
+    private volatile long mHead = 0;
+
+    /**
+     * @param capacity the maximum number of elements, rounded up to a power of two
+     */
+    LogRingBuffer(int capacity) {
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mSlots = new AtomicReferenceArray<>(size);
+        mMask = size - 1;
+    }
+
+    /**
+     * Add an element to the buffer. Can be called by any thread.
+     *
+     * @return <code>false</code> if the buffer is full
+     */
+    boolean offer(E element) {
+        while (true) {
+            long tail = mTail.get();
+            if (tail - mHead > mMask) {
+                return false;
+            }
+            if (mTail.compareAndSet(tail, tail + 1)) {
+                mSlots.lazySet((int) tail & mMask, element);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Remove the oldest element of the buffer. Must only be called by the consumer thread.
+     *
+     * @return the element, or <code>null</code> if the buffer is empty or the oldest element is not
+     *     published yet
+     */
+    E poll() {
+        long head = mHead;
+        int index = (int) head & mMask;
+        E element = mSlots.get(index);
+        if (element == null) {
+            return null;
+        }
+        mSlots.lazySet(index, null);
+        mHead = head + 1;
+        return element;
+    }
+
+    /** Returns the number of elements added to the buffer so far. */
+    long getAddedCount() {
+        return mTail.get();
+    }
+
+    /** Returns the number of elements removed from the buffer so far. */
+    long getRemovedCount() {
+        return mHead;
+    }
+
+    /** Returns the capacity of the buffer. */
+    int getCapacity() {
+        return mMask + 1;
+    }
+}
@@ -36,6 +36,9 @@ public class LogUtil {
      */
     private LogUtil() {}
 
+    private static final String TIMESTAMP_FORMAT = "MM-dd HH:mm:ss";
+    private static volatile CachedTimestamp sTimestamp = null;
+
     /**
      * Sent when a log message needs to be printed.  This implementation prints the message to
      * stdout in all cases.
@@ -56,9 +59,47 @@ public class LogUtil {
      * @see Log#getLogFormatString(LogLevel, String, String)
      */
     public static String getLogFormatString(LogLevel logLevel, String tag, String message) {
-        SimpleDateFormat formatter = new SimpleDateFormat("MM-dd HH:mm:ss");
-        return String.format("%s %c/%s: %s\n", formatter.format(new Date()),
-                logLevel.getPriorityLetter(), tag, message);
+        String timestamp = getTimestamp(System.currentTimeMillis());
+        int length = timestamp.length() + (message == null ? 0 : message.length()) + 40;
+        StringBuilder builder =
+                new StringBuilder(length)
+                        .append(timestamp)
+                        .append(' ')
+                        .append(logLevel.getPriorityLetter())
+                        .append('/')
+                        .append(tag)
+                        .append(": ")
+                        .append(message)
+                        .append('\n');
+        return builder.toString();
+    }
+
+    /**
+     * Returns the timestamp of a log message. The timestamp only has a precision of one second, so
+     * it is formatted once per second and shared by all the messages logged during that second.
+     *
+     * @param timeMs the time of the message, in ms since the epoch
+     */
+    static String getTimestamp(long timeMs) {
+        long second = timeMs / 1000;
+        CachedTimestamp cached = sTimestamp;
+        if (cached == null || cached.mSecond != second) {
+            SimpleDateFormat formatter = new SimpleDateFormat(TIMESTAMP_FORMAT);
+            cached = new CachedTimestamp(second, formatter.format(new Date(timeMs)));
+            sTimestamp = cached;
+        }
+        return cached.mText;
+    }
+
+    /** A formatted timestamp, and the second it was formatted for. */
+    private static class CachedTimestamp {
+        private final long mSecond;
+        private final String mText;
+
+        CachedTimestamp(long second, String text) {
+            mSecond = second;
+            mText = text;
+        }
     }
 
     /**
@@ -69,6 +110,36 @@ public class LogUtil {
 
         protected static final String CLASS_NAME = CLog.class.getName();
         private static IGlobalConfiguration sGlobalConfig = null;
+        private static volatile ILogRegistry sLogRegistry = null;
+
+        /**
+         * Sets the {@link ILogRegistry} receiving the ddmlib logs, so that messages it would
+         * filter out are dropped before being formatted.
+         *
+         * @param logRegistry the {@link ILogRegistry}, or <code>null</code> to log all messages
+         */
+        public static void setLogRegistry(ILogRegistry logRegistry) {
+            sLogRegistry = logRegistry;
+        }
+
+        /**
+         * Returns the {@link ILogRegistry} receiving the ddmlib logs, or <code>null</code> if none
+         * was set.
+         */
+        public static ILogRegistry getLogRegistry() {
+            return sLogRegistry;
+        }
+
+        /**
+         * Check whether a message at the given level would be logged by the current thread.
+         *
+         * @param logLevel the {@link LogLevel} of the message
+         * @return <code>false</code> if the message would be filtered out
+         */
+        public static boolean isLoggable(LogLevel logLevel) {
+            ILogRegistry logRegistry = sLogRegistry;
+            return logRegistry == null || logRegistry.isLoggable(logLevel);
+        }
 
         /**
          * The shim version of {@link Log#v(String, String)}.
@@ -76,6 +147,9 @@ public class LogUtil {
          * @param message The {@code String} to log
          */
         public static void v(String message) {
+            if (!isLoggable(LogLevel.VERBOSE)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.v(getClassName(2), message);
         }
@@ -88,6 +162,9 @@ public class LogUtil {
          * @param args The format string arguments
          */
         public static void v(String format, Object... args) {
+            if (!isLoggable(LogLevel.VERBOSE)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.v(getClassName(2), String.format(format, args));
         }
@@ -98,6 +175,9 @@ public class LogUtil {
          * @param message The {@code String} to log
          */
         public static void d(String message) {
+            if (!isLoggable(LogLevel.DEBUG)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.d(getClassName(2), message);
         }
@@ -110,6 +190,9 @@ public class LogUtil {
          * @param args The format string arguments
          */
         public static void d(String format, Object... args) {
+            if (!isLoggable(LogLevel.DEBUG)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.d(getClassName(2), String.format(format, args));
         }
@@ -120,6 +203,9 @@ public class LogUtil {
          * @param message The {@code String} to log
          */
         public static void i(String message) {
+            if (!isLoggable(LogLevel.INFO)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.i(getClassName(2), message);
         }
@@ -132,6 +218,9 @@ public class LogUtil {
          * @param args The format string arguments
          */
         public static void i(String format, Object... args) {
+            if (!isLoggable(LogLevel.INFO)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.i(getClassName(2), String.format(format, args));
         }
@@ -142,6 +231,9 @@ public class LogUtil {
          * @param message The {@code String} to log
          */
         public static void w(String message) {
+            if (!isLoggable(LogLevel.WARN)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.w(getClassName(2), message);
         }
@@ -153,6 +245,9 @@ public class LogUtil {
          * @param t The {@link Throwable} to log
          */
         public static void w(Throwable t) {
+            if (!isLoggable(LogLevel.WARN)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.w(getClassName(2), getStackTraceString(t));
         }
@@ -165,6 +260,9 @@ public class LogUtil {
          * @param args The format string arguments
          */
         public static void w(String format, Object... args) {
+            if (!isLoggable(LogLevel.WARN)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.w(getClassName(2), String.format(format, args));
         }
@@ -175,6 +273,9 @@ public class LogUtil {
          * @param message The {@code String} to log
          */
         public static void e(String message) {
+            if (!isLoggable(LogLevel.ERROR)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.e(getClassName(2), message);
         }
@@ -187,6 +288,9 @@ public class LogUtil {
          * @param args The format string arguments
          */
         public static void e(String format, Object... args) {
+            if (!isLoggable(LogLevel.ERROR)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.e(getClassName(2), String.format(format, args));
         }
@@ -197,6 +301,9 @@ public class LogUtil {
          * @param t the {@link Throwable} to output.
          */
         public static void e(Throwable t) {
+            if (!isLoggable(LogLevel.ERROR)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.e(getClassName(2), t);
         }
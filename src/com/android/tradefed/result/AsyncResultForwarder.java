@@ -0,0 +1,539 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.result;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.invoker.IInvocationContext;
+import com.android.tradefed.log.LogUtil.CLog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link ITestInvocationListener} that forwards the events to another listener on a dedicated
+ * dispatcher thread, so a slow listener does not delay the test execution.
+ *
+ * <p>Events are delivered to the wrapped listener in the order they were received, through a
+ * bounded queue. When the queue is full, the caller waits for room in the queue: no event is ever
+ * dropped, since the listener would be left in an inconsistent state.
+ *
+ * <p>A single dispatcher thread is started by {@link #invocationStarted(IInvocationContext)}, and
+ * waits for events while the queue is empty. {@link #invocationEnded(long)} and {@link
+ * #invocationInterrupted()} wait for all the events to be delivered, then stop the dispatcher.
+ * Events received while no dispatcher runs are delivered on the calling thread.
+ *
+ * <p>Log events are delivered synchronously, after the events already queued, since the caller
+ * may close the log stream once the event returns.
+ */
+public class AsyncResultForwarder implements ILogSaverListener {
+
+    /** An event waiting to be delivered to the wrapped listener. */
+    private static class Event {
+        final Runnable mAction;
+        final long mEnqueueTime;
+
+        Event(Runnable action) {
+            mAction = action;
+            mEnqueueTime = System.currentTimeMillis();
+        }
+    }
+
+    private final ITestInvocationListener mListener;
+    private final int mCapacity;
+
+    private final Object mLock = new Object();
+    private final ArrayDeque<Event> mQueue = new ArrayDeque<>();
+    /** Number of events queued or being delivered. */
+    private int mPending = 0;
+    /** The dispatcher thread, null if not started or stopped. */
+    private Thread mDispatcher = null;
+
+    private long mEvents = 0;
+    private int mMaxQueueDepth = 0;
+    private long mTotalLatency = 0;
+    private long mMaxLatency = 0;
+
+    /**
+     * Create a {@link AsyncResultForwarder}.
+     *
+     * @param listener the {@link ITestInvocationListener} to forward the events to.
+     * @param capacity the maximum number of events waiting in the queue.
+     */
+    public AsyncResultForwarder(ITestInvocationListener listener, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1.");
+        }
+        mListener = listener;
+        mCapacity = capacity;
+    }
+
+    /** Returns the wrapped {@link ITestInvocationListener}. */
+    public ITestInvocationListener getListener() {
+        return mListener;
+    }
+
+    /** Returns the number of events waiting to be delivered. */
+    public int getQueueDepth() {
+        synchronized (mLock) {
+            return mPending;
+        }
+    }
+
+    /** Returns the maximum number of events that were waiting to be delivered at the same time. */
+    public int getMaxQueueDepth() {
+        synchronized (mLock) {
+            return mMaxQueueDepth;
+        }
+    }
+
+    /** Returns the average time in ms between an event being received and being delivered. */
+    public long getAverageDispatchLatency() {
+        synchronized (mLock) {
+            return mEvents == 0 ? 0 : mTotalLatency / mEvents;
+        }
+    }
+
+    /** Returns the maximum time in ms between an event being received and being delivered. */
+    public long getMaxDispatchLatency() {
+        synchronized (mLock) {
+            return mMaxLatency;
+        }
+    }
+
+    /**
+     * Queue an event, waiting for room if the queue is full. Delivers it on the calling thread,
+     * after the pending events, if the dispatcher is not running.
+     */
+    private void enqueue(Runnable action) {
+        Event event = new Event(action);
+        synchronized (mLock) {
+            while (true) {
+                if (mDispatcher != null && mQueue.size() < mCapacity) {
+                    mQueue.add(event);
+                    mPending++;
+                    mMaxQueueDepth = Math.max(mMaxQueueDepth, mPending);
+                    mLock.notifyAll();
+                    return;
+                }
+                if (mDispatcher == null && mPending == 0) {
+                    mPending++;
+                    break;
+                }
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    // keep waiting, dropping events would corrupt the listener state.
+                    CLog.w("Interrupted while waiting to forward an event to %s", mListener);
+                }
+            }
+        }
+        dispatch(event);
+    }
+
+    /**
+     * Start the dispatcher thread if not running, once the events of a stopped dispatcher are
+     * delivered.
+     */
+    private void startDispatcher() {
+        synchronized (mLock) {
+            if (mDispatcher != null) {
+                return;
+            }
+            while (mPending > 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    CLog.w("Interrupted while starting the dispatcher of %s", mListener);
+                }
+            }
+            mDispatcher =
+                    new Thread(
+                            String.format(
+                                    "AsyncResultForwarder-%s", mListener.getClass().getName())) {
+                        @Override
+                        public void run() {
+                            dispatchLoop(this);
+                        }
+                    };
+            mDispatcher.setDaemon(true);
+            mDispatcher.start();
+        }
+    }
+
+    /**
+     * Stop the dispatcher thread once it has delivered the queued events, and wait for it to exit.
+     */
+    private void stopDispatcher() {
+        Thread dispatcher;
+        synchronized (mLock) {
+            dispatcher = mDispatcher;
+            mDispatcher = null;
+            mLock.notifyAll();
+        }
+        if (dispatcher == null) {
+            return;
+        }
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            CLog.w("Interrupted while stopping the dispatcher of %s", mListener);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Deliver the queued events, waiting for more while the queue is empty, until stopped. */
+    private void dispatchLoop(Thread dispatcher) {
+        while (true) {
+            Event event;
+            synchronized (mLock) {
+                while (mQueue.isEmpty()) {
+                    if (mDispatcher != dispatcher) {
+                        return;
+                    }
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        // ignore, events still need to be delivered.
+                    }
+                }
+                event = mQueue.poll();
+                mLock.notifyAll();
+            }
+            dispatch(event);
+        }
+    }
+
+    /** Deliver one event to the wrapped listener. */
+    private void dispatch(Event event) {
+        long latency = System.currentTimeMillis() - event.mEnqueueTime;
+        try {
+            event.mAction.run();
+        } catch (RuntimeException e) {
+            CLog.e("RuntimeException while forwarding an event to %s",
+                    mListener.getClass().getName());
+            CLog.e(e);
+        }
+        synchronized (mLock) {
+            mEvents++;
+            mTotalLatency += latency;
+            mMaxLatency = Math.max(mMaxLatency, latency);
+            mPending--;
+            mLock.notifyAll();
+        }
+    }
+
+    /** Wait until all the events received so far have been delivered. */
+    private void drain() {
+        synchronized (mLock) {
+            while (mPending > 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    CLog.w("Interrupted while draining the events of %s", mListener);
+                }
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void invocationStarted(final IInvocationContext context) {
+        startDispatcher();
+        enqueue(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.invocationStarted(context);
+                    }
+                });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void invocationFailed(final Throwable cause) {
+        enqueue(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.invocationFailed(cause);
+                    }
+                });
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Waits until all the events, including this one, have been delivered, and stops the
+     * dispatcher.
+     */
+    @Override
+    public void invocationEnded(final long elapsedTime) {
+        enqueue(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.invocationEnded(elapsedTime);
+                    }
+                });
+        stopDispatcher();
+        CLog.d(
+                "Forwarded %d events to %s: max queue depth %d, dispatch latency average %d ms, "
+                        + "max %d ms",
+                mEvents,
+                mListener.getClass().getName(),
+                getMaxQueueDepth(),
+                getAverageDispatchLatency(),
+                getMaxDispatchLatency());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void invocationInterrupted() {
+        stopDispatcher();
+        mListener.invocationInterrupted();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public TestSummary getSummary() {
+        drain();
+        return mListener.getSummary();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testLog(String dataName, LogDataType dataType, InputStreamSource dataStream) {
+        // the stream may be closed by the caller once we return.
+        drain();
+        mListener.testLog(dataName, dataType, dataStream);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testLogSaved(
+            String dataName, LogDataType dataType, InputStreamSource dataStream, LogFile logFile) {
+        if (mListener instanceof ILogSaverListener) {
+            drain();
+            ((ILogSaverListener) mListener).testLogSaved(dataName, dataType, dataStream, logFile);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setLogSaver(ILogSaver logSaver) {
+        if (mListener instanceof ILogSaverListener) {
+            ((ILogSaverListener) mListener).setLogSaver(logSaver);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testModuleStarted(final IInvocationContext moduleContext) {
+        enqueue(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.testModuleStarted(moduleContext);
+                    }
+                });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testModuleEnded() {
+        enqueue(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.testModuleEnded();
+                    }
+                });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testRunStarted(final String runName, final int testCount) {
+        enqueue(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.testRunStarted(runName, testCount);
+                    }
+                });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testRunFailed(final String errorMessage) {
+        enqueue(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.testRunFailed(errorMessage);
+                    }
+                });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testRunStopped(final long elapsedTime) {
+        enqueue(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.testRunStopped(elapsedTime);
+                    }
+                });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testRunEnded(final long elapsedTime, Map<String, String> runMetrics) {
+        // the caller may reuse the map once we return.
+        final Map<String, String> metrics = copy(runMetrics);
+        enqueue(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.testRunEnded(elapsedTime, metrics);
+                    }
+                });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testStarted(final TestIdentifier test) {
+        enqueue(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.testStarted(test);
+                    }
+                });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testStarted(final TestIdentifier test, final long startTime) {
+        enqueue(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.testStarted(test, startTime);
+                    }
+                });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testFailed(final TestIdentifier test, final String trace) {
+        enqueue(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.testFailed(test, trace);
+                    }
+                });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testAssumptionFailure(final TestIdentifier test, final String trace) {
+        enqueue(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.testAssumptionFailure(test, trace);
+                    }
+                });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testIgnored(final TestIdentifier test) {
+        enqueue(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.testIgnored(test);
+                    }
+                });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testEnded(final TestIdentifier test, Map<String, String> testMetrics) {
+        final Map<String, String> metrics = copy(testMetrics);
+        enqueue(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.testEnded(test, metrics);
+                    }
+                });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testEnded(
+            final TestIdentifier test, final long endTime, Map<String, String> testMetrics) {
+        final Map<String, String> metrics = copy(testMetrics);
+        enqueue(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.testEnded(test, endTime, metrics);
+                    }
+                });
+    }
+
+    private static Map<String, String> copy(Map<String, String> metrics) {
+        return metrics == null ? null : new HashMap<>(metrics);
+    }
+
+    /**
+     * Wrap the selected listeners of a list into {@link AsyncResultForwarder}s.
+     *
+     * @param listeners the {@link ITestInvocationListener}s of the invocation.
+     * @param classNames the class names of the listeners to wrap.
+     * @param capacity the queue capacity of each wrapped listener.
+     * @return the list of listeners, with the selected ones wrapped.
+     */
+    public static List<ITestInvocationListener> wrapListeners(
+            List<ITestInvocationListener> listeners, Collection<String> classNames, int capacity) {
+        if (classNames.isEmpty()) {
+            return listeners;
+        }
+        List<ITestInvocationListener> wrapped = new ArrayList<>(listeners.size());
+        for (ITestInvocationListener listener : listeners) {
+            if (!classNames.contains(listener.getClass().getName())) {
+                wrapped.add(listener);
+            } else if (listener instanceof ITestSummaryListener) {
+                // summary listeners rely on being called after the summaries are collected.
+                CLog.w("%s is a summary listener and cannot be forwarded asynchronously.",
+                        listener.getClass().getName());
+                wrapped.add(listener);
+            } else {
+                wrapped.add(new AsyncResultForwarder(listener, capacity));
+            }
+        }
+        return wrapped;
+    }
+}
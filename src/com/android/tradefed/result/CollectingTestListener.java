@@ -57,6 +57,18 @@ public class CollectingTestListener implements ITestInvocationListener {
         "attempt to add test metrics values for test runs with the same name." )
     private boolean mIsAggregateMetrics = false;
 
+    @Option(name = "compact-results", description = "store the test results of each run in a "
+            + "compact form, and spill the completed runs to disk once they use more than "
+            + "'compact-results-spill-threshold' bytes of heap. Reduces the memory used by "
+            + "invocations with a very large number of tests.")
+    private boolean mCompactResults = false;
+
+    @Option(name = "compact-results-spill-threshold", description = "estimated size in bytes of "
+            + "the compact results of the completed runs above which they are spilled to disk.")
+    private long mSpillThreshold = 256L * 1024 * 1024;
+
+    private CompactTestResultStore mResultStore = null;
+
     private IBuildInfo mBuildInfo;
     private IInvocationContext mContext;
 
@@ -65,6 +77,11 @@ public class CollectingTestListener implements ITestInvocationListener {
         mIsAggregateMetrics = aggregate;
     }
 
+    /** Toggle the 'compact results' option */
+    protected void setCompactResults(boolean compact) {
+        mCompactResults = compact;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -137,9 +154,16 @@ public class CollectingTestListener implements ITestInvocationListener {
         if (mRunResultsMap.containsKey(name)) {
             // rerun of previous run. Add test results to it
             mCurrentResults = mRunResultsMap.get(name);
+            if (mCurrentResults instanceof CompactTestRunResult) {
+                getResultStore().runReopened((CompactTestRunResult) mCurrentResults);
+            }
         } else {
             // new run
-            mCurrentResults = new TestRunResult();
+            if (mCompactResults) {
+                mCurrentResults = new CompactTestRunResult(getResultStore());
+            } else {
+                mCurrentResults = new TestRunResult();
+            }
             mCurrentResults.setAggregateMetrics(mIsAggregateMetrics);
 
             mRunResultsMap.put(name, mCurrentResults);
@@ -209,6 +233,7 @@ public class CollectingTestListener implements ITestInvocationListener {
     public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
         mIsCountDirty = true;
         mCurrentResults.testRunEnded(elapsedTime, runMetrics);
+        runCompleted();
     }
 
     /**
@@ -227,6 +252,24 @@ public class CollectingTestListener implements ITestInvocationListener {
     public void testRunStopped(long elapsedTime) {
         mIsCountDirty = true;
         mCurrentResults.testRunStopped(elapsedTime);
+        runCompleted();
+    }
+
+    /** Let the current run results be compacted and spilled, if they are compact. */
+    private void runCompleted() {
+        if (mCurrentResults instanceof CompactTestRunResult) {
+            CompactTestRunResult results = (CompactTestRunResult) mCurrentResults;
+            results.seal();
+            getResultStore().runCompleted(results);
+        }
+    }
+
+    /** Returns the {@link CompactTestResultStore} of the compact run results, creating it. */
+    private synchronized CompactTestResultStore getResultStore() {
+        if (mResultStore == null) {
+            mResultStore = new CompactTestResultStore(mSpillThreshold);
+        }
+        return mResultStore;
     }
 
     /**
@@ -257,6 +300,21 @@ public class CollectingTestListener implements ITestInvocationListener {
         return mModuleContextMap.get(res);
     }
 
+    /**
+     * Stop tracking the given run results. Allows results that have already been consumed to be
+     * garbage collected.
+     */
+    protected void clearRunResults(Collection<TestRunResult> results) {
+        synchronized (mRunResultsMap) {
+            mRunResultsMap.values().removeAll(results);
+        }
+        mModuleContextMap.keySet().removeAll(results);
+        if (mResultStore != null) {
+            mResultStore.release(results);
+        }
+        mIsCountDirty = true;
+    }
+
     /** Returns True if the result map already has an entry for the run name. */
     public boolean hasResultFor(String runName) {
         return mRunResultsMap.containsKey(runName);
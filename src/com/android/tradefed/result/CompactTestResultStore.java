@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.result;
+
+import com.android.ddmlib.testrunner.TestRunResult;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The data shared by the {@link CompactTestRunResult}s of a {@link CollectingTestListener}: the
+ * interned class, method and metric names, the deduplicated stack traces, and the completed runs
+ * spilled to disk.
+ * <p>
+ * Completed runs are kept in heap until their estimated size crosses a threshold. They are then
+ * appended to a new file, which is memory-mapped and deleted right away: the mapping keeps the data
+ * readable, and lets the OS page it out, until the runs are garbage collected.
+ * </p>
+ */
+class CompactTestResultStore {
+
+    /** The largest file that can be mapped at once. */
+    private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+    private final long mSpillThreshold;
+    private final InternTable mNames = new InternTable();
+    private final InternTable mTraces = new InternTable();
+    /** Completed runs still held in heap, in completion order. */
+    private final Set<CompactTestRunResult> mHeapRuns = new LinkedHashSet<>();
+    private boolean mSpillFailed = false;
+    private int mSpilledRuns = 0;
+    private long mSpilledBytes = 0;
+
+    /**
+     * Creates a {@link CompactTestResultStore}.
+     *
+     * @param spillThreshold the estimated size in bytes of the completed runs held in heap above
+     *     which they are spilled to disk
+     */
+    CompactTestResultStore(long spillThreshold) {
+        mSpillThreshold = spillThreshold;
+    }
+
+    /** Returns the id of a class, method or metric name, adding it if needed. */
+    int internName(String name) {
+        return mNames.intern(name);
+    }
+
+    /** Returns the class, method or metric name of an id. */
+    String getName(int id) {
+        return mNames.get(id);
+    }
+
+    /** Returns the id of a stack trace, adding it if needed, or -1 if <code>null</code>. */
+    int internTrace(String trace) {
+        return mTraces.intern(trace);
+    }
+
+    /** Returns the stack trace of an id, or <code>null</code> for -1. */
+    String getTrace(int id) {
+        return mTraces.get(id);
+    }
+
+    /**
+     * Track a completed run, and spill all the completed runs held in heap if they use more than
+     * the threshold.
+     */
+    synchronized void runCompleted(CompactTestRunResult run) {
+        mHeapRuns.add(run);
+        if (mSpillFailed) {
+            return;
+        }
+        long heapSize = 0;
+        for (CompactTestRunResult heapRun : mHeapRuns) {
+            heapSize += heapRun.getHeapSize();
+        }
+        if (heapSize > mSpillThreshold) {
+            spill();
+        }
+    }
+
+    /** Stop tracking a run being updated again, so that it is not spilled while running. */
+    synchronized void runReopened(CompactTestRunResult run) {
+        mHeapRuns.remove(run);
+    }
+
+    /** Stop tracking runs that are not used anymore, so that they can be garbage collected. */
+    synchronized void release(Collection<TestRunResult> runs) {
+        mHeapRuns.removeAll(runs);
+    }
+
+    /** Returns the number of runs spilled to disk so far. */
+    synchronized int getSpilledRuns() {
+        return mSpilledRuns;
+    }
+
+    /** Returns the number of bytes spilled to disk so far. */
+    synchronized long getSpilledBytes() {
+        return mSpilledBytes;
+    }
+
+    /** Spill all the completed runs held in heap. */
+    private void spill() {
+        List<CompactTestRunResult> runs = new ArrayList<>(mHeapRuns);
+        int next = 0;
+        try {
+            while (next < runs.size()) {
+                int end = spillSegment(runs, next);
+                mHeapRuns.removeAll(runs.subList(next, end));
+                next = end;
+            }
+            CLog.d("Spilled %d test runs, %d bytes of results so far", mSpilledRuns,
+                    mSpilledBytes);
+        } catch (IOException e) {
+            // the runs not spilled stay in heap, and tracked
+            CLog.e("Failed to spill test results to disk, keeping them in memory.");
+            CLog.e(e);
+            mSpillFailed = true;
+        }
+    }
+
+    /**
+     * Write runs to a new file, as many as fit in a single mapping, and move their data to the
+     * mapped file.
+     *
+     * @param runs the runs to spill
+     * @param start the index of the first run to write
+     * @return the index of the first run not written
+     */
+    private int spillSegment(List<CompactTestRunResult> runs, int start) throws IOException {
+        File file = FileUtil.createTempFile("test-results", ".bin");
+        try {
+            long[] offsets = new long[runs.size() + 1];
+            int end = start;
+            long size = 0;
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                while (end < runs.size()) {
+                    byte[] data = runs.get(end).serialize();
+                    if (end > start && size + data.length > MAX_SEGMENT_SIZE) {
+                        break;
+                    }
+                    out.write(data);
+                    offsets[end] = size;
+                    size += data.length;
+                    end++;
+                }
+            }
+            offsets[end] = size;
+            MappedByteBuffer segment;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                segment = channel.map(MapMode.READ_ONLY, 0, size);
+            }
+            for (int i = start; i < end; i++) {
+                ByteBuffer data = segment.duplicate();
+                data.position((int) offsets[i]);
+                data.limit((int) offsets[i + 1]);
+                runs.get(i).spilled(data.slice());
+            }
+            mSpilledRuns += end - start;
+            mSpilledBytes += size;
+            return end;
+        } finally {
+            // the mapping keeps the data readable until the runs are garbage collected
+            FileUtil.deleteFile(file);
+        }
+    }
+
+    /** A table of unique strings, referenced by their index. */
+    private static class InternTable {
+        private final Map<String, Integer> mIds = new HashMap<>();
+        private final List<String> mValues = new ArrayList<>();
+
+        synchronized int intern(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer id = mIds.get(value);
+            if (id == null) {
+                id = mValues.size();
+                mValues.add(value);
+                mIds.put(value, id);
+            }
+            return id;
+        }
+
+        synchronized String get(int id) {
+            if (id < 0) {
+                return null;
+            }
+            return mValues.get(id);
+        }
+    }
+}
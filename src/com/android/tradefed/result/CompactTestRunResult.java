@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.result;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.ddmlib.testrunner.TestResult;
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import com.android.ddmlib.testrunner.TestRunResult;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link TestRunResult} storing its test results in a compact form.
+ * <p>
+ * Instead of a {@link TestIdentifier} and a {@link TestResult} per test, the class and method
+ * names are interned in a {@link CompactTestResultStore} and referenced by id, the statuses and
+ * times are stored in primitive arrays, and the stack traces are deduplicated. Once the run is
+ * completed, the {@link CompactTestResultStore} may move its data to a memory-mapped file.
+ * </p><p>
+ * The test results are rebuilt each time {@link #getTestResults()} is called, so callers should
+ * not hold on to them longer than needed.
+ * </p>
+ */
+class CompactTestRunResult extends TestRunResult {
+
+    private static final TestStatus[] STATUSES = TestStatus.values();
+    /** The end time of a test that has not ended. */
+    private static final long NOT_ENDED = Long.MIN_VALUE;
+    /** Estimated bytes used in heap by a test and by each of its metrics. */
+    private static final int TEST_HEAP_SIZE = 29;
+    private static final int METRIC_HEAP_SIZE = 80;
+
+    private final CompactTestResultStore mStore;
+    private final int[] mStatusCounts = new int[STATUSES.length];
+    /** The test results held in heap, or <code>null</code> if spilled. */
+    private Rows mRows = new Rows(16);
+    /** The test results spilled to a memory-mapped file, or <code>null</code> if in heap. */
+    private ByteBuffer mSpilled = null;
+    /** The row of each test, only kept while the run is being updated. */
+    private Map<TestIdentifier, Integer> mIndex = new HashMap<>();
+    private long mHeapSize = 0;
+
+    /**
+     * Creates a {@link CompactTestRunResult}.
+     *
+     * @param store the {@link CompactTestResultStore} interning the names and traces
+     */
+    CompactTestRunResult(CompactTestResultStore store) {
+        mStore = store;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testStarted(TestIdentifier test) {
+        testStarted(test, System.currentTimeMillis());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void testStarted(TestIdentifier test, long startTime) {
+        Rows rows = getHeapRows();
+        int row = getRow(rows, test);
+        setStatus(rows, row, TestStatus.INCOMPLETE);
+        rows.mStartTimes[row] = startTime;
+        rows.mEndTimes[row] = NOT_ENDED;
+        rows.mTraceIds[row] = -1;
+        rows.mMetrics.remove(row);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testFailed(TestIdentifier test, String trace) {
+        updateTestResult(test, TestStatus.FAILURE, trace);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testAssumptionFailure(TestIdentifier test, String trace) {
+        updateTestResult(test, TestStatus.ASSUMPTION_FAILURE, trace);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testIgnored(TestIdentifier test) {
+        updateTestResult(test, TestStatus.IGNORED, null);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+        testEnded(test, System.currentTimeMillis(), testMetrics);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void testEnded(
+            TestIdentifier test, long endTime, Map<String, String> testMetrics) {
+        Rows rows = getHeapRows();
+        int row = getRow(rows, test);
+        if (rows.mStatuses[row] == TestStatus.INCOMPLETE.ordinal()) {
+            setStatus(rows, row, TestStatus.PASSED);
+        }
+        rows.mEndTimes[row] = endTime;
+        if (testMetrics == null || testMetrics.isEmpty()) {
+            rows.mMetrics.remove(row);
+        } else {
+            Map<String, String> metrics = new HashMap<>(testMetrics.size() * 2);
+            for (Map.Entry<String, String> metric : testMetrics.entrySet()) {
+                metrics.put(mStore.getName(mStore.internName(metric.getKey())), metric.getValue());
+            }
+            rows.mMetrics.put(row, metrics);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The map is rebuilt from the compact data on each call.
+     * </p>
+     */
+    @Override
+    public synchronized Map<TestIdentifier, TestResult> getTestResults() {
+        // replay the events, so that the results are the same as with a TestRunResult
+        TestRunResult results = new TestRunResult();
+        Rows rows = getRows();
+        for (int row = 0; row < rows.mSize; row++) {
+            TestIdentifier test = getTestIdentifier(rows, row);
+            results.testStarted(test, rows.mStartTimes[row]);
+            String trace = mStore.getTrace(rows.mTraceIds[row]);
+            switch (STATUSES[rows.mStatuses[row]]) {
+                case FAILURE:
+                    results.testFailed(test, trace);
+                    break;
+                case ASSUMPTION_FAILURE:
+                    results.testAssumptionFailure(test, trace);
+                    break;
+                case IGNORED:
+                    results.testIgnored(test);
+                    break;
+                default:
+                    break;
+            }
+            if (rows.mEndTimes[row] != NOT_ENDED) {
+                Map<String, String> metrics = rows.mMetrics.get(row);
+                results.testEnded(
+                        test,
+                        rows.mEndTimes[row],
+                        metrics == null
+                                ? new HashMap<String, String>()
+                                : new HashMap<String, String>(metrics));
+            }
+        }
+        return results.getTestResults();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized Set<TestIdentifier> getCompletedTests() {
+        Set<TestIdentifier> completedTests = new LinkedHashSet<>();
+        Rows rows = getRows();
+        for (int row = 0; row < rows.mSize; row++) {
+            if (rows.mStatuses[row] != TestStatus.INCOMPLETE.ordinal()) {
+                completedTests.add(getTestIdentifier(rows, row));
+            }
+        }
+        return completedTests;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized int getNumTestsInState(TestStatus status) {
+        return mStatusCounts[status.ordinal()];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized int getNumTests() {
+        int total = 0;
+        for (int count : mStatusCounts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized int getNumCompleteTests() {
+        return getNumTests() - getNumTestsInState(TestStatus.INCOMPLETE);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean hasFailedTests() {
+        return getNumAllFailedTests() > 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized int getNumAllFailedTests() {
+        return getNumTestsInState(TestStatus.FAILURE);
+    }
+
+    /**
+     * Mark the end of the updates to the run: drop the index of the tests and trim the arrays.
+     * Updating the run again is possible, but more expensive.
+     */
+    synchronized void seal() {
+        mIndex = null;
+        if (mRows == null) {
+            return;
+        }
+        mRows.trim();
+        mHeapSize = (long) mRows.mSize * TEST_HEAP_SIZE;
+        for (Map<String, String> metrics : mRows.mMetrics.values()) {
+            for (String value : metrics.values()) {
+                mHeapSize += METRIC_HEAP_SIZE + 2 * value.length();
+            }
+        }
+    }
+
+    /** Returns the estimated bytes of heap used by the test results, as of the last seal. */
+    synchronized long getHeapSize() {
+        return mRows == null ? 0 : mHeapSize;
+    }
+
+    /** Returns <code>true</code> if the test results were moved to a memory-mapped file. */
+    synchronized boolean isSpilled() {
+        return mSpilled != null;
+    }
+
+    /**
+     * Serialize the test results, referencing the names and traces of the store by id.
+     */
+    synchronized byte[] serialize() throws IOException {
+        Rows rows = getRows();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(rows.mSize * TEST_HEAP_SIZE + 4);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(rows.mSize);
+        for (int row = 0; row < rows.mSize; row++) {
+            out.writeInt(rows.mClassIds[row]);
+            out.writeInt(rows.mMethodIds[row]);
+            out.writeByte(rows.mStatuses[row]);
+            out.writeLong(rows.mStartTimes[row]);
+            out.writeLong(rows.mEndTimes[row]);
+            out.writeInt(rows.mTraceIds[row]);
+            Map<String, String> metrics = rows.mMetrics.get(row);
+            if (metrics == null) {
+                out.writeInt(0);
+                continue;
+            }
+            out.writeInt(metrics.size());
+            for (Map.Entry<String, String> metric : metrics.entrySet()) {
+                out.writeInt(mStore.internName(metric.getKey()));
+                byte[] value = metric.getValue().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(value.length);
+                out.write(value);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Replace the test results held in heap by their serialized form.
+     *
+     * @param data the result of {@link #serialize()}, in a memory-mapped file
+     */
+    synchronized void spilled(ByteBuffer data) {
+        mSpilled = data;
+        mRows = null;
+        mHeapSize = 0;
+    }
+
+    /** Returns the test results, decoding them without keeping them if they were spilled. */
+    private Rows getRows() {
+        if (mRows != null) {
+            return mRows;
+        }
+        return deserialize(mSpilled.duplicate());
+    }
+
+    /** Returns the test results to update, moving them back to the heap if they were spilled. */
+    private Rows getHeapRows() {
+        if (mRows == null) {
+            mRows = deserialize(mSpilled.duplicate());
+            mSpilled = null;
+        }
+        return mRows;
+    }
+
+    private Rows deserialize(ByteBuffer data) {
+        int size = data.getInt();
+        Rows rows = new Rows(Math.max(size, 1));
+        rows.mSize = size;
+        for (int row = 0; row < size; row++) {
+            rows.mClassIds[row] = data.getInt();
+            rows.mMethodIds[row] = data.getInt();
+            rows.mStatuses[row] = data.get();
+            rows.mStartTimes[row] = data.getLong();
+            rows.mEndTimes[row] = data.getLong();
+            rows.mTraceIds[row] = data.getInt();
+            int metricCount = data.getInt();
+            if (metricCount == 0) {
+                continue;
+            }
+            Map<String, String> metrics = new HashMap<>(metricCount * 2);
+            for (int i = 0; i < metricCount; i++) {
+                String key = mStore.getName(data.getInt());
+                byte[] value = new byte[data.getInt()];
+                data.get(value);
+                metrics.put(key, new String(value, StandardCharsets.UTF_8));
+            }
+            rows.mMetrics.put(row, metrics);
+        }
+        return rows;
+    }
+
+    /** Returns the row of a test, adding it if needed. */
+    private int getRow(Rows rows, TestIdentifier test) {
+        if (mIndex == null) {
+            // updated after being sealed, e.g. a rerun: rebuild the index
+            mIndex = new HashMap<>(rows.mSize * 2);
+            for (int row = 0; row < rows.mSize; row++) {
+                mIndex.put(getTestIdentifier(rows, row), row);
+            }
+        }
+        Integer row = mIndex.get(test);
+        if (row != null) {
+            return row;
+        }
+        int newRow = rows.add(
+                mStore.internName(test.getClassName()), mStore.internName(test.getTestName()));
+        // like a TestResult created without a test start
+        rows.mStartTimes[newRow] = System.currentTimeMillis();
+        mStatusCounts[TestStatus.INCOMPLETE.ordinal()]++;
+        mIndex.put(test, newRow);
+        return newRow;
+    }
+
+    private synchronized void updateTestResult(TestIdentifier test, TestStatus status,
+            String trace) {
+        Rows rows = getHeapRows();
+        int row = getRow(rows, test);
+        setStatus(rows, row, status);
+        rows.mTraceIds[row] = mStore.internTrace(trace);
+    }
+
+    private void setStatus(Rows rows, int row, TestStatus status) {
+        mStatusCounts[rows.mStatuses[row]]--;
+        rows.mStatuses[row] = (byte) status.ordinal();
+        mStatusCounts[status.ordinal()]++;
+    }
+
+    private TestIdentifier getTestIdentifier(Rows rows, int row) {
+        return new TestIdentifier(
+                mStore.getName(rows.mClassIds[row]), mStore.getName(rows.mMethodIds[row]));
+    }
+
+    /** The test results of a run, one row per test in the order they were first reported. */
+    private static class Rows {
+        int mSize = 0;
+        int[] mClassIds;
+        int[] mMethodIds;
+        byte[] mStatuses;
+        long[] mStartTimes;
+        long[] mEndTimes;
+        int[] mTraceIds;
+        /** The metrics of the rows having some. */
+        Map<Integer, Map<String, String>> mMetrics = new HashMap<>();
+
+        Rows(int capacity) {
+            mClassIds = new int[capacity];
+            mMethodIds = new int[capacity];
+            mStatuses = new byte[capacity];
+            mStartTimes = new long[capacity];
+            mEndTimes = new long[capacity];
+            mTraceIds = new int[capacity];
+        }
+
+        /** Add an incomplete test, and returns its row. */
+        int add(int classId, int methodId) {
+            if (mSize == mClassIds.length) {
+                resize(mSize * 2);
+            }
+            mClassIds[mSize] = classId;
+            mMethodIds[mSize] = methodId;
+            mStatuses[mSize] = (byte) TestStatus.INCOMPLETE.ordinal();
+            mEndTimes[mSize] = NOT_ENDED;
+            mTraceIds[mSize] = -1;
+            return mSize++;
+        }
+
+        void trim() {
+            if (mSize > 0 && mSize < mClassIds.length) {
+                resize(mSize);
+            }
+        }
+
+        private void resize(int capacity) {
+            mClassIds = Arrays.copyOf(mClassIds, capacity);
+            mMethodIds = Arrays.copyOf(mMethodIds, capacity);
+            mStatuses = Arrays.copyOf(mStatuses, capacity);
+            mStartTimes = Arrays.copyOf(mStartTimes, capacity);
+            mEndTimes = Arrays.copyOf(mEndTimes, capacity);
+            mTraceIds = Arrays.copyOf(mTraceIds, capacity);
+        }
+    }
+}
@@ -252,11 +252,11 @@ public class EmailResultReporter extends CollectingTestListener implements
         // with the option.
         if (hasFailedTests() && mIncludeTestFailures) {
             TestRunResult res = getCurrentRunResults();
-            for (TestIdentifier tid : res.getTestResults().keySet()) {
-                TestResult tr = res.getTestResults().get(tid);
+            for (Map.Entry<TestIdentifier, TestResult> entry : res.getTestResults().entrySet()) {
+                TestResult tr = entry.getValue();
                 if (TestStatus.FAILURE.equals(tr.getStatus())) {
-                    bodyBuilder.append(String.format("Test Identifier: %s\nStack: %s", tid,
-                            tr.getStackTrace()));
+                    bodyBuilder.append(String.format("Test Identifier: %s\nStack: %s",
+                            entry.getKey(), tr.getStackTrace()));
                     bodyBuilder.append("\n");
                 }
             }
@@ -32,6 +32,7 @@ public class FileInputStreamSource implements InputStreamSource {
     private final File mFile;
     private boolean mIsCancelled = false;
     private boolean mDeleteOnCancel = false;
+    private boolean mIsCompressed = false;
 
     public FileInputStreamSource(File file) {
         mFile = file;
@@ -49,6 +50,19 @@ public class FileInputStreamSource implements InputStreamSource {
         mDeleteOnCancel = deleteFileOnCancel;
     }
 
+    /**
+     * Ctor
+     *
+     * @param file {@link File} containing the data to be streamed
+     * @param deleteFileOnCancel if true, the file associated will be deleted when {@link #close()}
+     *     is called
+     * @param compressed if true, the file is already compressed and should be stored as is
+     */
+    public FileInputStreamSource(File file, boolean deleteFileOnCancel, boolean compressed) {
+        this(file, deleteFileOnCancel);
+        mIsCompressed = compressed;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -81,6 +95,25 @@ public class FileInputStreamSource implements InputStreamSource {
         return mFile.length();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCompressed() {
+        return mIsCompressed;
+    }
+
+    /**
+     * Returns the {@link File} containing the data, or <code>null</code> once the source is
+     * closed.
+     */
+    public synchronized File getFile() {
+        if (mIsCancelled) {
+            return null;
+        }
+        return mFile;
+    }
+
     /**
      * Convenience method to delete the file associated with the FileInputStreamSource. Not safe.
      */
@@ -23,6 +23,10 @@ import com.android.tradefed.invoker.IInvocationContext;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.util.FileUtil;
 import com.android.tradefed.util.StreamUtil;
+import com.android.tradefed.util.TimeUtil;
+import com.android.tradefed.util.ZipUtil2;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -30,8 +34,16 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -59,6 +71,15 @@ public class FileSystemLogSaver implements ILogSaver {
             "whether to compress files which are not already compressed")
     private boolean mCompressFiles = true;
 
+    @Option(name = "compression-level", description =
+            "the compression level, from 0 (no compression) to 9 (best compression), of a log "
+            + "data type. Types not listed use the default level.")
+    private Map<LogDataType, Integer> mCompressionLevels = new HashMap<>();
+
+    @Option(name = "parallel-compression", description =
+            "whether to compress blocks of each file in parallel.")
+    private boolean mParallelCompression = false;
+
     private File mLogReportDir = null;
 
     /**
@@ -68,6 +89,15 @@ public class FileSystemLogSaver implements ILogSaver {
      */
     private int mShardingLock = 0;
 
+    /** The number of logs saved during the invocation. */
+    private final AtomicInteger mSavedLogCount = new AtomicInteger();
+    /** The time spent saving logs during the invocation. */
+    private final AtomicLong mSaveTimeMs = new AtomicLong();
+    /** The CPU time of the calling threads spent saving logs during the invocation. */
+    private final AtomicLong mSaveCpuTimeNs = new AtomicLong();
+    /** The size of the compressed data saved without being decompressed or compressed again. */
+    private final AtomicLong mPassThroughBytes = new AtomicLong();
+
     /**
      * {@inheritDoc}
      *
@@ -82,6 +112,10 @@ public class FileSystemLogSaver implements ILogSaver {
         synchronized (this) {
             if (mShardingLock == 0) {
                 mLogReportDir = createLogReportDir(info, mRootReportDir, mLogRetentionDays);
+                mSavedLogCount.set(0);
+                mSaveTimeMs.set(0);
+                mSaveCpuTimeNs.set(0);
+                mPassThroughBytes.set(0);
             }
             mShardingLock++;
         }
@@ -100,7 +134,17 @@ public class FileSystemLogSaver implements ILogSaver {
                         "Sharding lock exited more times than entered, possible "
                                 + "unbalanced invocationStarted/Ended calls");
             }
+            if (mShardingLock != 0) {
+                return;
+            }
         }
+        CLog.i(
+                "Saved %d logs in %s, using %s of CPU time on the calling threads. %d bytes of "
+                        + "compressed data stored without being compressed again",
+                mSavedLogCount.get(),
+                TimeUtil.formatElapsedTime(mSaveTimeMs.get()),
+                TimeUtil.formatElapsedTime(TimeUnit.NANOSECONDS.toMillis(mSaveCpuTimeNs.get())),
+                mPassThroughBytes.get());
     }
 
     /**
@@ -114,6 +158,67 @@ public class FileSystemLogSaver implements ILogSaver {
     @Override
     public LogFile saveLogData(String dataName, LogDataType dataType, InputStream dataStream)
             throws IOException {
+        long startTime = System.currentTimeMillis();
+        long startCpuTime = getCpuTimeNs();
+        try {
+            return doSaveLogData(dataName, dataType, dataStream);
+        } finally {
+            recordSave(startTime, startCpuTime);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The file of a {@link FileInputStreamSource} is hardlinked into the log directory if it is
+     * saved uncompressed, and the compressed data of a {@link ZipEntryInputStreamSource} is copied
+     * as is into the saved zip, so neither is decompressed or compressed again. Other sources are
+     * saved as with {@link #saveLogData(String, LogDataType, InputStream)}.
+     * </p>
+     */
+    @Override
+    public LogFile saveLogDataSource(String dataName, LogDataType dataType,
+            InputStreamSource dataSource) throws IOException {
+        long startTime = System.currentTimeMillis();
+        long startCpuTime = getCpuTimeNs();
+        try {
+            if (dataSource instanceof FileInputStreamSource) {
+                File file = ((FileInputStreamSource) dataSource).getFile();
+                boolean compressed = dataType.isCompressed() || dataSource.isCompressed();
+                if (file != null && file.exists() && (compressed || !mCompressFiles)) {
+                    String ext = dataType.getFileExt();
+                    if (!dataType.isCompressed() && dataSource.isCompressed()) {
+                        // keep the extension of the compressed file, e.g. gz for a gzipped log
+                        String fileExt = FileUtil.getExtension(file.getName());
+                        if (!fileExt.isEmpty()) {
+                            ext = fileExt.substring(1);
+                        }
+                    }
+                    File log = linkLogFile(dataName, ext, file);
+                    if (compressed) {
+                        mPassThroughBytes.addAndGet(log.length());
+                    }
+                    return new LogFile(log.getAbsolutePath(), getUrl(log), compressed,
+                            dataType.isText());
+                }
+            } else if (dataSource instanceof ZipEntryInputStreamSource && mCompressFiles
+                    && !dataType.isCompressed()) {
+                LogFile logFile = saveZipEntry(dataName, dataType,
+                        (ZipEntryInputStreamSource) dataSource);
+                if (logFile != null) {
+                    return logFile;
+                }
+            }
+            try (InputStream dataStream = dataSource.createInputStream()) {
+                return doSaveLogData(dataName, dataType, dataStream);
+            }
+        } finally {
+            recordSave(startTime, startCpuTime);
+        }
+    }
+
+    private LogFile doSaveLogData(String dataName, LogDataType dataType, InputStream dataStream)
+            throws IOException {
         if (!mCompressFiles || dataType.isCompressed()) {
             File log = saveLogDataInternal(dataName, dataType.getFileExt(), dataStream);
             return new LogFile(log.getAbsolutePath(), getUrl(log), dataType.isCompressed(),
@@ -121,21 +226,22 @@ public class FileSystemLogSaver implements ILogSaver {
         }
         BufferedInputStream bufferedDataStream = null;
         ZipOutputStream outputStream = null;
-        // add underscore to end of data name to make generated name more readable
         final String saneDataName = sanitizeFilename(dataName);
-        File log = FileUtil.createTempFile(saneDataName + "_", "." + LogDataType.ZIP.getFileExt(),
-                mLogReportDir);
+        final String entryName = saneDataName + "." + dataType.getFileExt();
+        File log = createLogFile(saneDataName, LogDataType.ZIP.getFileExt());
 
-        boolean setPerms = FileUtil.chmodGroupRWX(log);
-        if (!setPerms) {
-            CLog.w(String.format("Failed to set dir %s to be group accessible.", log));
+        if (mParallelCompression) {
+            ZipUtil2.createSingleEntryZip(dataStream, entryName, log,
+                    getCompressionLevel(dataType));
+            CLog.d("Saved log file %s", log.getAbsolutePath());
+            return new LogFile(log.getAbsolutePath(), getUrl(log), true, dataType.isText());
         }
-
         try {
             bufferedDataStream = new BufferedInputStream(dataStream);
             outputStream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(log),
                     BUFFER_SIZE));
-            outputStream.putNextEntry(new ZipEntry(saneDataName + "." + dataType.getFileExt()));
+            outputStream.setLevel(getCompressionLevel(dataType));
+            outputStream.putNextEntry(new ZipEntry(entryName));
             StreamUtil.copyStreams(bufferedDataStream, outputStream);
             CLog.d("Saved log file %s", log.getAbsolutePath());
             return new LogFile(log.getAbsolutePath(), getUrl(log), true, dataType.isText());
@@ -158,17 +264,98 @@ public class FileSystemLogSaver implements ILogSaver {
     private File saveLogDataInternal(String dataName, String ext, InputStream dataStream)
             throws IOException {
         final String saneDataName = sanitizeFilename(dataName);
+        File log = createLogFile(saneDataName, ext);
+
+        FileUtil.writeToFile(dataStream, log);
+        CLog.d("Saved raw log file %s", log.getAbsolutePath());
+        return log;
+    }
+
+    /**
+     * Hardlink a file into the log directory, or copy it if it cannot be hardlinked.
+     */
+    private File linkLogFile(String dataName, String ext, File file) throws IOException {
+        File log = createLogFile(sanitizeFilename(dataName), ext);
+        // only the unique name is needed, the link replaces the placeholder
+        FileUtil.deleteFile(log);
+        FileUtil.hardlinkFile(file, log);
+        setGroupAccessible(log);
+        CLog.d("Saved log file %s from %s", log.getAbsolutePath(), file.getAbsolutePath());
+        return log;
+    }
+
+    /**
+     * Save a zip entry to a new zip in the log directory, copying its compressed data as is.
+     *
+     * @return the {@link LogFile}, or <code>null</code> if the entry could not be read
+     */
+    private LogFile saveZipEntry(String dataName, LogDataType dataType,
+            ZipEntryInputStreamSource dataSource) throws IOException {
+        InputStream rawStream = dataSource.createRawInputStream();
+        if (rawStream == null) {
+            return null;
+        }
+        File log = createLogFile(sanitizeFilename(dataName), LogDataType.ZIP.getFileExt());
+        ZipArchiveOutputStream outputStream = null;
+        try {
+            outputStream = new ZipArchiveOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(log), BUFFER_SIZE));
+            outputStream.addRawArchiveEntry(dataSource.getEntry(), rawStream);
+        } finally {
+            StreamUtil.close(rawStream);
+            StreamUtil.close(outputStream);
+        }
+        mPassThroughBytes.addAndGet(dataSource.getEntry().getCompressedSize());
+        CLog.d("Saved log file %s", log.getAbsolutePath());
+        return new LogFile(log.getAbsolutePath(), getUrl(log), true, dataType.isText());
+    }
+
+    /**
+     * Create a new group accessible file with a unique name in the log directory.
+     */
+    private File createLogFile(String saneDataName, String ext) throws IOException {
         // add underscore to end of data name to make generated name more readable
         File log = FileUtil.createTempFile(saneDataName + "_", "." + ext, mLogReportDir);
+        setGroupAccessible(log);
+        return log;
+    }
 
+    private static void setGroupAccessible(File log) {
         boolean setPerms = FileUtil.chmodGroupRWX(log);
         if (!setPerms) {
             CLog.w(String.format("Failed to set dir %s to be group accessible.", log));
         }
+    }
 
-        FileUtil.writeToFile(dataStream, log);
-        CLog.d("Saved raw log file %s", log.getAbsolutePath());
-        return log;
+    /**
+     * Returns the compression level of a log data type.
+     */
+    private int getCompressionLevel(LogDataType dataType) {
+        Integer level = mCompressionLevels.get(dataType);
+        if (level == null) {
+            return Deflater.DEFAULT_COMPRESSION;
+        }
+        return level;
+    }
+
+    /**
+     * Count a saved log, and the time spent saving it.
+     */
+    private void recordSave(long startTime, long startCpuTime) {
+        mSavedLogCount.incrementAndGet();
+        mSaveTimeMs.addAndGet(System.currentTimeMillis() - startTime);
+        mSaveCpuTimeNs.addAndGet(getCpuTimeNs() - startCpuTime);
+    }
+
+    /**
+     * Returns the CPU time used by the current thread in ns, or 0 if it cannot be measured.
+     */
+    private static long getCpuTimeNs() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!threadBean.isCurrentThreadCpuTimeSupported()) {
+            return 0;
+        }
+        return Math.max(0, threadBean.getCurrentThreadCpuTime());
     }
 
     /**
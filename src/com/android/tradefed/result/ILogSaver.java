@@ -73,6 +73,27 @@ public interface ILogSaver {
     public LogFile saveLogData(String dataName, LogDataType dataType, InputStream dataStream)
             throws IOException;
 
+    /**
+     * Save the log data of a {@link InputStreamSource}.
+     * <p>
+     * Same as {@link #saveLogData(String, LogDataType, InputStream)}, but lets the implementation
+     * store the data without copying it through a stream when the source allows it, for example by
+     * hardlinking the file of a {@link FileInputStreamSource} holding already compressed data.
+     * </p>
+     *
+     * @param dataName a {@link String} descriptive name of the data. e.g. "device_logcat"
+     * @param dataType the {@link LogDataType} of the file.
+     * @param dataSource the {@link InputStreamSource} of the data.
+     * @return the {@link LogFile} containing the path and URL of the saved file.
+     * @throws IOException if log file could not be generated
+     */
+    public default LogFile saveLogDataSource(String dataName, LogDataType dataType,
+            InputStreamSource dataSource) throws IOException {
+        try (InputStream dataStream = dataSource.createInputStream()) {
+            return saveLogData(dataName, dataType, dataStream);
+        }
+    }
+
     /**
      * A helper method to save the log data unmodified.
      * <p>
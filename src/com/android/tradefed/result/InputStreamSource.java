@@ -61,5 +61,13 @@ public interface InputStreamSource extends Closeable {
      * Return the size in bytes of the source data.
      */
     public long size();
+
+    /**
+     * Return <code>true</code> if the source data is already compressed, for example a zip file,
+     * in which case it should be stored as is instead of being compressed again.
+     */
+    public default boolean isCompressed() {
+        return false;
+    }
 }
 
@@ -19,7 +19,9 @@ import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.command.FatalHostError;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.ParallelGzipOutputStream;
 import com.android.tradefed.util.StreamUtil;
+import com.android.tradefed.util.ZipUtil2;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -30,7 +32,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -44,6 +49,8 @@ public class LogFileSaver {
     private static final int BUFFER_SIZE = 64 * 1024;
     private File mInvLogDir;
     private List<String> mInvLogPathSegments;
+    private Map<LogDataType, Integer> mCompressionLevels = new HashMap<>();
+    private boolean mParallelCompression = false;
 
     /**
      * Creates a {@link LogFileSaver}.
@@ -243,7 +250,7 @@ public class LogFileSaver {
             final String saneDataName = sanitizeFilename(dataName);
             File logFile = createCompressedLogFile(saneDataName, dataType);
             bufInput = new BufferedInputStream(dataStream);
-            outStream = createGZipLogStream(logFile);
+            outStream = createGZipLogStream(logFile, getCompressionLevel(dataType));
             StreamUtil.copyStreams(bufInput, outStream);
             CLog.i("Saved log file %s", logFile.getAbsolutePath());
             return logFile;
@@ -273,14 +280,21 @@ public class LogFileSaver {
         ZipOutputStream outStream = null;
         try {
             final String saneDataName = sanitizeFilename(dataName);
+            final String entryName = saneDataName + "." + dataType.getFileExt();
             // add underscore to end of data name to make generated name more readable
             File logFile = FileUtil.createTempFile(saneDataName + "_", "."
                     + LogDataType.ZIP.getFileExt(), mInvLogDir);
             bufInput = new BufferedInputStream(dataStream);
-            outStream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(
-                    logFile), BUFFER_SIZE));
-            outStream.putNextEntry(new ZipEntry(saneDataName + "." + dataType.getFileExt()));
-            StreamUtil.copyStreams(bufInput, outStream);
+            if (mParallelCompression) {
+                ZipUtil2.createSingleEntryZip(bufInput, entryName, logFile,
+                        getCompressionLevel(dataType));
+            } else {
+                outStream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(
+                        logFile), BUFFER_SIZE));
+                outStream.setLevel(getCompressionLevel(dataType));
+                outStream.putNextEntry(new ZipEntry(entryName));
+                StreamUtil.copyStreams(bufInput, outStream);
+            }
             CLog.i("Saved log file %s", logFile.getAbsolutePath());
             return logFile;
         } finally {
@@ -315,8 +329,57 @@ public class LogFileSaver {
      * @throws IOException if stream could not be generated
      */
     public OutputStream createGZipLogStream(File logFile) throws IOException {
-        return new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(
-                logFile)), BUFFER_SIZE);
+        return createGZipLogStream(logFile, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates a output stream to write GZIP-compressed data to a file, with the given compression
+     * level. Blocks of the data are compressed in parallel if
+     * {@link #setParallelCompression(boolean)} was enabled.
+     *
+     * @param logFile the {@link File} to write to
+     * @param level the compression level, from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+     * @return the {@link OutputStream} to compress and write data to the file. Callers must close
+     *         this stream when complete
+     * @throws IOException if stream could not be generated
+     */
+    public OutputStream createGZipLogStream(File logFile, final int level) throws IOException {
+        if (mParallelCompression) {
+            return new ParallelGzipOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(logFile), BUFFER_SIZE), level);
+        }
+        return new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(logFile)) {
+            {
+                def.setLevel(level);
+            }
+        }, BUFFER_SIZE);
+    }
+
+    /**
+     * Set whether blocks of each log are compressed in parallel, off by default like the
+     * {@code parallel-compression} option of {@link FileSystemLogSaver}.
+     */
+    public void setParallelCompression(boolean parallelCompression) {
+        mParallelCompression = parallelCompression;
+    }
+
+    /**
+     * Set the compression level of a log data type, {@link Deflater#DEFAULT_COMPRESSION} by
+     * default.
+     *
+     * @param dataType the {@link LogDataType}
+     * @param level the compression level, from 0 (no compression) to 9 (best compression)
+     */
+    public void setCompressionLevel(LogDataType dataType, int level) {
+        mCompressionLevels.put(dataType, level);
+    }
+
+    private int getCompressionLevel(LogDataType dataType) {
+        Integer level = mCompressionLevels.get(dataType);
+        if (level == null) {
+            return Deflater.DEFAULT_COMPRESSION;
+        }
+        return level;
     }
 
     /**
@@ -79,8 +79,15 @@ public class LogSaverResultForwarder extends ResultForwarder {
     public void testLog(String dataName, LogDataType dataType, InputStreamSource dataStream) {
         super.testLog(dataName, dataType, dataStream);
         try {
-            LogFile logFile = mLogSaver.saveLogData(dataName, dataType,
-                    dataStream.createInputStream());
+            LogFile logFile;
+            if (dataStream instanceof FileInputStreamSource
+                    || dataStream instanceof ZipEntryInputStreamSource) {
+                // let the saver store the file or zip entry without recompressing it
+                logFile = mLogSaver.saveLogDataSource(dataName, dataType, dataStream);
+            } else {
+                logFile = mLogSaver.saveLogData(dataName, dataType,
+                        dataStream.createInputStream());
+            }
             for (ITestInvocationListener listener : getListeners()) {
                 if (listener instanceof ILogSaverListener) {
                     ((ILogSaverListener) listener).testLogSaved(dataName, dataType,
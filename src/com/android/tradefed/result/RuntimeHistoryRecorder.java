@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.result;
+
+import com.android.tradefed.config.OptionClass;
+import com.android.tradefed.invoker.IInvocationContext;
+import com.android.tradefed.testtype.suite.ModuleDefinition;
+import com.android.tradefed.util.RuntimeHistoryStore;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link ITestInvocationListener} that records the actual runtime of each module, or of each
+ * test run outside of a module, into the {@link RuntimeHistoryStore} so it can be used as a
+ * runtime hint by later invocations.
+ */
+@OptionClass(alias = "runtime-history")
+public class RuntimeHistoryRecorder implements ITestInvocationListener {
+
+    private final RuntimeHistoryStore mStore;
+    private String mModuleKey = null;
+    private long mModuleStartTime = 0l;
+    private String mRunName = null;
+
+    public RuntimeHistoryRecorder() {
+        this(RuntimeHistoryStore.getInstance());
+    }
+
+    @VisibleForTesting
+    RuntimeHistoryRecorder(RuntimeHistoryStore store) {
+        mStore = store;
+    }
+
+    /** Returns the key under which the runtime of a module is recorded. */
+    public static String getModuleKey(IInvocationContext moduleContext) {
+        String name = getAttribute(moduleContext, ModuleDefinition.MODULE_NAME);
+        if (name == null) {
+            return null;
+        }
+        return RuntimeHistoryStore.createKey(
+                name, getAttribute(moduleContext, ModuleDefinition.MODULE_ABI));
+    }
+
+    private static String getAttribute(IInvocationContext context, String name) {
+        List<String> values = context.getAttributes().get(name);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        return values.get(0);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testModuleStarted(IInvocationContext moduleContext) {
+        mModuleKey = getModuleKey(moduleContext);
+        mModuleStartTime = System.currentTimeMillis();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testModuleEnded() {
+        if (mModuleKey != null) {
+            mStore.record(mModuleKey, System.currentTimeMillis() - mModuleStartTime);
+        }
+        mModuleKey = null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testRunStarted(String runName, int testCount) {
+        mRunName = runName;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+        // runs inside a module are accounted as part of the module.
+        if (mModuleKey == null && mRunName != null) {
+            mStore.record(RuntimeHistoryStore.createKey(mRunName, null), elapsedTime);
+        }
+        mRunName = null;
+    }
+}
@@ -21,6 +21,7 @@ import com.android.tradefed.invoker.IInvocationContext;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.util.FileUtil;
 import com.android.tradefed.util.StreamUtil;
+import com.android.tradefed.util.SubprocessEventHelper;
 import com.android.tradefed.util.SubprocessEventHelper.BaseTestEventInfo;
 import com.android.tradefed.util.SubprocessEventHelper.FailedTestEventInfo;
 import com.android.tradefed.util.SubprocessEventHelper.InvocationFailedEventInfo;
@@ -33,12 +34,16 @@ import com.android.tradefed.util.SubprocessEventHelper.TestRunStartedEventInfo;
 import com.android.tradefed.util.SubprocessEventHelper.TestStartedEventInfo;
 import com.android.tradefed.util.SubprocessTestResultsParser;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 
 /**
  * Implements {@link ITestInvocationListener} to be specified as a result_reporter and forward
@@ -56,8 +61,34 @@ public class SubprocessResultsReporter implements ITestInvocationListener, AutoC
     @Option(name = "output-test-log", description = "Option to report test logs to parent process.")
     private boolean mOutputTestlog = false;
 
+    @Option(
+        name = "subprocess-binary-events",
+        description =
+                "Send the events to the report port with the binary protocol, in batches, "
+                        + "instead of one json line per event."
+    )
+    private boolean mBinaryEvents = false;
+
+    @Option(
+        name = "subprocess-event-batch-size",
+        description = "Maximum size in bytes of the binary events buffered before being sent."
+    )
+    private int mEventBatchSize = 64 * 1024;
+
+    @Option(
+        name = "subprocess-event-flush-interval",
+        description = "Maximum time a binary event can stay buffered before being sent.",
+        isTimeVal = true
+    )
+    private long mEventFlushIntervalMs = 200;
+
     private Socket mReportSocket = null;
     private PrintWriter mPrintWriter = null;
+    // Binary protocol state, guarded by mBinaryLock as it is also flushed by mFlushTimer.
+    private final Object mBinaryLock = new Object();
+    private OutputStream mBinaryOutput = null;
+    private boolean mBinaryPending = false;
+    private Timer mFlushTimer = null;
 
     private boolean mPrintWarning = true;
 
@@ -191,7 +222,11 @@ public class SubprocessResultsReporter implements ITestInvocationListener, AutoC
      */
     @Override
     public void invocationEnded(long elapsedTime) {
-        // ignore
+        // The reporters are not closed by the framework: send the remaining events, and release
+        // the flush timer and the socket, which would outlive the invocation.
+        if (mBinaryEvents) {
+            closeBinaryOutput();
+        }
     }
 
     /**
@@ -233,19 +268,23 @@ public class SubprocessResultsReporter implements ITestInvocationListener, AutoC
             }
         }
         if(mReportPort != null) {
-            try {
-                if (mReportSocket == null) {
-                    mReportSocket = new Socket("localhost", mReportPort.intValue());
-                    mPrintWriter = new PrintWriter(mReportSocket.getOutputStream(), true);
-                }
-                if (!mReportSocket.isConnected()) {
-                    throw new RuntimeException("Reporter Socket is not connected");
+            if (mBinaryEvents) {
+                printBinaryEvent(key, event);
+            } else {
+                try {
+                    if (mReportSocket == null) {
+                        mReportSocket = new Socket("localhost", mReportPort.intValue());
+                        mPrintWriter = new PrintWriter(mReportSocket.getOutputStream(), true);
+                    }
+                    if (!mReportSocket.isConnected()) {
+                        throw new RuntimeException("Reporter Socket is not connected");
+                    }
+                    String eventLog = String.format("%s %s\n", key, event.toString());
+                    mPrintWriter.print(eventLog);
+                    mPrintWriter.flush();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
                 }
-                String eventLog = String.format("%s %s\n", key, event.toString());
-                mPrintWriter.print(eventLog);
-                mPrintWriter.flush();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
             }
         }
         if (mReportFile == null && mReportPort == null) {
@@ -257,9 +296,76 @@ public class SubprocessResultsReporter implements ITestInvocationListener, AutoC
         }
     }
 
+    /**
+     * Buffer an event in its binary form. The buffer is sent when it reaches the batch size, or
+     * by the flush timer. Once the receiver falls behind, sending blocks on the socket which slows
+     * down the subprocess instead of buffering an unbounded amount of events.
+     */
+    private void printBinaryEvent(String key, Object event) {
+        synchronized (mBinaryLock) {
+            try {
+                if (mBinaryOutput == null) {
+                    mReportSocket = new Socket("localhost", mReportPort.intValue());
+                    mBinaryOutput =
+                            new BufferedOutputStream(
+                                    mReportSocket.getOutputStream(), mEventBatchSize);
+                    mBinaryOutput.write(SubprocessEventHelper.BINARY_PROTOCOL_HEADER);
+                    mFlushTimer = new Timer("SubprocessResultsReporter-flush", true);
+                    mFlushTimer.schedule(
+                            new TimerTask() {
+                                @Override
+                                public void run() {
+                                    flushBinaryEvents();
+                                }
+                            },
+                            mEventFlushIntervalMs,
+                            mEventFlushIntervalMs);
+                }
+                mBinaryOutput.write(SubprocessEventHelper.encodeBinaryEvent(key, event));
+                mBinaryPending = true;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /** Send the buffered binary events if any. */
+    private void flushBinaryEvents() {
+        synchronized (mBinaryLock) {
+            if (!mBinaryPending) {
+                return;
+            }
+            try {
+                mBinaryOutput.flush();
+                mBinaryPending = false;
+            } catch (IOException e) {
+                CLog.e("Failed to send the subprocess events.");
+                CLog.e(e);
+            }
+        }
+    }
+
+    /** Send the buffered binary events, then stop the flush timer and close the socket. */
+    private void closeBinaryOutput() {
+        synchronized (mBinaryLock) {
+            flushBinaryEvents();
+            if (mFlushTimer != null) {
+                mFlushTimer.cancel();
+                mFlushTimer = null;
+            }
+            if (mBinaryOutput != null) {
+                StreamUtil.close(mBinaryOutput);
+                mBinaryOutput = null;
+                StreamUtil.close(mReportSocket);
+                mReportSocket = null;
+            }
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public void close() {
+        closeBinaryOutput();
         StreamUtil.close(mReportSocket);
         StreamUtil.close(mPrintWriter);
     }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.result;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.ZipUtil2;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@link InputStreamSource} reading an entry of a zip file, without extracting it.
+ *
+ * <p>The entry is decompressed on the fly each time a stream is created. A {@link ILogSaver} can
+ * also copy the compressed entry data as is with {@link #createRawInputStream()}.
+ */
+public class ZipEntryInputStreamSource implements InputStreamSource {
+
+    private final ZipFile mZip;
+    private final ZipArchiveEntry mEntry;
+    private final boolean mOwnsZip;
+    private final File mZipFile;
+    private boolean mIsCancelled = false;
+
+    /**
+     * Ctor for an entry of a zip shared with other users, which stays open when this source is
+     * closed.
+     *
+     * @param zip the opened {@link ZipFile}
+     * @param entry the {@link ZipArchiveEntry} of the zip to read
+     */
+    public ZipEntryInputStreamSource(ZipFile zip, ZipArchiveEntry entry) {
+        mZip = zip;
+        mEntry = entry;
+        mOwnsZip = false;
+        mZipFile = null;
+    }
+
+    /**
+     * Ctor for an entry of a zip owned by this source.
+     *
+     * @param zip the opened {@link ZipFile}, closed when {@link #close()} is called
+     * @param entry the {@link ZipArchiveEntry} of the zip to read
+     * @param zipFile if not null, the zip {@link File}, deleted when {@link #close()} is called
+     */
+    public ZipEntryInputStreamSource(ZipFile zip, ZipArchiveEntry entry, File zipFile) {
+        mZip = zip;
+        mEntry = entry;
+        mOwnsZip = true;
+        mZipFile = zipFile;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized InputStream createInputStream() {
+        if (mIsCancelled) {
+            return null;
+        }
+        try {
+            return mZip.getInputStream(mEntry);
+        } catch (IOException e) {
+            CLog.e("Failed to read %s from zip", mEntry.getName());
+            CLog.e(e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns a stream of the compressed data of the entry, as stored in the zip, or
+     * <code>null</code> if the source is closed.
+     */
+    synchronized InputStream createRawInputStream() throws IOException {
+        if (mIsCancelled) {
+            return null;
+        }
+        return mZip.getRawInputStream(mEntry);
+    }
+
+    /**
+     * Returns the {@link ZipArchiveEntry} read by this source.
+     */
+    ZipArchiveEntry getEntry() {
+        return mEntry;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void close() {
+        if (mIsCancelled) {
+            return;
+        }
+        mIsCancelled = true;
+        if (mOwnsZip) {
+            ZipUtil2.closeZip(mZip);
+            FileUtil.deleteFile(mZipFile);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long size() {
+        return mEntry.getSize();
+    }
+}
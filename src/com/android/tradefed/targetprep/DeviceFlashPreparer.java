@@ -21,6 +21,7 @@ import com.android.tradefed.build.IDeviceBuildInfo;
 import com.android.tradefed.config.GlobalConfiguration;
 import com.android.tradefed.config.Option;
 import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.DeviceSyncManifest;
 import com.android.tradefed.device.DeviceUnresponsiveException;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.device.ITestDevice.RecoveryMode;
@@ -267,6 +268,8 @@ public abstract class DeviceFlashPreparer implements ITargetCleaner {
                 flasher.setForceSystemFlash(mForceSystemFlash);
                 flasher.setDataWipeSkipList(mDataWipeSkipList);
                 preEncryptDevice(device, flasher);
+                // files synced to the device before flashing cannot be trusted anymore
+                DeviceSyncManifest.invalidate(device.getSerialNumber());
                 flasher.flash(device, deviceBuild);
             } finally {
                 returnFlashingPermit();
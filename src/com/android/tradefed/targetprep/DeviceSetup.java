@@ -278,6 +278,11 @@ public class DeviceSetup implements ITargetPreparer, ITargetCleaner {
             "will be ignored.")
     protected boolean mForceSkipRunCommands = false;
 
+    @Option(name = "batch-shell-commands",
+            description = "Apply the system properties, settings and commands with a single "
+            + "shell script per setup phase instead of one adb shell command per step.")
+    protected boolean mBatchShellCommands = false;
+
     @Option(name = "set-test-harness",
             description = "Set the read-only test harness flag on boot")
     protected boolean mSetTestHarness = true;
@@ -367,6 +372,10 @@ public class DeviceSetup implements ITargetPreparer, ITargetCleaner {
     private Collection<String> mDeprecatedSetProps = new ArrayList<String>();
 
     private static final String PERSIST_PREFIX = "persist.";
+    private static final String LOCAL_PROP_PATH = "/data/local.prop";
+
+    /** The steps not run yet when batching shell commands, <code>null</code> otherwise. */
+    private ShellCommandBatch mBatch = null;
 
     /**
      * {@inheritDoc}
@@ -389,26 +398,78 @@ public class DeviceSetup implements ITargetPreparer, ITargetCleaner {
         processDeprecatedOptions(device);
         // Convert options into settings and run commands
         processOptions(device);
-        // Change system props (will reboot device)
-        changeSystemProps(device);
-        // Handle screen always on setting
-        handleScreenAlwaysOnSetting(device);
-        // Run commands designated to be run before changing settings
-        runCommands(device, mRunCommandBeforeSettings);
-        // Change settings
-        changeSettings(device);
-        // Connect wifi after settings since this may take a while
-        connectWifi(device);
-        // Sync data after settings since this may take a while
-        syncTestData(device);
-        // Run commands designated to be run after changing settings
-        runCommands(device, mRunCommandAfterSettings);
+        if (mBatchShellCommands) {
+            mBatch = new ShellCommandBatch();
+        }
+        try {
+            // Change system props (will reboot device)
+            changeSystemProps(device);
+            // Handle screen always on setting
+            handleScreenAlwaysOnSetting(device);
+            // Run commands designated to be run before changing settings
+            runCommands(device, mRunCommandBeforeSettings);
+            // Change settings
+            changeSettings(device);
+            runBatch(device);
+            // Connect wifi after settings since this may take a while
+            connectWifi(device);
+            // Sync data after settings since this may take a while
+            syncTestData(device);
+            // Run commands designated to be run after changing settings
+            runCommands(device, mRunCommandAfterSettings);
+            runBatch(device);
+        } finally {
+            mBatch = null;
+        }
         // Throw an error if there is not enough storage space
         checkExternalStoreSpace(device);
 
         device.clearErrorDialogs();
     }
 
+    /**
+     * Run a shell command on the device, or add it to the current batch when batching shell
+     * commands.
+     */
+    private void executeShellCommand(ITestDevice device, String command)
+            throws DeviceNotAvailableException {
+        if (mBatch != null) {
+            mBatch.addCommand(command);
+        } else {
+            device.executeShellCommand(command);
+        }
+    }
+
+    /**
+     * Change a setting on the device, or add it to the current batch when batching shell
+     * commands.
+     */
+    private void setSetting(ITestDevice device, String namespace, String key, String value)
+            throws DeviceNotAvailableException {
+        if (mBatch != null) {
+            mBatch.addCommand(String.format("settings put %s %s %s", namespace, key, value));
+        } else {
+            device.setSetting(namespace, key, value);
+        }
+    }
+
+    /**
+     * Run the steps batched so far, if any, logging the ones that failed.
+     */
+    private void runBatch(ITestDevice device)
+            throws DeviceNotAvailableException, TargetSetupError {
+        if (mBatch == null || mBatch.isEmpty()) {
+            return;
+        }
+        for (ShellCommandBatch.Step step : mBatch.run(device)) {
+            if (!step.isSuccess()) {
+                CLog.w("Setup step '%s' on %s failed with exit code %d: %s",
+                        step.getDescription(), device.getSerialNumber(), step.getExitCode(),
+                        step.getOutput());
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -632,7 +693,7 @@ public class DeviceSetup implements ITargetPreparer, ITargetCleaner {
             if (prop.getKey().startsWith(PERSIST_PREFIX)) {
                 String command = String.format("setprop \"%s\" \"%s\"",
                         prop.getKey(), prop.getValue());
-                device.executeShellCommand(command);
+                executeShellCommand(device, command);
             } else {
                 sb.append(String.format("%s=%s\n", prop.getKey(), prop.getValue()));
             }
@@ -643,13 +704,23 @@ public class DeviceSetup implements ITargetPreparer, ITargetCleaner {
         }
 
         CLog.d("Pushing the following properties to /data/local.prop:\n%s", sb.toString());
-        boolean result = device.pushString(sb.toString(), "/data/local.prop");
+        boolean result;
+        if (mBatch != null) {
+            ShellCommandBatch.Step pushStep = mBatch.addFile(sb.toString(), LOCAL_PROP_PATH);
+            mBatch.addCommand("chmod 644 /data/local.prop");
+            runBatch(device);
+            result = pushStep.isSuccess();
+        } else {
+            result = device.pushString(sb.toString(), LOCAL_PROP_PATH);
+        }
         if (!result) {
             throw new TargetSetupError(String.format("Failed to push /data/local.prop to %s",
                     device.getSerialNumber()), device.getDeviceDescriptor());
         }
-        // Set reasonable permissions for /data/local.prop
-        device.executeShellCommand("chmod 644 /data/local.prop");
+        if (mBatch == null) {
+            // Set reasonable permissions for /data/local.prop
+            device.executeShellCommand("chmod 644 /data/local.prop");
+        }
         CLog.i("Rebooting %s due to system property change", device.getSerialNumber());
         device.reboot();
     }
@@ -667,16 +738,16 @@ public class DeviceSetup implements ITargetPreparer, ITargetCleaner {
         switch (mScreenAlwaysOn) {
             case ON:
                 CLog.d("Setting screen always on to true");
-                device.executeShellCommand(String.format(cmd, "true"));
+                executeShellCommand(device, String.format(cmd, "true"));
                 // send MENU press in case keygaurd needs to be dismissed again
-                device.executeShellCommand("input keyevent 82");
+                executeShellCommand(device, "input keyevent 82");
                 // send HOME press in case keyguard was already dismissed, so we bring device back
                 // to home screen
-                device.executeShellCommand("input keyevent 3");
+                executeShellCommand(device, "input keyevent 3");
                 break;
             case OFF:
                 CLog.d("Setting screen always on to false");
-                device.executeShellCommand(String.format(cmd, "false"));
+                executeShellCommand(device, String.format(cmd, "false"));
                 break;
             case IGNORE:
                 break;
@@ -717,16 +788,16 @@ public class DeviceSetup implements ITargetPreparer, ITargetCleaner {
         switch (mAirplaneMode) {
             case ON:
                 CLog.d("Changing global setting airplane_mode_on to 1");
-                device.setSetting("global", "airplane_mode_on", "1");
+                setSetting(device, "global", "airplane_mode_on", "1");
                 if (!mForceSkipRunCommands) {
-                    device.executeShellCommand(String.format(command, "true"));
+                    executeShellCommand(device, String.format(command, "true"));
                 }
                 break;
             case OFF:
                 CLog.d("Changing global setting airplane_mode_on to 0");
-                device.setSetting("global", "airplane_mode_on", "0");
+                setSetting(device, "global", "airplane_mode_on", "0");
                 if (!mForceSkipRunCommands) {
-                    device.executeShellCommand(String.format(command, "false"));
+                    executeShellCommand(device, String.format(command, "false"));
                 }
                 break;
             case IGNORE:
@@ -737,20 +808,20 @@ public class DeviceSetup implements ITargetPreparer, ITargetCleaner {
         for (String key : mSystemSettings.keySet()) {
             for (String value : mSystemSettings.get(key)) {
                 CLog.d("Changing system setting %s to %s", key, value);
-                device.setSetting("system", key, value);
+                setSetting(device, "system", key, value);
             }
         }
         for (String key : mSecureSettings.keySet()) {
             for (String value : mSecureSettings.get(key)) {
                 CLog.d("Changing secure setting %s to %s", key, value);
-                device.setSetting("secure", key, value);
+                setSetting(device, "secure", key, value);
             }
         }
 
         for (String key : mGlobalSettings.keySet()) {
             for (String value : mGlobalSettings.get(key)) {
                 CLog.d("Changing global setting %s to %s", key, value);
-                device.setSetting("global", key, value);
+                setSetting(device, "global", key, value);
             }
         }
     }
@@ -771,7 +842,7 @@ public class DeviceSetup implements ITargetPreparer, ITargetCleaner {
         }
 
         for (String command : commands) {
-            device.executeShellCommand(command);
+            executeShellCommand(device, command);
         }
     }
 
@@ -20,6 +20,7 @@ import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.config.Option;
 import com.android.tradefed.config.OptionClass;
 import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.DeviceSyncManifest;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.util.CommandResult;
@@ -52,6 +53,7 @@ public class DeviceWiper implements ITargetPreparer {
             return;
         }
         CLog.i("Wiping device");
+        DeviceSyncManifest.invalidate(device.getSerialNumber());
         device.rebootIntoBootloader();
         if (mUseErase) {
             doErase(device);
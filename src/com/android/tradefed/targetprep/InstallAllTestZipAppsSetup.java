@@ -64,6 +64,15 @@ public class InstallAllTestZipAppsSetup implements ITargetCleaner {
     )
     private boolean mStopInstallOnFailure = true;
 
+    @Option(
+        name = "skip-installed-apks",
+        description =
+                "Whether to skip installing an apk that this preparer already installed on the "
+                        + "device with the same content and install arguments. Only applies when "
+                        + "cleanup-apks is false."
+    )
+    private boolean mSkipInstalledApks = false;
+
     @Option(name = "test-zip-name", description = "File name for test zip containing APKs.")
     private String mTestZipName;
 
@@ -187,9 +196,23 @@ public class InstallAllTestZipAppsSetup implements ITargetCleaner {
      */
     void installApk(File appFile, ITestDevice device)
             throws TargetSetupError, DeviceNotAvailableException {
+        String packageName = null;
+        if (mSkipInstalledApks && !mCleanup) {
+            packageName = getAppPackageName(appFile);
+            if (packageName != null
+                    && InstalledApkRecord.isInstalled(
+                            device, packageName, appFile, mInstallArgs)) {
+                CLog.d("%s is already installed from %s, skipping", packageName,
+                        appFile.getAbsolutePath());
+                return;
+            }
+        }
         CLog.d("Installing apk from %s ...", appFile.getAbsolutePath());
         String result = device.installPackage(appFile, true, mInstallArgs.toArray(new String[] {}));
         if (result == null) {
+            if (packageName != null) {
+                InstalledApkRecord.recordInstall(device, packageName, appFile, mInstallArgs);
+            }
             // only consider cleanup if install was successful
             if (mCleanup) {
                 addApkToInstalledList(appFile, device);
@@ -248,6 +271,7 @@ public class InstallAllTestZipAppsSetup implements ITargetCleaner {
         }
         if (mCleanup && !(e instanceof DeviceNotAvailableException)) {
             for (String packageName : mPackagesInstalled) {
+                InstalledApkRecord.forget(device, packageName);
                 String msg = device.uninstallPackage(packageName);
                 if (msg != null) {
                     CLog.w(String.format("error uninstalling package '%s': %s", packageName, msg));
@@ -25,6 +25,7 @@ import com.android.tradefed.device.CollectingOutputReceiver;
 import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.AaptParser;
 import com.android.tradefed.util.AbiFormatter;
 import com.google.common.annotations.VisibleForTesting;
 
@@ -77,6 +78,11 @@ public class InstallApkSetup implements ITargetPreparer {
             "Throw exception if the APK installation failed due to any reason.")
     private boolean mThrowIfInstallFail = false;
 
+    @Option(name = "skip-installed-apks", description =
+            "Whether to skip installing an apk that this preparer already installed on the device "
+                    + "with the same content and install arguments.")
+    private boolean mSkipInstalledApks = false;
+
     /**
      * {@inheritDoc}
      */
@@ -96,7 +102,21 @@ public class InstallApkSetup implements ITargetPreparer {
                     mInstallArgs.add(String.format("--abi %s", abi));
                 }
             }
+            String packageName = null;
+            if (mSkipInstalledApks) {
+                AaptParser parser = AaptParser.parse(apk);
+                packageName = parser == null ? null : parser.getPackageName();
+                if (packageName != null
+                        && InstalledApkRecord.isInstalled(device, packageName, apk, mInstallArgs)) {
+                    CLog.d("%s is already installed from %s, skipping", packageName,
+                            apk.getAbsolutePath());
+                    continue;
+                }
+            }
             String result = device.installPackage(apk, true, mInstallArgs.toArray(new String[]{}));
+            if (result == null && packageName != null) {
+                InstalledApkRecord.recordInstall(device, packageName, apk, mInstallArgs);
+            }
             if (result != null) {
                 if (mThrowIfInstallFail) {
                     throw new TargetSetupError(String.format(
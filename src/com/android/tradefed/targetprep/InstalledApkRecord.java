@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.targetprep;
+
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.AaptParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Host side record of the apks installed by the target preparers on each device, used to skip
+ * installing an apk that is already installed with the same content and install arguments.
+ *
+ * <p>The record alone is not trusted: before an install is skipped, the apk of the package is
+ * looked up with 'pm path' and hashed on the device.
+ */
+class InstalledApkRecord {
+
+    private static final String PACKAGE_PREFIX = "package:";
+
+    /** Most packages recorded per device, the least recently used ones are installed again. */
+    private static final int MAX_PACKAGES_PER_DEVICE = 1000;
+
+    /** For each device serial, the md5 and install arguments of each installed package. */
+    private static final Map<String, Map<String, String>> sInstalled = new ConcurrentHashMap<>();
+
+    private InstalledApkRecord() {}
+
+    /**
+     * Returns true if the apk is already installed on the device as the given package, with the
+     * same install arguments.
+     */
+    static boolean isInstalled(ITestDevice device, String packageName, File apkFile,
+            Collection<String> installArgs) throws DeviceNotAvailableException {
+        Map<String, String> installed = sInstalled.get(device.getSerialNumber());
+        String expected = getRecord(apkFile, installArgs);
+        if (installed == null || expected == null
+                || !expected.equals(installed.get(packageName))) {
+            return false;
+        }
+        // the package may have been updated or removed since it was recorded
+        String[] paths = device.executeShellCommand(
+                String.format("pm path %s", packageName)).trim().split("\r?\n");
+        if (paths.length != 1 || !paths[0].startsWith(PACKAGE_PREFIX)) {
+            forget(device, packageName);
+            return false;
+        }
+        String md5sum = device.executeShellCommand(
+                String.format("md5sum %s", paths[0].substring(PACKAGE_PREFIX.length()).trim()));
+        if (!expected.startsWith(md5sum.trim().split("\\s+")[0].toLowerCase() + " ")) {
+            CLog.d("%s on %s does not match %s", packageName, device.getSerialNumber(),
+                    apkFile.getAbsolutePath());
+            forget(device, packageName);
+            return false;
+        }
+        return true;
+    }
+
+    /** Record that the apk was installed on the device as the given package. */
+    static void recordInstall(ITestDevice device, String packageName, File apkFile,
+            Collection<String> installArgs) {
+        String record = getRecord(apkFile, installArgs);
+        if (record == null) {
+            return;
+        }
+        Map<String, String> installed = sInstalled.get(device.getSerialNumber());
+        if (installed == null) {
+            sInstalled.putIfAbsent(device.getSerialNumber(), createPackageRecords());
+            installed = sInstalled.get(device.getSerialNumber());
+        }
+        installed.put(packageName, record);
+    }
+
+    /** Create the records of a device, keeping the most recently used packages. */
+    private static Map<String, String> createPackageRecords() {
+        return Collections.synchronizedMap(
+                new LinkedHashMap<String, String>(16, 0.75f, true) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                        return size() > MAX_PACKAGES_PER_DEVICE;
+                    }
+                });
+    }
+
+    /** Forget a package, for example after it was uninstalled. */
+    static void forget(ITestDevice device, String packageName) {
+        Map<String, String> installed = sInstalled.get(device.getSerialNumber());
+        if (installed != null) {
+            installed.remove(packageName);
+        }
+    }
+
+    /** Returns the record of an apk, or null if it could not be hashed. */
+    private static String getRecord(File apkFile, Collection<String> installArgs) {
+        try {
+            return String.format("%s %s", AaptParser.getContentHash(apkFile), installArgs);
+        } catch (IOException e) {
+            CLog.w("Failed to hash %s: %s", apkFile, e.toString());
+            return null;
+        }
+    }
+}
@@ -46,6 +46,11 @@ public class KeyValueConfigPreparer implements ITargetPreparer {
     @Option(name = "interpolate", description = "Interpolate path variable")
     private boolean mInterpolate = false;
 
+    @Option(name = "write-with-shell-command",
+            description = "Write the config file with a single shell command instead of pushing "
+            + "a temporary file.")
+    private boolean mWriteWithShellCommand = false;
+
     /**
      * {@inheritDoc}
      * @throws TargetSetupError
@@ -75,6 +80,18 @@ public class KeyValueConfigPreparer implements ITargetPreparer {
             }
         }
 
+        if (mWriteWithShellCommand) {
+            ShellCommandBatch batch = new ShellCommandBatch();
+            ShellCommandBatch.Step step = batch.addFile(content, mPath);
+            batch.run(device);
+            if (!step.isSuccess()) {
+                throw new TargetSetupError(String.format("Failed to write %s on %s: %s", mPath,
+                        device.getSerialNumber(), step.getOutput()),
+                        device.getDeviceDescriptor());
+            }
+            return;
+        }
+
         device.pushString(content, mPath);
     }
 }
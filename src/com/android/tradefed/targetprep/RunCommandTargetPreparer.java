@@ -61,6 +61,11 @@ public class RunCommandTargetPreparer implements ITargetCleaner {
             isTimeVal = true)
     private long mRunCmdTimeout = 0;
 
+    @Option(name = "batch-shell-commands",
+            description = "Run the setup commands, and the teardown commands, with a single "
+            + "shell script instead of one adb shell command each.")
+    private boolean mBatchShellCommands = false;
+
     private Map<BackgroundDeviceAction, CollectingOutputReceiver> mBgDeviceActionsMap =
             new HashMap<>();
 
@@ -81,6 +86,13 @@ public class RunCommandTargetPreparer implements ITargetCleaner {
             mBgDeviceActionsMap.put(mBgDeviceAction, receiver);
         }
 
+        if (mBatchShellCommands) {
+            runBatch(device, mCommands, mRunCmdTimeout);
+            CLog.d("Sleeping %d msecs on device %s", mDelayMsecs, device.getSerialNumber());
+            RunUtil.getDefault().sleep(mDelayMsecs);
+            return;
+        }
+
         for (String cmd : mCommands) {
             CLog.d("About to run setup command on device %s: %s", device.getSerialNumber(), cmd);
             if (mRunCmdTimeout > 0) {
@@ -114,6 +126,17 @@ public class RunCommandTargetPreparer implements ITargetCleaner {
             bgAction.getKey().cancel();
         }
 
+        if (mBatchShellCommands) {
+            try {
+                runBatch(device, mTeardownCommands, 0);
+            } catch (TargetSetupError tse) {
+                CLog.e("Failed to run the tearDown commands on device %s",
+                        device.getSerialNumber());
+                CLog.e(tse);
+            }
+            return;
+        }
+
         for (String cmd : mTeardownCommands) {
             CLog.d("About to run tearDown command on device %s: %s", device.getSerialNumber(),
                     cmd);
@@ -122,5 +145,27 @@ public class RunCommandTargetPreparer implements ITargetCleaner {
         }
 
     }
+
+    /**
+     * Run commands on the device with a single {@link ShellCommandBatch}.
+     *
+     * @param device the {@link ITestDevice} to run the commands on
+     * @param commands the commands to run
+     * @param timeout the maximum time in ms a command can run without output, or 0 for the default
+     */
+    private void runBatch(ITestDevice device, List<String> commands, long timeout)
+            throws DeviceNotAvailableException, TargetSetupError {
+        if (commands.isEmpty()) {
+            return;
+        }
+        ShellCommandBatch batch = new ShellCommandBatch();
+        for (String cmd : commands) {
+            batch.addCommand(cmd);
+        }
+        for (ShellCommandBatch.Step step : batch.run(device, timeout)) {
+            CLog.v("cmd: '%s', exit code %d, returned:\n%s", step.getDescription(),
+                    step.getExitCode(), step.getOutput());
+        }
+    }
 }
 
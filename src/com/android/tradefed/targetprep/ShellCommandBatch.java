@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.targetprep;
+
+import com.android.tradefed.device.CollectingOutputReceiver;
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.log.LogUtil.CLog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs a list of shell commands and file writes on a device as a single shell script, instead of
+ * one adb shell round trip per step.
+ *
+ * <p>Each step runs in its own shell, as it would with {@link
+ * ITestDevice#executeShellCommand(String)}, and the script reports the output and exit code of
+ * every step, so that a failure can be attributed to the step that caused it. Small scripts are
+ * executed inline, larger ones are pushed to the device first.
+ */
+public class ShellCommandBatch {
+
+    /** Exit code of a step that did not run, for example because the script was interrupted. */
+    public static final int NOT_RUN = -1;
+
+    static final String STEP_END_MARKER = "@@TF_STEP_END";
+    /** Longer scripts are pushed to the device, to stay below the adb shell command length. */
+    static final int MAX_INLINE_LENGTH = 2000;
+    private static final String REMOTE_SCRIPT_DIR = "/data/local/tmp/";
+
+    private static final Pattern STEP_END_PATTERN =
+            Pattern.compile("^" + STEP_END_MARKER + " (\\d+) (\\d+)$", Pattern.MULTILINE);
+
+    /** A step of the batch, with its result once the batch has run. */
+    public static class Step {
+        private final String mDescription;
+        private final String mScript;
+        private int mExitCode = NOT_RUN;
+        private String mOutput = "";
+
+        Step(String description, String script) {
+            mDescription = description;
+            mScript = script;
+        }
+
+        /** Returns the description of the step, the command for a shell command step. */
+        public String getDescription() {
+            return mDescription;
+        }
+
+        /** Returns the exit code of the step, or {@link #NOT_RUN}. */
+        public int getExitCode() {
+            return mExitCode;
+        }
+
+        /** Returns the combined stdout and stderr of the step. */
+        public String getOutput() {
+            return mOutput;
+        }
+
+        /** Returns <code>true</code> if the step ran and exited with 0. */
+        public boolean isSuccess() {
+            return mExitCode == 0;
+        }
+    }
+
+    private final List<Step> mSteps = new ArrayList<>();
+
+    /**
+     * Add a shell command to the batch.
+     *
+     * @param command the command, as it would be passed to {@link
+     *     ITestDevice#executeShellCommand(String)}
+     * @return the {@link Step} holding the result of the command once the batch has run
+     */
+    public Step addCommand(String command) {
+        Step step = new Step(command, String.format("sh -c %s", quote(command)));
+        mSteps.add(step);
+        return step;
+    }
+
+    /**
+     * Add the write of a file to the batch, replacing its content if it exists.
+     *
+     * @param contents the content of the file
+     * @param deviceFilePath the absolute path of the file on the device
+     * @return the {@link Step} holding the result of the write once the batch has run
+     */
+    public Step addFile(String contents, String deviceFilePath) {
+        Step step =
+                new Step(
+                        String.format("write %s", deviceFilePath),
+                        String.format("printf %%s %s > %s", quote(contents),
+                                quote(deviceFilePath)));
+        mSteps.add(step);
+        return step;
+    }
+
+    /** Returns <code>true</code> if no step was added since the batch last ran. */
+    public boolean isEmpty() {
+        return mSteps.isEmpty();
+    }
+
+    /**
+     * Run all the steps of the batch on the device, then clear the batch.
+     *
+     * @param device the {@link ITestDevice} to run the steps on
+     * @return the steps, with their result
+     * @throws DeviceNotAvailableException if the device is not available
+     * @throws TargetSetupError if the script could not be pushed to the device
+     */
+    public List<Step> run(ITestDevice device) throws DeviceNotAvailableException,
+            TargetSetupError {
+        return run(device, 0);
+    }
+
+    /**
+     * Run all the steps of the batch on the device, then clear the batch.
+     *
+     * @param device the {@link ITestDevice} to run the steps on
+     * @param maxTimeToOutputMs the maximum time in ms a step can run without any output, or 0 to
+     *     use the default shell command timeout of the device
+     * @return the steps, with their result
+     * @throws DeviceNotAvailableException if the device is not available
+     * @throws TargetSetupError if the script could not be pushed to the device
+     */
+    public List<Step> run(ITestDevice device, long maxTimeToOutputMs)
+            throws DeviceNotAvailableException, TargetSetupError {
+        List<Step> steps = new ArrayList<>(mSteps);
+        mSteps.clear();
+        if (steps.isEmpty()) {
+            return steps;
+        }
+        String script = buildScript(steps);
+        String command = script;
+        if (script.length() > MAX_INLINE_LENGTH) {
+            String remoteScript =
+                    String.format("%stf-batch-%s.sh", REMOTE_SCRIPT_DIR, UUID.randomUUID());
+            if (!device.pushString(script, remoteScript)) {
+                throw new TargetSetupError(String.format("Failed to push %s to %s",
+                        remoteScript, device.getSerialNumber()), device.getDeviceDescriptor());
+            }
+            command = String.format("sh %s; rm -f %s", remoteScript, remoteScript);
+        }
+        CLog.d("Running %d shell steps on %s in a single shell command", steps.size(),
+                device.getSerialNumber());
+        String output;
+        if (maxTimeToOutputMs > 0) {
+            CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+            device.executeShellCommand(command, receiver, maxTimeToOutputMs,
+                    TimeUnit.MILLISECONDS, 0);
+            output = receiver.getOutput();
+        } else {
+            output = device.executeShellCommand(command);
+        }
+        parseOutput(output, steps);
+        return steps;
+    }
+
+    /** Build the script running the steps, one step per line. */
+    static String buildScript(List<Step> steps) {
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < steps.size(); i++) {
+            // the extra echo ends the step output with a newline, removed when parsing
+            script.append(String.format("%s 2>&1; r=$?; echo; echo \"%s %d $r\"\n",
+                    steps.get(i).mScript, STEP_END_MARKER, i));
+        }
+        return script.toString();
+    }
+
+    /** Attribute the output of the script to its steps. */
+    static void parseOutput(String output, List<Step> steps) {
+        if (output == null) {
+            return;
+        }
+        String normalized = output.replace("\r", "");
+        Matcher matcher = STEP_END_PATTERN.matcher(normalized);
+        int stepStart = 0;
+        while (matcher.find()) {
+            int index = Integer.parseInt(matcher.group(1));
+            int stepEnd = matcher.start() > stepStart ? matcher.start() - 1 : stepStart;
+            if (index < steps.size()) {
+                Step step = steps.get(index);
+                step.mExitCode = Integer.parseInt(matcher.group(2));
+                step.mOutput = normalized.substring(stepStart, stepEnd);
+            }
+            stepStart = Math.min(matcher.end() + 1, normalized.length());
+        }
+    }
+
+    /** Quote a string for the device shell. */
+    static String quote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+}
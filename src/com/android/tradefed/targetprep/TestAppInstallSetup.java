@@ -80,6 +80,12 @@ public class TestAppInstallSetup implements ITargetCleaner, IAbiReceiver {
                     + "preparer does not verify if the apks are successfully removed.")
     private boolean mCleanup = false;
 
+    @Option(name = "skip-installed-apks",
+            description = "Whether to skip installing an apk that this preparer already installed "
+                    + "on the device with the same content and install arguments. Only applies "
+                    + "when cleanup-apks is false.")
+    private boolean mSkipInstalledApks = false;
+
     @Option(name = "alt-dir",
             description = "Alternate directory to look for the apk if the apk is not in the tests "
                     + "zip file. For each alternate dir, will look in //, //data/app, //DATA/app, "
@@ -181,6 +187,13 @@ public class TestAppInstallSetup implements ITargetCleaner, IAbiReceiver {
                 mInstallArgs.add(String.format("--abi %s", abiName));
             }
             String packageName = parsePackageName(testAppFile, device.getDeviceDescriptor());
+            boolean skipInstalled = mSkipInstalledApks && !mCleanup;
+            if (skipInstalled && InstalledApkRecord.isInstalled(
+                    device, packageName, testAppFile, mInstallArgs)) {
+                CLog.d("%s is already installed from %s, skipping", packageName,
+                        testAppFile.getAbsolutePath());
+                continue;
+            }
             CLog.d("Installing apk from %s ...", testAppFile.getAbsolutePath());
             String result = installPackage(device, testAppFile);
             if (result != null) {
@@ -195,6 +208,9 @@ public class TestAppInstallSetup implements ITargetCleaner, IAbiReceiver {
                         String.format("Failed to install %s on %s. Reason: '%s'", testAppName,
                                 device.getSerialNumber(), result), device.getDeviceDescriptor());
             }
+            if (skipInstalled) {
+                InstalledApkRecord.recordInstall(device, packageName, testAppFile, mInstallArgs);
+            }
             if (mCleanup) {
                 mPackagesInstalled.add(packageName);
             }
@@ -247,6 +263,7 @@ public class TestAppInstallSetup implements ITargetCleaner, IAbiReceiver {
     /** Attempt to remove the package from the device. */
     private void uninstallPackage(ITestDevice device, String packageName)
             throws DeviceNotAvailableException {
+        InstalledApkRecord.forget(device, packageName);
         String msg = device.uninstallPackage(packageName);
         if (msg != null) {
             CLog.w(String.format("error uninstalling package '%s': %s", packageName, msg));
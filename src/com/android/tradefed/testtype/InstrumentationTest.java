@@ -1006,10 +1006,13 @@ public class InstrumentationTest implements IDeviceTest, IResumableTest, ITestCo
     }
 
     /**
-     * A {@link ResultForwarder} that will forward a screenshot on test failures.
+     * A {@link ResultForwarder} that will forward a screenshot on test failures. The screenshot is
+     * compressed in the background and forwarded when the test ends.
      */
     private static class FailedTestScreenshotGenerator extends ResultForwarder {
         private ITestDevice mDevice;
+        private InputStreamSource mScreenSource = null;
+        private String mScreenName = null;
 
         public FailedTestScreenshotGenerator(ITestInvocationListener listener,
                 ITestDevice device) {
@@ -1020,10 +1023,10 @@ public class InstrumentationTest implements IDeviceTest, IResumableTest, ITestCo
         @Override
         public void testFailed(TestIdentifier test, String trace) {
             try {
-                InputStreamSource screenSource = mDevice.getScreenshot();
-                super.testLog(String.format("screenshot-%s_%s", test.getClassName(),
-                        test.getTestName()), LogDataType.PNG, screenSource);
-                StreamUtil.cancel(screenSource);
+                logScreenshot();
+                mScreenSource = mDevice.getScreenshotAsync("PNG", true);
+                mScreenName = String.format("screenshot-%s_%s", test.getClassName(),
+                        test.getTestName());
             } catch (DeviceNotAvailableException e) {
                 // TODO: rethrow this somehow
                 CLog.e("Device %s became unavailable while capturing screenshot, %s",
@@ -1032,6 +1035,27 @@ public class InstrumentationTest implements IDeviceTest, IResumableTest, ITestCo
 
             super.testFailed(test, trace);
         }
+
+        @Override
+        public void testEnded(TestIdentifier test, long endTime, Map<String, String> testMetrics) {
+            logScreenshot();
+            super.testEnded(test, endTime, testMetrics);
+        }
+
+        @Override
+        public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+            logScreenshot();
+            super.testRunEnded(elapsedTime, runMetrics);
+        }
+
+        /** Forward the screenshot of the last failure, if any. */
+        private void logScreenshot() {
+            if (mScreenSource != null) {
+                super.testLog(mScreenName, LogDataType.PNG, mScreenSource);
+                StreamUtil.cancel(mScreenSource);
+                mScreenSource = null;
+            }
+        }
     }
 
     /**
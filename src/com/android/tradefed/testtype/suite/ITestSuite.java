@@ -29,6 +29,8 @@ import com.android.tradefed.result.ITestInvocationListener;
 import com.android.tradefed.result.ITestLoggerReceiver;
 import com.android.tradefed.result.InputStreamSource;
 import com.android.tradefed.result.LogDataType;
+import com.android.tradefed.result.ResultForwarder;
+import com.android.tradefed.result.RuntimeHistoryRecorder;
 import com.android.tradefed.suite.checker.ISystemStatusChecker;
 import com.android.tradefed.suite.checker.ISystemStatusCheckerReceiver;
 import com.android.tradefed.testtype.IBuildReceiver;
@@ -39,6 +41,7 @@ import com.android.tradefed.testtype.IRemoteTest;
 import com.android.tradefed.testtype.IRuntimeHintProvider;
 import com.android.tradefed.testtype.IShardableTest;
 import com.android.tradefed.testtype.ITestCollector;
+import com.android.tradefed.util.RuntimeHistoryStore;
 import com.android.tradefed.util.TimeUtil;
 
 import java.util.ArrayList;
@@ -46,6 +49,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
 /**
@@ -114,6 +118,14 @@ public abstract class ITestSuite
     )
     private boolean mCollectTestsOnly = false;
 
+    @Option(
+        name = "runtime-history",
+        description =
+                "Record the runtime of each module in the host runtime history, and use the "
+                        + "recorded runtimes as runtime hints when sharding."
+    )
+    private boolean mUseRuntimeHistory = false;
+
     private ITestDevice mDevice;
     private IBuildInfo mBuildInfo;
     private List<ISystemStatusChecker> mSystemStatusCheckers;
@@ -188,6 +200,9 @@ public abstract class ITestSuite
     @Override
     public final void run(ITestInvocationListener listener) throws DeviceNotAvailableException {
         List<ModuleDefinition> runModules = createExecutionList();
+        if (mUseRuntimeHistory) {
+            listener = new ResultForwarder(listener, new RuntimeHistoryRecorder());
+        }
         // Check if we have something to run.
         if (runModules.isEmpty()) {
             CLog.i("No tests to be run.");
@@ -413,11 +428,18 @@ public abstract class ITestSuite
         // create an association of one ITestSuite <=> one ModuleDefinition as the smallest
         // execution unit supported.
         List<IRemoteTest> splitTests = new ArrayList<>();
+        // Read the history once: the hints must not change while the modules are sharded, even
+        // as the runtimes of this invocation are recorded.
+        Map<String, Long> runtimeHistory =
+                mUseRuntimeHistory ? RuntimeHistoryStore.getInstance().getRuntimes() : null;
         for (ModuleDefinition m : splitModules) {
             ITestSuite suite = createInstance();
             OptionCopier.copyOptionsNoThrow(this, suite);
             suite.mIsSharded = true;
             suite.mDirectModule = m;
+            if (mUseRuntimeHistory) {
+                m.setRuntimeHistory(runtimeHistory);
+            }
             splitTests.add(suite);
         }
         // return the list of ITestSuite with their ModuleDefinition assigned
@@ -33,6 +33,7 @@ import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.result.ITestInvocationListener;
 import com.android.tradefed.result.ITestLoggerReceiver;
 import com.android.tradefed.result.ResultForwarder;
+import com.android.tradefed.result.RuntimeHistoryRecorder;
 import com.android.tradefed.suite.checker.ISystemStatusCheckerReceiver;
 import com.android.tradefed.targetprep.BuildError;
 import com.android.tradefed.targetprep.ITargetCleaner;
@@ -46,6 +47,7 @@ import com.android.tradefed.testtype.IMultiDeviceTest;
 import com.android.tradefed.testtype.IRemoteTest;
 import com.android.tradefed.testtype.IRuntimeHintProvider;
 import com.android.tradefed.testtype.ITestCollector;
+import com.android.tradefed.util.RuntimeHistoryStore;
 import com.android.tradefed.util.StreamUtil;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -90,6 +92,8 @@ public class ModuleDefinition implements Comparable<ModuleDefinition>, ITestColl
 
     private long mElapsedTest = 0l;
 
+    private Map<String, Long> mRuntimeHistory = null;
+
     public static final String PREPARATION_TIME = "PREP_TIME";
     public static final String TEAR_DOWN_TIME = "TEARDOWN_TIME";
     public static final String TEST_TIME = "TEST_TIME";
@@ -402,7 +406,7 @@ public class ModuleDefinition implements Comparable<ModuleDefinition>, ITestColl
 
         int numResults = 0;
         for (TestRunResult runResult : listResults) {
-            numResults += runResult.getTestResults().size();
+            numResults += runResult.getNumTests();
             forwardTestResults(runResult.getTestResults(), listener);
             if (runResult.isRunFailure()) {
                 listener.testRunFailed(runResult.getRunFailureMessage());
@@ -523,8 +527,27 @@ public class ModuleDefinition implements Comparable<ModuleDefinition>, ITestColl
         return getId();
     }
 
+    /**
+     * Sets the runtimes recorded by the {@link RuntimeHistoryStore} to consult for the runtime hint
+     * of the module. If not set, the hint is only based on the tests of the module.
+     *
+     * @param runtimeHistory a snapshot from {@link RuntimeHistoryStore#getRuntimes()}, which must
+     *     not change while the module is sharded.
+     */
+    public void setRuntimeHistory(Map<String, Long> runtimeHistory) {
+        mRuntimeHistory = runtimeHistory;
+    }
+
     /** Returns the approximate time to run all the tests in the module. */
     public long getRuntimeHint() {
+        if (mRuntimeHistory != null) {
+            Long recorded =
+                    mRuntimeHistory.get(
+                            RuntimeHistoryRecorder.getModuleKey(mModuleInvocationContext));
+            if (recorded != null) {
+                return recorded;
+            }
+        }
         long hint = 0l;
         for (IRemoteTest test : mTests) {
             if (test instanceof IRuntimeHintProvider) {
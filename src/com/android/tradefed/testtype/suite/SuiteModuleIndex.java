@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.testtype.suite;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.StreamUtil;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Index of the suite tags of the module configurations, read with a streaming pass over their xml
+ * instead of instantiating them.
+ *
+ * <p>Only the test-suite-tag options set at the top level of a configuration are read. The tags
+ * of a configuration that includes other configurations cannot be known without resolving the
+ * includes, so they are reported as unknown and the configuration has to be loaded. Entries are
+ * cached for the lifetime of the host process, keyed by path, size and modification time for
+ * configuration files, and by name for configurations bundled in the classpath.
+ */
+class SuiteModuleIndex {
+
+    private static final String CONFIG_PREFIX = "/config/";
+    private static final String CONFIG_SUFFIX = ".xml";
+    private static final String SUITE_TAG_OPTION = "test-suite-tag";
+    private static final String SUITE_TAG_ALIAS = "config-descriptor:" + SUITE_TAG_OPTION;
+
+    /** Marker for the configurations whose tags are unknown. */
+    private static final Set<String> UNKNOWN = Collections.unmodifiableSet(
+            new LinkedHashSet<String>());
+
+    private static final Map<String, Set<String>> sSuiteTags = new ConcurrentHashMap<>();
+
+    private SuiteModuleIndex() {}
+
+    /**
+     * Returns the suite tags of a configuration, or null if they cannot be determined without
+     * loading the configuration.
+     *
+     * @param configName the name of a configuration bundled in the classpath, or the path of a
+     *     configuration file.
+     */
+    static Set<String> getSuiteTags(String configName) {
+        String key = configName;
+        InputStream xml = SuiteModuleIndex.class.getResourceAsStream(
+                CONFIG_PREFIX + configName + CONFIG_SUFFIX);
+        if (xml == null) {
+            File configFile = new File(configName);
+            if (!configFile.isFile()) {
+                return null;
+            }
+            key = String.format("%s:%d:%d", configFile.getAbsolutePath(), configFile.length(),
+                    configFile.lastModified());
+        }
+        try {
+            Set<String> tags = sSuiteTags.get(key);
+            if (tags == null) {
+                if (xml == null) {
+                    xml = new FileInputStream(configName);
+                }
+                tags = parseSuiteTags(configName, new BufferedInputStream(xml));
+                sSuiteTags.put(key, tags);
+            }
+            return tags == UNKNOWN ? null : tags;
+        } catch (IOException e) {
+            CLog.d("Failed to index %s: %s", configName, e.toString());
+            return null;
+        } finally {
+            StreamUtil.close(xml);
+        }
+    }
+
+    /** Parse the suite tags of a configuration xml, {@link #UNKNOWN} if they cannot be known. */
+    private static Set<String> parseSuiteTags(String configName, InputStream xml) {
+        SuiteTagHandler handler = new SuiteTagHandler();
+        try {
+            SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+            parserFactory.setNamespaceAware(true);
+            parserFactory.newSAXParser().parse(new InputSource(xml), handler);
+        } catch (Exception e) {
+            // let the configuration loading report the problem
+            CLog.d("Failed to index %s: %s", configName, e.toString());
+            return UNKNOWN;
+        }
+        return handler.mComplete ? handler.mTags : UNKNOWN;
+    }
+
+    /** Collects the top level suite tags, and detects includes. */
+    private static class SuiteTagHandler extends DefaultHandler {
+        final Set<String> mTags = new LinkedHashSet<>();
+        boolean mComplete = true;
+        private int mDepth = 0;
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                Attributes attributes) {
+            mDepth++;
+            if ("include".equals(localName) || "template-include".equals(localName)) {
+                mComplete = false;
+            } else if (mDepth == 2 && "option".equals(localName)) {
+                String name = attributes.getValue("name");
+                if (SUITE_TAG_OPTION.equals(name) || SUITE_TAG_ALIAS.equals(name)) {
+                    mTags.add(attributes.getValue("value"));
+                }
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            mDepth--;
+        }
+    }
+}
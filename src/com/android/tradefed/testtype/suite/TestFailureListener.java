@@ -123,14 +123,11 @@ public class TestFailureListener implements ITestInvocationListener {
     /** Capture the appropriate logs for one device for one test failure. */
     private void captureFailure(ITestDevice device, TestIdentifier test) {
         String serial = device.getSerialNumber();
+        InputStreamSource screenSource = null;
         if (mScreenshotOnFailure) {
             try {
-                try (InputStreamSource screenSource = device.getScreenshot()) {
-                    testLog(
-                            String.format("%s-%s-screenshot", test.toString(), serial),
-                            LogDataType.PNG,
-                            screenSource);
-                }
+                // compressed in the background while the other logs are captured
+                screenSource = device.getScreenshotAsync("PNG", true);
             } catch (DeviceNotAvailableException e) {
                 CLog.e(e);
                 CLog.e("Device %s became unavailable while capturing screenshot", serial);
@@ -144,6 +141,14 @@ public class TestFailureListener implements ITestInvocationListener {
                         bugSource);
             }
         }
+        // logged before the logcat capture thread starts, which also calls testLog
+        if (screenSource != null) {
+            testLog(
+                    String.format("%s-%s-screenshot", test.toString(), serial),
+                    LogDataType.PNG,
+                    screenSource);
+            screenSource.close();
+        }
         if (mLogcatOnFailure) {
             Runnable captureLogcat =
                     new Runnable() {
@@ -25,7 +25,10 @@ import com.android.tradefed.config.Option;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.testtype.IRemoteTest;
 import com.android.tradefed.util.DirectedGraph;
+import com.android.tradefed.util.LazyZipExtractor;
+import com.android.tradefed.util.RunInterruptedException;
 import com.android.tradefed.util.StreamUtil;
+import com.android.tradefed.util.TimeUtil;
 import com.android.tradefed.util.ZipUtil2;
 
 import org.apache.commons.compress.archivers.zip.ZipFile;
@@ -37,6 +40,14 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Implementation of {@link ITestSuite} which will load tests from TF jars res/config/suite/
@@ -45,6 +56,8 @@ import java.util.List;
 public class TfSuiteRunner extends ITestSuite {
 
     private static final String CONFIG_EXT = ".config";
+    /** Loading a configuration is mostly cpu bound. */
+    private static final int LOADING_THREADS = Runtime.getRuntime().availableProcessors();
 
     @Option(name = "run-suite-tag", description = "The tag that must be run.",
             mandatory = true)
@@ -62,6 +75,15 @@ public class TfSuiteRunner extends ITestSuite {
     )
     private String mAdditionalTestsZip = null;
 
+    @Option(
+        name = "lazy-additional-tests-zip",
+        description =
+                "Only extract the configs of the additional tests zip, then the directories of "
+                        + "the modules that are loaded. Modules using files outside of their "
+                        + "directory should not use it."
+    )
+    private boolean mLazyAdditionalTestsZip = false;
+
     private DirectedGraph<String> mLoadedConfigGraph = null;
 
     /** {@inheritDoc} */
@@ -89,11 +111,15 @@ public class TfSuiteRunner extends ITestSuite {
         // info.
         List<String> configs = configFactory.getConfigList(mSuitePrefix, false);
 
+        File testsDir = null;
+        LazyZipExtractor lazyExtractor = null;
         if (getBuildInfo() instanceof IDeviceBuildInfo) {
             IDeviceBuildInfo deviceBuildInfo = (IDeviceBuildInfo) getBuildInfo();
-            File testsDir = deviceBuildInfo.getTestsDir();
+            testsDir = deviceBuildInfo.getTestsDir();
             if (testsDir != null) {
-                if (mAdditionalTestsZip != null) {
+                if (mAdditionalTestsZip != null && mLazyAdditionalTestsZip) {
+                    lazyExtractor = openLazyTestsZip(testsDir);
+                } else if (mAdditionalTestsZip != null) {
                     CLog.d(
                             "Extract general-tests.zip (%s) to tests directory.",
                             mAdditionalTestsZip);
@@ -124,34 +150,178 @@ public class TfSuiteRunner extends ITestSuite {
         }
         // Sort configs to ensure they are always evaluated and added in the same order.
         Collections.sort(configs);
-        for (String configName : configs) {
-            try {
-                IConfiguration testConfig =
-                        configFactory.createConfigurationFromArgs(new String[]{configName});
-                if (testConfig.getConfigurationDescription().getSuiteTags().contains(mSuiteTag)) {
-                    // In case some sub-config are suite too, we expand them to avoid weirdness
-                    // of modules inside modules.
-                    if (parentConfig != null) {
-                        graph.addEdge(parentConfig, configName);
-                        if (!graph.isDag()) {
-                            CLog.e("%s", graph);
-                            throw new RuntimeException(
-                                    String.format(
-                                            "Circular configuration detected: %s has been included "
-                                                    + "several times.",
-                                            configName));
-                        }
+        try {
+            loadConfigs(parentConfig, graph, configs, configMap, testsDir, lazyExtractor);
+        } finally {
+            StreamUtil.close(lazyExtractor);
+        }
+        return configMap;
+    }
+
+    /**
+     * Loads the given configurations and adds the ones with the suite tag, expanded, to the map.
+     * The module directories are extracted from the additional tests zip if it is extracted
+     * lazily.
+     */
+    private void loadConfigs(
+            String parentConfig,
+            DirectedGraph<String> graph,
+            List<String> configs,
+            LinkedHashMap<String, IConfiguration> configMap,
+            File testsDir,
+            LazyZipExtractor lazyExtractor) {
+        Map<String, Future<IConfiguration>> loadedConfigs = loadConfigurations(configs);
+        for (Entry<String, Future<IConfiguration>> loadedConfig : loadedConfigs.entrySet()) {
+            String configName = loadedConfig.getKey();
+            IConfiguration testConfig = getLoadedConfiguration(configName, loadedConfig.getValue());
+            if (testConfig == null) {
+                continue;
+            }
+            if (testConfig.getConfigurationDescription().getSuiteTags().contains(mSuiteTag)) {
+                if (lazyExtractor != null) {
+                    extractModuleDir(lazyExtractor, testsDir, configName);
+                }
+                // In case some sub-config are suite too, we expand them to avoid weirdness
+                // of modules inside modules.
+                if (parentConfig != null) {
+                    // the graph is a dag, the new edge creates a cycle only if the parent can be
+                    // reached from the config.
+                    boolean cycle = graph.isReachable(configName, parentConfig);
+                    graph.addEdge(parentConfig, configName);
+                    if (cycle) {
+                        CLog.e("%s", graph);
+                        throw new RuntimeException(
+                                String.format(
+                                        "Circular configuration detected: %s has been included "
+                                                + "several times.",
+                                        configName));
                     }
-                    LinkedHashMap<String, IConfiguration> expandedConfig =
-                            expandTestSuites(configName, testConfig, graph);
-                    configMap.putAll(expandedConfig);
                 }
-            } catch (ConfigurationException | NoClassDefFoundError e) {
+                LinkedHashMap<String, IConfiguration> expandedConfig =
+                        expandTestSuites(configName, testConfig, graph);
+                configMap.putAll(expandedConfig);
+            }
+        }
+        if (lazyExtractor != null) {
+            CLog.d(
+                    "Extracted %d of the %d entries of %s",
+                    lazyExtractor.getExtractedCount(),
+                    lazyExtractor.getEntryCount(),
+                    mAdditionalTestsZip);
+        }
+    }
+
+    /**
+     * Opens the additional tests zip for lazy extraction, and extracts its configs so that the
+     * modules can be found.
+     */
+    private LazyZipExtractor openLazyTestsZip(File testsDir) {
+        CLog.d("Extract the configs of %s to tests directory.", mAdditionalTestsZip);
+        LazyZipExtractor extractor = null;
+        try {
+            extractor = new LazyZipExtractor(new File(mAdditionalTestsZip), testsDir);
+            extractor.extractEntriesEndingWith(CONFIG_EXT, ".xml");
+            return extractor;
+        } catch (IOException e) {
+            StreamUtil.close(extractor);
+            throw new RuntimeException(
+                    String.format(
+                            "IO error (%s) when unzipping the configs of %s",
+                            e.toString(), mAdditionalTestsZip),
+                    e);
+        }
+    }
+
+    /** Extracts the directory of a module config coming from the additional tests zip. */
+    private void extractModuleDir(LazyZipExtractor extractor, File testsDir, String configName) {
+        File configFile = new File(configName);
+        if (!configFile.isAbsolute()) {
+            // a config from the classpath
+            return;
+        }
+        String moduleDir =
+                testsDir.getAbsoluteFile()
+                        .toPath()
+                        .relativize(configFile.getParentFile().toPath())
+                        .toString();
+        if (moduleDir.startsWith("..")) {
+            // not from the tests directory
+            return;
+        }
+        try {
+            extractor.extractPath(moduleDir);
+        } catch (IOException e) {
+            throw new RuntimeException(
+                    String.format(
+                            "IO error (%s) when unzipping %s from %s",
+                            e.toString(), moduleDir, mAdditionalTestsZip),
+                    e);
+        }
+    }
+
+    /**
+     * Start loading the configurations that may have the suite tag. Configurations are first
+     * looked up in the {@link SuiteModuleIndex}, and only the ones that have the tag or whose tags
+     * are unknown are loaded, in parallel.
+     *
+     * @return the configurations being loaded, in the order of the given names.
+     */
+    private Map<String, Future<IConfiguration>> loadConfigurations(List<String> configs) {
+        final IConfigurationFactory configFactory = ConfigurationFactory.getInstance();
+        long start = System.currentTimeMillis();
+        Map<String, Future<IConfiguration>> loadedConfigs = new LinkedHashMap<>();
+        ExecutorService executor =
+                Executors.newFixedThreadPool(
+                        Math.max(1, Math.min(configs.size(), LOADING_THREADS)));
+        try {
+            for (final String configName : configs) {
+                Set<String> suiteTags = SuiteModuleIndex.getSuiteTags(configName);
+                if (suiteTags != null && !suiteTags.contains(mSuiteTag)) {
+                    continue;
+                }
+                loadedConfigs.put(
+                        configName,
+                        executor.submit(
+                                new Callable<IConfiguration>() {
+                                    @Override
+                                    public IConfiguration call() throws ConfigurationException {
+                                        return configFactory.createConfigurationFromArgs(
+                                                new String[] {configName});
+                                    }
+                                }));
+            }
+        } finally {
+            // already submitted loads still complete
+            executor.shutdown();
+        }
+        CLog.d(
+                "Loading %d of %d configurations for suite tag '%s', indexed in %s",
+                loadedConfigs.size(),
+                configs.size(),
+                mSuiteTag,
+                TimeUtil.formatElapsedTime(System.currentTimeMillis() - start));
+        return loadedConfigs;
+    }
+
+    /** Wait for a configuration to be loaded, returns null if it cannot be loaded. */
+    private IConfiguration getLoadedConfiguration(
+            String configName, Future<IConfiguration> loadedConfig) {
+        try {
+            return loadedConfig.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ConfigurationException
+                    || e.getCause() instanceof NoClassDefFoundError) {
                 // Do not print the stack it's too verbose.
                 CLog.e("Configuration '%s' cannot be loaded, ignoring.", configName);
+                return null;
             }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            throw new RunInterruptedException(e);
         }
-        return configMap;
     }
 
     /**
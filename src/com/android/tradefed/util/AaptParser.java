@@ -18,8 +18,12 @@ package com.android.tradefed.util;
 import com.android.tradefed.log.LogUtil.CLog;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -27,6 +31,10 @@ import java.util.regex.Pattern;
  * Class that extracts info from apk by parsing output of 'aapt dump badging'.
  * <p/>
  * aapt must be on PATH
+ * <p/>
+ * The output of aapt is cached on disk, keyed by the md5 and size of the apk, so that an apk is
+ * only parsed once per host no matter how many invocations install it. The cache is in a directory
+ * private to the user running TF, and is not used if that directory is accessible to others.
  */
 public class AaptParser {
     private static final Pattern PKG_PATTERN = Pattern.compile(
@@ -45,6 +53,26 @@ public class AaptParser {
             Pattern.compile("alt-native-code: '(.*)'");
     private static final int AAPT_TIMEOUT_MS = 60000;
     private static final int INVALID_SDK = -1;
+    private static final String CACHE_DIR_NAME = "tf-aapt-badging-cache-%s";
+    /** Most apk hashes kept in memory, the least recently used ones are computed again. */
+    private static final int MAX_CONTENT_HASHES = 1000;
+
+    /** Directory where the output of aapt is cached, shared by all the invocations of the host. */
+    private static File sCacheDir =
+            new File(
+                    System.getProperty("java.io.tmpdir"),
+                    String.format(CACHE_DIR_NAME, System.getProperty("user.name")));
+    /** md5 of the apks already hashed, keyed by path, reused while the file is unchanged. */
+    private static final Map<String, String[]> sContentHashes =
+            Collections.synchronizedMap(
+                    new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+                            return size() > MAX_CONTENT_HASHES;
+                        }
+                    });
 
     private String mPackageName;
     private String mVersionCode;
@@ -103,6 +131,15 @@ public class AaptParser {
      * @return the {@link AaptParser} or <code>null</code> if failed to extract the information
      */
     public static AaptParser parse(File apkFile) {
+        String cacheKey = getCacheKey(apkFile);
+        String badging = readCachedBadging(cacheKey);
+        if (badging != null) {
+            AaptParser p = new AaptParser();
+            if (p.parse(badging)) {
+                return p;
+            }
+            // corrupted cache entry, parse the apk again
+        }
         CommandResult result =
                 RunUtil.getDefault()
                         .runTimedCmdRetry(
@@ -121,8 +158,10 @@ public class AaptParser {
 
         if (CommandStatus.SUCCESS.equals(result.getStatus())) {
             AaptParser p = new AaptParser();
-            if (p.parse(result.getStdout()))
+            if (p.parse(result.getStdout())) {
+                writeCachedBadging(cacheKey, result.getStdout());
                 return p;
+            }
             return null;
         }
         CLog.e(
@@ -131,6 +170,84 @@ public class AaptParser {
         return null;
     }
 
+    /**
+     * Returns the md5 of an apk. The hash is only computed again if the size or the modification
+     * time of the file changed since the last call.
+     *
+     * @param apkFile the apk file
+     * @return the md5 of the file
+     * @throws IOException if the file could not be read
+     */
+    public static String getContentHash(File apkFile) throws IOException {
+        String path = apkFile.getAbsolutePath();
+        String stamp = String.format("%d-%d", apkFile.length(), apkFile.lastModified());
+        String[] hash = sContentHashes.get(path);
+        if (hash == null || !hash[0].equals(stamp)) {
+            hash = new String[] {stamp, FileUtil.calculateMd5(apkFile)};
+            sContentHashes.put(path, hash);
+        }
+        return hash[1];
+    }
+
+    /** Returns the key of an apk in the cache, or null if the apk could not be hashed. */
+    private static String getCacheKey(File apkFile) {
+        try {
+            return String.format("%s-%d", getContentHash(apkFile), apkFile.length());
+        } catch (IOException e) {
+            CLog.w("Failed to hash %s, not using the aapt cache: %s", apkFile, e.toString());
+            return null;
+        }
+    }
+
+    private static String readCachedBadging(String cacheKey) {
+        if (cacheKey == null) {
+            return null;
+        }
+        File cached = new File(sCacheDir, cacheKey);
+        if (!cached.isFile() || !FileUtil.mkdirPrivate(sCacheDir)) {
+            return null;
+        }
+        try {
+            return FileUtil.readStringFromFile(cached);
+        } catch (IOException e) {
+            CLog.w("Failed to read cached aapt output %s: %s", cached, e.toString());
+            return null;
+        }
+    }
+
+    private static void writeCachedBadging(String cacheKey, String badging) {
+        if (cacheKey == null) {
+            return;
+        }
+        if (!FileUtil.mkdirPrivate(sCacheDir)) {
+            CLog.w("Not caching aapt output, %s is not private", sCacheDir);
+            return;
+        }
+        File tmpFile = null;
+        try {
+            // write then rename, so concurrent invocations never read a partial entry
+            tmpFile = FileUtil.createTempFile(cacheKey, ".tmp", sCacheDir);
+            FileUtil.writeToFile(badging, tmpFile);
+            if (!tmpFile.renameTo(new File(sCacheDir, cacheKey))) {
+                CLog.w("Failed to add %s to the aapt cache", cacheKey);
+            }
+        } catch (IOException e) {
+            CLog.w("Failed to cache aapt output: %s", e.toString());
+        } finally {
+            FileUtil.deleteFile(tmpFile);
+        }
+    }
+
+    /** Returns the directory where the output of aapt is cached. Exposed for testing. */
+    static File getCacheDir() {
+        return sCacheDir;
+    }
+
+    /** Sets the directory where the output of aapt is cached. Exposed for testing. */
+    static void setCacheDir(File cacheDir) {
+        sCacheDir = cacheDir;
+    }
+
     public String getPackageName() {
         return mPackageName;
     }
@@ -20,6 +20,7 @@ import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.result.FileInputStreamSource;
 import com.android.tradefed.result.InputStreamSource;
 import com.android.tradefed.result.LogDataType;
+import com.android.tradefed.result.ZipEntryInputStreamSource;
 
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipFile;
@@ -27,6 +28,7 @@ import org.apache.commons.compress.archivers.zip.ZipFile;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -34,10 +36,17 @@ import java.util.List;
 /**
  * Object holding the bugreport files references, compatible of flat bugreport and zipped bugreport
  * (bugreportz).
+ *
+ * <p>The files of a zipped bugreport are read from the zip on demand, through a single {@link
+ * ZipFile} opened on first use and closed with the bugreport.
  */
 public class Bugreport implements Closeable {
+    private static final String MAIN_ENTRY = "main_entry.txt";
+
     private File mBugreport;
     private boolean mIsZipped;
+    private ZipFile mZip = null;
+    private String mMainEntryName = null;
 
     public Bugreport(File bugreportFile, boolean isZipped) {
         mBugreport = bugreportFile;
@@ -59,7 +68,8 @@ public class Bugreport implements Closeable {
      */
     public void log(String dataName, ITestLogger logger) {
         LogDataType type = isZipped() ? LogDataType.BUGREPORTZ : LogDataType.BUGREPORT;
-        try (InputStreamSource source = new FileInputStreamSource(mBugreport)) {
+        try (InputStreamSource source =
+                new FileInputStreamSource(mBugreport, false, isZipped())) {
             logger.testLog(dataName, type, source);
         }
     }
@@ -76,27 +86,28 @@ public class Bugreport implements Closeable {
         if (!mIsZipped) {
             return mBugreport;
         } else {
-            File mainEntry = null;
-            try {
-                try (ZipFile zip = new ZipFile(mBugreport)) {
-                    // We get the main_entry.txt that contains the bugreport name.
-                    mainEntry = ZipUtil2.extractFileFromZip(zip, "main_entry.txt");
-                    if (mainEntry == null) {
-                        CLog.w("main_entry.txt was not found inside the bugreport");
-                        return null;
-                    }
-                    String bugreportName = FileUtil.readStringFromFile(mainEntry).trim();
-                    CLog.d("bugreport name: '%s'", bugreportName);
-                    return ZipUtil2.extractFileFromZip(zip, bugreportName);
-                }
-            } catch (IOException e) {
-                CLog.e("Error while unzipping bugreportz");
-                CLog.e(e);
-            } finally {
-                FileUtil.deleteFile(mainEntry);
+            String bugreportName = getMainEntryName();
+            if (bugreportName == null) {
+                return null;
             }
+            return extractFileBugreport(bugreportName);
         }
-        return null;
+    }
+
+    /**
+     * Return a {@link InputStreamSource} reading the bugreport main file, without extracting it.
+     * For a flat bugreport, it reads the flat bugreport itself. For a zipped bugreport, it reads
+     * the main entry from the zip. Null if not found.
+     * The returned source is only valid until the bugreport is closed.
+     */
+    public InputStreamSource getMainFileSource() {
+        if (mBugreport == null) {
+            return null;
+        }
+        if (!mIsZipped) {
+            return new FileInputStreamSource(mBugreport);
+        }
+        return getFileSourceByName(getMainEntryName());
     }
 
     /**
@@ -111,8 +122,8 @@ public class Bugreport implements Closeable {
         if (!mIsZipped) {
             return null;
         }
-        try (ZipFile zipBugreport = new ZipFile(mBugreport)) {
-            for (ZipArchiveEntry entry : Collections.list(zipBugreport.getEntries())) {
+        try {
+            for (ZipArchiveEntry entry : Collections.list(getZip().getEntries())) {
                 list.add(entry.getName());
             }
         } catch (IOException e) {
@@ -137,14 +148,36 @@ public class Bugreport implements Closeable {
         return null;
     }
 
+    /**
+     * Return a {@link InputStreamSource} reading the file associated with the name in the
+     * bugreport, without extracting it. Null if not found or if name is null. Non zipped
+     * bugreport always return null.
+     * The returned source is only valid until the bugreport is closed.
+     */
+    public InputStreamSource getFileSourceByName(String name) {
+        if (mBugreport == null || name == null || !mIsZipped) {
+            return null;
+        }
+        try {
+            ZipFile zip = getZip();
+            ZipArchiveEntry entry = zip.getEntry(name);
+            if (entry == null) {
+                return null;
+            }
+            return new ZipEntryInputStreamSource(zip, entry);
+        } catch (IOException e) {
+            CLog.e("Error while opening bugreportz");
+            CLog.e(e);
+        }
+        return null;
+    }
+
     /**
      * Helper to extract and return a file from the zipped bugreport.
      */
     private File extractFileBugreport(String name) {
-        File bugreport = null;
-        try (ZipFile zip = new ZipFile(mBugreport)) {
-            bugreport = ZipUtil2.extractFileFromZip(zip, name);
-            return bugreport;
+        try {
+            return ZipUtil2.extractFileFromZip(getZip(), name);
         } catch (IOException e) {
             CLog.e("Error while unzipping bugreportz");
             CLog.e(e);
@@ -152,12 +185,53 @@ public class Bugreport implements Closeable {
         return null;
     }
 
+    /**
+     * Returns the name of the bugreport main file inside the zipped bugreport, read from
+     * main_entry.txt the first time. Null if not found.
+     */
+    private synchronized String getMainEntryName() {
+        if (mMainEntryName != null) {
+            return mMainEntryName;
+        }
+        try {
+            ZipFile zip = getZip();
+            // We get the main_entry.txt that contains the bugreport name.
+            ZipArchiveEntry mainEntry = zip.getEntry(MAIN_ENTRY);
+            if (mainEntry == null) {
+                CLog.w("main_entry.txt was not found inside the bugreport");
+                return null;
+            }
+            try (InputStream stream = zip.getInputStream(mainEntry)) {
+                mMainEntryName = StreamUtil.getStringFromStream(stream).trim();
+            }
+            CLog.d("bugreport name: '%s'", mMainEntryName);
+        } catch (IOException e) {
+            CLog.e("Error while reading main_entry.txt of bugreportz");
+            CLog.e(e);
+        }
+        return mMainEntryName;
+    }
+
+    /**
+     * Returns the {@link ZipFile} of the zipped bugreport, opening it on first use.
+     */
+    private synchronized ZipFile getZip() throws IOException {
+        if (mZip == null) {
+            mZip = new ZipFile(mBugreport);
+        }
+        return mZip;
+    }
+
     /**
      * Clean up the files held by the bugreport object. Must be called when the object is not used
      * anymore.
      */
     @Override
     public void close() throws IOException {
+        synchronized (this) {
+            ZipUtil2.closeZip(mZip);
+            mZip = null;
+        }
         FileUtil.deleteFile(mBugreport);
     }
 }
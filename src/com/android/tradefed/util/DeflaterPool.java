@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.Deflater;
+
+/**
+ * A pool of raw (no zlib header) {@link Deflater}s, per compression level.
+ *
+ * <p>Each {@link Deflater} holds a few hundred KB of native memory, allocated when created and
+ * only released by {@link Deflater#end()}. Reusing them avoids that cost for each compressed
+ * block.
+ */
+public class DeflaterPool {
+
+    /** The maximum number of idle {@link Deflater}s kept per compression level. */
+    private static final int MAX_IDLE_PER_LEVEL = 32;
+
+    private static final ConcurrentMap<Integer, BlockingQueue<Deflater>> sIdleDeflaters =
+            new ConcurrentHashMap<>();
+
+    private DeflaterPool() {
+        // not instantiable
+    }
+
+    /**
+     * Get a raw {@link Deflater}, in its initial state. It must be returned with {@link
+     * #release(Deflater, int)} once used.
+     *
+     * @param level the compression level, from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public static Deflater acquire(int level) {
+        Deflater deflater = getIdleDeflaters(level).poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        }
+        return deflater;
+    }
+
+    /**
+     * Return a {@link Deflater} obtained from {@link #acquire(int)} to the pool.
+     *
+     * @param deflater the {@link Deflater} to return. It must not be used after this call.
+     * @param level the level the {@link Deflater} was acquired with
+     */
+    public static void release(Deflater deflater, int level) {
+        deflater.reset();
+        if (!getIdleDeflaters(level).offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    private static BlockingQueue<Deflater> getIdleDeflaters(int level) {
+        BlockingQueue<Deflater> idle = sIdleDeflaters.get(level);
+        if (idle == null) {
+            sIdleDeflaters.putIfAbsent(level, new ArrayBlockingQueue<Deflater>(MAX_IDLE_PER_LEVEL));
+            idle = sIdleDeflaters.get(level);
+        }
+        return idle;
+    }
+}
@@ -17,8 +17,10 @@ package com.android.tradefed.util;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
 /**
@@ -135,6 +137,36 @@ public class DirectedGraph<V> {
         return result;
     }
 
+    /**
+     * True if there is a path from a vertex to another one. A vertex can always reach itself.
+     * Only the vertices reachable from the first one are visited, so on a dag this is a cheaper
+     * way than {@link #isDag()} to check that adding an edge would not create a cycle: adding
+     * the edge from -> to creates a cycle if and only if from is reachable from to.
+     */
+    public boolean isReachable(V from, V to) {
+        if (from.equals(to)) {
+            return true;
+        }
+        if (!contains(from)) {
+            return false;
+        }
+        Set<V> visited = new HashSet<V>();
+        Stack<V> toVisit = new Stack<V>();
+        toVisit.push(from);
+        visited.add(from);
+        while (!toVisit.isEmpty()) {
+            for (V neighbor: neighbors.get(toVisit.pop())) {
+                if (neighbor.equals(to)) {
+                    return true;
+                }
+                if (visited.add(neighbor)) {
+                    toVisit.push(neighbor);
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * True if graph is a dag (directed acyclic graph).
      */
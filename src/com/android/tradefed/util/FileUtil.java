@@ -32,9 +32,17 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributes;
 import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
@@ -67,6 +75,12 @@ public class FileUtil {
 
     private static String sChmod = "chmod";
 
+    /** Permissions of the directories created by {@link #mkdirPrivate(File)}. */
+    private static final Set<PosixFilePermission> PRIVATE_DIR_PERMISSIONS =
+            EnumSet.of(
+                    PosixFilePermission.OWNER_READ,
+                    PosixFilePermission.OWNER_WRITE,
+                    PosixFilePermission.OWNER_EXECUTE);
     /** A map of {@link PosixFilePermission} to its corresponding Unix file mode */
     private static final Map<PosixFilePermission, Integer> PERM_MODE_MAP = new HashMap<>();
     static {
@@ -140,6 +154,52 @@ public class FileUtil {
         return file.isDirectory();
     }
 
+    /**
+     * Create a directory only accessible to the current user, for content that other users of the
+     * host must not be able to tamper with. Missing parent directories are created as well.
+     *
+     * @param dir the directory to create.
+     * @return {@code true} if {@code dir} is a directory owned by the current user and only
+     *         accessible to them, {@code false} otherwise, including when it already existed with
+     *         another owner or wider permissions.
+     */
+    public static boolean mkdirPrivate(File dir) {
+        Path path = dir.toPath();
+        try {
+            File parent = dir.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                CLog.w("Failed to create the parent of private dir %s", dir);
+                return false;
+            }
+            try {
+                Files.createDirectory(
+                        path, PosixFilePermissions.asFileAttribute(PRIVATE_DIR_PERMISSIONS));
+            } catch (FileAlreadyExistsException e) {
+                // checked below
+            }
+            PosixFileAttributes attributes = Files.readAttributes(
+                    path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (!attributes.isDirectory()) {
+                CLog.w("%s is not a directory", dir);
+                return false;
+            }
+            String owner = attributes.owner().getName();
+            if (!owner.equals(System.getProperty("user.name"))) {
+                CLog.w("Private dir %s is owned by %s", dir, owner);
+                return false;
+            }
+            if (!PRIVATE_DIR_PERMISSIONS.containsAll(attributes.permissions())) {
+                CLog.w("Private dir %s is accessible to other users: %s", dir,
+                        PosixFilePermissions.toString(attributes.permissions()));
+                return false;
+            }
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            CLog.w("Failed to create private dir %s: %s", dir, e.toString());
+            return false;
+        }
+    }
+
     public static boolean chmodRWXRecursively(File file) {
         boolean success = true;
         if (!file.setExecutable(true, false)) {
@@ -387,22 +447,49 @@ public class FileUtil {
     }
 
     /**
-     * A helper method that hardlinks a file to another file
+     * A helper method that hardlinks a file to another file. The file is copied if it cannot be
+     * hardlinked, for example across a filesystem boundary.
      *
      * @param origFile the original file
      * @param destFile the destination file
-     * @throws IOException if failed to hardlink file
+     * @throws IOException if failed to hardlink or copy file
      */
     public static void hardlinkFile(File origFile, File destFile) throws IOException {
-        // `ln src dest` will create a hardlink (note: not `ln -s src dest`, which creates symlink)
-        // note that this will fail across filesystem boundaries
-        // FIXME: should probably just fall back to normal copy if this fails
-        CommandResult result = linkFile(origFile, destFile, false);
-        if (!result.getStatus().equals(CommandStatus.SUCCESS)) {
-            throw new IOException(String.format(
-                    "Failed to hardlink %s to %s.  Across filesystem boundary?",
-                    origFile.getAbsolutePath(), destFile.getAbsolutePath()));
+        linkOrCopyFile(origFile, destFile);
+    }
+
+    /**
+     * Hardlink a file to another file, or copy it if it cannot be hardlinked.
+     *
+     * @return true if the file was hardlinked, false if it was copied.
+     * @throws IOException if failed to hardlink or copy file
+     */
+    static boolean linkOrCopyFile(File origFile, File destFile) throws IOException {
+        if (!origFile.exists()) {
+            throw new IOException(
+                    String.format(
+                            "Cannot hardlink %s. File does not exist",
+                            origFile.getAbsolutePath()));
+        }
+        try {
+            Files.createLink(destFile.toPath(), origFile.toPath());
+            return true;
+        } catch (FileAlreadyExistsException | NoSuchFileException e) {
+            // a copy would fail the same way
+            throw new IOException(
+                    String.format(
+                            "Failed to hardlink %s to %s.",
+                            origFile.getAbsolutePath(), destFile.getAbsolutePath()),
+                    e);
+        } catch (FileSystemException | UnsupportedOperationException e) {
+            // Most likely across filesystem boundary, or on a filesystem without hardlinks.
+            CLog.d(
+                    "Failed to hardlink %s to %s (%s), copying it instead.",
+                    origFile.getAbsolutePath(), destFile.getAbsolutePath(), e.getMessage());
         }
+        // Let the JDK pick the most efficient in-kernel copy available to it.
+        Files.copy(origFile.toPath(), destFile.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+        return false;
     }
 
     /**
@@ -443,7 +530,8 @@ public class FileUtil {
     }
 
     /**
-     * Recursively hardlink folder contents.
+     * Recursively hardlink folder contents. Directories and large groups of files are linked in
+     * parallel, and files that cannot be hardlinked are copied.
      * <p/>
      * Only supports copying of files and directories - symlinks are not copied. If the destination
      * directory does not exist, it will be created.
@@ -453,18 +541,15 @@ public class FileUtil {
      * @throws IOException
      */
     public static void recursiveHardlink(File sourceDir, File destDir) throws IOException {
-        if (!destDir.isDirectory() && !destDir.mkdir()) {
-            throw new IOException(String.format("Could not create directory %s",
-                    destDir.getAbsolutePath()));
-        }
-        for (File childFile : sourceDir.listFiles()) {
-            File destChild = new File(destDir, childFile.getName());
-            if (childFile.isDirectory()) {
-                recursiveHardlink(childFile, destChild);
-            } else if (childFile.isFile()) {
-                hardlinkFile(childFile, destChild);
-            }
-        }
+        long startTime = System.currentTimeMillis();
+        long[] counts = RecursiveHardlinkAction.link(sourceDir, destDir);
+        CLog.d(
+                "Hardlinked %d files from %s to %s in %s (%d copied instead)",
+                counts[0] + counts[1],
+                sourceDir.getAbsolutePath(),
+                destDir.getAbsolutePath(),
+                TimeUtil.formatElapsedTime(System.currentTimeMillis() - startTime),
+                counts[1]);
     }
 
     /**
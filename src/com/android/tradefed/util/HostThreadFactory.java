@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import com.android.tradefed.log.ILogRegistry;
+import com.android.tradefed.log.LogUtil.CLog;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link ThreadFactory} creating named daemon threads for the pools shared by all the
+ * invocations of the host.
+ *
+ * <p>A thread joins the {@link ThreadGroup} of the thread creating it, unless told otherwise. The
+ * threads of a shared pool would then belong to whichever invocation first used the pool: they
+ * would be reported as stray threads of that invocation, and the tasks they run for other
+ * invocations would log to its log, since loggers are picked by {@link ThreadGroup}. This factory
+ * creates its threads in a group of the host instead, and {@link #wrap(Runnable)} lets a task log
+ * to the invocation submitting it. {@link #newForkJoinPool(int)} does the same for fork-join pools.
+ */
+public class HostThreadFactory implements ThreadFactory {
+
+    private static final String GROUP_NAME = "TradeFed-host-pools";
+    private static ThreadGroup sHostThreadGroup = null;
+
+    private final String mNamePrefix;
+    private final AtomicInteger mCount = new AtomicInteger();
+
+    /**
+     * Creates a {@link HostThreadFactory}.
+     *
+     * @param namePrefix the prefix of the thread names, followed by a sequence number.
+     */
+    public HostThreadFactory(String namePrefix) {
+        mNamePrefix = namePrefix;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread t = new Thread(getHostThreadGroup(), r, mNamePrefix + mCount.incrementAndGet());
+        // daemon so that it does not prevent TF from shutting down.
+        t.setDaemon(true);
+        return t;
+    }
+
+    /**
+     * Returns the {@link ThreadGroup} of the pooled threads. It is a child of the root group, so it
+     * does not depend on the thread creating it first.
+     */
+    static synchronized ThreadGroup getHostThreadGroup() {
+        if (sHostThreadGroup == null) {
+            ThreadGroup root = Thread.currentThread().getThreadGroup();
+            while (root.getParent() != null) {
+                root = root.getParent();
+            }
+            sHostThreadGroup = new ThreadGroup(root, GROUP_NAME);
+        }
+        return sHostThreadGroup;
+    }
+
+    /**
+     * Creates a {@link ForkJoinPool} whose workers are daemon threads of the host group. The tasks
+     * should log through {@link #wrap(Runnable)}, created when the task is, to log to the
+     * invocation submitting them.
+     *
+     * @param parallelism the parallelism level of the pool.
+     */
+    public static ForkJoinPool newForkJoinPool(int parallelism) {
+        return new ForkJoinPool(parallelism, new HostWorkerFactory(), null, false);
+    }
+
+    /**
+     * A {@link ForkJoinWorkerThreadFactory} creating the workers in the host group. A worker joins
+     * the group of the thread creating it, which may be the thread of an invocation submitting a
+     * task, so the workers are created from a thread of the host group.
+     */
+    private static class HostWorkerFactory implements ForkJoinWorkerThreadFactory {
+        @Override
+        public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+            if (Thread.currentThread().getThreadGroup() == getHostThreadGroup()) {
+                return new HostWorker(pool);
+            }
+            FutureTask<ForkJoinWorkerThread> creation =
+                    new FutureTask<>(
+                            new Callable<ForkJoinWorkerThread>() {
+                                @Override
+                                public ForkJoinWorkerThread call() {
+                                    return new HostWorker(pool);
+                                }
+                            });
+            Thread creator = new Thread(getHostThreadGroup(), creation, "ForkJoin-worker-creator");
+            creator.setDaemon(true);
+            creator.start();
+            try {
+                return creation.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                CLog.e(e.getCause());
+            }
+            // the pool runs with the workers it has, or the caller runs the task.
+            return null;
+        }
+    }
+
+    /** A {@link ForkJoinWorkerThread} of the host group, named and made daemon by its pool. */
+    private static class HostWorker extends ForkJoinWorkerThread {
+        HostWorker(ForkJoinPool pool) {
+            super(pool);
+        }
+    }
+
+    /**
+     * Wrap a task so that it logs to the logger of the current thread, whichever thread runs it.
+     */
+    public static Runnable wrap(final Runnable task) {
+        final ILogRegistry registry = CLog.getLogRegistry();
+        if (registry == null) {
+            return task;
+        }
+        final ThreadGroup group = registry.getLoggingThreadGroup();
+        return new Runnable() {
+            @Override
+            public void run() {
+                ThreadGroup previous = getLoggingOverride(registry);
+                registry.setLoggingThreadGroup(group);
+                try {
+                    task.run();
+                } finally {
+                    registry.setLoggingThreadGroup(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Wrap a task so that it logs to the logger of the current thread, whichever thread runs it.
+     */
+    public static <T> Callable<T> wrap(final Callable<T> task) {
+        final ILogRegistry registry = CLog.getLogRegistry();
+        if (registry == null) {
+            return task;
+        }
+        final ThreadGroup group = registry.getLoggingThreadGroup();
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                ThreadGroup previous = getLoggingOverride(registry);
+                registry.setLoggingThreadGroup(group);
+                try {
+                    return task.call();
+                } finally {
+                    registry.setLoggingThreadGroup(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the group whose logger the current thread uses instead of its own, or null if none,
+     * to restore it after a wrapped task. A fork-join worker may run a task of another invocation
+     * while waiting for one of its own.
+     */
+    private static ThreadGroup getLoggingOverride(ILogRegistry registry) {
+        ThreadGroup group = registry.getLoggingThreadGroup();
+        return group == Thread.currentThread().getThreadGroup() ? null : group;
+    }
+}
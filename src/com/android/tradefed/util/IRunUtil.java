@@ -285,6 +285,13 @@ public interface IRunUtil {
      */
     public void interrupt(Thread thread, String message);
 
+    /**
+     * Throws a {@link RunInterruptedException} if the run operations of the current thread were
+     * interrupted with {@link #interrupt(Thread, String)} and interrupts are allowed. To be called
+     * by the callers waiting without going through the run operations.
+     */
+    public void checkInterrupted();
+
     /**
      * Decide whether or not when creating a process, unsetting environment variable is higher
      * priority than setting them.
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Extracts the entries of a zip file on demand, so that a caller only needing a small part of a
+ * large zip does not unpack all of it. Each entry is extracted at most once.
+ */
+public class LazyZipExtractor implements Closeable {
+
+    private final ZipFile mZipFile;
+    private final File mDestDir;
+    private final List<ZipArchiveEntry> mEntries;
+    private final Set<String> mExtracted = new HashSet<>();
+
+    /**
+     * Opens a zip file to extract lazily.
+     *
+     * @param zipFile the zip file
+     * @param destDir the local dir to extract the entries to
+     * @throws IOException if the zip file could not be read
+     */
+    public LazyZipExtractor(File zipFile, File destDir) throws IOException {
+        mZipFile = new ZipFile(zipFile);
+        mDestDir = destDir;
+        mEntries = Collections.list(mZipFile.getEntries());
+    }
+
+    /**
+     * Extract the entries whose name ends with one of the given suffixes, for example the test
+     * configs, if not already extracted.
+     *
+     * @param suffixes the suffixes of the entries to extract
+     * @throws IOException if failed to extract an entry
+     */
+    public synchronized void extractEntriesEndingWith(String... suffixes) throws IOException {
+        List<ZipArchiveEntry> entries = new ArrayList<>();
+        for (ZipArchiveEntry entry : mEntries) {
+            for (String suffix : suffixes) {
+                if (entry.getName().endsWith(suffix)) {
+                    entries.add(entry);
+                    break;
+                }
+            }
+        }
+        extract(entries);
+    }
+
+    /**
+     * Extract the file or directory at the given path of the zip file, if not already extracted.
+     *
+     * @param path the path inside the zip file, an empty path extracts all the entries
+     * @return the extracted {@link File}
+     * @throws IOException if failed to extract an entry
+     */
+    public synchronized File extractPath(String path) throws IOException {
+        List<ZipArchiveEntry> entries = new ArrayList<>();
+        for (ZipArchiveEntry entry : mEntries) {
+            if (ZipUtil2.isUnderPath(entry.getName(), path)) {
+                entries.add(entry);
+            }
+        }
+        extract(entries);
+        return new File(mDestDir, path);
+    }
+
+    /** Returns the number of entries extracted so far. */
+    public synchronized int getExtractedCount() {
+        return mExtracted.size();
+    }
+
+    /** Returns the number of entries of the zip file. */
+    public int getEntryCount() {
+        return mEntries.size();
+    }
+
+    private void extract(List<ZipArchiveEntry> entries) throws IOException {
+        List<ZipArchiveEntry> toExtract = new ArrayList<>();
+        for (ZipArchiveEntry entry : entries) {
+            if (!mExtracted.contains(entry.getName())) {
+                toExtract.add(entry);
+            }
+        }
+        ZipUtil2.extractEntries(mZipFile, toExtract, mDestDir);
+        for (ZipArchiveEntry entry : toExtract) {
+            mExtracted.add(entry.getName());
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() throws IOException {
+        mZipFile.close();
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An {@link OutputStream} writing raw deflate data, compressing blocks of the data in parallel.
+ *
+ * <p>The data is split in blocks of {@link #BLOCK_SIZE} bytes, compressed on a shared pool of
+ * host threads. Like pigz, each block is primed with the end of the previous block as
+ * dictionary and ends on a byte boundary with a sync flush, so the blocks written one after the
+ * other form a single deflate stream, compressing almost as well as a sequential {@link Deflater}.
+ * Data smaller than a block is compressed on the calling thread.
+ *
+ * <p>The stream also computes the CRC32 and sizes of the data, needed by the zip and gzip formats.
+ */
+public class ParallelDeflateOutputStream extends OutputStream {
+
+    /** The size of the blocks of data compressed in parallel. */
+    static final int BLOCK_SIZE = 128 * 1024;
+    /** The size of the deflate window, the data of a block referenced by the next one. */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+    /** Compressed blocks waiting to be written, bounding the memory used by a stream. */
+    private static final int MAX_PENDING_BLOCKS = 2 * POOL_SIZE;
+    private static final String WORKER_NAME = "ParallelDeflate-worker-";
+    private static final long KEEP_ALIVE_SECS = 60;
+
+    private static ExecutorService sPool = null;
+
+    private final OutputStream mOut;
+    private final int mLevel;
+    private final CRC32 mCrc = new CRC32();
+    private final Deque<Future<byte[]>> mPendingBlocks = new ArrayDeque<>();
+    private byte[] mBlock = new byte[BLOCK_SIZE];
+    private int mBlockLength = 0;
+    private byte[] mDictionary = null;
+    private long mBytesRead = 0;
+    private long mBytesWritten = 0;
+    private boolean mFinished = false;
+
+    /**
+     * Creates a {@link ParallelDeflateOutputStream}.
+     *
+     * @param out the {@link OutputStream} to write the compressed data to
+     * @param level the compression level, from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public ParallelDeflateOutputStream(OutputStream out, int level) {
+        mOut = out;
+        mLevel = level;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int b) throws IOException {
+        if (mFinished) {
+            throw new IOException("Stream already finished");
+        }
+        mBlock[mBlockLength++] = (byte) b;
+        if (mBlockLength == BLOCK_SIZE) {
+            submitBlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (mFinished) {
+            throw new IOException("Stream already finished");
+        }
+        while (len > 0) {
+            int count = Math.min(len, BLOCK_SIZE - mBlockLength);
+            System.arraycopy(b, off, mBlock, mBlockLength, count);
+            mBlockLength += count;
+            off += count;
+            len -= count;
+            if (mBlockLength == BLOCK_SIZE) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Compress the remaining data and write the end of the deflate stream, without closing the
+     * underlying stream.
+     */
+    public void finish() throws IOException {
+        if (mFinished) {
+            return;
+        }
+        mFinished = true;
+        mCrc.update(mBlock, 0, mBlockLength);
+        mBytesRead += mBlockLength;
+        // the last block is compressed here while the pool finishes the previous ones
+        byte[] lastBlock = compressBlock(mBlock, mBlockLength, mDictionary, mLevel, true);
+        mBlock = null;
+        while (!mPendingBlocks.isEmpty()) {
+            writeNextBlock();
+        }
+        writeCompressed(lastBlock);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() throws IOException {
+        mOut.flush();
+    }
+
+    /**
+     * Finish the stream and close the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            for (Future<byte[]> pending : mPendingBlocks) {
+                pending.cancel(false);
+            }
+            mPendingBlocks.clear();
+            mOut.close();
+        }
+    }
+
+    /** Returns <code>true</code> if {@link #finish()} was called. */
+    protected boolean isFinished() {
+        return mFinished;
+    }
+
+    /** Returns the CRC32 of the uncompressed data written so far. */
+    public long getCrc() {
+        return mCrc.getValue();
+    }
+
+    /** Returns the number of uncompressed bytes written so far. */
+    public long getBytesRead() {
+        return mBytesRead + (mFinished ? 0 : mBlockLength);
+    }
+
+    /** Returns the number of compressed bytes written to the underlying stream so far. */
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /**
+     * Queue the current block to be compressed, then write the compressed blocks that are ready,
+     * waiting for the oldest ones if too many are pending.
+     */
+    private void submitBlock() throws IOException {
+        final byte[] block = mBlock;
+        final int length = mBlockLength;
+        final byte[] dictionary = mDictionary;
+        final int level = mLevel;
+        mCrc.update(block, 0, length);
+        mBytesRead += length;
+        mDictionary = Arrays.copyOfRange(block, length - DICTIONARY_SIZE, length);
+        mPendingBlocks.add(
+                getPool()
+                        .submit(
+                                new Callable<byte[]>() {
+                                    @Override
+                                    public byte[] call() {
+                                        return compressBlock(
+                                                block, length, dictionary, level, false);
+                                    }
+                                }));
+        mBlock = new byte[BLOCK_SIZE];
+        mBlockLength = 0;
+        while (mPendingBlocks.size() >= MAX_PENDING_BLOCKS
+                || (!mPendingBlocks.isEmpty() && mPendingBlocks.peekFirst().isDone())) {
+            writeNextBlock();
+        }
+    }
+
+    /** Wait for the oldest pending block to be compressed and write it. */
+    private void writeNextBlock() throws IOException {
+        Future<byte[]> next = mPendingBlocks.removeFirst();
+        try {
+            writeCompressed(next.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress a block", e.getCause());
+        }
+    }
+
+    private void writeCompressed(byte[] compressed) throws IOException {
+        mOut.write(compressed);
+        mBytesWritten += compressed.length;
+    }
+
+    /**
+     * Compress a block of data, as part of a raw deflate stream.
+     *
+     * @param block the data
+     * @param length the length of the data in the block
+     * @param dictionary the last bytes of the previous block, or <code>null</code> for the first
+     *     block
+     * @param level the compression level
+     * @param last <code>true</code> to end the deflate stream with this block
+     * @return the compressed data
+     */
+    static byte[] compressBlock(
+            byte[] block, int length, byte[] dictionary, int level, boolean last) {
+        Deflater deflater = DeflaterPool.acquire(level);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(block, 0, length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    out.write(buffer, 0, count);
+                }
+            } else {
+                // a full output buffer means there may be more output to flush
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+            return out.toByteArray();
+        } finally {
+            DeflaterPool.release(deflater, level);
+        }
+    }
+
+    /**
+     * Get the pool of host threads compressing the blocks of all the streams. Idle threads exit
+     * after {@link #KEEP_ALIVE_SECS}.
+     */
+    private static synchronized ExecutorService getPool() {
+        if (sPool == null) {
+            ThreadPoolExecutor pool =
+                    new ThreadPoolExecutor(
+                            POOL_SIZE,
+                            POOL_SIZE,
+                            KEEP_ALIVE_SECS,
+                            TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(),
+                            new HostThreadFactory(WORKER_NAME));
+            pool.allowCoreThreadTimeOut(true);
+            sPool = pool;
+        }
+        return sPool;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A replacement for {@link GZIPOutputStream} compressing blocks of the data in parallel, see
+ * {@link ParallelDeflateOutputStream}. The output is a regular gzip file.
+ */
+public class ParallelGzipOutputStream extends ParallelDeflateOutputStream {
+
+    /** The gzip header: magic number, deflate method, no flags, no time, no extra flags, OS. */
+    private static final byte[] HEADER = {
+        0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private final OutputStream mOut;
+
+    /**
+     * Creates a {@link ParallelGzipOutputStream} and writes the gzip header.
+     *
+     * @param out the {@link OutputStream} to write the gzip data to
+     * @param level the compression level, from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+     * @throws IOException if the header could not be written
+     */
+    public ParallelGzipOutputStream(OutputStream out, int level) throws IOException {
+        super(out, level);
+        mOut = out;
+        mOut.write(HEADER);
+    }
+
+    /**
+     * Creates a {@link ParallelGzipOutputStream} with the default compression level, and writes
+     * the gzip header.
+     *
+     * @param out the {@link OutputStream} to write the gzip data to
+     * @throws IOException if the header could not be written
+     */
+    public ParallelGzipOutputStream(OutputStream out) throws IOException {
+        this(out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Compress the remaining data and write the gzip trailer, without closing the underlying
+     * stream.
+     */
+    @Override
+    public void finish() throws IOException {
+        if (isFinished()) {
+            return;
+        }
+        super.finish();
+        // CRC32 and size modulo 2^32 of the uncompressed data, little endian
+        writeIntLE(getCrc());
+        writeIntLE(getBytesRead());
+    }
+
+    private void writeIntLE(long value) throws IOException {
+        mOut.write(new byte[] {
+            (byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)
+        });
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link RecursiveAction} hardlinking the content of a directory into another one, with
+ * subdirectories and large groups of files handled in parallel.
+ *
+ * <p>Files that cannot be hardlinked, for example across a filesystem boundary, are copied.
+ */
+class RecursiveHardlinkAction extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Maximum number of files linked sequentially by one task. */
+    private static final int FILES_PER_TASK = 256;
+
+    /**
+     * Linking is bound by filesystem syscalls rather than CPU, so use more threads than cores.
+     */
+    private static final ForkJoinPool POOL =
+            HostThreadFactory.newForkJoinPool(
+                    Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+
+    private final File mSourceDir;
+    private final File mDestDir;
+    private final File[] mFiles;
+    private final AtomicLong mLinked;
+    private final AtomicLong mCopied;
+    /** The work of the task, logging to the invocation of the thread creating the task. */
+    private final Runnable mWork =
+            HostThreadFactory.wrap(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                if (mFiles == null) {
+                                    computeDirectory();
+                                } else {
+                                    linkFiles(mFiles);
+                                }
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                    });
+
+    /** Creates a task linking all the content of a directory. */
+    private RecursiveHardlinkAction(
+            File sourceDir, File destDir, AtomicLong linked, AtomicLong copied) {
+        this(sourceDir, destDir, null, linked, copied);
+    }
+
+    /** Creates a task linking the given files of a directory, which was already listed. */
+    private RecursiveHardlinkAction(
+            File sourceDir, File destDir, File[] files, AtomicLong linked, AtomicLong copied) {
+        mSourceDir = sourceDir;
+        mDestDir = destDir;
+        mFiles = files;
+        mLinked = linked;
+        mCopied = copied;
+    }
+
+    /**
+     * Recursively hardlink the content of a directory.
+     *
+     * @param sourceDir the folder that contains the files to link
+     * @param destDir the destination folder, created if it does not exist
+     * @return the number of files linked, and the number of files copied because they could not
+     *     be linked.
+     * @throws IOException if a directory could not be created or listed, or a file could not be
+     *     linked nor copied.
+     */
+    static long[] link(File sourceDir, File destDir) throws IOException {
+        AtomicLong linked = new AtomicLong();
+        AtomicLong copied = new AtomicLong();
+        try {
+            POOL.invoke(new RecursiveHardlinkAction(sourceDir, destDir, linked, copied));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new long[] {linked.get(), copied.get()};
+    }
+
+    @Override
+    protected void compute() {
+        mWork.run();
+    }
+
+    private void computeDirectory() throws IOException {
+        if (!mDestDir.isDirectory() && !mDestDir.mkdir()) {
+            throw new IOException(
+                    String.format("Could not create directory %s", mDestDir.getAbsolutePath()));
+        }
+        File[] children = mSourceDir.listFiles();
+        if (children == null) {
+            throw new IOException(
+                    String.format(
+                            "Failed to recursively hardlink. Could not determine contents for "
+                                    + "directory '%s'",
+                            mSourceDir.getAbsolutePath()));
+        }
+        List<RecursiveHardlinkAction> subTasks = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        for (File child : children) {
+            if (child.isDirectory()) {
+                subTasks.add(
+                        new RecursiveHardlinkAction(
+                                child, new File(mDestDir, child.getName()), mLinked, mCopied));
+            } else if (child.isFile()) {
+                files.add(child);
+            }
+        }
+        File[] fileArray = files.toArray(new File[files.size()]);
+        // keep the first group of files for this task, fork the rest
+        for (int i = FILES_PER_TASK; i < fileArray.length; i += FILES_PER_TASK) {
+            subTasks.add(
+                    new RecursiveHardlinkAction(
+                            mSourceDir,
+                            mDestDir,
+                            Arrays.copyOfRange(
+                                    fileArray, i, Math.min(i + FILES_PER_TASK, fileArray.length)),
+                            mLinked,
+                            mCopied));
+        }
+        for (RecursiveHardlinkAction task : subTasks) {
+            task.fork();
+        }
+        linkFiles(Arrays.copyOfRange(fileArray, 0, Math.min(FILES_PER_TASK, fileArray.length)));
+        for (RecursiveHardlinkAction task : subTasks) {
+            task.join();
+        }
+    }
+
+    private void linkFiles(File[] files) throws IOException {
+        for (File file : files) {
+            if (FileUtil.linkOrCopyFile(file, new File(mDestDir, file.getName()))) {
+                mLinked.incrementAndGet();
+            } else {
+                mCopied.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A {@link RecursiveAction} extracting entries of a {@link ZipFile}, with large groups of entries
+ * split across the threads of a fork-join pool.
+ *
+ * <p>{@link ZipFile} supports reading several entries concurrently, so inflating the entries, which
+ * dominates the extraction of a compressed zip, is done in parallel.
+ */
+class RecursiveZipExtractAction extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Maximum number of entries extracted sequentially by one task. */
+    private static final int ENTRIES_PER_TASK = 64;
+    /** Maximum number of uncompressed bytes extracted sequentially by one task. */
+    private static final long BYTES_PER_TASK = 32 * 1024 * 1024;
+
+    /** Inflating is cpu bound, writing the files is not, so use a few more threads than cores. */
+    private static final ForkJoinPool POOL =
+            HostThreadFactory.newForkJoinPool(
+                    Math.max(2, Runtime.getRuntime().availableProcessors() + 2));
+
+    private final ZipFile mZipFile;
+    private final File mDestDir;
+    private final List<ZipArchiveEntry> mEntries;
+    /** The work of the task, logging to the invocation of the thread creating the task. */
+    private final Runnable mWork =
+            HostThreadFactory.wrap(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            extractEntries();
+                        }
+                    });
+
+    private RecursiveZipExtractAction(
+            ZipFile zipFile, File destDir, List<ZipArchiveEntry> entries) {
+        mZipFile = zipFile;
+        mDestDir = destDir;
+        mEntries = entries;
+    }
+
+    /**
+     * Extract the given entries of a zip file.
+     *
+     * @param zipFile the {@link ZipFile} to extract
+     * @param entries the entries to extract
+     * @param destDir the local dir to extract the entries to
+     * @throws IOException if an entry could not be extracted
+     */
+    static void extract(ZipFile zipFile, List<ZipArchiveEntry> entries, File destDir)
+            throws IOException {
+        List<ZipArchiveEntry> dirEntries = new ArrayList<>();
+        List<ZipArchiveEntry> fileEntries = new ArrayList<>();
+        Set<File> dirs = new LinkedHashSet<>();
+        for (ZipArchiveEntry entry : entries) {
+            File childFile = new File(destDir, entry.getName());
+            if (entry.isDirectory()) {
+                dirEntries.add(entry);
+                dirs.add(childFile);
+            } else {
+                fileEntries.add(entry);
+                dirs.add(childFile.getParentFile());
+            }
+        }
+        // create the directories upfront, so the tasks only create files
+        for (File dir : dirs) {
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException(
+                        String.format("Could not create directory %s", dir.getAbsolutePath()));
+            }
+        }
+        try {
+            POOL.invoke(new RecursiveZipExtractAction(zipFile, destDir, fileEntries));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        // apply the directory modes last, in case they do not allow writing
+        for (ZipArchiveEntry entry : dirEntries) {
+            ZipUtil2.applyUnixModeIfNecessary(entry, new File(destDir, entry.getName()));
+        }
+    }
+
+    @Override
+    protected void compute() {
+        mWork.run();
+    }
+
+    private void extractEntries() {
+        if (mEntries.size() > 1
+                && (mEntries.size() > ENTRIES_PER_TASK || getSize(mEntries) > BYTES_PER_TASK)) {
+            int middle = mEntries.size() / 2;
+            invokeAll(
+                    new RecursiveZipExtractAction(
+                            mZipFile, mDestDir, mEntries.subList(0, middle)),
+                    new RecursiveZipExtractAction(
+                            mZipFile, mDestDir, mEntries.subList(middle, mEntries.size())));
+            return;
+        }
+        try {
+            for (ZipArchiveEntry entry : mEntries) {
+                extractEntry(entry);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long getSize(List<ZipArchiveEntry> entries) {
+        long size = 0;
+        for (ZipArchiveEntry entry : entries) {
+            size += Math.max(0, entry.getSize());
+        }
+        return size;
+    }
+
+    private void extractEntry(ZipArchiveEntry entry) throws IOException {
+        File childFile = new File(mDestDir, entry.getName());
+        long size = entry.getSize();
+        try (InputStream input = mZipFile.getInputStream(entry);
+                RandomAccessFile output = new RandomAccessFile(childFile, "rw")) {
+            ReadableByteChannel source = Channels.newChannel(input);
+            FileChannel dest = output.getChannel();
+            long written = 0;
+            if (size >= 0) {
+                // size the file once instead of growing it with every write
+                output.setLength(size);
+                while (written < size) {
+                    long transferred = dest.transferFrom(source, written, size - written);
+                    if (transferred <= 0) {
+                        throw new IOException(
+                                String.format(
+                                        "Unexpected end of entry %s after %d of %d bytes",
+                                        entry.getName(), written, size));
+                    }
+                    written += transferred;
+                }
+            } else {
+                output.setLength(0);
+                long transferred;
+                while ((transferred = dest.transferFrom(source, written, BYTES_PER_TASK)) > 0) {
+                    written += transferred;
+                }
+            }
+        }
+        ZipUtil2.applyUnixModeIfNecessary(entry, childFile);
+    }
+}
@@ -35,21 +35,33 @@ import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * A collection of helper methods for executing operations.
+ * <p/>
+ * Operations and the redirection of process outputs run on a shared pool of daemon threads, so
+ * running a command does not create new threads once the pool is warm.
  */
 public class RunUtil implements IRunUtil {
 
     public static final String RUNNABLE_NOTIFIER_NAME = "RunnableNotifier";
     public static final String INHERITIO_PREFIX = "inheritio-";
+    private static final String WORKER_NAME = "RunUtil-worker-";
 
     private static final int POLL_TIME_INCREASE_FACTOR = 4;
     private static final long THREAD_JOIN_POLL_INTERVAL = 30 * 1000;
     private static final long IO_THREAD_JOIN_INTERVAL = 5 * 1000;
     private static final long PROCESS_DESTROY_TIMEOUT_SEC = 2;
+    private static final long WORKER_KEEP_ALIVE_SEC = 60;
     private static IRunUtil sDefaultInstance = null;
+    private static ExecutorService sWorkerPool = null;
     private File mWorkingDir = null;
     private Map<String, String> mEnvVariables = new HashMap<String, String>();
     private Set<String> mUnsetEnvVariables = new HashSet<String>();
@@ -85,6 +97,47 @@ public class RunUtil implements IRunUtil {
         return sDefaultInstance;
     }
 
+    /**
+     * Get the pool of daemon threads running the operations and redirecting process outputs.
+     * Idle threads are kept for a while so that they can be reused by the next operations. The
+     * threads are shared by all invocations, so they do not belong to the group of any of them.
+     */
+    private static synchronized ExecutorService getWorkerPool() {
+        if (sWorkerPool == null) {
+            sWorkerPool =
+                    new ThreadPoolExecutor(
+                            0,
+                            Integer.MAX_VALUE,
+                            WORKER_KEEP_ALIVE_SEC,
+                            TimeUnit.SECONDS,
+                            new SynchronousQueue<Runnable>(),
+                            new HostThreadFactory(WORKER_NAME));
+        }
+        return sWorkerPool;
+    }
+
+    /**
+     * Run a task on the worker pool. The worker thread is renamed while running the task, for
+     * thread tracking purpose, and logs to the logger of the caller.
+     */
+    private static Future<?> submitToWorker(final Runnable task, final String name) {
+        Runnable namedTask =
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        Thread current = Thread.currentThread();
+                        String workerName = current.getName();
+                        current.setName(name);
+                        try {
+                            task.run();
+                        } finally {
+                            current.setName(workerName);
+                        }
+                    }
+                };
+        return getWorkerPool().submit(HostThreadFactory.wrap(namedTask));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -326,18 +379,21 @@ public class RunUtil implements IRunUtil {
                 CLog.d("Running command without timeout.");
             }
         }
-        runThread.start();
+        Future<?> completion = submitToWorker(runThread, RUNNABLE_NOTIFIER_NAME);
         long startTime = System.currentTimeMillis();
         long pollIterval = 0;
-        if (timeout > 0l && timeout < THREAD_JOIN_POLL_INTERVAL) {
-            // only set the pollInterval if we have a timeout
-            pollIterval = timeout;
-        } else {
-            pollIterval = THREAD_JOIN_POLL_INTERVAL;
-        }
         do {
+            // wake up at least every THREAD_JOIN_POLL_INTERVAL to check for interrupts, and
+            // return as soon as the runnable completes.
+            pollIterval = THREAD_JOIN_POLL_INTERVAL;
+            if (timeout > 0l) {
+                long remaining = timeout - (System.currentTimeMillis() - startTime);
+                pollIterval = Math.max(1l, Math.min(remaining, THREAD_JOIN_POLL_INTERVAL));
+            }
             try {
-                runThread.join(pollIterval);
+                completion.get(pollIterval, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                // status is reported by the runnable notifier
             } catch (InterruptedException e) {
                 if (mIsInterruptAllowed.get()) {
                     CLog.i("runTimed: interrupted while joining the runnable");
@@ -349,7 +405,7 @@ public class RunUtil implements IRunUtil {
             }
             checkInterrupted();
         } while ((timeout == 0l || (System.currentTimeMillis() - startTime) < timeout)
-                && runThread.isAlive());
+                && !completion.isDone());
         // Snapshot the status when out of the run loop because thread may terminate and return a
         // false FAILED instead of TIMED_OUT.
         CommandStatus status = runThread.getStatus();
@@ -502,7 +558,11 @@ public class RunUtil implements IRunUtil {
         mInterruptThreads.put(thread.getId(), message);
     }
 
-    private synchronized void checkInterrupted() {
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void checkInterrupted() {
         final long threadId = Thread.currentThread().getId();
         if (mInterruptibleGlobal) {
             // If the global flag is on, meaning everything must terminate.
@@ -520,19 +580,15 @@ public class RunUtil implements IRunUtil {
     }
 
     /**
-     * Helper thread that wraps a runnable, and notifies when done.
+     * Helper task that wraps a runnable on the worker pool, and records its status when done.
      */
-    private static class RunnableNotifier extends Thread {
+    private static class RunnableNotifier implements Runnable {
 
         private final IRunUtil.IRunnableResult mRunnable;
         private CommandStatus mStatus = CommandStatus.TIMED_OUT;
         private boolean mLogErrors = true;
 
         RunnableNotifier(IRunUtil.IRunnableResult runnable, boolean logErrors) {
-            // Set this thread to be a daemon so that it does not prevent
-            // TF from shutting down.
-            setName(RUNNABLE_NOTIFIER_NAME);
-            setDaemon(true);
             mRunnable = runnable;
             mLogErrors = logErrors;
         }
@@ -625,8 +681,8 @@ public class RunUtil implements IRunUtil {
 
         @Override
         public boolean run() throws Exception {
-            Thread stdoutThread = null;
-            Thread stderrThread = null;
+            Future<?> stdoutThread = null;
+            Future<?> stderrThread = null;
             synchronized (mLock) {
                 if (mCancelled == true) {
                     // if cancel() was called before run() took the lock, we do not even attempt
@@ -661,14 +717,8 @@ public class RunUtil implements IRunUtil {
                 try {
                     rc = mProcess.waitFor();
                     // wait for stdout and stderr to be read
-                    stdoutThread.join(IO_THREAD_JOIN_INTERVAL);
-                    if (stdoutThread.isAlive()) {
-                        CLog.d("stdout read thread %s still alive.", stdoutThread.toString());
-                    }
-                    stderrThread.join(IO_THREAD_JOIN_INTERVAL);
-                    if (stderrThread.isAlive()) {
-                        CLog.d("stderr read thread %s still alive.", stderrThread.toString());
-                    }
+                    waitForRedirection(stdoutThread, "stdout");
+                    waitForRedirection(stderrThread, "stderr");
                     // close the buffer that holds stdout/err content if default stream
                     // stream specified by caller should be handled by the caller.
                     if (mCloseStreamAfterRun) {
@@ -702,6 +752,18 @@ public class RunUtil implements IRunUtil {
             return false;
         }
 
+        /** Wait for a redirection of the process output to complete. */
+        private void waitForRedirection(Future<?> redirection, String name)
+                throws InterruptedException {
+            try {
+                redirection.get(IO_THREAD_JOIN_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                CLog.d("%s read of %s still running.", name, mProcessBuilder.command());
+            } catch (ExecutionException e) {
+                CLog.e("Failed to read %s of %s.", name, mProcessBuilder.command());
+            }
+        }
+
         @Override
         public void cancel() {
             mCancelled = true;
@@ -734,27 +796,27 @@ public class RunUtil implements IRunUtil {
     }
 
     /**
-     * Helper method to redirect input stream.
+     * Helper method to redirect input stream on the worker pool.
      *
      * @param src {@link InputStream} to inherit/redirect from
      * @param dest {@link BufferedOutputStream} to inherit/redirect to
-     * @param name the name of the thread returned.
-     * @return a {@link Thread} started that receives the IO.
+     * @param name the name of the worker thread while it receives the IO.
+     * @return a {@link Future} completed when the IO has been received.
      */
-    private static Thread inheritIO(final InputStream src, final OutputStream dest, String name) {
-        Thread t = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    StreamUtil.copyStreams(src, dest);
-                } catch (IOException e) {
-                    CLog.e("Failed to read input stream.");
-                }
-            }
-        });
-        t.setName(name);
-        t.start();
-        return t;
+    private static Future<?> inheritIO(
+            final InputStream src, final OutputStream dest, String name) {
+        return submitToWorker(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            StreamUtil.copyStreams(src, dest);
+                        } catch (IOException e) {
+                            CLog.e("Failed to read input stream.");
+                        }
+                    }
+                },
+                name);
     }
 
     /** Allow to stop the Timer Thread for the run util instance if started. */
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import com.android.tradefed.log.LogUtil.CLog;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A host-wide, file-backed store of the observed runtime of tests, used to provide runtime hints
+ * for sharding.
+ *
+ * <p>Observations are appended to a log file and periodically compacted into an index file. Each
+ * key keeps an exponentially decayed estimate: the older the previous estimate, the more weight a
+ * new observation gets, and estimates not updated for {@link #MAX_AGE_MS} are ignored. Files are
+ * only read on first use, and are protected by a file lock so several TF processes on the same
+ * host can share them.
+ */
+public class RuntimeHistoryStore {
+
+    private static final String DIR_NAME = "tradefed-runtime-history";
+    private static final String LOG_NAME = "runtime-history.log";
+    private static final String INDEX_NAME = "runtime-history.idx";
+    private static final String LOCK_NAME = "runtime-history.lock";
+    private static final String SEPARATOR = "\t";
+
+    /** Weight of a new observation when the previous estimate was just updated. */
+    static final double SAMPLE_WEIGHT = 0.3;
+    /** Time after which the weight of a previous estimate is halved. */
+    static final long HALF_LIFE_MS = 7 * 24 * 60 * 60 * 1000l;
+    /** Estimates older than this are considered stale and not returned. */
+    static final long MAX_AGE_MS = 30 * 24 * 60 * 60 * 1000l;
+    /** Number of records in the log after which it is compacted into the index. */
+    private static final int COMPACT_THRESHOLD = 5000;
+
+    private static RuntimeHistoryStore sInstance = null;
+
+    /** Decayed runtime estimate for one key. */
+    private static class Estimate {
+        long mRuntime;
+        long mLastUpdate;
+
+        Estimate(long runtime, long lastUpdate) {
+            mRuntime = runtime;
+            mLastUpdate = lastUpdate;
+        }
+    }
+
+    private final File mLogFile;
+    private final File mIndexFile;
+    private final File mLockFile;
+
+    private Map<String, Estimate> mEstimates = null;
+    private long mIndexTimestamp = 0l;
+    private long mLogOffset = 0l;
+    private int mLogRecords = 0;
+
+    /** Returns the store shared by all invocations of the host. */
+    public static synchronized RuntimeHistoryStore getInstance() {
+        if (sInstance == null) {
+            File dir = null;
+            try {
+                dir = FileUtil.createNamedTempDir(DIR_NAME);
+            } catch (IOException e) {
+                CLog.e("Failed to create the runtime history directory, history is disabled.");
+                CLog.e(e);
+            }
+            sInstance = new RuntimeHistoryStore(dir);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Creates a store backed by the files in the given directory.
+     *
+     * @param dir the directory holding the files, or null to only keep the history in memory.
+     */
+    @VisibleForTesting
+    RuntimeHistoryStore(File dir) {
+        mLogFile = dir == null ? null : new File(dir, LOG_NAME);
+        mIndexFile = dir == null ? null : new File(dir, INDEX_NAME);
+        mLockFile = dir == null ? null : new File(dir, LOCK_NAME);
+    }
+
+    /**
+     * Returns the key under which the runtime of a module is stored.
+     *
+     * @param id the module or test run id.
+     * @param abi the abi of the module, can be null.
+     */
+    public static String createKey(String id, String abi) {
+        String key = abi == null ? id : String.format("%s|%s", id, abi);
+        return key.replaceAll("[\t\r\n]", " ");
+    }
+
+    /**
+     * Returns the estimated runtime in milliseconds of the given key, or null if it has no recent
+     * history.
+     */
+    public synchronized Long getRuntime(String key) {
+        refresh();
+        Estimate estimate = mEstimates.get(key);
+        if (estimate == null
+                || System.currentTimeMillis() - estimate.mLastUpdate > MAX_AGE_MS) {
+            return null;
+        }
+        return estimate.mRuntime;
+    }
+
+    /**
+     * Returns a snapshot of the estimated runtimes in milliseconds of all the keys with a recent
+     * history. The history is read once: the snapshot does not change when runtimes are recorded
+     * afterward, so it can be used for the whole invocation.
+     */
+    public synchronized Map<String, Long> getRuntimes() {
+        refresh();
+        long now = System.currentTimeMillis();
+        Map<String, Long> runtimes = new HashMap<>();
+        for (Map.Entry<String, Estimate> entry : mEstimates.entrySet()) {
+            if (now - entry.getValue().mLastUpdate <= MAX_AGE_MS) {
+                runtimes.put(entry.getKey(), entry.getValue().mRuntime);
+            }
+        }
+        return Collections.unmodifiableMap(runtimes);
+    }
+
+    /**
+     * Records an observed runtime.
+     *
+     * @param key the key created by {@link #createKey(String, String)}.
+     * @param elapsedTime the observed runtime in milliseconds.
+     */
+    public synchronized void record(String key, long elapsedTime) {
+        refresh();
+        long now = System.currentTimeMillis();
+        apply(key, now, elapsedTime);
+        if (mLogFile == null) {
+            return;
+        }
+        String record = key + SEPARATOR + now + SEPARATOR + elapsedTime + "\n";
+        try (FileChannel lockChannel = openLock();
+                FileLock lock = lockChannel.lock()) {
+            // Apply what other processes appended since our last read, then our own record.
+            readLog();
+            try (FileChannel log =
+                    FileChannel.open(
+                            mLogFile.toPath(),
+                            StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE,
+                            StandardOpenOption.APPEND)) {
+                log.write(ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8)));
+            }
+            mLogOffset = mLogFile.length();
+            mLogRecords++;
+            if (mLogRecords >= COMPACT_THRESHOLD) {
+                compact();
+            }
+        } catch (IOException e) {
+            CLog.e("Failed to record runtime history for %s", key);
+            CLog.e(e);
+        }
+    }
+
+    /** Load the history on first use, and pick up changes made by other processes. */
+    private void refresh() {
+        if (mLogFile == null) {
+            if (mEstimates == null) {
+                mEstimates = new HashMap<>();
+            }
+            return;
+        }
+        if (mEstimates != null
+                && mIndexFile.lastModified() == mIndexTimestamp
+                && mLogFile.length() == mLogOffset) {
+            return;
+        }
+        try (FileChannel lockChannel = openLock();
+                FileLock lock = lockChannel.lock()) {
+            if (mEstimates == null || mIndexFile.lastModified() != mIndexTimestamp) {
+                // first load or the log was compacted by another process.
+                readIndex();
+            }
+            readLog();
+        } catch (IOException e) {
+            CLog.e("Failed to load runtime history.");
+            CLog.e(e);
+            if (mEstimates == null) {
+                mEstimates = new HashMap<>();
+            }
+        }
+    }
+
+    private FileChannel openLock() throws IOException {
+        return FileChannel.open(
+                mLockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /** Reset the estimates from the index file. Caller must hold the file lock. */
+    private void readIndex() throws IOException {
+        mEstimates = new HashMap<>();
+        mLogOffset = 0l;
+        mLogRecords = 0;
+        mIndexTimestamp = mIndexFile.lastModified();
+        if (!mIndexFile.exists()) {
+            return;
+        }
+        try (BufferedReader reader =
+                new BufferedReader(
+                        new InputStreamReader(
+                                new FileInputStream(mIndexFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(SEPARATOR);
+                if (parts.length != 3) {
+                    continue;
+                }
+                try {
+                    mEstimates.put(
+                            parts[0],
+                            new Estimate(Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+                } catch (NumberFormatException e) {
+                    CLog.w("Ignoring corrupted runtime history entry: %s", line);
+                }
+            }
+        }
+    }
+
+    /** Apply the log records not read yet. Caller must hold the file lock. */
+    private void readLog() throws IOException {
+        if (!mLogFile.exists() || mLogFile.length() <= mLogOffset) {
+            return;
+        }
+        try (RandomAccessFile log = new RandomAccessFile(mLogFile, "r")) {
+            log.seek(mLogOffset);
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = log.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+            String tail = new String(content.toByteArray(), StandardCharsets.UTF_8);
+            // only consume complete lines, a writer may be in the middle of a record.
+            int end = tail.lastIndexOf('\n');
+            if (end < 0) {
+                return;
+            }
+            for (String line : tail.substring(0, end).split("\n")) {
+                String[] parts = line.split(SEPARATOR);
+                if (parts.length != 3) {
+                    continue;
+                }
+                try {
+                    apply(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+                    mLogRecords++;
+                } catch (NumberFormatException e) {
+                    CLog.w("Ignoring corrupted runtime history record: %s", line);
+                }
+            }
+            mLogOffset += tail.substring(0, end + 1).getBytes(StandardCharsets.UTF_8).length;
+        }
+    }
+
+    /**
+     * Write all the estimates to the index and truncate the log. Caller must hold the file lock.
+     */
+    private void compact() throws IOException {
+        File tmpIndex = new File(mIndexFile.getParentFile(), INDEX_NAME + ".tmp");
+        long now = System.currentTimeMillis();
+        try (Writer writer = Files.newBufferedWriter(tmpIndex.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Estimate> entry : mEstimates.entrySet()) {
+                if (now - entry.getValue().mLastUpdate > MAX_AGE_MS) {
+                    // stale entries are dropped from the index
+                    continue;
+                }
+                writer.write(
+                        entry.getKey()
+                                + SEPARATOR
+                                + entry.getValue().mRuntime
+                                + SEPARATOR
+                                + entry.getValue().mLastUpdate
+                                + "\n");
+            }
+        }
+        Files.move(
+                tmpIndex.toPath(),
+                mIndexFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        try (FileChannel log =
+                FileChannel.open(mLogFile.toPath(), StandardOpenOption.WRITE)) {
+            log.truncate(0);
+        }
+        mIndexTimestamp = mIndexFile.lastModified();
+        mLogOffset = 0l;
+        mLogRecords = 0;
+    }
+
+    /** Update the estimate of a key with an observation made at the given time. */
+    private void apply(String key, long timestamp, long elapsedTime) {
+        Estimate estimate = mEstimates.get(key);
+        if (estimate == null) {
+            mEstimates.put(key, new Estimate(elapsedTime, timestamp));
+            return;
+        }
+        double age = Math.max(0l, timestamp - estimate.mLastUpdate);
+        double decay = Math.pow(0.5, age / HALF_LIFE_MS);
+        double weight = 1 - (1 - SAMPLE_WEIGHT) * decay;
+        estimate.mRuntime =
+                Math.round(estimate.mRuntime + weight * (elapsedTime - estimate.mRuntime));
+        estimate.mLastUpdate = Math.max(estimate.mLastUpdate, timestamp);
+    }
+}
@@ -29,6 +29,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * A thread safe file backed {@link OutputStream} that limits the maximum amount of data that can be
@@ -37,6 +42,10 @@ import java.io.SequenceInputStream;
  * This is implemented by keeping a circular list of Files of fixed size. Once a File has reached a
  * certain size, the class jumps to use the next File in the list. If the next File is non empty, it
  * is deleted, and a new file created.
+ * <p/>
+ * A sparse index of keys, such as timestamps, to positions in the data can be kept alongside the
+ * files with {@link #addIndexEntry(long)}, to later read the data after a given key without
+ * scanning it. The index entries of a file are dropped when the file is.
  */
 public class SizeLimitedOutputStream extends OutputStream {
 
@@ -52,6 +61,8 @@ public class SizeLimitedOutputStream extends OutputStream {
     private int mCurrentFilePos = 0;
     private final String mTempFilePrefix;
     private final String mTempFileSuffix;
+    // index entries {key, offset} of each backing file, in the order they were added
+    private final List<List<long[]>> mIndexes;
 
     /**
      * Creates a {@link SizeLimitedOutputStream}.
@@ -70,6 +81,10 @@ public class SizeLimitedOutputStream extends OutputStream {
         mCurrentFilePos = numFiles;
         mTempFilePrefix = tempFilePrefix;
         mTempFileSuffix = tempFileSuffix;
+        mIndexes = new ArrayList<>(numFiles);
+        for (int i = 0; i < numFiles; i++) {
+            mIndexes.add(new ArrayList<long[]>());
+        }
     }
 
     /**
@@ -113,6 +128,112 @@ public class SizeLimitedOutputStream extends OutputStream {
 
     }
 
+    /**
+     * Record that the data written from now on comes after <var>key</var>. Keys must be added in
+     * increasing order.
+     *
+     * @param key the key, for example the current time.
+     */
+    public synchronized void addIndexEntry(long key) throws IOException {
+        if (mCurrentOutputStream == null) {
+            generateNextFile();
+        }
+        mIndexes.get(mCurrentFilePos).add(new long[] {key, mCurrentOutputStream.getCount()});
+    }
+
+    /**
+     * Copy the collected output starting at the last index entry whose key is lower or equal to
+     * <var>key</var> into a file. If there is no such entry, all the collected output is copied.
+     * <p/>
+     * The data is transferred between the files by the file system, without going through memory.
+     *
+     * @param key the key to start from.
+     * @param dest the file to write the data to, overwritten if it exists.
+     */
+    public synchronized void writeDataSince(long key, File dest) throws IOException {
+        flush();
+        // find the oldest position to start from: files are scanned from oldest to newest.
+        int startFile = -1;
+        long startOffset = 0;
+        for (int i = 0; i < mFiles.length; i++) {
+            int currentPos = (mCurrentFilePos + i + 1) % mFiles.length;
+            if (mFiles[currentPos] == null) {
+                continue;
+            }
+            if (startFile == -1) {
+                startFile = i;
+            }
+            for (long[] entry : mIndexes.get(currentPos)) {
+                if (entry[0] > key) {
+                    break;
+                }
+                startFile = i;
+                startOffset = entry[1];
+            }
+        }
+        try (FileOutputStream out = new FileOutputStream(dest)) {
+            if (startFile == -1) {
+                return;
+            }
+            FileChannel destChannel = out.getChannel();
+            for (int i = startFile; i < mFiles.length; i++) {
+                int currentPos = (mCurrentFilePos + i + 1) % mFiles.length;
+                if (mFiles[currentPos] == null) {
+                    continue;
+                }
+                long offset = i == startFile ? startOffset : 0;
+                try (FileInputStream in = new FileInputStream(mFiles[currentPos])) {
+                    FileChannel channel = in.getChannel();
+                    long size = channel.size();
+                    while (offset < size) {
+                        offset += channel.transferTo(offset, size - offset, destChannel);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the last <var>maxBytes</var> of the collected output, only reading the end of the
+     * backing files.
+     *
+     * @param maxBytes the maximum amount of data to return.
+     * @return the collected output, at most <var>maxBytes</var> long.
+     */
+    public synchronized byte[] getLastData(int maxBytes) throws IOException {
+        flush();
+        // find how much to read from each file, from newest to oldest.
+        long[] lengths = new long[mFiles.length];
+        long remaining = maxBytes;
+        for (int i = mFiles.length - 1; i >= 0 && remaining > 0; i--) {
+            int currentPos = (mCurrentFilePos + i + 1) % mFiles.length;
+            if (mFiles[currentPos] != null) {
+                lengths[i] = Math.min(mFiles[currentPos].length(), remaining);
+                remaining -= lengths[i];
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) (maxBytes - remaining));
+        for (int i = 0; i < mFiles.length; i++) {
+            if (lengths[i] == 0) {
+                continue;
+            }
+            int currentPos = (mCurrentFilePos + i + 1) % mFiles.length;
+            try (FileInputStream in = new FileInputStream(mFiles[currentPos])) {
+                FileChannel channel = in.getChannel();
+                long position = channel.size() - lengths[i];
+                long end = buffer.position() + lengths[i];
+                while (buffer.position() < end) {
+                    int read = channel.read(buffer, position);
+                    if (read < 0) {
+                        break;
+                    }
+                    position += read;
+                }
+            }
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -138,6 +259,7 @@ public class SizeLimitedOutputStream extends OutputStream {
         for (int i = 0; i < mFiles.length; i++) {
             FileUtil.deleteFile(mFiles[i]);
             mFiles[i] = null;
+            mIndexes.get(i).clear();
         }
     }
 
@@ -164,6 +286,7 @@ public class SizeLimitedOutputStream extends OutputStream {
         close();
         mCurrentFilePos = getNextIndex(mCurrentFilePos);
         FileUtil.deleteFile(mFiles[mCurrentFilePos]);
+        mIndexes.get(mCurrentFilePos).clear();
         mFiles[mCurrentFilePos] = FileUtil.createTempFile(mTempFilePrefix, mTempFileSuffix);
         mCurrentOutputStream = new CountingOutputStream(new BufferedOutputStream(
                 new FileOutputStream(mFiles[mCurrentFilePos]), BUFF_SIZE));
@@ -16,14 +16,20 @@
 package com.android.tradefed.util;
 
 import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.proto.SubprocessEventProto.SubprocessEvent;
 import com.android.tradefed.result.LogDataType;
+import com.android.tradefed.util.SubprocessTestResultsParser.StatusKeys;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -49,10 +55,83 @@ public class SubprocessEventHelper {
 
     private static final String TEST_TAG_KEY = "testTag";
 
+    /**
+     * Header written first on a stream using the binary protocol, so the receiving side can tell
+     * it apart from the json lines protocol.
+     */
+    public static final byte[] BINARY_PROTOCOL_HEADER =
+            "TF_PROTO_EVENTS_V1\n".getBytes(StandardCharsets.UTF_8);
+
+    /** An event information that can be sent as a {@link SubprocessEvent}. */
+    public interface ProtoEventInfo {
+        /** Set the fields of the event, read back by the {@link SubprocessEvent} constructor. */
+        public void writeTo(SubprocessEvent.Builder event);
+    }
+
+    /**
+     * Encode an event as a length-delimited {@link SubprocessEvent}. Events without a
+     * {@link ProtoEventInfo} are sent with their json form.
+     *
+     * @param key the key of the event, one of {@link StatusKeys}.
+     * @param event the event information.
+     * @return the bytes of the event.
+     */
+    public static byte[] encodeBinaryEvent(String key, Object event) throws IOException {
+        SubprocessEvent.Builder builder = SubprocessEvent.newBuilder().setKey(key);
+        if (event instanceof ProtoEventInfo) {
+            ((ProtoEventInfo) event).writeTo(builder);
+        } else {
+            builder.setJson(String.valueOf(event));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        builder.build().writeDelimitedTo(bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read the next length-delimited {@link SubprocessEvent} from a stream.
+     *
+     * @return the event, or null at the end of the stream.
+     * @throws IOException if the stream is truncated or corrupted.
+     */
+    public static SubprocessEvent readBinaryEvent(InputStream in) throws IOException {
+        return SubprocessEvent.parseDelimitedFrom(in);
+    }
+
+    /**
+     * Consume the {@link #BINARY_PROTOCOL_HEADER} if the stream starts with it. Otherwise the
+     * stream is reset to its start, it must support {@link InputStream#mark(int)}.
+     *
+     * @return True if the stream uses the binary protocol, False otherwise.
+     */
+    public static boolean readBinaryProtocolHeader(InputStream in) throws IOException {
+        in.mark(BINARY_PROTOCOL_HEADER.length);
+        for (byte expected : BINARY_PROTOCOL_HEADER) {
+            // stop at the first difference to never wait for more data of a json line.
+            if (in.read() != expected) {
+                in.reset();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Set the metrics of an event, skipping the null entries a proto map cannot hold. */
+    private static void putMetrics(SubprocessEvent.Builder event, Map<String, String> metrics) {
+        if (metrics == null) {
+            return;
+        }
+        for (Map.Entry<String, String> entry : metrics.entrySet()) {
+            if (entry.getKey() != null && entry.getValue() != null) {
+                event.putMetrics(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
     /**
      * Helper for testRunStarted information
      */
-    public static class TestRunStartedEventInfo {
+    public static class TestRunStartedEventInfo implements ProtoEventInfo {
         public String mRunName = null;
         public Integer mTestCount = null;
 
@@ -66,6 +145,21 @@ public class SubprocessEventHelper {
             mTestCount = jsonObject.getInt(TESTCOUNT_KEY);
         }
 
+        public TestRunStartedEventInfo(SubprocessEvent event) {
+            mRunName = event.hasRunName() ? event.getRunName() : null;
+            mTestCount = event.getTestCount();
+        }
+
+        @Override
+        public void writeTo(SubprocessEvent.Builder event) {
+            if (mRunName != null) {
+                event.setRunName(mRunName);
+            }
+            if (mTestCount != null) {
+                event.setTestCount(mTestCount);
+            }
+        }
+
         @Override
         public String toString() {
             JSONObject tags = new JSONObject();
@@ -86,7 +180,7 @@ public class SubprocessEventHelper {
     /**
      * Helper for testRunFailed information
      */
-    public static class TestRunFailedEventInfo {
+    public static class TestRunFailedEventInfo implements ProtoEventInfo {
         public String mReason = null;
 
         public TestRunFailedEventInfo(String reason) {
@@ -97,6 +191,17 @@ public class SubprocessEventHelper {
             mReason = jsonObject.getString(REASON_KEY);
         }
 
+        public TestRunFailedEventInfo(SubprocessEvent event) {
+            mReason = event.hasReason() ? event.getReason() : null;
+        }
+
+        @Override
+        public void writeTo(SubprocessEvent.Builder event) {
+            if (mReason != null) {
+                event.setReason(mReason);
+            }
+        }
+
         @Override
         public String toString() {
             JSONObject tags = new JSONObject();
@@ -114,7 +219,7 @@ public class SubprocessEventHelper {
     /**
      * Helper for testRunEnded Information.
      */
-    public static class TestRunEndedEventInfo {
+    public static class TestRunEndedEventInfo implements ProtoEventInfo {
         public Long mTime = null;
         public Map<String, String> mRunMetrics = null;
 
@@ -134,6 +239,20 @@ public class SubprocessEventHelper {
             }
         }
 
+        public TestRunEndedEventInfo(SubprocessEvent event) {
+            mTime = event.hasElapsedTime() ? event.getElapsedTime() : null;
+            // like with the json form, an absent map is read as an empty one.
+            mRunMetrics = new HashMap<String, String>(event.getMetricsMap());
+        }
+
+        @Override
+        public void writeTo(SubprocessEvent.Builder event) {
+            if (mTime != null) {
+                event.setElapsedTime(mTime);
+            }
+            putMetrics(event, mRunMetrics);
+        }
+
         @Override
         public String toString() {
             JSONObject tags = null;
@@ -156,7 +275,7 @@ public class SubprocessEventHelper {
     /**
      * Helper for InvocationFailed information.
      */
-    public static class InvocationFailedEventInfo {
+    public static class InvocationFailedEventInfo implements ProtoEventInfo {
         public Throwable mCause = null;
 
         public InvocationFailedEventInfo(Throwable cause) {
@@ -168,15 +287,33 @@ public class SubprocessEventHelper {
             mCause = new Throwable(stack);
         }
 
+        public InvocationFailedEventInfo(SubprocessEvent event) {
+            mCause = new Throwable(event.hasCause() ? event.getCause() : null);
+        }
+
+        @Override
+        public void writeTo(SubprocessEvent.Builder event) {
+            if (mCause != null) {
+                event.setCause(getStackTrace());
+            }
+        }
+
+        private String getStackTrace() {
+            if (mCause == null) {
+                return null;
+            }
+            StringWriter sw = new StringWriter();
+            PrintWriter pw = new PrintWriter(sw);
+            mCause.printStackTrace(pw);
+            return sw.toString();
+        }
+
         @Override
         public String toString() {
             JSONObject tags = new JSONObject();
             try {
                 if (mCause != null) {
-                    StringWriter sw = new StringWriter();
-                    PrintWriter pw = new PrintWriter(sw);
-                    mCause.printStackTrace(pw);
-                    tags.put(CAUSE_KEY, sw.toString());
+                    tags.put(CAUSE_KEY, getStackTrace());
                 }
             } catch (JSONException e) {
                 CLog.e(e);
@@ -186,7 +323,7 @@ public class SubprocessEventHelper {
     }
 
     /** Base Helper for TestIgnored information. */
-    public static class BaseTestEventInfo {
+    public static class BaseTestEventInfo implements ProtoEventInfo {
         public String mClassName = null;
         public String mTestName = null;
 
@@ -202,6 +339,21 @@ public class SubprocessEventHelper {
             jsonObject.remove(TESTNAME_KEY);
         }
 
+        public BaseTestEventInfo(SubprocessEvent event) {
+            mClassName = event.hasClassName() ? event.getClassName() : null;
+            mTestName = event.hasTestName() ? event.getTestName() : null;
+        }
+
+        @Override
+        public void writeTo(SubprocessEvent.Builder event) {
+            if (mClassName != null) {
+                event.setClassName(mClassName);
+            }
+            if (mTestName != null) {
+                event.setTestName(mTestName);
+            }
+        }
+
         protected JSONObject getNewJson() {
             return new JSONObject();
         }
@@ -241,6 +393,19 @@ public class SubprocessEventHelper {
             jsonObject.remove(START_TIME);
         }
 
+        public TestStartedEventInfo(SubprocessEvent event) {
+            super(event);
+            mStartTime = event.hasStartTime() ? event.getStartTime() : null;
+        }
+
+        @Override
+        public void writeTo(SubprocessEvent.Builder event) {
+            super.writeTo(event);
+            if (mStartTime != null) {
+                event.setStartTime(mStartTime);
+            }
+        }
+
         @Override
         protected JSONObject getNewJson() {
             JSONObject json = new JSONObject();
@@ -267,6 +432,19 @@ public class SubprocessEventHelper {
             mTrace = jsonObject.getString(TRACE_KEY);
         }
 
+        public FailedTestEventInfo(SubprocessEvent event) {
+            super(event);
+            mTrace = event.hasTrace() ? event.getTrace() : null;
+        }
+
+        @Override
+        public void writeTo(SubprocessEvent.Builder event) {
+            super.writeTo(event);
+            if (mTrace != null) {
+                event.setTrace(mTrace);
+            }
+        }
+
         @Override
         public String toString() {
             JSONObject tags = null;
@@ -327,6 +505,22 @@ public class SubprocessEventHelper {
             }
         }
 
+        /** Create and populate and event object for testEnded from its binary form. */
+        public TestEndedEventInfo(SubprocessEvent event) {
+            super(event);
+            mEndTime = event.hasEndTime() ? event.getEndTime() : null;
+            mRunMetrics = new HashMap<String, String>(event.getMetricsMap());
+        }
+
+        @Override
+        public void writeTo(SubprocessEvent.Builder event) {
+            super.writeTo(event);
+            if (mEndTime != null) {
+                event.setEndTime(mEndTime);
+            }
+            putMetrics(event, mRunMetrics);
+        }
+
         @Override
         protected JSONObject getNewJson() {
             JSONObject json;
@@ -345,7 +539,7 @@ public class SubprocessEventHelper {
     }
 
     /** Helper for testLog information. */
-    public static class TestLogEventInfo {
+    public static class TestLogEventInfo implements ProtoEventInfo {
         public String mDataName = null;
         public LogDataType mLogType = null;
         public File mDataFile = null;
@@ -364,6 +558,25 @@ public class SubprocessEventHelper {
             mDataFile = new File(jsonObject.getString(DATA_FILE_KEY));
         }
 
+        public TestLogEventInfo(SubprocessEvent event) {
+            mDataName = event.hasDataName() ? event.getDataName() : null;
+            mLogType = event.hasDataType() ? LogDataType.valueOf(event.getDataType()) : null;
+            mDataFile = event.hasDataFile() ? new File(event.getDataFile()) : null;
+        }
+
+        @Override
+        public void writeTo(SubprocessEvent.Builder event) {
+            if (mDataName != null) {
+                event.setDataName(mDataName);
+            }
+            if (mLogType != null) {
+                event.setDataType(mLogType.toString());
+            }
+            if (mDataFile != null) {
+                event.setDataFile(mDataFile.getAbsolutePath());
+            }
+        }
+
         @Override
         public String toString() {
             JSONObject tags = null;
@@ -386,7 +599,7 @@ public class SubprocessEventHelper {
     }
 
     /** Helper for invocation started information. */
-    public static class InvocationStartedEventInfo {
+    public static class InvocationStartedEventInfo implements ProtoEventInfo {
         public String mTestTag = null;
         public Long mStartTime = null;
 
@@ -402,6 +615,21 @@ public class SubprocessEventHelper {
             }
         }
 
+        public InvocationStartedEventInfo(SubprocessEvent event) {
+            mTestTag = event.hasTestTag() ? event.getTestTag() : null;
+            mStartTime = event.hasStartTime() ? event.getStartTime() : null;
+        }
+
+        @Override
+        public void writeTo(SubprocessEvent.Builder event) {
+            if (mTestTag != null) {
+                event.setTestTag(mTestTag);
+            }
+            if (mStartTime != null) {
+                event.setStartTime(mStartTime);
+            }
+        }
+
         @Override
         public String toString() {
             JSONObject tags = null;
@@ -18,6 +18,7 @@ package com.android.tradefed.util;
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.invoker.IInvocationContext;
 import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.proto.SubprocessEventProto.SubprocessEvent;
 import com.android.tradefed.result.FileInputStreamSource;
 import com.android.tradefed.result.ITestInvocationListener;
 import com.android.tradefed.result.InputStreamSource;
@@ -35,6 +36,7 @@ import com.android.tradefed.util.SubprocessEventHelper.TestStartedEventInfo;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.File;
@@ -42,6 +44,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.ServerSocket;
 import java.net.Socket;
@@ -112,23 +115,29 @@ public class SubprocessTestResultsParser implements Closeable {
         @Override
         public void run() {
             Socket client = null;
-            BufferedReader in = null;
+            BufferedInputStream input = null;
             try {
                 client = mSocket.accept();
-                in = new BufferedReader(new InputStreamReader(client.getInputStream()));
-                String event = null;
-                while ((event = in.readLine()) != null) {
-                    try {
-                        CLog.i("received event: '%s'", event);
-                        parse(event);
-                    } catch (JSONException e) {
-                        CLog.e(e);
+                input = new BufferedInputStream(client.getInputStream());
+                if (SubprocessEventHelper.readBinaryProtocolHeader(input)) {
+                    CLog.d("Receiving events with the binary protocol.");
+                    parseBinary(input);
+                } else {
+                    BufferedReader in = new BufferedReader(new InputStreamReader(input));
+                    String event = null;
+                    while ((event = in.readLine()) != null) {
+                        try {
+                            CLog.i("received event: '%s'", event);
+                            parse(event);
+                        } catch (JSONException e) {
+                            CLog.e(e);
+                        }
                     }
                 }
             } catch (IOException e) {
                 CLog.e(e);
             } finally {
-                StreamUtil.close(in);
+                StreamUtil.close(input);
                 mCountDown.countDown();
             }
             CLog.d("EventReceiverThread done.");
@@ -283,6 +292,36 @@ public class SubprocessTestResultsParser implements Closeable {
         }
     }
 
+    /**
+     * Read the {@link SubprocessEvent}s of a stream using the binary protocol until its end, and
+     * handle them.
+     */
+    private void parseBinary(InputStream in) throws IOException {
+        long count = 0;
+        SubprocessEvent event = null;
+        while ((event = SubprocessEventHelper.readBinaryEvent(in)) != null) {
+            count++;
+            if (event.hasJson()) {
+                // event sent in its json form
+                CLog.i("received event: '%s %s'", event.getKey(), event.getJson());
+                try {
+                    parse(String.format("%s %s", event.getKey(), event.getJson()));
+                } catch (JSONException e) {
+                    CLog.e(e);
+                }
+                continue;
+            }
+            EventHandler handler = mHandlerMap.get(event.getKey());
+            if (handler != null) {
+                handler.handleEvent(event);
+            } else {
+                // the event was fully read, so the following ones can still be handled.
+                CLog.w("No handler found matching: %s", event.getKey());
+            }
+        }
+        CLog.d("Received %d binary events.", count);
+    }
+
     private void checkCurrentTestId(String className, String testName) {
         if (currentTest == null) {
             currentTest = new TestIdentifier(className, testName);
@@ -294,13 +333,25 @@ public class SubprocessTestResultsParser implements Closeable {
      * Interface for event handling
      */
     interface EventHandler {
+        /** Handle an event received in its json form. */
         public void handleEvent(String eventJson) throws JSONException;
+
+        /** Handle an event received in its binary form. */
+        public void handleEvent(SubprocessEvent event);
     }
 
     private class TestRunStartedEventHandler implements EventHandler {
         @Override
         public void handleEvent(String eventJson) throws JSONException {
-            TestRunStartedEventInfo rsi = new TestRunStartedEventInfo(new JSONObject(eventJson));
+            handle(new TestRunStartedEventInfo(new JSONObject(eventJson)));
+        }
+
+        @Override
+        public void handleEvent(SubprocessEvent event) {
+            handle(new TestRunStartedEventInfo(event));
+        }
+
+        private void handle(TestRunStartedEventInfo rsi) {
             mListener.testRunStarted(rsi.mRunName, rsi.mTestCount);
         }
     }
@@ -308,7 +359,15 @@ public class SubprocessTestResultsParser implements Closeable {
     private class TestRunFailedEventHandler implements EventHandler {
         @Override
         public void handleEvent(String eventJson) throws JSONException {
-            TestRunFailedEventInfo rfi = new TestRunFailedEventInfo(new JSONObject(eventJson));
+            handle(new TestRunFailedEventInfo(new JSONObject(eventJson)));
+        }
+
+        @Override
+        public void handleEvent(SubprocessEvent event) {
+            handle(new TestRunFailedEventInfo(event));
+        }
+
+        private void handle(TestRunFailedEventInfo rfi) {
             mListener.testRunFailed(rfi.mReason);
         }
     }
@@ -317,19 +376,38 @@ public class SubprocessTestResultsParser implements Closeable {
         @Override
         public void handleEvent(String eventJson) throws JSONException {
             try {
-                TestRunEndedEventInfo rei = new TestRunEndedEventInfo(new JSONObject(eventJson));
-                mListener.testRunEnded(rei.mTime, rei.mRunMetrics);
+                handle(new TestRunEndedEventInfo(new JSONObject(eventJson)));
+            } finally {
+                currentTest = null;
+            }
+        }
+
+        @Override
+        public void handleEvent(SubprocessEvent event) {
+            try {
+                handle(new TestRunEndedEventInfo(event));
             } finally {
                 currentTest = null;
             }
         }
+
+        private void handle(TestRunEndedEventInfo rei) {
+            mListener.testRunEnded(rei.mTime, rei.mRunMetrics);
+        }
     }
 
     private class InvocationFailedEventHandler implements EventHandler {
         @Override
         public void handleEvent(String eventJson) throws JSONException {
-            InvocationFailedEventInfo ifi =
-                    new InvocationFailedEventInfo(new JSONObject(eventJson));
+            handle(new InvocationFailedEventInfo(new JSONObject(eventJson)));
+        }
+
+        @Override
+        public void handleEvent(SubprocessEvent event) {
+            handle(new InvocationFailedEventInfo(event));
+        }
+
+        private void handle(InvocationFailedEventInfo ifi) {
             mListener.invocationFailed(ifi.mCause);
         }
     }
@@ -337,7 +415,15 @@ public class SubprocessTestResultsParser implements Closeable {
     private class TestStartedEventHandler implements EventHandler {
         @Override
         public void handleEvent(String eventJson) throws JSONException {
-            TestStartedEventInfo bti = new TestStartedEventInfo(new JSONObject(eventJson));
+            handle(new TestStartedEventInfo(new JSONObject(eventJson)));
+        }
+
+        @Override
+        public void handleEvent(SubprocessEvent event) {
+            handle(new TestStartedEventInfo(event));
+        }
+
+        private void handle(TestStartedEventInfo bti) {
             currentTest = new TestIdentifier(bti.mClassName, bti.mTestName);
             if (bti.mStartTime != null) {
                 mListener.testStarted(currentTest, bti.mStartTime);
@@ -350,7 +436,15 @@ public class SubprocessTestResultsParser implements Closeable {
     private class TestFailedEventHandler implements EventHandler {
         @Override
         public void handleEvent(String eventJson) throws JSONException {
-            FailedTestEventInfo fti = new FailedTestEventInfo(new JSONObject(eventJson));
+            handle(new FailedTestEventInfo(new JSONObject(eventJson)));
+        }
+
+        @Override
+        public void handleEvent(SubprocessEvent event) {
+            handle(new FailedTestEventInfo(event));
+        }
+
+        private void handle(FailedTestEventInfo fti) {
             checkCurrentTestId(fti.mClassName, fti.mTestName);
             mListener.testFailed(currentTest, fti.mTrace);
         }
@@ -360,23 +454,43 @@ public class SubprocessTestResultsParser implements Closeable {
         @Override
         public void handleEvent(String eventJson) throws JSONException {
             try {
-                TestEndedEventInfo tei = new TestEndedEventInfo(new JSONObject(eventJson));
-                checkCurrentTestId(tei.mClassName, tei.mTestName);
-                if (tei.mEndTime != null) {
-                    mListener.testEnded(currentTest, tei.mEndTime, tei.mRunMetrics);
-                } else {
-                    mListener.testEnded(currentTest, tei.mRunMetrics);
-                }
+                handle(new TestEndedEventInfo(new JSONObject(eventJson)));
+            } finally {
+                currentTest = null;
+            }
+        }
+
+        @Override
+        public void handleEvent(SubprocessEvent event) {
+            try {
+                handle(new TestEndedEventInfo(event));
             } finally {
                 currentTest = null;
             }
         }
+
+        private void handle(TestEndedEventInfo tei) {
+            checkCurrentTestId(tei.mClassName, tei.mTestName);
+            if (tei.mEndTime != null) {
+                mListener.testEnded(currentTest, tei.mEndTime, tei.mRunMetrics);
+            } else {
+                mListener.testEnded(currentTest, tei.mRunMetrics);
+            }
+        }
     }
 
     private class TestIgnoredEventHandler implements EventHandler {
         @Override
         public void handleEvent(String eventJson) throws JSONException {
-            BaseTestEventInfo baseTestIgnored = new BaseTestEventInfo(new JSONObject(eventJson));
+            handle(new BaseTestEventInfo(new JSONObject(eventJson)));
+        }
+
+        @Override
+        public void handleEvent(SubprocessEvent event) {
+            handle(new BaseTestEventInfo(event));
+        }
+
+        private void handle(BaseTestEventInfo baseTestIgnored) {
             checkCurrentTestId(baseTestIgnored.mClassName, baseTestIgnored.mTestName);
             mListener.testIgnored(currentTest);
         }
@@ -385,17 +499,32 @@ public class SubprocessTestResultsParser implements Closeable {
     private class TestAssumptionFailureEventHandler implements EventHandler {
         @Override
         public void handleEvent(String eventJson) throws JSONException {
-            FailedTestEventInfo FailedAssumption =
-                    new FailedTestEventInfo(new JSONObject(eventJson));
-            checkCurrentTestId(FailedAssumption.mClassName, FailedAssumption.mTestName);
-            mListener.testAssumptionFailure(currentTest, FailedAssumption.mTrace);
+            handle(new FailedTestEventInfo(new JSONObject(eventJson)));
+        }
+
+        @Override
+        public void handleEvent(SubprocessEvent event) {
+            handle(new FailedTestEventInfo(event));
+        }
+
+        private void handle(FailedTestEventInfo failedAssumption) {
+            checkCurrentTestId(failedAssumption.mClassName, failedAssumption.mTestName);
+            mListener.testAssumptionFailure(currentTest, failedAssumption.mTrace);
         }
     }
 
     private class TestLogEventHandler implements EventHandler {
         @Override
         public void handleEvent(String eventJson) throws JSONException {
-            TestLogEventInfo logInfo = new TestLogEventInfo(new JSONObject(eventJson));
+            handle(new TestLogEventInfo(new JSONObject(eventJson)));
+        }
+
+        @Override
+        public void handleEvent(SubprocessEvent event) {
+            handle(new TestLogEventInfo(event));
+        }
+
+        private void handle(TestLogEventInfo logInfo) {
             String name = String.format("subprocess-%s", logInfo.mDataName);
             try {
                 InputStreamSource data = new FileInputStreamSource(logInfo.mDataFile);
@@ -409,8 +538,15 @@ public class SubprocessTestResultsParser implements Closeable {
     private class InvocationStartedEventHandler implements EventHandler {
         @Override
         public void handleEvent(String eventJson) throws JSONException {
-            InvocationStartedEventInfo eventStart =
-                    new InvocationStartedEventInfo(new JSONObject(eventJson));
+            handle(new InvocationStartedEventInfo(new JSONObject(eventJson)));
+        }
+
+        @Override
+        public void handleEvent(SubprocessEvent event) {
+            handle(new InvocationStartedEventInfo(event));
+        }
+
+        private void handle(InvocationStartedEventInfo eventStart) {
             if (mContext.getTestTag() == null || "stub".equals(mContext.getTestTag())) {
                 mContext.setTestTag(eventStart.mTestTag);
             }
@@ -20,16 +20,46 @@ import com.android.tradefed.log.LogUtil.CLog;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipFile;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.Deflater;
 
 /**
  * A helper class for zip extraction that takes POSIX file permissions into account
  */
 public class ZipUtil2 {
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // records of the zip format written by createSingleEntryZip, see the zip APPNOTE
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final short VERSION_DEFLATED = 20;
+    private static final short VERSION_ZIP64 = 45;
+    private static final short FLAG_UTF8 = 0x0800;
+    private static final short METHOD_DEFLATED = 8;
+    private static final short ZIP64_EXTRA_ID = 0x0001;
+    private static final int ZIP64_EXTRA_LENGTH = 20;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
     /**
      * A util method to apply unix mode from {@link ZipArchiveEntry} to the created local file
      * system entry if necessary
@@ -37,7 +67,7 @@ public class ZipUtil2 {
      * @param localFile the extracted local file entry
      * @throws IOException
      */
-    private static void applyUnixModeIfNecessary(ZipArchiveEntry entry, File localFile)
+    static void applyUnixModeIfNecessary(ZipArchiveEntry entry, File localFile)
             throws IOException {
         if (entry.getPlatform() == ZipArchiveEntry.PLATFORM_UNIX) {
             Files.setPosixFilePermissions(localFile.toPath(),
@@ -48,27 +78,65 @@ public class ZipUtil2 {
     }
 
     /**
-     * Utility method to extract entire contents of zip file into given directory
+     * Utility method to extract entire contents of zip file into given directory. Entries are
+     * extracted in parallel.
      *
      * @param zipFile the {@link ZipFile} to extract
      * @param destDir the local dir to extract file to
      * @throws IOException if failed to extract file
      */
     public static void extractZip(ZipFile zipFile, File destDir) throws IOException {
-        Enumeration<? extends ZipArchiveEntry> entries = zipFile.getEntries();
-        while (entries.hasMoreElements()) {
-            ZipArchiveEntry entry = entries.nextElement();
-            File childFile = new File(destDir, entry.getName());
-            childFile.getParentFile().mkdirs();
-            if (entry.isDirectory()) {
-                childFile.mkdirs();
-                applyUnixModeIfNecessary(entry, childFile);
-                continue;
-            } else {
-                FileUtil.writeToFile(zipFile.getInputStream(entry), childFile);
-                applyUnixModeIfNecessary(entry, childFile);
+        extractEntries(zipFile, Collections.list(zipFile.getEntries()), destDir);
+    }
+
+    /**
+     * Utility method to extract the entries of a zip file under the given paths into given
+     * directory. Entries are extracted in parallel.
+     *
+     * @param zipFile the {@link ZipFile} to extract
+     * @param destDir the local dir to extract file to
+     * @param prefixes the paths inside the zip file of the files and directories to extract
+     * @throws IOException if failed to extract file
+     */
+    public static void extractZip(ZipFile zipFile, File destDir, Collection<String> prefixes)
+            throws IOException {
+        List<ZipArchiveEntry> entries = new ArrayList<>();
+        Enumeration<ZipArchiveEntry> allEntries = zipFile.getEntries();
+        while (allEntries.hasMoreElements()) {
+            ZipArchiveEntry entry = allEntries.nextElement();
+            for (String prefix : prefixes) {
+                if (isUnderPath(entry.getName(), prefix)) {
+                    entries.add(entry);
+                    break;
+                }
             }
         }
+        extractEntries(zipFile, entries, destDir);
+    }
+
+    /**
+     * Returns true if the entry name is the given path, or is inside the directory with this path.
+     * An empty path matches all the entries.
+     */
+    static boolean isUnderPath(String entryName, String path) {
+        if (path.isEmpty() || path.equals("/")) {
+            return true;
+        }
+        String dirPath = path.endsWith("/") ? path : path + "/";
+        return entryName.startsWith(dirPath) || entryName.equals(path);
+    }
+
+    /**
+     * Extract the given entries of a zip file into given directory, in parallel.
+     *
+     * @param zipFile the {@link ZipFile} to extract
+     * @param entries the entries to extract
+     * @param destDir the local dir to extract file to
+     * @throws IOException if failed to extract file
+     */
+    static void extractEntries(ZipFile zipFile, List<ZipArchiveEntry> entries, File destDir)
+            throws IOException {
+        RecursiveZipExtractAction.extract(zipFile, entries, destDir);
     }
 
     /**
@@ -124,6 +192,152 @@ public class ZipUtil2 {
         }
     }
 
+    /**
+     * Create a zip file holding a single deflated entry with the given data. The data is
+     * compressed in parallel with a {@link ParallelDeflateOutputStream}, straight into the zip
+     * entry. The crc and sizes of the entry are only known once the data is compressed, so the
+     * local header is rewritten at the end, and reserves room for the Zip64 sizes.
+     *
+     * @param data the {@link InputStream} of the data to compress
+     * @param entryName the name of the entry in the zip
+     * @param zipFile the zip {@link File} to create, replaced if it exists
+     * @param level the compression level, from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+     * @throws IOException if failed to create the zip
+     */
+    public static void createSingleEntryZip(InputStream data, String entryName, File zipFile,
+            int level) throws IOException {
+        byte[] name = entryName.getBytes(StandardCharsets.UTF_8);
+        int dosTime = toDosTime(System.currentTimeMillis());
+        try (RandomAccessFile file = new RandomAccessFile(zipFile, "rw");
+                OutputStream out = new BufferedOutputStream(
+                        Channels.newOutputStream(file.getChannel()), BUFFER_SIZE);
+                ParallelDeflateOutputStream deflateStream =
+                        new ParallelDeflateOutputStream(out, level)) {
+            file.setLength(0);
+            byte[] localHeader = getLocalHeader(name, dosTime, 0, 0, 0);
+            out.write(localHeader);
+            StreamUtil.copyStreams(data, deflateStream);
+            deflateStream.finish();
+            long crc = deflateStream.getCrc();
+            long size = deflateStream.getBytesRead();
+            long compressedSize = deflateStream.getBytesWritten();
+            out.write(getCentralDirectory(name, dosTime, crc, size, compressedSize,
+                    localHeader.length + compressedSize));
+            out.flush();
+            file.seek(0);
+            file.write(getLocalHeader(name, dosTime, crc, size, compressedSize));
+        }
+    }
+
+    /**
+     * Returns the local header of a deflated entry. It always holds a Zip64 extra field, whose
+     * sizes are only read if the sizes of the header are {@link #ZIP64_MAGIC}.
+     */
+    private static byte[] getLocalHeader(byte[] name, int dosTime, long crc, long size,
+            long compressedSize) {
+        boolean zip64 = size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC;
+        ByteBuffer header = ByteBuffer.allocate(30 + name.length + ZIP64_EXTRA_LENGTH)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_HEADER_SIG);
+        header.putShort(zip64 ? VERSION_ZIP64 : VERSION_DEFLATED);
+        header.putShort(FLAG_UTF8);
+        header.putShort(METHOD_DEFLATED);
+        header.putInt(dosTime);
+        header.putInt((int) crc);
+        header.putInt((int) (zip64 ? ZIP64_MAGIC : compressedSize));
+        header.putInt((int) (zip64 ? ZIP64_MAGIC : size));
+        header.putShort((short) name.length);
+        header.putShort((short) ZIP64_EXTRA_LENGTH);
+        header.put(name);
+        header.putShort(ZIP64_EXTRA_ID);
+        header.putShort((short) (ZIP64_EXTRA_LENGTH - 4));
+        header.putLong(size);
+        header.putLong(compressedSize);
+        return header.array();
+    }
+
+    /**
+     * Returns the central directory of a zip holding a single deflated entry, followed by the
+     * end of central directory records.
+     */
+    private static byte[] getCentralDirectory(byte[] name, int dosTime, long crc, long size,
+            long compressedSize, long offset) {
+        boolean zip64 = size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC
+                || offset >= ZIP64_MAGIC;
+        int extraLength = zip64 ? ZIP64_EXTRA_LENGTH : 0;
+        int centralLength = 46 + name.length + extraLength;
+        ByteBuffer records = ByteBuffer.allocate(centralLength + (zip64 ? 56 + 20 : 0) + 22)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        short version = zip64 ? VERSION_ZIP64 : VERSION_DEFLATED;
+        records.putInt(CENTRAL_HEADER_SIG);
+        records.putShort(version);
+        records.putShort(version);
+        records.putShort(FLAG_UTF8);
+        records.putShort(METHOD_DEFLATED);
+        records.putInt(dosTime);
+        records.putInt((int) crc);
+        records.putInt((int) (zip64 ? ZIP64_MAGIC : compressedSize));
+        records.putInt((int) (zip64 ? ZIP64_MAGIC : size));
+        records.putShort((short) name.length);
+        records.putShort((short) extraLength);
+        // comment length, disk number, internal and external attributes
+        records.putShort((short) 0);
+        records.putShort((short) 0);
+        records.putShort((short) 0);
+        records.putInt(0);
+        // offset of the local header
+        records.putInt(0);
+        records.put(name);
+        if (zip64) {
+            records.putShort(ZIP64_EXTRA_ID);
+            records.putShort((short) (ZIP64_EXTRA_LENGTH - 4));
+            records.putLong(size);
+            records.putLong(compressedSize);
+
+            records.putInt(ZIP64_END_SIG);
+            records.putLong(44);
+            records.putShort(version);
+            records.putShort(version);
+            records.putInt(0);
+            records.putInt(0);
+            records.putLong(1);
+            records.putLong(1);
+            records.putLong(centralLength);
+            records.putLong(offset);
+
+            records.putInt(ZIP64_LOCATOR_SIG);
+            records.putInt(0);
+            records.putLong(offset + centralLength);
+            records.putInt(1);
+        }
+        records.putInt(END_SIG);
+        records.putShort((short) 0);
+        records.putShort((short) 0);
+        records.putShort((short) 1);
+        records.putShort((short) 1);
+        records.putInt(centralLength);
+        records.putInt((int) (zip64 ? ZIP64_MAGIC : offset));
+        records.putShort((short) 0);
+        return records.array();
+    }
+
+    /** Returns the given time in the MS-DOS format of the zip headers, time then date. */
+    private static int toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            // 1980-01-01, the earliest date of the format
+            return (1 << 21) | (1 << 16);
+        }
+        return ((year - 1980) << 25)
+                | ((calendar.get(Calendar.MONTH) + 1) << 21)
+                | (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+                | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | (calendar.get(Calendar.MINUTE) << 5)
+                | (calendar.get(Calendar.SECOND) >> 1);
+    }
+
     /**
      * Close an open {@link ZipFile}, ignoring any exceptions.
      *
@@ -23,6 +23,7 @@ public interface IHostMonitor {
     public enum HostMetricType {
         NONE,
         INVOCATION_STRAY_THREAD,
+        SCHEDULER_PASS,
     }
 
     /**
@@ -36,6 +36,7 @@ import com.android.tradefed.command.VerifyTest;
 import com.android.tradefed.command.remote.RemoteManagerTest;
 import com.android.tradefed.command.remote.RemoteOperationTest;
 import com.android.tradefed.config.ArgsOptionParserTest;
+import com.android.tradefed.config.ConfigurationDefCacheTest;
 import com.android.tradefed.config.ConfigurationDefTest;
 import com.android.tradefed.config.ConfigurationDescriptorTest;
 import com.android.tradefed.config.ConfigurationFactoryTest;
@@ -49,6 +50,7 @@ import com.android.tradefed.config.SandboxConfigurationFactoryTest;
 import com.android.tradefed.device.BackgroundDeviceActionTest;
 import com.android.tradefed.device.CpuStatsCollectorTest;
 import com.android.tradefed.device.DeviceManagerTest;
+import com.android.tradefed.device.DevicePropertyCacheTest;
 import com.android.tradefed.device.DeviceSelectionOptionsTest;
 import com.android.tradefed.device.DeviceStateMonitorTest;
 import com.android.tradefed.device.DeviceUtilStatsMonitorTest;
@@ -72,9 +74,11 @@ import com.android.tradefed.invoker.TestInvocationTest;
 import com.android.tradefed.invoker.shard.ShardHelperTest;
 import com.android.tradefed.invoker.shard.StrictShardHelperTest;
 import com.android.tradefed.invoker.shard.TestsPoolPollerTest;
+import com.android.tradefed.log.AsyncFileLoggerTest;
 import com.android.tradefed.log.FileLoggerTest;
 import com.android.tradefed.log.HistoryLoggerTest;
 import com.android.tradefed.log.LogRegistryTest;
+import com.android.tradefed.log.LogRingBufferTest;
 import com.android.tradefed.log.TerribleFailureEmailHandlerTest;
 import com.android.tradefed.profiler.AggregatingProfilerTest;
 import com.android.tradefed.profiler.MetricOutputDataTest;
@@ -83,8 +87,10 @@ import com.android.tradefed.profiler.recorder.TraceMetricTest;
 import com.android.tradefed.profiler.recorder.TraceMetricsRecorderTest;
 import com.android.tradefed.profiler.recorder.TraceParserTest;
 import com.android.tradefed.result.AggregatingProfilerListenerTest;
+import com.android.tradefed.result.AsyncResultForwarderTest;
 import com.android.tradefed.result.BugreportCollectorTest;
 import com.android.tradefed.result.CollectingTestListenerTest;
+import com.android.tradefed.result.CompactTestRunResultTest;
 import com.android.tradefed.result.ConsoleResultReporterTest;
 import com.android.tradefed.result.DeviceFileReporterTest;
 import com.android.tradefed.result.DeviceUnavailEmailResultReporterTest;
@@ -126,6 +132,7 @@ import com.android.tradefed.targetprep.PythonVirtualenvPreparerTest;
 import com.android.tradefed.targetprep.RunCommandTargetPreparerTest;
 import com.android.tradefed.targetprep.RunHostCommandTargetPreparerTest;
 import com.android.tradefed.targetprep.SdkAvdPreparerTest;
+import com.android.tradefed.targetprep.ShellCommandBatchTest;
 import com.android.tradefed.targetprep.StopServicesSetupTest;
 import com.android.tradefed.targetprep.SystemUpdaterDeviceFlasherTest;
 import com.android.tradefed.targetprep.TestAppInstallSetupTest;
@@ -167,6 +174,7 @@ import com.android.tradefed.testtype.suite.ModuleDefinitionTest;
 import com.android.tradefed.testtype.suite.ModuleListenerTest;
 import com.android.tradefed.testtype.suite.ModuleMergerTest;
 import com.android.tradefed.testtype.suite.ModuleSplitterTest;
+import com.android.tradefed.testtype.suite.SuiteModuleIndexTest;
 import com.android.tradefed.testtype.suite.TestFailureListenerTest;
 import com.android.tradefed.testtype.suite.TfSuiteRunnerTest;
 import com.android.tradefed.testtype.suite.ValidateSuiteConfigHelperTest;
@@ -189,19 +197,23 @@ import com.android.tradefed.util.EmmaXmlReporterParserTest;
 import com.android.tradefed.util.FakeTestsZipFolderTest;
 import com.android.tradefed.util.FileUtilTest;
 import com.android.tradefed.util.FixedByteArrayOutputStreamTest;
+import com.android.tradefed.util.HostThreadFactoryTest;
 import com.android.tradefed.util.HprofAllocSiteParserTest;
 import com.android.tradefed.util.JUnitXmlParserTest;
 import com.android.tradefed.util.KeyguardControllerStateTest;
+import com.android.tradefed.util.LazyZipExtractorTest;
 import com.android.tradefed.util.ListInstrumentationParserTest;
 import com.android.tradefed.util.LogcatUpdaterEventParserTest;
 import com.android.tradefed.util.MultiMapTest;
 import com.android.tradefed.util.NullUtilTest;
 import com.android.tradefed.util.PairTest;
+import com.android.tradefed.util.ParallelGzipOutputStreamTest;
 import com.android.tradefed.util.PropertyChangerTest;
 import com.android.tradefed.util.PsParserTest;
 import com.android.tradefed.util.QuotationAwareTokenizerTest;
 import com.android.tradefed.util.RegexTrieTest;
 import com.android.tradefed.util.RunUtilTest;
+import com.android.tradefed.util.RuntimeHistoryStoreTest;
 import com.android.tradefed.util.SerializationUtilTest;
 import com.android.tradefed.util.SimplePerfStatResultParserTest;
 import com.android.tradefed.util.SimplePerfUtilTest;
@@ -269,6 +281,7 @@ import org.junit.runners.Suite.SuiteClasses;
 
     // config
     ArgsOptionParserTest.class,
+    ConfigurationDefCacheTest.class,
     ConfigurationDefTest.class,
     ConfigurationDescriptorTest.class,
     ConfigurationFactoryTest.class,
@@ -284,6 +297,7 @@ import org.junit.runners.Suite.SuiteClasses;
     BackgroundDeviceActionTest.class,
     CpuStatsCollectorTest.class,
     DeviceManagerTest.class,
+    DevicePropertyCacheTest.class,
     DeviceSelectionOptionsTest.class,
     DeviceStateMonitorTest.class,
     DeviceUtilStatsMonitorTest.class,
@@ -316,9 +330,11 @@ import org.junit.runners.Suite.SuiteClasses;
     TestsPoolPollerTest.class,
 
     // log
+    AsyncFileLoggerTest.class,
     FileLoggerTest.class,
     HistoryLoggerTest.class,
     LogRegistryTest.class,
+    LogRingBufferTest.class,
     TerribleFailureEmailHandlerTest.class,
 
     // profiler subdirs
@@ -331,9 +347,11 @@ import org.junit.runners.Suite.SuiteClasses;
 
     // result
     AggregatingProfilerListenerTest.class,
+    AsyncResultForwarderTest.class,
     BugreportCollectorTest.class,
     ConsoleResultReporterTest.class,
     CollectingTestListenerTest.class,
+    CompactTestRunResultTest.class,
     DeviceFileReporterTest.class,
     DeviceUnavailEmailResultReporterTest.class,
     EmailResultReporterTest.class,
@@ -370,6 +388,7 @@ import org.junit.runners.Suite.SuiteClasses;
     RunCommandTargetPreparerTest.class,
     RunHostCommandTargetPreparerTest.class,
     SdkAvdPreparerTest.class,
+    ShellCommandBatchTest.class,
     StopServicesSetupTest.class,
     SystemUpdaterDeviceFlasherTest.class,
     TestAppInstallSetupTest.class,
@@ -428,6 +447,7 @@ import org.junit.runners.Suite.SuiteClasses;
     ModuleListenerTest.class,
     ModuleMergerTest.class,
     ModuleSplitterTest.class,
+    SuiteModuleIndexTest.class,
     TestFailureListenerTest.class,
     TfSuiteRunnerTest.class,
     ValidateSuiteConfigHelperTest.class,
@@ -453,20 +473,24 @@ import org.junit.runners.Suite.SuiteClasses;
     FakeTestsZipFolderTest.class,
     FileUtilTest.class,
     FixedByteArrayOutputStreamTest.class,
+    HostThreadFactoryTest.class,
     HprofAllocSiteParserTest.class,
     HttpHelperTest.class,
     HttpMultipartPostTest.class,
     JUnitXmlParserTest.class,
     KeyguardControllerStateTest.class,
+    LazyZipExtractorTest.class,
     ListInstrumentationParserTest.class,
     LogcatUpdaterEventParserTest.class,
     MultiMapTest.class,
     NullUtilTest.class,
     PairTest.class,
+    ParallelGzipOutputStreamTest.class,
     PsParserTest.class,
     QuotationAwareTokenizerTest.class,
     RegexTrieTest.class,
     RunUtilTest.class,
+    RuntimeHistoryStoreTest.class,
     SerializationUtilTest.class,
     SimplePerfStatResultParserTest.class,
     SimplePerfUtilTest.class,
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.build;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Longer running stress java app measuring the cloning of a {@link BuildInfo} with a large tests
+ * directory, as done for each shard of a sharded invocation.
+ *
+ * <p>Creates a synthetic tree of 50k small files spread across nested directories, and prints the
+ * time to clone a build containing it for each of a number of shards.
+ *
+ * <p>Lacks automated verification - intended to be executed manually or under a profiler.
+ */
+public class BuildInfoCloneStressApp extends TestCase {
+
+    private static final int FILES = 50000;
+    private static final int FILES_PER_DIR = 500;
+    private static final int SHARDS = 20;
+
+    public void testCloneLargeTree() throws Exception {
+        File testsDir = FileUtil.createTempDir("clone-stress-tests");
+        List<IBuildInfo> clones = new ArrayList<>();
+        try {
+            for (int i = 0; i < FILES; i++) {
+                File dir =
+                        new File(
+                                testsDir,
+                                String.format(
+                                        "module%d/lib%d", i / (FILES_PER_DIR * 10),
+                                        i / FILES_PER_DIR));
+                dir.mkdirs();
+                FileUtil.writeToFile("content" + i, new File(dir, "file" + i));
+            }
+            BuildInfo build = new BuildInfo("1", "target");
+            build.setFile("testsdir", testsDir, "1");
+            long total = 0;
+            long max = 0;
+            for (int shard = 0; shard < SHARDS; shard++) {
+                long start = System.currentTimeMillis();
+                clones.add(build.clone());
+                long elapsed = System.currentTimeMillis() - start;
+                total += elapsed;
+                max = Math.max(max, elapsed);
+            }
+            System.out.println(
+                    String.format(
+                            "Cloned a %d files build for %d shards in %d ms "
+                                    + "(average %d ms, max %d ms per shard)",
+                            FILES, SHARDS, total, total / SHARDS, max));
+        } finally {
+            for (IBuildInfo clone : clones) {
+                clone.cleanUp();
+            }
+            FileUtil.recursiveDelete(testsDir);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.build;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Longer running stress java app for {@link FileDownloadCache}.
+ *
+ * <p>Simulates many invocations starting at the same time against the same builds: N concurrent
+ * fetchers request overlapping remote files from a fake {@link IFileDownloader} with a fixed
+ * latency, in a cache small enough to trigger eviction. Prints the number of actual downloads,
+ * the fetch latency percentiles and the time to load the cache on startup.
+ *
+ * <p>Lacks automated verification - intended to be executed manually or under a profiler.
+ */
+public class FileDownloadCacheStressApp extends TestCase {
+
+    private static final int FETCHERS = 30;
+    private static final int FETCHES_PER_FETCHER = 200;
+    private static final int REMOTE_FILES = 300;
+    private static final int FILE_SIZE = 64 * 1024;
+    private static final long DOWNLOAD_LATENCY_MS = 50;
+    private static final int STARTUP_FILES = 20000;
+
+    /** Fake downloader writing a fixed size file after a fixed latency. */
+    private static class FakeDownloader implements IFileDownloader {
+        final AtomicInteger mDownloads = new AtomicInteger();
+
+        @Override
+        public File downloadFile(String remoteFilePath) throws BuildRetrievalError {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void downloadFile(String relativeRemotePath, File destFile)
+                throws BuildRetrievalError {
+            mDownloads.incrementAndGet();
+            try {
+                Thread.sleep(DOWNLOAD_LATENCY_MS);
+                try (FileOutputStream out = new FileOutputStream(destFile)) {
+                    out.write(new byte[FILE_SIZE]);
+                }
+            } catch (InterruptedException | IOException e) {
+                throw new BuildRetrievalError("fake download failed", e);
+            }
+        }
+    }
+
+    public void testConcurrentFetch() throws Exception {
+        File cacheDir = FileUtil.createTempDir("cache-stress");
+        try {
+            final FileDownloadCache cache = new FileDownloadCache(cacheDir);
+            // room for two thirds of the files, so eviction happens regularly
+            cache.setMaxCacheSize((long) FILE_SIZE * REMOTE_FILES * 2 / 3);
+            final FakeDownloader downloader = new FakeDownloader();
+            final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+            final AtomicInteger failures = new AtomicInteger();
+            List<Thread> fetchers = new ArrayList<>();
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < FETCHERS; i++) {
+                final Random random = new Random(i);
+                Thread fetcher =
+                        new Thread() {
+                            @Override
+                            public void run() {
+                                for (int j = 0; j < FETCHES_PER_FETCHER; j++) {
+                                    // skewed towards the first files, like a popular build
+                                    int index =
+                                            (int) (REMOTE_FILES
+                                                    * Math.pow(random.nextDouble(), 2));
+                                    long fetchStart = System.nanoTime();
+                                    try {
+                                        File copy =
+                                                cache.fetchRemoteFile(
+                                                        downloader, "build/file" + index);
+                                        FileUtil.deleteFile(copy);
+                                    } catch (BuildRetrievalError e) {
+                                        failures.incrementAndGet();
+                                    }
+                                    latencies.add((System.nanoTime() - fetchStart) / 1000);
+                                }
+                            }
+                        };
+                fetcher.start();
+                fetchers.add(fetcher);
+            }
+            for (Thread fetcher : fetchers) {
+                fetcher.join();
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            Collections.sort(latencies);
+            System.out.println(
+                    String.format(
+                            "%d fetches by %d fetchers in %d ms: %d downloads, %d failures, "
+                                    + "latency p50 %d us, p99 %d us, max %d us",
+                            latencies.size(),
+                            FETCHERS,
+                            elapsed,
+                            downloader.mDownloads.get(),
+                            failures.get(),
+                            latencies.get(latencies.size() / 2),
+                            latencies.get(latencies.size() * 99 / 100),
+                            latencies.get(latencies.size() - 1)));
+            cache.waitForMaintenance();
+        } finally {
+            FileUtil.recursiveDelete(cacheDir);
+        }
+    }
+
+    public void testStartup() throws Exception {
+        File cacheDir = FileUtil.createTempDir("cache-stress-startup");
+        try {
+            for (int i = 0; i < STARTUP_FILES; i++) {
+                File file = new File(cacheDir, String.format("dir%d/file%d", i % 100, i));
+                file.getParentFile().mkdirs();
+                FileUtil.writeToFile("content", file);
+            }
+            long start = System.currentTimeMillis();
+            // no index yet, the directory is scanned and the index written
+            new FileDownloadCache(cacheDir);
+            long scan = System.currentTimeMillis() - start;
+            start = System.currentTimeMillis();
+            new FileDownloadCache(cacheDir);
+            long index = System.currentTimeMillis() - start;
+            System.out.println(
+                    String.format(
+                            "Startup with %d cached files: %d ms scanning, %d ms from index",
+                            STARTUP_FILES, scan, index));
+        } finally {
+            FileUtil.recursiveDelete(cacheDir);
+        }
+    }
+}
@@ -98,6 +98,8 @@ public class FileDownloadCacheTest {
         assertFetchRemoteFile(remotePath2);
         // now retrieve another file, which will exceed size of cache
         assertFetchRemoteFile();
+        // eviction is done in the background
+        mCache.waitForMaintenance();
         assertNotNull(mCache.getCachedFile(REMOTE_PATH));
         assertNull(mCache.getCachedFile(remotePath2));
         EasyMock.verify(mMockDownloader);
@@ -199,6 +201,43 @@ public class FileDownloadCacheTest {
         EasyMock.verify(mMockDownloader);
     }
 
+    /** Test that a new {@link FileDownloadCache} is loaded from the index of the previous one. */
+    @Test
+    public void testConstructor_loadIndex() throws Exception {
+        final String remotePath2 = "anotherpath";
+        setDownloadExpections();
+        setDownloadExpections(remotePath2);
+        EasyMock.replay(mMockDownloader);
+        assertFetchRemoteFile();
+        assertFetchRemoteFile(remotePath2);
+        mCache.waitForMaintenance();
+        assertTrue(new File(mCacheDir, FileDownloadCache.INDEX_FILE_NAME).exists());
+        // a file not in the index is not picked up, since the directory is not scanned
+        FileUtil.writeToFile(DOWNLOADED_CONTENTS, new File(mCacheDir, "unindexed"));
+
+        FileDownloadCache cache = new FileDownloadCache(mCacheDir);
+        assertNotNull(cache.getCachedFile(REMOTE_PATH));
+        assertNotNull(cache.getCachedFile(remotePath2));
+        assertNull(cache.getCachedFile("unindexed"));
+        assertEquals(REMOTE_PATH, cache.getOldestEntry());
+        EasyMock.verify(mMockDownloader);
+    }
+
+    /** Test that the cache is rebuilt from the disk content when the index is corrupted. */
+    @Test
+    public void testConstructor_corruptedIndex() throws Exception {
+        setDownloadExpections();
+        EasyMock.replay(mMockDownloader);
+        assertFetchRemoteFile();
+        mCache.waitForMaintenance();
+        FileUtil.writeToFile("corrupted", new File(mCacheDir, FileDownloadCache.INDEX_FILE_NAME));
+
+        FileDownloadCache cache = new FileDownloadCache(mCacheDir);
+        assertNotNull(cache.getCachedFile(REMOTE_PATH));
+        assertNull(cache.getCachedFile(FileDownloadCache.INDEX_FILE_NAME));
+        EasyMock.verify(mMockDownloader);
+    }
+
     /**
      * Perform one fetchRemoteFile call and verify contents for default remote path
      */
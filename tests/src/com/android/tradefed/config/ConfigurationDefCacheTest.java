@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.config;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/** Unit tests for {@link ConfigurationDefCache}. */
+public class ConfigurationDefCacheTest extends TestCase {
+
+    private static final String LOCAL_CONFIG =
+            "<configuration description=\"local config\">\n"
+                    + "    <test class=\"com.android.tradefed.config.StubOptionTest\" >\n"
+                    + "        <option name=\"option\" value=\"valueFromLocalConfig\" />\n"
+                    + "    </test>\n"
+                    + "</configuration>";
+
+    private File mTmpDir;
+    private File mCacheDir;
+    private ConfigurationFactory mFactory;
+    private ConfigurationDefCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTmpDir = FileUtil.createTempDir("config-def-cache");
+        // created private by the cache
+        mCacheDir = new File(mTmpDir, "cache");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mTmpDir);
+        super.tearDown();
+    }
+
+    /** Creates a new factory, as a new process would, using the test cache directory. */
+    private void createFactory() {
+        mFactory =
+                new ConfigurationFactory() {
+                    @Override
+                    String getConfigPrefix() {
+                        return "testconfigs/";
+                    }
+                };
+        mCache = new ConfigurationDefCache(mCacheDir, "testconfigs/");
+        mFactory.setConfigurationDefCache(mCache);
+    }
+
+    /**
+     * Test that a config parsed by one factory is loaded from the cache by another one, with its
+     * templates resolved.
+     */
+    public void testCreateConfiguration_cached() throws ConfigurationException {
+        String[] args =
+                new String[] {"template-include-config", "--template:map", "target", "test-config"};
+        createFactory();
+        mFactory.createConfigurationFromArgs(args);
+        assertEquals(0, mCache.getHits());
+
+        createFactory();
+        IConfiguration config = mFactory.createConfigurationFromArgs(args);
+        assertEquals(1, mCache.getHits());
+        assertEquals(2, config.getTests().size());
+        assertEquals("valueFromTestConfig", ((StubOptionTest) config.getTests().get(0)).mOption);
+        assertEquals(
+                "valueFromTemplateIncludeConfig",
+                ((StubOptionTest) config.getTests().get(1)).mOption);
+    }
+
+    /** Test that a cached local config is parsed again once the file is modified. */
+    public void testCreateConfiguration_localModified() throws Exception {
+        File localConfig = FileUtil.createTempFile("local-config", ".xml");
+        try {
+            FileUtil.writeToFile(LOCAL_CONFIG, localConfig);
+            String[] args = new String[] {localConfig.getAbsolutePath()};
+            createFactory();
+            mFactory.createConfigurationFromArgs(args);
+
+            createFactory();
+            mFactory.createConfigurationFromArgs(args);
+            assertEquals(1, mCache.getHits());
+
+            FileUtil.writeToFile(LOCAL_CONFIG.replace("FromLocal", "FromUpdated"), localConfig);
+            localConfig.setLastModified(localConfig.lastModified() + 2000);
+            createFactory();
+            IConfiguration config = mFactory.createConfigurationFromArgs(args);
+            assertEquals(0, mCache.getHits());
+            assertEquals(
+                    "valueFromUpdatedConfig", ((StubOptionTest) config.getTests().get(0)).mOption);
+        } finally {
+            FileUtil.deleteFile(localConfig);
+        }
+    }
+
+    /** Test that the cache is not used if other users can write to its directory. */
+    public void testCreateConfiguration_notPrivate() throws Exception {
+        assertTrue(mCacheDir.mkdir());
+        Files.setPosixFilePermissions(
+                mCacheDir.toPath(), PosixFilePermissions.fromString("rwxrwxrwx"));
+        String[] args = new String[] {"test-config"};
+        createFactory();
+        mFactory.createConfigurationFromArgs(args);
+
+        createFactory();
+        mFactory.createConfigurationFromArgs(args);
+        assertEquals(0, mCache.getHits());
+        assertEquals(0, mCacheDir.list().length);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.config;
+
+import com.android.tradefed.targetprep.DeviceSetup;
+import com.android.tradefed.targetprep.ITargetPreparer;
+import com.android.tradefed.targetprep.PushFilePreparer;
+import com.android.tradefed.targetprep.RunCommandTargetPreparer;
+import com.android.tradefed.targetprep.suite.SuiteApkInstaller;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Longer running stress java app measuring the {@link OptionSetter} and {@link OptionCopier}
+ * binding of {@link Option} fields, as done when creating the configurations of a suite and when
+ * splitting its modules into shards.
+ *
+ * <p>Creates a number of configurations with a representative set of target preparers, then clones
+ * them and copies the options of their preparers as {@code ModuleSplitter} does for each shard,
+ * and prints the time spent in each step.
+ *
+ * <p>Lacks automated verification - intended to be executed manually or under a profiler.
+ */
+public class OptionBindingStressApp extends TestCase {
+
+    private static final int MODULES = 500;
+    private static final int PREPARERS_PER_MODULE = 20;
+    private static final int SHARDS = 10;
+
+    public void testCreateAndClone() throws Exception {
+        IConfigurationFactory factory = ConfigurationFactory.getInstance();
+        List<IConfiguration> configs = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < MODULES; i++) {
+            IConfiguration config =
+                    factory.createConfigurationFromArgs(
+                            new String[] {
+                                "instrument", "--package", "com.android.module" + i,
+                                "--test-timeout", "60000", "--no-rerun"
+                            });
+            List<ITargetPreparer> preparers = new ArrayList<>();
+            for (int j = 0; j < PREPARERS_PER_MODULE; j++) {
+                switch (j % 4) {
+                    case 0:
+                        preparers.add(new SuiteApkInstaller());
+                        break;
+                    case 1:
+                        preparers.add(new PushFilePreparer());
+                        break;
+                    case 2:
+                        preparers.add(new RunCommandTargetPreparer());
+                        break;
+                    default:
+                        preparers.add(new DeviceSetup());
+                        break;
+                }
+            }
+            for (ITargetPreparer preparer : preparers) {
+                config.getDeviceConfig().get(0).addSpecificConfig(preparer);
+            }
+            // bind the preparers options the way a config file would
+            new OptionSetter(new ArrayList<Object>(preparers));
+            configs.add(config);
+        }
+        long create = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        for (IConfiguration config : configs) {
+            config.clone();
+        }
+        long clone = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        for (int shard = 0; shard < SHARDS; shard++) {
+            for (IConfiguration config : configs) {
+                for (ITargetPreparer preparer : config.getTargetPreparers()) {
+                    ITargetPreparer copy = preparer.getClass().newInstance();
+                    OptionCopier.copyOptions(preparer, copy);
+                }
+            }
+        }
+        long copy = System.currentTimeMillis() - start;
+        System.out.println(
+                String.format(
+                        "%d modules with %d preparers: created in %d ms, cloned in %d ms, "
+                                + "preparers copied for %d shards in %d ms",
+                        MODULES, PREPARERS_PER_MODULE, create, clone, SHARDS, copy));
+    }
+}
@@ -32,8 +32,10 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -440,6 +442,25 @@ public class OptionSetterTest extends TestCase {
         assertEquals("child", source.mChildString);
     }
 
+    /**
+     * Test that {@link OptionSetter#getOptionFieldsForClass(Class)} returns the declared options
+     * before the inherited ones, and computes them only once per class.
+     */
+    public void testGetOptionFieldsForClass_cached() throws Exception {
+        Collection<Field> fields = OptionSetter.getOptionFieldsForClass(ChildOptionSource.class);
+        List<String> names = new ArrayList<>();
+        for (Field field : fields) {
+            names.add(OptionSetter.getOption(field).name());
+        }
+        assertEquals(4, names.size());
+        assertTrue(names.subList(0, 2).containsAll(Arrays.asList("child-string", "child-boolean")));
+        assertTrue(names.subList(2, 4).containsAll(Arrays.asList("string", "boolean")));
+        assertSame(fields, OptionSetter.getOptionFieldsForClass(ChildOptionSource.class));
+        // a field obtained separately resolves to the cached annotation
+        Field field = ParentOptionSource.class.getDeclaredField("mString");
+        assertEquals("string", OptionSetter.getOption(field).name());
+    }
+
     /**
      * Test that options with {@link OptionSetter#NAMESPACE_SEPARATOR} are rejected
      */
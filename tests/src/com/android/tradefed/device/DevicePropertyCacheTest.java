@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.device;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+/** Unit tests for {@link DevicePropertyCache}. */
+public class DevicePropertyCacheTest extends TestCase {
+
+    private static final String GETPROP_OUTPUT =
+            "[dalvik.vm.heapsize]: [512m]\r\n"
+                    + "[ro.build.id]: [NRD90M]\r\n"
+                    + "[ro.hardware]: [bullhead]\r\n"
+                    + "[sys.boot_completed]: [1]\r\n"
+                    + "[wifi.interface]: []\r\n";
+
+    private long mCurrentTime = 1000;
+    private DevicePropertyCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCache =
+                new DevicePropertyCache(60 * 1000, 5 * 1000) {
+                    @Override
+                    long getCurrentTime() {
+                        return mCurrentTime;
+                    }
+                };
+    }
+
+    /** Test parsing the output of getprop. */
+    public void testParse() {
+        Map<String, String> properties = DevicePropertyCache.parse(GETPROP_OUTPUT);
+        assertEquals(5, properties.size());
+        assertEquals("NRD90M", properties.get("ro.build.id"));
+        assertEquals("1", properties.get("sys.boot_completed"));
+        assertEquals("", properties.get("wifi.interface"));
+        assertTrue(DevicePropertyCache.parse("sh: getprop: not found").isEmpty());
+        assertTrue(DevicePropertyCache.parse(null).isEmpty());
+    }
+
+    /** Test that read-only properties are served for longer than the other properties. */
+    public void testContains_ttl() {
+        assertFalse(mCache.contains("ro.hardware"));
+        assertTrue(mCache.load(GETPROP_OUTPUT));
+        assertTrue(mCache.contains("ro.hardware"));
+        assertEquals("bullhead", mCache.get("ro.hardware"));
+        assertTrue(mCache.contains("sys.boot_completed"));
+        // a property missing from the dump is not set
+        assertTrue(mCache.contains("ro.missing"));
+        assertNull(mCache.get("ro.missing"));
+
+        mCurrentTime += 10 * 1000;
+        assertTrue(mCache.contains("ro.hardware"));
+        assertFalse(mCache.contains("sys.boot_completed"));
+        mCurrentTime += 60 * 1000;
+        assertFalse(mCache.contains("ro.hardware"));
+        assertEquals(4, mCache.getHits());
+        assertEquals(3, mCache.getMisses());
+    }
+
+    /** Test that invalidating the cache drops all the properties. */
+    public void testInvalidate() {
+        assertTrue(mCache.load(GETPROP_OUTPUT));
+        mCache.invalidate();
+        assertFalse(mCache.contains("ro.hardware"));
+        assertNull(mCache.get("ro.hardware"));
+    }
+
+    /** Test that an output without any property leaves the cache unchanged. */
+    public void testLoad_noProperty() {
+        assertTrue(mCache.load(GETPROP_OUTPUT));
+        assertFalse(mCache.load("error: closed"));
+        assertTrue(mCache.contains("ro.hardware"));
+        assertEquals("bullhead", mCache.get("ro.hardware"));
+    }
+}
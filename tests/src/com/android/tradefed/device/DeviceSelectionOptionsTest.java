@@ -433,4 +433,20 @@ public class DeviceSelectionOptionsTest extends TestCase {
         batteryFuture.set(battery);
         EasyMock.expect(mMockDevice.getBattery()).andStubReturn(batteryFuture);
     }
+
+    /**
+     * Test that {@link DeviceSelectionOptions#getSelectionSignature()} is identical for options
+     * with the same criteria and differs otherwise.
+     */
+    public void testGetSelectionSignature() {
+        DeviceSelectionOptions options1 = new DeviceSelectionOptions();
+        options1.addProductType(DEVICE_TYPE);
+        options1.addSerial(DEVICE_SERIAL);
+        DeviceSelectionOptions options2 = new DeviceSelectionOptions();
+        options2.addSerial(DEVICE_SERIAL);
+        options2.addProductType(DEVICE_TYPE);
+        assertEquals(options1.getSelectionSignature(), options2.getSelectionSignature());
+        options2.setMinBatteryLevel(20);
+        assertFalse(options1.getSelectionSignature().equals(options2.getSelectionSignature()));
+    }
 }
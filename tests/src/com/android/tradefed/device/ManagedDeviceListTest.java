@@ -92,6 +92,24 @@ public class ManagedDeviceListTest extends TestCase {
         assertNull(mManagedDeviceList.allocate(DeviceManager.ANY_DEVICE_OPTIONS));
     }
 
+    /**
+     * Test that {@link ManagedDeviceList#allocate(IDeviceSelection)} does not evaluate the
+     * selection against devices known to be allocated.
+     */
+    public void testAllocate_skipAllocated() {
+        IManagedTestDevice d = mManagedDeviceList.findOrCreate(new StubDevice("foo"));
+        mManagedDeviceList.handleDeviceEvent(d, DeviceEvent.FORCE_AVAILABLE);
+        IDeviceSelection selection = EasyMock.createMock(IDeviceSelection.class);
+        EasyMock.expect(selection.matches(d.getIDevice())).andReturn(true).times(2);
+        EasyMock.replay(selection);
+        assertEquals(d, mManagedDeviceList.allocate(selection));
+        // device is allocated, the selection is not evaluated
+        assertNull(mManagedDeviceList.allocate(selection));
+        mManagedDeviceList.handleDeviceEvent(d, DeviceEvent.FREE_AVAILABLE);
+        assertEquals(d, mManagedDeviceList.allocate(selection));
+        EasyMock.verify(selection);
+    }
+
     /**
      * Basic test for {@link ManagedDeviceList#handleDeviceEvent(IManagedTestDevice, DeviceEvent)}
      */
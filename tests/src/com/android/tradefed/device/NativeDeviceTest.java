@@ -37,18 +37,29 @@ import com.android.tradefed.result.InputStreamSource;
 import com.android.tradefed.result.LogDataType;
 import com.android.tradefed.util.Bugreport;
 import com.android.tradefed.util.CommandResult;
+import com.android.tradefed.util.CommandStatus;
 import com.android.tradefed.util.FileUtil;
 import com.android.tradefed.util.IRunUtil;
 import com.android.tradefed.util.StreamUtil;
 
 import junit.framework.TestCase;
 
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.mockito.Mockito;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -385,6 +396,359 @@ public class NativeDeviceTest extends TestCase {
         }
     }
 
+    /** A fake adb process reading its input into memory and writing a fixed output. */
+    private static class FakeProcess extends Process {
+        final ByteArrayOutputStream mInput = new ByteArrayOutputStream();
+        final InputStream mOutput;
+
+        FakeProcess(byte[] output) {
+            mOutput = new ByteArrayInputStream(output);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return mInput;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return mOutput;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public int waitFor() {
+            return 0;
+        }
+
+        @Override
+        public int exitValue() {
+            return 0;
+        }
+
+        @Override
+        public void destroy() {
+            // ignore
+        }
+    }
+
+    /** Make the mock run util execute the runnable given to runTimed. */
+    private void expectRunTimed() {
+        EasyMock.expect(
+                        mMockRunUtil.runTimed(
+                                EasyMock.anyLong(),
+                                EasyMock.anyObject(IRunUtil.IRunnableResult.class),
+                                EasyMock.eq(true)))
+                .andAnswer(
+                        new IAnswer<CommandStatus>() {
+                            @Override
+                            public CommandStatus answer() throws Throwable {
+                                IRunUtil.IRunnableResult runnable =
+                                        (IRunUtil.IRunnableResult)
+                                                EasyMock.getCurrentArguments()[1];
+                                return runnable.run()
+                                        ? CommandStatus.SUCCESS
+                                        : CommandStatus.FAILED;
+                            }
+                        });
+    }
+
+    /**
+     * Unit test for {@link NativeDevice#pushDir(File, String)} in bulk mode when the device has
+     * tar: the directory is streamed as a tar archive.
+     */
+    @SuppressWarnings("unchecked")
+    public void testPushDir_bulkTar() throws Exception {
+        mTestDevice =
+                new TestableAndroidNativeDevice() {
+                    @Override
+                    public String executeShellCommand(String cmd)
+                            throws DeviceNotAvailableException {
+                        if (cmd.startsWith("tar --help")) {
+                            return "ok\n";
+                        }
+                        assertEquals("cd '/data/local/tmp/dir' && find . -type f", cmd);
+                        return "./file1\n./sub/file2\n";
+                    }
+                };
+        mTestDevice.getOptions().setBulkDirTransfer(true);
+        FakeProcess process = new FakeProcess(new byte[0]);
+        EasyMock.expect(
+                        mMockRunUtil.runCmdInBackground(
+                                EasyMock.eq(
+                                        Arrays.asList(
+                                                "adb",
+                                                "-s",
+                                                MOCK_DEVICE_SERIAL,
+                                                "exec-in",
+                                                "mkdir -p '/data/local/tmp/dir' && tar -xf - -C "
+                                                        + "'/data/local/tmp/dir'")),
+                                (OutputStream) EasyMock.anyObject()))
+                .andReturn(process);
+        expectRunTimed();
+        EasyMock.replay(mMockIDevice, mMockRunUtil);
+        File testDir = FileUtil.createTempDir("pushDirTest");
+        try {
+            FileUtil.writeToFile("content1", new File(testDir, "file1"));
+            File subDir = new File(testDir, "sub");
+            subDir.mkdir();
+            FileUtil.writeToFile("content2", new File(subDir, "file2"));
+            assertTrue(mTestDevice.pushDir(testDir, "/data/local/tmp/dir"));
+            Map<String, String> entries = new HashMap<>();
+            try (TarArchiveInputStream tar =
+                    new TarArchiveInputStream(
+                            new ByteArrayInputStream(process.mInput.toByteArray()))) {
+                TarArchiveEntry entry = null;
+                while ((entry = tar.getNextTarEntry()) != null) {
+                    entries.put(
+                            entry.getName(),
+                            entry.isDirectory() ? "" : StreamUtil.getStringFromStream(tar));
+                }
+            }
+            assertEquals(3, entries.size());
+            assertEquals("content1", entries.get("file1"));
+            assertEquals("", entries.get("sub/"));
+            assertEquals("content2", entries.get("sub/file2"));
+            EasyMock.verify(mMockRunUtil);
+        } finally {
+            FileUtil.recursiveDelete(testDir);
+        }
+    }
+
+    /**
+     * Unit test for {@link NativeDevice#pushDir(File, String)} in bulk mode when a file is missing
+     * on the device after the tar transfer: the files are pushed again in parallel.
+     */
+    @SuppressWarnings("unchecked")
+    public void testPushDir_bulkTarFallback() throws Exception {
+        final Set<String> pushed = Collections.synchronizedSet(new HashSet<String>());
+        mTestDevice =
+                new TestableAndroidNativeDevice() {
+                    @Override
+                    public String executeShellCommand(String cmd)
+                            throws DeviceNotAvailableException {
+                        if (cmd.startsWith("tar --help")) {
+                            return "ok\n";
+                        }
+                        if (cmd.startsWith("cd ")) {
+                            // one more file than pushed, but sub/file2 is missing.
+                            return "./file1\n./other1\n./other2\n";
+                        }
+                        return "";
+                    }
+
+                    @Override
+                    public boolean pushFile(File localFile, String remoteFilePath)
+                            throws DeviceNotAvailableException {
+                        pushed.add(remoteFilePath);
+                        return true;
+                    }
+                };
+        mTestDevice.getOptions().setBulkDirTransfer(true);
+        EasyMock.expect(
+                        mMockRunUtil.runCmdInBackground(
+                                (List<String>) EasyMock.anyObject(),
+                                (OutputStream) EasyMock.anyObject()))
+                .andReturn(new FakeProcess(new byte[0]));
+        expectRunTimed();
+        EasyMock.replay(mMockIDevice, mMockRunUtil);
+        File testDir = FileUtil.createTempDir("pushDirTest");
+        try {
+            FileUtil.writeToFile("content1", new File(testDir, "file1"));
+            File subDir = new File(testDir, "sub");
+            subDir.mkdir();
+            FileUtil.writeToFile("content2", new File(subDir, "file2"));
+            assertTrue(mTestDevice.pushDir(testDir, "/dir"));
+            assertEquals(2, pushed.size());
+            assertTrue(pushed.contains("/dir/file1"));
+            assertTrue(pushed.contains("/dir/sub/file2"));
+            EasyMock.verify(mMockRunUtil);
+        } finally {
+            FileUtil.recursiveDelete(testDir);
+        }
+    }
+
+    /**
+     * Unit test for {@link NativeDevice#pushDir(File, String)} in bulk mode when the device does
+     * not have tar: directories are created at once and files pushed in parallel.
+     */
+    public void testPushDir_bulkParallel() throws Exception {
+        final List<String> commands = new ArrayList<>();
+        final Set<String> pushed = Collections.synchronizedSet(new HashSet<String>());
+        mTestDevice =
+                new TestableAndroidNativeDevice() {
+                    @Override
+                    public String executeShellCommand(String cmd)
+                            throws DeviceNotAvailableException {
+                        commands.add(cmd);
+                        return "";
+                    }
+
+                    @Override
+                    public boolean pushFile(File localFile, String remoteFilePath)
+                            throws DeviceNotAvailableException {
+                        pushed.add(remoteFilePath);
+                        return true;
+                    }
+                };
+        mTestDevice.getOptions().setBulkDirTransfer(true);
+        File testDir = FileUtil.createTempDir("pushDirTest");
+        try {
+            for (int i = 0; i < 10; i++) {
+                File subDir = new File(testDir, "sub" + i);
+                subDir.mkdir();
+                FileUtil.writeToFile("content", new File(subDir, "file"));
+            }
+            assertTrue(mTestDevice.pushDir(testDir, "/dir"));
+            assertEquals(2, commands.size());
+            assertTrue(commands.get(0).startsWith("tar --help"));
+            assertTrue(commands.get(1).startsWith("mkdir -p '/dir' '/dir/sub"));
+            assertEquals(10, pushed.size());
+            assertTrue(pushed.contains("/dir/sub3/file"));
+        } finally {
+            FileUtil.recursiveDelete(testDir);
+        }
+    }
+
+    /**
+     * Unit test for {@link NativeDevice#pullDir(String, File)} in bulk mode when the device has
+     * tar: the directory is received as a tar archive.
+     */
+    @SuppressWarnings("unchecked")
+    public void testPullDir_bulkTar() throws Exception {
+        mTestDevice =
+                new TestableAndroidNativeDevice() {
+                    @Override
+                    public String executeShellCommand(String cmd)
+                            throws DeviceNotAvailableException {
+                        if (cmd.startsWith("tar --help")) {
+                            return "ok\n";
+                        }
+                        assertEquals("find '/dir' -type f | wc -l", cmd);
+                        return "1\n";
+                    }
+
+                    @Override
+                    public boolean isDirectory(String path) throws DeviceNotAvailableException {
+                        return true;
+                    }
+                };
+        mTestDevice.getOptions().setBulkDirTransfer(true);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(archive)) {
+            TarArchiveEntry dirEntry = new TarArchiveEntry("./sub/");
+            tar.putArchiveEntry(dirEntry);
+            tar.closeArchiveEntry();
+            byte[] content = "content".getBytes();
+            TarArchiveEntry fileEntry = new TarArchiveEntry("./sub/file");
+            fileEntry.setSize(content.length);
+            tar.putArchiveEntry(fileEntry);
+            tar.write(content);
+            tar.closeArchiveEntry();
+        }
+        EasyMock.expect(
+                        mMockRunUtil.runCmdInBackground(
+                                Arrays.asList(
+                                        "adb",
+                                        "-s",
+                                        MOCK_DEVICE_SERIAL,
+                                        "exec-out",
+                                        "tar -cf - -C '/dir' . 2>/dev/null")))
+                .andReturn(new FakeProcess(archive.toByteArray()));
+        expectRunTimed();
+        EasyMock.replay(mMockIDevice, mMockRunUtil);
+        File dir = FileUtil.createTempDir("tf-test");
+        try {
+            assertTrue(mTestDevice.pullDir("/dir", dir));
+            assertEquals("content", FileUtil.readStringFromFile(new File(dir, "sub/file")));
+            EasyMock.verify(mMockRunUtil);
+        } finally {
+            FileUtil.recursiveDelete(dir);
+        }
+    }
+
+    /**
+     * Unit test for {@link NativeDevice#syncFiles(File, String)} comparing file contents: only
+     * the missing and changed files are pushed, and a second sync is answered from the manifest
+     * without hashing on the device.
+     */
+    public void testSyncFiles_contentHash() throws Exception {
+        final File localDir = FileUtil.createTempDir("syncFilesTest");
+        final String deviceDir = "/sdcard/" + localDir.getName();
+        // device path to "size mtime", as reported by stat
+        final Map<String, String> deviceFiles = new HashMap<>();
+        final List<String> commands = new ArrayList<>();
+        final List<String> pushed = new ArrayList<>();
+        mTestDevice =
+                new TestableAndroidNativeDevice() {
+                    @Override
+                    public String getSerialNumber() {
+                        return "content-hash-serial";
+                    }
+
+                    @Override
+                    public String executeShellCommand(String cmd)
+                            throws DeviceNotAvailableException {
+                        commands.add(cmd);
+                        StringBuilder output = new StringBuilder();
+                        if (cmd.startsWith("find") || cmd.startsWith("stat")) {
+                            for (Map.Entry<String, String> file : deviceFiles.entrySet()) {
+                                output.append(String.format(
+                                        "%s %s\n", file.getValue(), file.getKey()));
+                            }
+                        } else if (cmd.startsWith("md5sum")) {
+                            try {
+                                output.append(String.format("%s  %s/same\n",
+                                        FileUtil.calculateMd5(new File(localDir, "same")),
+                                        deviceDir));
+                            } catch (IOException e) {
+                                fail(e.toString());
+                            }
+                        }
+                        return output.toString();
+                    }
+
+                    @Override
+                    public boolean pushFile(File localFile, String remoteFilePath)
+                            throws DeviceNotAvailableException {
+                        pushed.add(remoteFilePath);
+                        deviceFiles.put(remoteFilePath, localFile.length() + " 200");
+                        return true;
+                    }
+                };
+        mTestDevice.getOptions().setContentHashSync(true);
+        DeviceSyncManifest.invalidate("content-hash-serial");
+        try {
+            FileUtil.writeToFile("same", new File(localDir, "same"));
+            FileUtil.writeToFile("new content", new File(localDir, "changed"));
+            File subDir = new File(localDir, "sub");
+            subDir.mkdir();
+            FileUtil.writeToFile("new", new File(subDir, "new"));
+            deviceFiles.put(deviceDir + "/same", "4 100");
+            deviceFiles.put(deviceDir + "/changed", "3 100");
+
+            assertTrue(mTestDevice.syncFiles(localDir, "/sdcard"));
+            assertEquals(2, pushed.size());
+            assertTrue(pushed.contains(deviceDir + "/changed"));
+            assertTrue(pushed.contains(deviceDir + "/sub/new"));
+            assertTrue(commands.get(1).startsWith("md5sum"));
+
+            commands.clear();
+            pushed.clear();
+            assertTrue(mTestDevice.syncFiles(localDir, "/sdcard"));
+            assertTrue(pushed.isEmpty());
+            assertEquals(1, commands.size());
+            assertTrue(commands.get(0).startsWith("find"));
+        } finally {
+            DeviceSyncManifest.invalidate("content-hash-serial");
+            FileUtil.recursiveDelete(localDir);
+        }
+    }
+
     /**
      * Unit test for {@link NativeDevice#getCurrentUser()}.
      */
@@ -1929,4 +2293,93 @@ public class NativeDeviceTest extends TestCase {
         assertNull(mTestDevice.getSimOperator());
         EasyMock.verify(mMockIDevice, mMockStateMonitor, mMockDvcMonitor);
     }
+
+    /**
+     * Test that properties are served from a single getprop dump until a property is set on the
+     * device.
+     */
+    public void testGetProperty_cached() throws Exception {
+        String getprop = "[ro.hardware]: [bullhead]\n[sys.boot_completed]: [1]\n";
+        IDevice device = new StubDevice(MOCK_DEVICE_SERIAL) {
+            @Override
+            public void executeShellCommand(String command, IShellOutputReceiver receiver,
+                    long maxTimeToOutputResponse, TimeUnit maxTimeUnits)
+                    throws TimeoutException, AdbCommandRejectedException,
+                    ShellCommandUnresponsiveException, IOException {
+                receiver.addOutput(getprop.getBytes(), 0, getprop.length());
+                receiver.flush();
+            }
+        };
+        mTestDevice.getOptions().setPropertyCache(true);
+        EasyMock.expect(mMockIDevice.getState()).andReturn(DeviceState.ONLINE).anyTimes();
+        mMockIDevice.executeShellCommand(EasyMock.eq("getprop"), EasyMock.anyObject(),
+                EasyMock.anyLong(), EasyMock.eq(TimeUnit.MILLISECONDS));
+        EasyMock.expectLastCall().andDelegateTo(device).times(2);
+        mMockIDevice.executeShellCommand(EasyMock.eq("setprop sys.foo 1"), EasyMock.anyObject(),
+                EasyMock.anyLong(), EasyMock.eq(TimeUnit.MILLISECONDS));
+        EasyMock.replay(mMockIDevice);
+        assertEquals("bullhead", mTestDevice.getProperty("ro.hardware"));
+        assertEquals("1", mTestDevice.getProperty("sys.boot_completed"));
+        assertNull(mTestDevice.getProperty("sys.foo"));
+        mTestDevice.executeShellCommand("setprop sys.foo 1");
+        assertEquals("bullhead", mTestDevice.getProperty("ro.hardware"));
+        assertEquals(2, mTestDevice.getPropertyCacheHits());
+        assertEquals(2, mTestDevice.getPropertyCacheMisses());
+        EasyMock.verify(mMockIDevice);
+    }
+
+    /**
+     * Test that a property read while a setprop command runs is not served from the cache once
+     * the command completed.
+     */
+    public void testGetProperty_cachedDuringSetprop() throws Exception {
+        final String[] getprop = {"[ro.hardware]: [bullhead]\n"};
+        IDevice device = new StubDevice(MOCK_DEVICE_SERIAL) {
+            @Override
+            public void executeShellCommand(String command, IShellOutputReceiver receiver,
+                    long maxTimeToOutputResponse, TimeUnit maxTimeUnits)
+                    throws TimeoutException, AdbCommandRejectedException,
+                    ShellCommandUnresponsiveException, IOException {
+                if (command.startsWith("setprop")) {
+                    // a property is read before the new value is visible
+                    try {
+                        assertNull(mTestDevice.getProperty("sys.foo"));
+                    } catch (DeviceNotAvailableException e) {
+                        throw new IOException(e);
+                    }
+                    getprop[0] += "[sys.foo]: [1]\n";
+                    return;
+                }
+                receiver.addOutput(getprop[0].getBytes(), 0, getprop[0].length());
+                receiver.flush();
+            }
+        };
+        mTestDevice.getOptions().setPropertyCache(true);
+        EasyMock.expect(mMockIDevice.getState()).andReturn(DeviceState.ONLINE).anyTimes();
+        mMockIDevice.executeShellCommand(EasyMock.anyObject(), EasyMock.anyObject(),
+                EasyMock.anyLong(), EasyMock.eq(TimeUnit.MILLISECONDS));
+        EasyMock.expectLastCall().andDelegateTo(device).times(3);
+        EasyMock.replay(mMockIDevice);
+        mTestDevice.executeShellCommand("setprop sys.foo 1");
+        assertEquals("1", mTestDevice.getProperty("sys.foo"));
+        EasyMock.verify(mMockIDevice);
+    }
+
+    /**
+     * Test that {@link NativeDevice#getScreenshotAsync(String, boolean)} returns the screenshot
+     * of {@link NativeDevice#getScreenshot(String, boolean)}.
+     */
+    public void testGetScreenshotAsync() throws Exception {
+        final InputStreamSource screenshot = new ByteArrayInputStreamSource("image".getBytes());
+        mTestDevice = new TestableAndroidNativeDevice() {
+            @Override
+            public InputStreamSource getScreenshot(String format, boolean rescale)
+                    throws DeviceNotAvailableException {
+                assertEquals("PNG", format);
+                assertTrue(rescale);
+                return screenshot;
+            }
+        };
+        assertSame(screenshot, mTestDevice.getScreenshotAsync("PNG", true));
+    }
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.device;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.RawImage;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Longer running stress java app measuring the conversion of raw screenshots by {@link
+ * TestDevice}.
+ *
+ * <p>Creates synthetic RGBA screenshots of common panel sizes. Prints the time to convert and
+ * rescale them pixel by pixel with {@link BufferedImage#setRGB(int, int, int)} and {@link
+ * Image#getScaledInstance(int, int, int)}, as before, and in bulk, for both PNG and JPEG images.
+ * The time to compress the images is not included since it does not change.
+ *
+ * <p>Lacks automated verification - intended to be executed manually or under a profiler.
+ */
+public class ScreenshotStressApp extends TestCase {
+
+    private static final int[][] PANEL_SIZES = {
+        {720, 1280}, {1080, 1920}, {1080, 2340}, {1440, 2560}, {1440, 3120}
+    };
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int ITERATIONS = 20;
+
+    private TestDevice mTestDevice;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTestDevice =
+                new TestDevice(
+                        EasyMock.createMock(IDevice.class),
+                        EasyMock.createMock(IDeviceStateMonitor.class),
+                        null);
+    }
+
+    public void testConversion() throws Exception {
+        for (int[] size : PANEL_SIZES) {
+            RawImage rawImage = createRawImage(size[0], size[1]);
+            for (String format : new String[] {"PNG", "JPEG"}) {
+                for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                    convertPerPixel(rawImage, format);
+                    mTestDevice.rawImageToBufferedImage(rawImage, format, true);
+                }
+                long start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    convertPerPixel(rawImage, format);
+                }
+                long perPixel = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    mTestDevice.rawImageToBufferedImage(rawImage, format, true);
+                }
+                long bulk = System.nanoTime() - start;
+                System.out.println(
+                        String.format(
+                                "%dx%d %s: converted and rescaled pixel by pixel in %.1f ms, "
+                                        + "in bulk in %.1f ms",
+                                size[0],
+                                size[1],
+                                format,
+                                perPixel / (ITERATIONS * 1e6),
+                                bulk / (ITERATIONS * 1e6)));
+            }
+        }
+    }
+
+    /** Converts and rescales the raw image the way {@link TestDevice} did before. */
+    private BufferedImage convertPerPixel(RawImage rawImage, String format) {
+        int type =
+                "JPEG".equals(format)
+                        ? BufferedImage.TYPE_3BYTE_BGR
+                        : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage image = new BufferedImage(rawImage.width, rawImage.height, type);
+        int index = 0;
+        int indexInc = rawImage.bpp >> 3;
+        for (int y = 0; y < rawImage.height; y++) {
+            for (int x = 0; x < rawImage.width; x++) {
+                image.setRGB(x, y, rawImage.getARGB(index));
+                index += indexInc;
+            }
+        }
+        Image resized =
+                image.getScaledInstance(
+                        image.getWidth() / 2, image.getHeight() / 2, Image.SCALE_SMOOTH);
+        BufferedImage scaled = new BufferedImage(image.getWidth() / 2, image.getHeight() / 2, type);
+        scaled.getGraphics().drawImage(resized, 0, 0, null);
+        return scaled;
+    }
+
+    /** Create a RGBA raw image, with flat areas and noise like a screen with text. */
+    private static RawImage createRawImage(int width, int height) {
+        RawImage rawImage = new RawImage();
+        rawImage.version = 1;
+        rawImage.bpp = 32;
+        rawImage.width = width;
+        rawImage.height = height;
+        rawImage.size = width * height * 4;
+        rawImage.red_offset = 0;
+        rawImage.red_length = 8;
+        rawImage.green_offset = 8;
+        rawImage.green_length = 8;
+        rawImage.blue_offset = 16;
+        rawImage.blue_length = 8;
+        rawImage.alpha_offset = 24;
+        rawImage.alpha_length = 8;
+        rawImage.data = new byte[rawImage.size];
+        Random random = new Random(width);
+        for (int i = 0; i < rawImage.size; i += 4) {
+            int shade = (i / (width * 4 * 64)) * 16 + (random.nextInt(8) == 0 ? 64 : 0);
+            rawImage.data[i] = (byte) shade;
+            rawImage.data[i + 1] = (byte) (shade + 32);
+            rawImage.data[i + 2] = (byte) (shade + 64);
+            rawImage.data[i + 3] = (byte) 0xFF;
+        }
+        return rawImage;
+    }
+}
@@ -2976,6 +2976,32 @@ public class TestDeviceTest extends TestCase {
         assertTrue(data instanceof ByteArrayInputStreamSource);
     }
 
+    /**
+     * Test for {@link TestDevice#getScreenshotAsync(String, boolean)} when action succeed: the
+     * image is compressed in the background.
+     */
+    public void testGetScreenshotAsync() throws Exception {
+        mTestDevice =
+                new TestableTestDevice() {
+                    @Override
+                    protected boolean performDeviceAction(
+                            String actionDescription, DeviceAction action, int retryAttempts)
+                            throws DeviceNotAvailableException {
+                        return true;
+                    }
+
+                    @Override
+                    byte[] compressRawImage(RawImage rawImage, String format, boolean rescale) {
+                        assertEquals("JPEG", format);
+                        return "image".getBytes();
+                    }
+                };
+        try (InputStreamSource data = mTestDevice.getScreenshotAsync("jpeg", true)) {
+            assertEquals(5, data.size());
+            assertEquals("image", StreamUtil.getStringFromStream(data.createInputStream()));
+        }
+    }
+
     /**
      * Helper to retrieve the test file
      */
@@ -3085,6 +3111,54 @@ public class TestDeviceTest extends TestCase {
         }
     }
 
+    /**
+     * Test for {@link TestDevice#rawImageToBufferedImage(RawImage, String, boolean)} cutting the
+     * image in half: each pixel is the average of 2x2 pixels of the raw image.
+     */
+    public void testRawImageToBufferedImage_halve() throws Exception {
+        InputStream imageData = getClass().getResourceAsStream("/testdata/SmallRawImage.raw");
+        File testImageFile = FileUtil.createTempFile("raw-to-buffered", ".raw");
+        FileUtil.writeToFile(imageData, testImageFile);
+        RawImage testImage = null;
+        try {
+            testImage = prepareRawImage(testImageFile);
+            // We used the small image so we adapt the size.
+            testImage.height = 25;
+            testImage.size = 2000;
+            testImage.width = 25;
+
+            BufferedImage fullImage = mTestDevice.rawImageToBufferedImage(testImage, "PNG");
+            BufferedImage halfImage =
+                    mTestDevice.rawImageToBufferedImage(testImage, "PNG", true);
+            assertEquals(12, halfImage.getWidth());
+            assertEquals(12, halfImage.getHeight());
+            assertEquals(BufferedImage.TYPE_INT_ARGB, halfImage.getType());
+            for (int y = 0; y < halfImage.getHeight(); y++) {
+                for (int x = 0; x < halfImage.getWidth(); x++) {
+                    for (int shift = 0; shift < 32; shift += 8) {
+                        int sum = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int pixel = fullImage.getRGB(2 * x + i % 2, 2 * y + i / 2);
+                            sum += (pixel >>> shift) & 0xFF;
+                        }
+                        assertEquals((sum + 2) / 4, (halfImage.getRGB(x, y) >>> shift) & 0xFF);
+                    }
+                }
+            }
+
+            // Test JPEG format
+            halfImage = mTestDevice.rawImageToBufferedImage(testImage, "JPEG", true);
+            assertEquals(12, halfImage.getWidth());
+            assertEquals(12, halfImage.getHeight());
+            assertEquals(BufferedImage.TYPE_3BYTE_BGR, halfImage.getType());
+        } finally {
+            if (testImage != null) {
+                testImage.data = null;
+            }
+            FileUtil.deleteFile(testImageFile);
+        }
+    }
+
     /**
      * Test for {@link TestDevice#rescaleImage(BufferedImage)}.
      *
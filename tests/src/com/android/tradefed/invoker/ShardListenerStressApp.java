@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.invoker;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.build.BuildInfo;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.result.ITestInvocationListener;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Longer running stress java app that compares the buffered and streaming modes of {@link
+ * ShardListener}.
+ *
+ * <p>Runs many in-process fake shards reporting to a single master listener, and prints the heap
+ * high-water mark and the average delay between a run completing on a shard and being received by
+ * the master listener.
+ *
+ * <p>Lacks automated verification - intended to be executed manually or under a profiler.
+ */
+public class ShardListenerStressApp extends TestCase {
+
+    private static final int SHARDS = 20;
+    private static final int MODULES_PER_SHARD = 50;
+    private static final int TESTS_PER_MODULE = 2000;
+    private static final String END_TIME_KEY = "stress-run-end";
+
+    /** Master listener recording the delay of each run it receives. */
+    private static class LagRecordingListener implements ITestInvocationListener {
+        final AtomicLong mTotalLag = new AtomicLong();
+        final AtomicLong mRuns = new AtomicLong();
+
+        @Override
+        public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+            long end = Long.parseLong(runMetrics.get(END_TIME_KEY));
+            mTotalLag.addAndGet(System.currentTimeMillis() - end);
+            mRuns.incrementAndGet();
+        }
+    }
+
+    /** Samples the used heap until stopped. */
+    private static class HeapSampler extends Thread {
+        volatile boolean mStop = false;
+        long mMaxUsed = 0;
+
+        @Override
+        public void run() {
+            Runtime rt = Runtime.getRuntime();
+            while (!mStop) {
+                mMaxUsed = Math.max(mMaxUsed, rt.totalMemory() - rt.freeMemory());
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public void testBuffered() throws Exception {
+        runShards(false);
+    }
+
+    public void testStreaming() throws Exception {
+        runShards(true);
+    }
+
+    private void runShards(final boolean stream) throws Exception {
+        System.gc();
+        final LagRecordingListener master = new LagRecordingListener();
+        HeapSampler sampler = new HeapSampler();
+        sampler.start();
+        long start = System.currentTimeMillis();
+        List<Thread> shards = new ArrayList<>();
+        for (int i = 0; i < SHARDS; i++) {
+            final String serial = "shard" + i;
+            Thread shard =
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            runFakeShard(new ShardListener(master, stream), serial);
+                        }
+                    };
+            shard.start();
+            shards.add(shard);
+        }
+        for (Thread shard : shards) {
+            shard.join();
+        }
+        sampler.mStop = true;
+        sampler.join();
+        System.out.println(
+                String.format(
+                        "%s mode: %d runs in %d ms, heap high-water mark %d MB, "
+                                + "average reporter lag %d ms",
+                        stream ? "streaming" : "buffered",
+                        master.mRuns.get(),
+                        System.currentTimeMillis() - start,
+                        sampler.mMaxUsed / (1024 * 1024),
+                        master.mTotalLag.get() / Math.max(1, master.mRuns.get())));
+    }
+
+    private void runFakeShard(ITestInvocationListener listener, String serial) {
+        ITestDevice device = EasyMock.createNiceMock(ITestDevice.class);
+        EasyMock.expect(device.getSerialNumber()).andStubReturn(serial);
+        EasyMock.replay(device);
+        IInvocationContext context = new InvocationContext();
+        context.addDeviceBuildInfo("default", new BuildInfo());
+        context.addAllocatedDevice("default", device);
+        listener.invocationStarted(context);
+        for (int m = 0; m < MODULES_PER_SHARD; m++) {
+            String moduleName = serial + "-module" + m;
+            listener.testModuleStarted(new InvocationContext());
+            listener.testRunStarted(moduleName, TESTS_PER_MODULE);
+            for (int t = 0; t < TESTS_PER_MODULE; t++) {
+                TestIdentifier tid = new TestIdentifier(moduleName + ".Class", "test" + t);
+                listener.testStarted(tid, t);
+                if (t % 10 == 0) {
+                    listener.testFailed(tid, "stack trace of failure " + t);
+                }
+                listener.testEnded(tid, t, Collections.<String, String>emptyMap());
+            }
+            Map<String, String> runMetrics = new HashMap<>();
+            runMetrics.put(END_TIME_KEY, Long.toString(System.currentTimeMillis()));
+            listener.testRunEnded(0, runMetrics);
+            listener.testModuleEnded();
+        }
+        listener.invocationEnded(0);
+    }
+}
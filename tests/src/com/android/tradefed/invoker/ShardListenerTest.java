@@ -15,6 +15,8 @@
  */
 package com.android.tradefed.invoker;
 
+import static org.junit.Assert.assertTrue;
+
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.build.BuildInfo;
 import com.android.tradefed.device.ITestDevice;
@@ -118,4 +120,50 @@ public class ShardListenerTest {
         mShardListener.invocationEnded(0l);
         EasyMock.verify(mMockListener, mMockDevice);
     }
+
+    /**
+     * Test that in streaming mode the modules are forwarded as they complete and are not kept by
+     * the shard listener.
+     */
+    @Test
+    public void testStreaming_withModule() {
+        mShardListener = new ShardListener(mMockListener, true);
+        IInvocationContext module1 = new InvocationContext();
+        IInvocationContext module2 = new InvocationContext();
+        TestIdentifier tid = new TestIdentifier("class1", "name1");
+        mMockListener.invocationStarted(mContext);
+        mMockListener.testModuleStarted(module1);
+        mMockListener.testRunStarted("run1", 1);
+        mMockListener.testStarted(tid, 0l);
+        mMockListener.testEnded(tid, 0l, Collections.emptyMap());
+        mMockListener.testRunEnded(0l, Collections.emptyMap());
+        mMockListener.testModuleEnded();
+        mMockListener.testModuleStarted(module2);
+        mMockListener.testRunStarted("run2", 1);
+        mMockListener.testStarted(tid, 0l);
+        mMockListener.testEnded(tid, 0l, Collections.emptyMap());
+        mMockListener.testRunEnded(0l, Collections.emptyMap());
+        mMockListener.testModuleEnded();
+        mMockListener.invocationEnded(0l);
+
+        EasyMock.replay(mMockListener, mMockDevice);
+        mShardListener.invocationStarted(mContext);
+        mShardListener.testModuleStarted(module1);
+        mShardListener.testRunStarted("run1", 1);
+        mShardListener.testStarted(tid, 0l);
+        mShardListener.testEnded(tid, 0l, Collections.emptyMap());
+        mShardListener.testRunEnded(0l, Collections.emptyMap());
+        mShardListener.testModuleEnded();
+        // completed module was handed to the dispatcher
+        assertTrue(mShardListener.getRunResults().isEmpty());
+        mShardListener.testModuleStarted(module2);
+        mShardListener.testRunStarted("run2", 1);
+        mShardListener.testStarted(tid, 0l);
+        mShardListener.testEnded(tid, 0l, Collections.emptyMap());
+        mShardListener.testRunEnded(0l, Collections.emptyMap());
+        mShardListener.testModuleEnded();
+
+        mShardListener.invocationEnded(0l);
+        EasyMock.verify(mMockListener, mMockDevice);
+    }
 }
@@ -15,6 +15,12 @@
  */
 package com.android.tradefed.invoker;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 import com.android.tradefed.build.BuildInfo;
 import com.android.tradefed.build.BuildRetrievalError;
 import com.android.tradefed.build.IBuildInfo;
@@ -24,6 +30,7 @@ import com.android.tradefed.command.CommandRunner.ExitCode;
 import com.android.tradefed.config.ConfigurationDescriptor;
 import com.android.tradefed.config.DeviceConfigurationHolder;
 import com.android.tradefed.config.IConfiguration;
+import com.android.tradefed.config.OptionSetter;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.device.StubDevice;
 import com.android.tradefed.invoker.shard.IShardHelper;
@@ -34,6 +41,11 @@ import com.android.tradefed.result.ByteArrayInputStreamSource;
 import com.android.tradefed.result.ILogSaver;
 import com.android.tradefed.result.ITestInvocationListener;
 import com.android.tradefed.result.LogFile;
+import com.android.tradefed.targetprep.ITargetPreparer;
+import com.android.tradefed.targetprep.TargetSetupError;
+import com.android.tradefed.targetprep.multi.IMultiTargetPreparer;
+import com.android.tradefed.util.RunInterruptedException;
+import com.android.tradefed.util.RunUtil;
 
 import org.easymock.EasyMock;
 import org.junit.Before;
@@ -43,6 +55,10 @@ import org.junit.runners.JUnit4;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** Unit tests for {@link TestInvocation} for multi device invocation. */
 @RunWith(JUnit4.class)
@@ -332,4 +348,194 @@ public class TestInvocationMultiTest {
                 mProvider1,
                 mProvider2);
     }
+
+    /** Prepare a two device context whose devices run the given preparers, in parallel mode. */
+    private void makeParallelSetupContext(ITargetPreparer preparer1, ITargetPreparer preparer2)
+            throws Exception {
+        CommandOptions options = new CommandOptions();
+        new OptionSetter(options).setOptionValue("parallel-setup", "true");
+        EasyMock.expect(mMockConfig.getCommandOptions()).andStubReturn(options);
+        EasyMock.expect(mMockConfig.getMultiTargetPreparers())
+                .andStubReturn(new ArrayList<IMultiTargetPreparer>());
+        EasyMock.expect(mMockConfig.getProfiler()).andStubReturn(null);
+        mDevice1 = EasyMock.createNiceMock(ITestDevice.class);
+        EasyMock.expect(mDevice1.getIDevice()).andStubReturn(new StubDevice("serial1"));
+        EasyMock.expect(mDevice1.getSerialNumber()).andStubReturn("serial1");
+        DeviceConfigurationHolder holder1 = new DeviceConfigurationHolder("device1");
+        holder1.addSpecificConfig(preparer1);
+        EasyMock.expect(mMockConfig.getDeviceConfigByName("device1")).andStubReturn(holder1);
+        mDevice2 = EasyMock.createNiceMock(ITestDevice.class);
+        EasyMock.expect(mDevice2.getIDevice()).andStubReturn(new StubDevice("serial2"));
+        EasyMock.expect(mDevice2.getSerialNumber()).andStubReturn("serial2");
+        DeviceConfigurationHolder holder2 = new DeviceConfigurationHolder("device2");
+        holder2.addSpecificConfig(preparer2);
+        EasyMock.expect(mMockConfig.getDeviceConfigByName("device2")).andStubReturn(holder2);
+        mContext.addAllocatedDevice("device1", mDevice1);
+        mContext.addAllocatedDevice("device2", mDevice2);
+        mContext.addDeviceBuildInfo("device1", new BuildInfo());
+        mContext.addDeviceBuildInfo("device2", new BuildInfo());
+        EasyMock.replay(mMockConfig, mMockTestListener, mDevice1, mDevice2);
+    }
+
+    /**
+     * Test that with parallel-setup the preparers of the devices run at the same time, and that
+     * the setup time of each device is recorded.
+     */
+    @Test
+    public void testDoSetup_parallel() throws Throwable {
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        ITargetPreparer preparer =
+                new ITargetPreparer() {
+                    @Override
+                    public void setUp(ITestDevice device, IBuildInfo buildInfo)
+                            throws TargetSetupError {
+                        bothStarted.countDown();
+                        try {
+                            if (!bothStarted.await(5, TimeUnit.SECONDS)) {
+                                throw new TargetSetupError("devices were set up one at a time");
+                            }
+                        } catch (InterruptedException e) {
+                            throw new TargetSetupError("interrupted", e);
+                        }
+                    }
+                };
+        makeParallelSetupContext(preparer, preparer);
+        mInvocation.doSetup(mContext, mMockConfig, mMockTestListener);
+        assertEquals(2, mContext.getDeviceSetupTimes().size());
+        assertTrue(mContext.getDeviceSetupTimes().containsKey("device1"));
+        assertTrue(mContext.getDeviceSetupTimes().containsKey("device2"));
+    }
+
+    /**
+     * Test that with parallel-setup the failure of one device cancels the setup of the other one,
+     * and that the exception of the failed device is thrown.
+     */
+    @Test
+    public void testDoSetup_parallelFailure() throws Throwable {
+        final TargetSetupError error = new TargetSetupError("device2 failed");
+        final AtomicBoolean interrupted = new AtomicBoolean(false);
+        ITargetPreparer slowPreparer =
+                new ITargetPreparer() {
+                    @Override
+                    public void setUp(ITestDevice device, IBuildInfo buildInfo) {
+                        try {
+                            Thread.sleep(60000);
+                        } catch (InterruptedException e) {
+                            interrupted.set(true);
+                        }
+                    }
+                };
+        ITargetPreparer failingPreparer =
+                new ITargetPreparer() {
+                    @Override
+                    public void setUp(ITestDevice device, IBuildInfo buildInfo)
+                            throws TargetSetupError {
+                        throw error;
+                    }
+                };
+        makeParallelSetupContext(slowPreparer, failingPreparer);
+        try {
+            mInvocation.doSetup(mContext, mMockConfig, mMockTestListener);
+            fail("Should have thrown an exception.");
+        } catch (TargetSetupError expected) {
+            assertSame(error, expected);
+        }
+        assertTrue(interrupted.get());
+        assertEquals(2, mContext.getDeviceSetupTimes().size());
+    }
+
+    /**
+     * Test that with parallel-setup the failure of one device cancels the setup of the other one
+     * waiting in a run operation, even if the invocation thread does not allow run interrupts.
+     */
+    @Test
+    public void testDoSetup_parallelFailure_runInterrupt() throws Throwable {
+        final TargetSetupError error = new TargetSetupError("device2 failed");
+        final AtomicInteger stopped = new AtomicInteger(0);
+        ITargetPreparer slowPreparer =
+                new ITargetPreparer() {
+                    @Override
+                    public void setUp(ITestDevice device, IBuildInfo buildInfo) {
+                        try {
+                            while (true) {
+                                RunUtil.getDefault().sleep(10);
+                            }
+                        } catch (RunInterruptedException e) {
+                            stopped.incrementAndGet();
+                            throw e;
+                        }
+                    }
+                };
+        ITargetPreparer failingPreparer =
+                new ITargetPreparer() {
+                    @Override
+                    public void setUp(ITestDevice device, IBuildInfo buildInfo)
+                            throws TargetSetupError {
+                        throw error;
+                    }
+                };
+        makeParallelSetupContext(slowPreparer, failingPreparer);
+        assertFalse(RunUtil.getDefault().isInterruptAllowed());
+        try {
+            mInvocation.doSetup(mContext, mMockConfig, mMockTestListener);
+            fail("Should have thrown an exception.");
+        } catch (TargetSetupError expected) {
+            assertSame(error, expected);
+        }
+        assertEquals(1, stopped.get());
+    }
+
+    /**
+     * Test that with parallel-setup an interrupt of the invocation is forwarded to the setup of
+     * the devices, and that the interrupt is thrown once they are stopped.
+     */
+    @Test
+    public void testDoSetup_parallelInterrupted() throws Throwable {
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        final AtomicInteger stopped = new AtomicInteger(0);
+        ITargetPreparer preparer =
+                new ITargetPreparer() {
+                    @Override
+                    public void setUp(ITestDevice device, IBuildInfo buildInfo) {
+                        bothStarted.countDown();
+                        try {
+                            // wait in a run operation, like most preparers
+                            while (true) {
+                                RunUtil.getDefault().sleep(10);
+                            }
+                        } catch (RunInterruptedException e) {
+                            stopped.incrementAndGet();
+                            throw e;
+                        }
+                    }
+                };
+        makeParallelSetupContext(preparer, preparer);
+        final Thread invocationThread = Thread.currentThread();
+        Thread interrupter =
+                new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            bothStarted.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        RunUtil.getDefault().interrupt(invocationThread, "interrupted");
+                    }
+                };
+        RunUtil.getDefault().allowInterrupt(true);
+        interrupter.start();
+        try {
+            mInvocation.doSetup(mContext, mMockConfig, mMockTestListener);
+            fail("Should have thrown an exception.");
+        } catch (RunInterruptedException expected) {
+            assertEquals("interrupted", expected.getMessage());
+        } finally {
+            RunUtil.getDefault().allowInterrupt(false);
+            // clear the interrupted flag set by the run interrupt
+            Thread.interrupted();
+            interrupter.join();
+        }
+        assertEquals(2, stopped.get());
+    }
 }
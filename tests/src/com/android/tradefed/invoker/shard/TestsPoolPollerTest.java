@@ -27,6 +27,7 @@ import com.android.tradefed.device.DeviceUnresponsiveException;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.result.ITestInvocationListener;
 import com.android.tradefed.testtype.IRemoteTest;
+import com.android.tradefed.testtype.IRuntimeHintProvider;
 import com.android.tradefed.testtype.StubTest;
 
 import org.junit.Before;
@@ -36,6 +37,8 @@ import org.junit.runners.JUnit4;
 import org.mockito.Mockito;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 
@@ -46,6 +49,27 @@ public class TestsPoolPollerTest {
     private ITestInvocationListener mListener;
     private ITestDevice mDevice;
 
+    /** Stub test with a runtime hint, counting how many times the hint is read. */
+    private static class RuntimeHintTest implements IRemoteTest, IRuntimeHintProvider {
+        private long mHint;
+        private int mHintCalls = 0;
+
+        RuntimeHintTest(long hint) {
+            mHint = hint;
+        }
+
+        @Override
+        public long getRuntimeHint() {
+            mHintCalls++;
+            return mHint;
+        }
+
+        @Override
+        public void run(ITestInvocationListener listener) {
+            // ignore
+        }
+    }
+
     @Before
     public void setUp() {
         mListener = Mockito.mock(ITestInvocationListener.class);
@@ -239,4 +263,51 @@ public class TestsPoolPollerTest {
         Mockito.verify(mDevice).reboot();
         assertEquals(2, tracker.getCount());
     }
+
+    /**
+     * Tests that {@link TestsPoolPoller#poll()} hands out the tests with the longest runtime hint
+     * first when using the pool created by {@link ShardHelper}.
+     */
+    @Test
+    public void testPolling_longestFirst() {
+        List<IRemoteTest> testsList = new ArrayList<>();
+        testsList.add(new RuntimeHintTest(10l));
+        testsList.add(new StubTest());
+        testsList.add(new RuntimeHintTest(1000l));
+        testsList.add(new RuntimeHintTest(100l));
+        Collection<IRemoteTest> pool = ShardHelper.createTestsPool(testsList);
+        CountDownLatch tracker = new CountDownLatch(1);
+        TestsPoolPoller poller = new TestsPoolPoller(pool, tracker, new HashMap<>());
+        assertEquals(1000l, ((RuntimeHintTest) poller.poll()).getRuntimeHint());
+        assertEquals(100l, ((RuntimeHintTest) poller.poll()).getRuntimeHint());
+        assertEquals(10l, ((RuntimeHintTest) poller.poll()).getRuntimeHint());
+        assertTrue(poller.poll() instanceof StubTest);
+        assertNull(poller.poll());
+    }
+
+    /**
+     * Tests that the pool created by {@link ShardHelper} reads the runtime hints once, and keeps
+     * its order when the hints change while the tests are queued.
+     */
+    @Test
+    public void testPolling_hintsReadOnce() {
+        List<IRemoteTest> testsList = new ArrayList<>();
+        RuntimeHintTest changing = new RuntimeHintTest(10l);
+        for (int i = 0; i < 20; i++) {
+            testsList.add(new RuntimeHintTest(100l + i));
+        }
+        testsList.add(changing);
+        Collection<IRemoteTest> pool = ShardHelper.createTestsPool(testsList);
+        changing.mHint = 1000l;
+        CountDownLatch tracker = new CountDownLatch(1);
+        TestsPoolPoller poller = new TestsPoolPoller(pool, tracker, new HashMap<>());
+        for (int i = 19; i >= 0; i--) {
+            assertEquals(100l + i, ((RuntimeHintTest) poller.poll()).mHint);
+        }
+        assertEquals(changing, poller.poll());
+        assertNull(poller.poll());
+        for (IRemoteTest test : testsList) {
+            assertEquals(1, ((RuntimeHintTest) test).mHintCalls);
+        }
+    }
 }
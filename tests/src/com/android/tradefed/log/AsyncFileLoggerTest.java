@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.android.ddmlib.Log.LogLevel;
+import com.android.tradefed.config.OptionSetter;
+import com.android.tradefed.result.InputStreamSource;
+import com.android.tradefed.util.StreamUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Unit tests for {@link AsyncFileLogger}. */
+@RunWith(JUnit4.class)
+public class AsyncFileLoggerTest {
+
+    private static final String LOG_TAG = "AsyncFileLoggerTest";
+
+    private AsyncFileLogger mLogger;
+    private AsyncFileLogger mOtherLogger;
+
+    @Before
+    public void setUp() throws Exception {
+        mLogger = new AsyncFileLogger();
+        mLogger.init();
+        mOtherLogger = new AsyncFileLogger();
+        mOtherLogger.init();
+    }
+
+    @After
+    public void tearDown() {
+        mLogger.closeLog();
+        mOtherLogger.closeLog();
+    }
+
+    /**
+     * Test that the messages logged concurrently by several threads are all in the log of their
+     * logger, in the order each thread logged them.
+     */
+    @Test
+    public void testGetLog_concurrent() throws Exception {
+        final int threadCount = 4;
+        final int messages = 5000;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            final int thread = t;
+            final AsyncFileLogger logger = t % 2 == 0 ? mLogger : mOtherLogger;
+            threads.add(
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            for (int i = 0; i < messages; i++) {
+                                logger.printLog(
+                                        LogLevel.DEBUG,
+                                        LOG_TAG,
+                                        String.format("thread%d message%d", thread, i));
+                            }
+                        }
+                    });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        String log = readLog(mLogger);
+        int previous = -1;
+        for (int i = 0; i < messages; i++) {
+            int index = log.indexOf(String.format("thread0 message%d\n", i));
+            assertTrue(index > previous);
+            previous = index;
+        }
+        assertEquals(-1, log.indexOf("thread1 "));
+        String otherLog = readLog(mOtherLogger);
+        assertTrue(otherLog.contains(String.format("thread3 message%d\n", messages - 1)));
+    }
+
+    /**
+     * Test that the writer parks without a timeout once the buffer is empty, and is woken up by
+     * the next message.
+     */
+    @Test
+    public void testWriter_parkedWhenIdle() throws Exception {
+        mLogger.printLog(LogLevel.DEBUG, LOG_TAG, "first message");
+        assertTrue(readLog(mLogger).contains("first message"));
+        Thread writer = AsyncFileLogger.getWriterThread();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writer.getState() != Thread.State.WAITING
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.WAITING, writer.getState());
+        mLogger.printLog(LogLevel.DEBUG, LOG_TAG, "second message");
+        assertTrue(readLog(mLogger).contains("second message"));
+    }
+
+    /**
+     * Test that the writer is a daemon thread of the host group, not of the group of the thread
+     * that loaded the class.
+     */
+    @Test
+    public void testWriter_hostThread() {
+        Thread writer = AsyncFileLogger.getWriterThread();
+        assertTrue(writer.isDaemon());
+        assertEquals("TradeFed-host-pools", writer.getThreadGroup().getName());
+    }
+
+    /** Test that a clone is an {@link AsyncFileLogger} with the same options. */
+    @Test
+    public void testClone() throws Exception {
+        OptionSetter setter = new OptionSetter(mLogger);
+        setter.setOptionValue("max-log-size", "5");
+        ILeveledLogOutput clone = mLogger.clone();
+        assertTrue(clone instanceof AsyncFileLogger);
+        assertEquals(5, ((AsyncFileLogger) clone).getMaxLogSizeMbytes());
+    }
+
+    private String readLog(AsyncFileLogger logger) throws Exception {
+        try (InputStreamSource source = logger.getLog()) {
+            return StreamUtil.getStringFromStream(source.createInputStream());
+        }
+    }
+}
@@ -104,6 +104,24 @@ public class LogRegistryTest extends TestCase {
         mLogRegistry.unregisterLogger();
     }
 
+    /**
+     * Tests that {@link LogRegistry#isLoggable} uses the log level of the logger of the current
+     * thread.
+     */
+    public void testIsLoggable() {
+        ILeveledLogOutput mockLogger = EasyMock.createMock(ILeveledLogOutput.class);
+        mLogRegistry.registerLogger(mockLogger);
+
+        EasyMock.expect(mockLogger.getLogLevel()).andReturn(LogLevel.INFO).times(3);
+
+        EasyMock.replay(mockLogger);
+        assertFalse(mLogRegistry.isLoggable(LogLevel.DEBUG));
+        assertTrue(mLogRegistry.isLoggable(LogLevel.INFO));
+        assertTrue(mLogRegistry.isLoggable(LogLevel.ERROR));
+        EasyMock.verify(mockLogger);
+        mLogRegistry.unregisterLogger();
+    }
+
     /**
      * Tests for ensuring new threads spawned without an explicit ThreadGroup will inherit the
      * same logger as the parent's logger.
@@ -159,4 +177,39 @@ public class LogRegistryTest extends TestCase {
             fail("Thread was unexpectedly interrupted.");
         }
     }
+
+    /**
+     * Tests that {@link LogRegistry#setLoggingThreadGroup} makes the current thread use the logger
+     * of another thread group.
+     */
+    public void testSetLoggingThreadGroup() {
+        String testMessage = "Logged on behalf of another group.";
+        ILeveledLogOutput mockLogger = EasyMock.createMock(ILeveledLogOutput.class);
+        LogRegistry registry =
+                new LogRegistry() {
+                    @Override
+                    public void saveGlobalLog() {
+                        // empty on purpose, avoid leaving logs that we can't clean.
+                    }
+                };
+        EasyMock.expect(mockLogger.getLogLevel()).andReturn(LogLevel.VERBOSE);
+        mockLogger.printLog(LogLevel.VERBOSE, LOG_TAG, testMessage);
+
+        EasyMock.replay(mockLogger);
+        try {
+            registry.setLoggingThreadGroup(mStubThreadGroup);
+            registry.registerLogger(mockLogger);
+            assertSame(mStubThreadGroup, registry.getLoggingThreadGroup());
+            registry.printLog(LogLevel.VERBOSE, LOG_TAG, testMessage);
+            registry.setLoggingThreadGroup(null);
+            assertNotSame(mockLogger, registry.getLogger());
+            assertSame(Thread.currentThread().getThreadGroup(), registry.getLoggingThreadGroup());
+            EasyMock.verify(mockLogger);
+        } finally {
+            registry.setLoggingThreadGroup(mStubThreadGroup);
+            registry.unregisterLogger();
+            registry.setLoggingThreadGroup(null);
+            registry.closeAndRemoveAllLogs();
+        }
+    }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.log;
+
+import com.android.ddmlib.Log;
+import com.android.ddmlib.Log.LogLevel;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.TimeUtil;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Longer running stress java app measuring the logging throughput of many concurrent invocations.
+ *
+ * <p>Runs {@link #INVOCATIONS} threads, each in its own thread group with its own logger as
+ * invocations do, all logging through {@link CLog}. Prints the time to log the messages with a
+ * {@link FileLogger} and with an {@link AsyncFileLogger}, and the time to go through debug
+ * messages filtered out by the log level, with and without the level check before formatting.
+ *
+ * <p>Lacks automated verification - intended to be executed manually or under a profiler.
+ */
+public class LoggingStressApp extends TestCase {
+
+    private static final int INVOCATIONS = 100;
+    private static final int MESSAGES_PER_INVOCATION = 20000;
+
+    private LogRegistry mLogRegistry;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLogRegistry = new LogRegistry();
+        Log.setLogOutput(mLogRegistry);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        CLog.setLogRegistry(null);
+        mLogRegistry.closeAndRemoveAllLogs();
+        super.tearDown();
+    }
+
+    public void testLogging() throws Exception {
+        CLog.setLogRegistry(mLogRegistry);
+        long fileLogger = logConcurrently(new FileLogger(), LogLevel.DEBUG);
+        long asyncLogger = logConcurrently(new AsyncFileLogger(), LogLevel.DEBUG);
+        long filtered = logConcurrently(new AsyncFileLogger(), LogLevel.INFO);
+        CLog.setLogRegistry(null);
+        long filteredAfterFormat = logConcurrently(new AsyncFileLogger(), LogLevel.INFO);
+        System.out.println(
+                String.format(
+                        "%d invocations logged %d debug messages each: with FileLogger in %s, "
+                                + "with AsyncFileLogger in %s. Filtered out by the log level: "
+                                + "%s, %s when formatted first",
+                        INVOCATIONS,
+                        MESSAGES_PER_INVOCATION,
+                        TimeUtil.formatElapsedTime(fileLogger),
+                        TimeUtil.formatElapsedTime(asyncLogger),
+                        TimeUtil.formatElapsedTime(filtered),
+                        TimeUtil.formatElapsedTime(filteredAfterFormat)));
+    }
+
+    /**
+     * Log from all the invocations at once, each with a clone of the given logger.
+     *
+     * @return the time in ms until all the messages are logged and readable
+     */
+    private long logConcurrently(final ILeveledLogOutput logger, LogLevel logLevel)
+            throws Exception {
+        logger.setLogLevel(logLevel);
+        final List<ILeveledLogOutput> loggers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < INVOCATIONS; i++) {
+            final ILeveledLogOutput invocationLogger = logger.clone();
+            invocationLogger.setLogLevel(logLevel);
+            invocationLogger.init();
+            loggers.add(invocationLogger);
+            final int invocation = i;
+            ThreadGroup group = new ThreadGroup(String.format("invocation%d", i));
+            threads.add(
+                    new Thread(group, String.format("invocation%d", i)) {
+                        @Override
+                        public void run() {
+                            mLogRegistry.registerLogger(invocationLogger);
+                            for (int m = 0; m < MESSAGES_PER_INVOCATION; m++) {
+                                CLog.d("Invocation %d logging message %d of %d", invocation, m,
+                                        MESSAGES_PER_INVOCATION);
+                            }
+                            mLogRegistry.unregisterLogger();
+                        }
+                    });
+        }
+        long start = System.currentTimeMillis();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (ILeveledLogOutput invocationLogger : loggers) {
+            invocationLogger.getLog().close();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        for (ILeveledLogOutput invocationLogger : loggers) {
+            invocationLogger.closeLog();
+        }
+        return elapsed;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.result;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.invoker.IInvocationContext;
+import com.android.tradefed.invoker.InvocationContext;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for {@link AsyncResultForwarder}. */
+@RunWith(JUnit4.class)
+public class AsyncResultForwarderTest {
+
+    private static final int TESTS = 50;
+
+    /** Listener recording the events it receives, optionally blocked until released. */
+    private static class RecordingListener implements ITestInvocationListener {
+        final List<String> mEvents = Collections.synchronizedList(new ArrayList<String>());
+        /** The threads delivering the events, other than the log events. */
+        final Set<Thread> mThreads = Collections.synchronizedSet(new HashSet<Thread>());
+        final CountDownLatch mRelease;
+
+        RecordingListener(CountDownLatch release) {
+            mRelease = release;
+        }
+
+        @Override
+        public void invocationStarted(IInvocationContext context) {
+            try {
+                mRelease.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            mEvents.add("invocationStarted");
+            mThreads.add(Thread.currentThread());
+        }
+
+        @Override
+        public void testStarted(TestIdentifier test) {
+            mEvents.add("testStarted " + test.getTestName());
+            mThreads.add(Thread.currentThread());
+        }
+
+        @Override
+        public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+            mEvents.add("testEnded " + test.getTestName());
+            mThreads.add(Thread.currentThread());
+        }
+
+        @Override
+        public void testLog(String dataName, LogDataType dataType, InputStreamSource dataStream) {
+            mEvents.add("testLog " + dataName);
+        }
+
+        @Override
+        public void invocationEnded(long elapsedTime) {
+            mEvents.add("invocationEnded");
+            mThreads.add(Thread.currentThread());
+        }
+    }
+
+    /** Report a few tests and return the events expected by the listener. */
+    private List<String> reportTests(ITestInvocationListener listener) {
+        List<String> expected = new ArrayList<>();
+        listener.invocationStarted(new InvocationContext());
+        expected.add("invocationStarted");
+        for (int i = 0; i < TESTS; i++) {
+            TestIdentifier test = new TestIdentifier("class", "test" + i);
+            listener.testStarted(test);
+            listener.testEnded(test, Collections.<String, String>emptyMap());
+            expected.add("testStarted test" + i);
+            expected.add("testEnded test" + i);
+        }
+        return expected;
+    }
+
+    /** Test that events are delivered in order and that invocationEnded drains the queue. */
+    @Test
+    public void testForward() {
+        RecordingListener listener = new RecordingListener(new CountDownLatch(0));
+        AsyncResultForwarder forwarder = new AsyncResultForwarder(listener, 10);
+        List<String> expected = reportTests(forwarder);
+        forwarder.invocationEnded(0);
+        expected.add("invocationEnded");
+        assertEquals(expected, listener.mEvents);
+        assertEquals(0, forwarder.getQueueDepth());
+    }
+
+    /** Test that the caller waits when the queue is full. */
+    @Test
+    public void testForward_block() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        final RecordingListener listener = new RecordingListener(release);
+        final AsyncResultForwarder forwarder = new AsyncResultForwarder(listener, 2);
+        final List<String> expected = new ArrayList<>();
+        Thread reporter =
+                new Thread() {
+                    @Override
+                    public void run() {
+                        expected.addAll(reportTests(forwarder));
+                    }
+                };
+        reporter.start();
+        reporter.join(200);
+        // the listener is blocked on the first event, so the reporter is blocked too.
+        assertTrue(reporter.isAlive());
+        assertTrue(forwarder.getQueueDepth() <= 3);
+        release.countDown();
+        reporter.join(5000);
+        assertFalse(reporter.isAlive());
+        forwarder.invocationEnded(0);
+        expected.add("invocationEnded");
+        assertEquals(expected, listener.mEvents);
+    }
+
+    /**
+     * Test that a single dispatcher delivers all the events, even when it waits for new ones, and
+     * that it is stopped once the invocation ended.
+     */
+    @Test
+    public void testForward_singleDispatcher() throws Exception {
+        RecordingListener listener = new RecordingListener(new CountDownLatch(0));
+        AsyncResultForwarder forwarder = new AsyncResultForwarder(listener, 10);
+        forwarder.invocationStarted(new InvocationContext());
+        for (int i = 0; i < 5; i++) {
+            // slower than the dispatcher, which empties the queue between events
+            Thread.sleep(20);
+            TestIdentifier test = new TestIdentifier("class", "test" + i);
+            forwarder.testStarted(test);
+            forwarder.testEnded(test, Collections.<String, String>emptyMap());
+        }
+        forwarder.invocationEnded(0);
+        assertEquals(1, listener.mThreads.size());
+        Thread dispatcher = listener.mThreads.iterator().next();
+        assertNotSame(Thread.currentThread(), dispatcher);
+        assertFalse(dispatcher.isAlive());
+    }
+
+    /** Test that log events are delivered synchronously, after the queued events. */
+    @Test
+    public void testLog() {
+        RecordingListener listener = new RecordingListener(new CountDownLatch(0));
+        AsyncResultForwarder forwarder = new AsyncResultForwarder(listener, 10);
+        List<String> expected = reportTests(forwarder);
+        forwarder.testLog("log", LogDataType.TEXT, null);
+        expected.add("testLog log");
+        // delivered before returning
+        assertEquals(expected, listener.mEvents);
+        forwarder.invocationEnded(0);
+    }
+
+    /** Test that only the selected listeners are wrapped. */
+    @Test
+    public void testWrapListeners() {
+        ITestInvocationListener slow = new RecordingListener(new CountDownLatch(0));
+        ITestInvocationListener fast = new CollectingTestListener();
+        List<ITestInvocationListener> wrapped =
+                AsyncResultForwarder.wrapListeners(
+                        Arrays.asList(slow, fast),
+                        Arrays.asList(RecordingListener.class.getName()),
+                        10);
+        assertEquals(2, wrapped.size());
+        assertTrue(wrapped.get(0) instanceof AsyncResultForwarder);
+        assertEquals(slow, ((AsyncResultForwarder) wrapped.get(0)).getListener());
+        assertEquals(fast, wrapped.get(1));
+    }
+}
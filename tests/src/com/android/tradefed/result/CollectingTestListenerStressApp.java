@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.result;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import com.android.ddmlib.testrunner.TestRunResult;
+import com.android.tradefed.config.OptionSetter;
+import com.android.tradefed.util.TimeUtil;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Longer running stress java app measuring the heap footprint of the results collected by a
+ * {@link CollectingTestListener}.
+ *
+ * <p>Reports {@link #RUNS} runs of {@link #TESTS_PER_RUN} tests each, with a few metrics per test
+ * and some failures sharing a few stack traces. Prints the heap retained by the listener, the time
+ * to collect the results and the time to read them back, with the default results, with compact
+ * results kept in heap, and with compact results spilled to disk. Best run with a large heap, e.g.
+ * -Xmx8g, for the default results to fit.
+ *
+ * <p>Lacks automated verification - intended to be executed manually or under a profiler.
+ */
+public class CollectingTestListenerStressApp extends TestCase {
+
+    private static final int RUNS = 1000;
+    private static final int TESTS_PER_RUN = 1000;
+    private static final int METRICS_PER_TEST = 3;
+    /** One test in this many fails. */
+    private static final int FAILURE_RATE = 100;
+    private static final int DISTINCT_TRACES = 10;
+    private static final String SPILL_THRESHOLD = Long.toString(64L * 1024 * 1024);
+
+    public void testHeapFootprint() throws Exception {
+        measure("default", new CollectingTestListener());
+
+        CollectingTestListener listener = new CollectingTestListener();
+        OptionSetter setter = new OptionSetter(listener);
+        setter.setOptionValue("compact-results", "true");
+        setter.setOptionValue("compact-results-spill-threshold", Long.toString(Long.MAX_VALUE));
+        measure("compact", listener);
+
+        listener = new CollectingTestListener();
+        setter = new OptionSetter(listener);
+        setter.setOptionValue("compact-results", "true");
+        setter.setOptionValue("compact-results-spill-threshold", SPILL_THRESHOLD);
+        measure("compact spilled", listener);
+    }
+
+    private void measure(String name, CollectingTestListener listener) {
+        long baseline = getUsedHeap();
+        long start = System.currentTimeMillis();
+        collectResults(listener);
+        long collectTime = System.currentTimeMillis() - start;
+        long heap = getUsedHeap() - baseline;
+
+        start = System.currentTimeMillis();
+        int failures = 0;
+        for (TestRunResult runResult : listener.getRunResults()) {
+            for (com.android.ddmlib.testrunner.TestResult result :
+                    runResult.getTestResults().values()) {
+                if (TestStatus.FAILURE.equals(result.getStatus())) {
+                    failures++;
+                }
+            }
+        }
+        long readTime = System.currentTimeMillis() - start;
+        assertEquals(listener.getNumTestsInState(TestStatus.FAILURE), failures);
+        System.out.println(
+                String.format(
+                        "%s: %d tests retain %d MB of heap, collected in %s, read in %s",
+                        name,
+                        listener.getNumTotalTests(),
+                        heap / (1024 * 1024),
+                        TimeUtil.formatElapsedTime(collectTime),
+                        TimeUtil.formatElapsedTime(readTime)));
+    }
+
+    private void collectResults(CollectingTestListener listener) {
+        String[] traces = new String[DISTINCT_TRACES];
+        for (int i = 0; i < DISTINCT_TRACES; i++) {
+            traces[i] =
+                    String.format(
+                            "java.lang.AssertionError: expected:<%d> but was:<0>\n"
+                                    + "\tat org.junit.Assert.fail(Assert.java:88)\n"
+                                    + "\tat com.android.foo.FooTest.test(FooTest.java:%d)",
+                            i,
+                            i);
+        }
+        int count = 0;
+        for (int run = 0; run < RUNS; run++) {
+            listener.testRunStarted(String.format("com.android.module%d", run), TESTS_PER_RUN);
+            for (int i = 0; i < TESTS_PER_RUN; i++) {
+                // names are created for each event, as parsed from an instrumentation output
+                TestIdentifier test =
+                        new TestIdentifier(
+                                String.format("com.android.module%d.FooTest%d", run, i / 50),
+                                String.format("testFoo%d", i));
+                listener.testStarted(test);
+                if (count++ % FAILURE_RATE == 0) {
+                    listener.testFailed(test, traces[count % DISTINCT_TRACES]);
+                }
+                Map<String, String> metrics = new HashMap<>();
+                for (int m = 0; m < METRICS_PER_TEST; m++) {
+                    metrics.put(String.format("metric%d", m), Integer.toString(count + m));
+                }
+                listener.testEnded(test, metrics);
+            }
+            listener.testRunEnded(TESTS_PER_RUN, new HashMap<String, String>());
+        }
+    }
+
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
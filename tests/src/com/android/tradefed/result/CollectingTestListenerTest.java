@@ -16,14 +16,17 @@
 package com.android.tradefed.result;
 
 import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.ddmlib.testrunner.TestResult;
 import com.android.ddmlib.testrunner.TestResult.TestStatus;
 import com.android.ddmlib.testrunner.TestRunResult;
 import com.android.tradefed.build.BuildInfo;
+import com.android.tradefed.config.OptionSetter;
 import com.android.tradefed.invoker.IInvocationContext;
 import com.android.tradefed.invoker.InvocationContext;
 
 import junit.framework.TestCase;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -232,6 +235,49 @@ public class CollectingTestListenerTest extends TestCase {
         assertEquals(3, total);
     }
 
+    /**
+     * Test that with compact results spilled to disk after each run, the results are the same as
+     * with the default results, including reruns.
+     */
+    public void testCompactResults() throws Exception {
+        CollectingTestListener defaultListener = mCollectingTestListener;
+        mCollectingTestListener = new CollectingTestListener();
+        OptionSetter setter = new OptionSetter(mCollectingTestListener);
+        setter.setOptionValue("compact-results", "true");
+        setter.setOptionValue("compact-results-spill-threshold", "0");
+        for (CollectingTestListener listener :
+                new CollectingTestListener[] {defaultListener, mCollectingTestListener}) {
+            mCollectingTestListener = listener;
+            injectTestRun("run1", "testFoo1", METRIC_VALUE);
+            injectTestRun("run2", "testFoo2", METRIC_VALUE2, true);
+            injectTestRun("run1", "testFoo3", METRIC_VALUE, true);
+            injectTestRun("run1", "testFoo1", METRIC_VALUE2, true);
+        }
+        assertEquals(2, mCollectingTestListener.getRunResults().size());
+        assertEquals(3, mCollectingTestListener.getNumTotalTests());
+        assertEquals(3, mCollectingTestListener.getNumTestsInState(TestStatus.FAILURE));
+        Iterator<TestRunResult> defaultIter = defaultListener.getRunResults().iterator();
+        for (TestRunResult runResult : mCollectingTestListener.getRunResults()) {
+            assertTrue(runResult instanceof CompactTestRunResult);
+            assertTrue(((CompactTestRunResult) runResult).isSpilled());
+            TestRunResult defaultResult = defaultIter.next();
+            assertEquals(defaultResult.getName(), runResult.getName());
+            assertEquals(defaultResult.getRunMetrics(), runResult.getRunMetrics());
+            assertEquals(defaultResult.getNumTests(), runResult.getNumTests());
+            assertEquals(defaultResult.getCompletedTests(), runResult.getCompletedTests());
+            Map<TestIdentifier, TestResult> defaultTests = defaultResult.getTestResults();
+            Map<TestIdentifier, TestResult> tests = runResult.getTestResults();
+            assertEquals(new ArrayList<>(defaultTests.keySet()), new ArrayList<>(tests.keySet()));
+            for (Map.Entry<TestIdentifier, TestResult> test : defaultTests.entrySet()) {
+                TestResult result = tests.get(test.getKey());
+                assertEquals(test.getValue().getStatus(), result.getStatus());
+                assertEquals(test.getValue().getStackTrace(), result.getStackTrace());
+                assertEquals(test.getValue().getMetrics(), result.getMetrics());
+                assertTrue(result.getEndTime() >= result.getStartTime());
+            }
+        }
+    }
+
     /**
      * Injects a single test run with 1 passed test into the {@link CollectingTestListener} under
      * test
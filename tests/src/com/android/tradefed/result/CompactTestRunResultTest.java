@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.result;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.ddmlib.testrunner.TestResult;
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/** Unit tests for {@link CompactTestRunResult} and {@link CompactTestResultStore}. */
+@RunWith(JUnit4.class)
+public class CompactTestRunResultTest {
+
+    private static final String TRACE = "java.lang.AssertionError\n\tat FooTest.test(FooTest.java)";
+
+    private CompactTestResultStore mStore;
+    private CompactTestRunResult mRunResult;
+
+    @Before
+    public void setUp() {
+        mStore = new CompactTestResultStore(Long.MAX_VALUE);
+        mRunResult = new CompactTestRunResult(mStore);
+        mRunResult.testRunStarted("run", 5);
+    }
+
+    /** Test the status of the tests and their counts. */
+    @Test
+    public void testStatuses() {
+        TestIdentifier passed = new TestIdentifier("FooTest", "passed");
+        TestIdentifier failed = new TestIdentifier("FooTest", "failed");
+        TestIdentifier assumption = new TestIdentifier("FooTest", "assumption");
+        TestIdentifier ignored = new TestIdentifier("FooTest", "ignored");
+        TestIdentifier incomplete = new TestIdentifier("FooTest", "incomplete");
+        runTest(passed, null);
+        mRunResult.testStarted(failed, 10);
+        mRunResult.testFailed(failed, TRACE);
+        mRunResult.testEnded(failed, 20, Collections.<String, String>emptyMap());
+        mRunResult.testStarted(assumption);
+        mRunResult.testAssumptionFailure(assumption, TRACE);
+        mRunResult.testEnded(assumption, Collections.<String, String>emptyMap());
+        mRunResult.testStarted(ignored);
+        mRunResult.testIgnored(ignored);
+        mRunResult.testEnded(ignored, Collections.<String, String>emptyMap());
+        mRunResult.testStarted(incomplete);
+        mRunResult.testRunEnded(0, Collections.<String, String>emptyMap());
+
+        assertEquals(5, mRunResult.getNumTests());
+        assertEquals(4, mRunResult.getNumCompleteTests());
+        assertEquals(1, mRunResult.getNumAllFailedTests());
+        assertTrue(mRunResult.hasFailedTests());
+        for (TestStatus status : TestStatus.values()) {
+            assertEquals(1, mRunResult.getNumTestsInState(status));
+        }
+        assertFalse(mRunResult.getCompletedTests().contains(incomplete));
+        assertEquals(4, mRunResult.getCompletedTests().size());
+
+        Map<TestIdentifier, TestResult> results = mRunResult.getTestResults();
+        List<TestIdentifier> tests = new ArrayList<>(results.keySet());
+        assertEquals(passed, tests.get(0));
+        assertEquals(incomplete, tests.get(4));
+        assertEquals(TestStatus.PASSED, results.get(passed).getStatus());
+        assertNull(results.get(passed).getStackTrace());
+        assertEquals(TestStatus.FAILURE, results.get(failed).getStatus());
+        assertEquals(TRACE, results.get(failed).getStackTrace());
+        assertEquals(10, results.get(failed).getStartTime());
+        assertEquals(20, results.get(failed).getEndTime());
+        assertEquals(TestStatus.ASSUMPTION_FAILURE, results.get(assumption).getStatus());
+        assertEquals(TestStatus.IGNORED, results.get(ignored).getStatus());
+        assertEquals(TestStatus.INCOMPLETE, results.get(incomplete).getStatus());
+    }
+
+    /** Test that a test reported again replaces its previous result. */
+    @Test
+    public void testRerunTest() {
+        TestIdentifier test = new TestIdentifier("FooTest", "test");
+        runTest(test, TRACE);
+        runTest(test, null);
+        assertEquals(1, mRunResult.getNumTests());
+        assertEquals(1, mRunResult.getNumTestsInState(TestStatus.PASSED));
+        assertEquals(0, mRunResult.getNumTestsInState(TestStatus.FAILURE));
+        assertNull(mRunResult.getTestResults().get(test).getStackTrace());
+    }
+
+    /** Test that the names are interned and the stack traces deduplicated. */
+    @Test
+    public void testInterning() {
+        runTest(new TestIdentifier(new String("FooTest"), "test1"), new String(TRACE));
+        runTest(new TestIdentifier(new String("FooTest"), "test2"), new String(TRACE));
+        Iterator<Map.Entry<TestIdentifier, TestResult>> results =
+                mRunResult.getTestResults().entrySet().iterator();
+        Map.Entry<TestIdentifier, TestResult> result1 = results.next();
+        Map.Entry<TestIdentifier, TestResult> result2 = results.next();
+        assertSame(result1.getKey().getClassName(), result2.getKey().getClassName());
+        assertSame(result1.getValue().getStackTrace(), result2.getValue().getStackTrace());
+        assertSame(
+                result1.getValue().getMetrics().keySet().iterator().next(),
+                result2.getValue().getMetrics().keySet().iterator().next());
+    }
+
+    /** Test that a completed run is spilled to disk above the threshold, and can be updated. */
+    @Test
+    public void testSpill() {
+        mStore = new CompactTestResultStore(0);
+        mRunResult = new CompactTestRunResult(mStore);
+        mRunResult.testRunStarted("run", 2);
+        TestIdentifier test1 = new TestIdentifier("FooTest", "test1");
+        TestIdentifier test2 = new TestIdentifier("FooTest", "test2");
+        runTest(test1, TRACE);
+        mRunResult.testRunEnded(0, Collections.<String, String>emptyMap());
+        mRunResult.seal();
+        mStore.runCompleted(mRunResult);
+        assertTrue(mRunResult.isSpilled());
+        assertEquals(0, mRunResult.getHeapSize());
+        assertEquals(1, mStore.getSpilledRuns());
+        assertEquals(1, mRunResult.getNumAllFailedTests());
+        TestResult result = mRunResult.getTestResults().get(test1);
+        assertEquals(TRACE, result.getStackTrace());
+        assertEquals("value", result.getMetrics().get("key"));
+
+        // rerun: the results are moved back to the heap
+        mStore.runReopened(mRunResult);
+        mRunResult.testRunStarted("run", 1);
+        runTest(test2, null);
+        assertFalse(mRunResult.isSpilled());
+        assertEquals(2, mRunResult.getNumTests());
+        assertEquals(1, mRunResult.getNumTestsInState(TestStatus.PASSED));
+        assertEquals(TRACE, mRunResult.getTestResults().get(test1).getStackTrace());
+    }
+
+    private void runTest(TestIdentifier test, String trace) {
+        Map<String, String> metrics = new HashMap<>();
+        metrics.put(new String("key"), "value");
+        mRunResult.testStarted(test);
+        if (trace != null) {
+            mRunResult.testFailed(test, trace);
+        }
+        mRunResult.testEnded(test, metrics);
+    }
+}
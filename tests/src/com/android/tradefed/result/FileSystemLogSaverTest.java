@@ -31,6 +31,7 @@ import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
@@ -40,6 +41,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Unit tests for {@link FileSystemLogSaver}.
@@ -247,6 +249,118 @@ public class FileSystemLogSaverTest extends TestCase {
         }
     }
 
+    /**
+     * Test that {@link FileSystemLogSaver#saveLogDataSource(String, LogDataType,
+     * InputStreamSource)} stores a compressed file as is, without copying it through a stream.
+     */
+    public void testSaveLogDataSource_compressedFile() throws IOException {
+        LogFile logFile = null;
+        File source = FileUtil.createTempFile("bugreportz", ".zip");
+        try {
+            FileUtil.writeToFile("Here's some test data, blah", source);
+            FileSystemLogSaver saver = new FileSystemLogSaver();
+            saver.setReportDir(mReportDir);
+            saver.invocationStarted(mContext);
+
+            try (InputStreamSource dataSource = new FileInputStreamSource(source)) {
+                logFile = saver.saveLogDataSource("testSaveLogData", LogDataType.BUGREPORTZ,
+                        dataSource);
+            }
+
+            assertTrue(logFile.getPath().endsWith(LogDataType.BUGREPORTZ.getFileExt()));
+            assertTrue(logFile.isCompressed());
+            assertEquals("Here's some test data, blah",
+                    FileUtil.readStringFromFile(new File(logFile.getPath())));
+            // the source is left untouched
+            assertTrue(source.exists());
+        } finally {
+            FileUtil.deleteFile(source);
+            if (logFile != null) {
+                FileUtil.deleteFile(new File(logFile.getPath()));
+            }
+        }
+    }
+
+    /**
+     * Test that {@link FileSystemLogSaver#saveLogDataSource(String, LogDataType,
+     * InputStreamSource)} stores the entry of a zip without decompressing it.
+     */
+    public void testSaveLogDataSource_zipEntry() throws IOException {
+        final String testData = "Here's some test data, blah";
+        LogFile logFile = null;
+        ZipFile zipFile = null;
+        File source = FileUtil.createTempFile("bugreportz", ".zip");
+        org.apache.commons.compress.archivers.zip.ZipFile sourceZip = null;
+        try {
+            try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(source))) {
+                out.putNextEntry(new ZipEntry("bugreport.txt"));
+                out.write(testData.getBytes());
+            }
+            FileSystemLogSaver saver = new FileSystemLogSaver();
+            saver.setReportDir(mReportDir);
+            saver.invocationStarted(mContext);
+            sourceZip = new org.apache.commons.compress.archivers.zip.ZipFile(source);
+
+            logFile = saver.saveLogDataSource("testSaveLogData", LogDataType.BUGREPORT,
+                    new ZipEntryInputStreamSource(sourceZip, sourceZip.getEntry("bugreport.txt")));
+
+            assertTrue(logFile.getPath().endsWith(LogDataType.ZIP.getFileExt()));
+            assertTrue(logFile.isCompressed());
+            zipFile = new ZipFile(new File(logFile.getPath()));
+            String actualLogString = StreamUtil.getStringFromStream(zipFile.getInputStream(
+                    zipFile.getEntry("bugreport.txt")));
+            assertEquals(testData, actualLogString);
+        } finally {
+            if (zipFile != null) {
+                zipFile.close();
+            }
+            if (sourceZip != null) {
+                sourceZip.close();
+            }
+            FileUtil.deleteFile(source);
+            if (logFile != null) {
+                FileUtil.deleteFile(new File(logFile.getPath()));
+            }
+        }
+    }
+
+    /**
+     * Test that {@link FileSystemLogSaver#saveLogDataSource(String, LogDataType,
+     * InputStreamSource)} with parallel compression saves the data with the compression level of
+     * its type.
+     */
+    public void testSaveLogDataSource_parallelCompression() throws Exception {
+        LogFile logFile = null;
+        ZipFile zipFile = null;
+        try {
+            FileSystemLogSaver saver = new FileSystemLogSaver();
+            OptionSetter setter = new OptionSetter(saver);
+            setter.setOptionValue("compression-level", "LOGCAT", "0");
+            setter.setOptionValue("parallel-compression", "true");
+            saver.setReportDir(mReportDir);
+            saver.invocationStarted(mContext);
+
+            final String testData = "Here's some test data, blah";
+            try (InputStreamSource source = new ByteArrayInputStreamSource(testData.getBytes())) {
+                logFile = saver.saveLogDataSource("testSaveLogData", LogDataType.LOGCAT, source);
+            }
+            saver.invocationEnded(0);
+
+            zipFile = new ZipFile(new File(logFile.getPath()));
+            ZipEntry entry = zipFile.getEntry("testSaveLogData.txt");
+            // stored in deflate blocks without compression
+            assertTrue(entry.getCompressedSize() > testData.length());
+            assertEquals(testData, StreamUtil.getStringFromStream(zipFile.getInputStream(entry)));
+        } finally {
+            if (zipFile != null) {
+                zipFile.close();
+            }
+            if (logFile != null) {
+                FileUtil.deleteFile(new File(logFile.getPath()));
+            }
+        }
+    }
+
     /**
      * Test running the log saver in sharded environment, only one reporting folder should be
      * created.
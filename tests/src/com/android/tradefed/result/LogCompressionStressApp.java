@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.result;
+
+import com.android.tradefed.build.BuildInfo;
+import com.android.tradefed.config.OptionSetter;
+import com.android.tradefed.invoker.IInvocationContext;
+import com.android.tradefed.invoker.InvocationContext;
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.StreamUtil;
+import com.android.tradefed.util.TimeUtil;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Longer running stress java app measuring the compression of large logs at the end of an
+ * invocation.
+ *
+ * <p>Creates {@link #LOG_COUNT} synthetic logcat files of {@link #LOG_SIZE} bytes each. Prints the
+ * time to save them with {@link FileSystemLogSaver} compressing sequentially, in parallel, and in
+ * parallel at the fastest level. Also prints the time to gzip
+ * them with a {@link GZIPOutputStream} and with {@link LogFileSaver}.
+ *
+ * <p>Lacks automated verification - intended to be executed manually or under a profiler.
+ */
+public class LogCompressionStressApp extends TestCase {
+
+    private static final int LOG_COUNT = 4;
+    private static final long LOG_SIZE = 256L * 1024 * 1024;
+
+    private File mLogDir;
+    private File mReportDir;
+    private List<File> mLogs = new ArrayList<>();
+    private IInvocationContext mContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLogDir = FileUtil.createTempDir("log-compression-stress");
+        mReportDir = FileUtil.createTempDir("log-compression-stress-report");
+        for (int i = 0; i < LOG_COUNT; i++) {
+            mLogs.add(createLogcat(new File(mLogDir, String.format("logcat%d.txt", i)), i));
+        }
+        mContext = new InvocationContext();
+        mContext.addDeviceBuildInfo("device", new BuildInfo("1", "stress", "target"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mLogDir);
+        FileUtil.recursiveDelete(mReportDir);
+        super.tearDown();
+    }
+
+    public void testCompression() throws Exception {
+        long sequential = saveLogs(false, null);
+        long parallel = saveLogs(true, null);
+        long fastest = saveLogs(true, "1");
+
+        long start = System.currentTimeMillis();
+        for (File log : mLogs) {
+            File gzip = new File(mReportDir, log.getName() + ".gz");
+            try (InputStream in = new FileInputStreamSource(log).createInputStream();
+                    OutputStream out =
+                            new GZIPOutputStream(
+                                    new BufferedOutputStream(new FileOutputStream(gzip)))) {
+                StreamUtil.copyStreams(in, out);
+            }
+        }
+        long gzipSequential = System.currentTimeMillis() - start;
+
+        LogFileSaver saver = new LogFileSaver(mReportDir);
+        start = System.currentTimeMillis();
+        for (File log : mLogs) {
+            try (InputStream in = new FileInputStreamSource(log).createInputStream()) {
+                saver.saveAndGZipLogData(log.getName(), LogDataType.LOGCAT, in);
+            }
+        }
+        long gzipParallel = System.currentTimeMillis() - start;
+
+        System.out.println(
+                String.format(
+                        "Saved %d logcat files of %d MB with %d processors. Zipped "
+                                + "sequentially in %s, in parallel in %s, in parallel at level 1 "
+                                + "in %s. Gzipped sequentially in %s, in parallel in %s",
+                        LOG_COUNT,
+                        LOG_SIZE / (1024 * 1024),
+                        Runtime.getRuntime().availableProcessors(),
+                        TimeUtil.formatElapsedTime(sequential),
+                        TimeUtil.formatElapsedTime(parallel),
+                        TimeUtil.formatElapsedTime(fastest),
+                        TimeUtil.formatElapsedTime(gzipSequential),
+                        TimeUtil.formatElapsedTime(gzipParallel)));
+    }
+
+    /**
+     * Save all the logs with a {@link FileSystemLogSaver}.
+     *
+     * @return the time in ms to save all the logs
+     */
+    private long saveLogs(boolean parallel, String level) throws Exception {
+        FileSystemLogSaver saver = new FileSystemLogSaver();
+        OptionSetter setter = new OptionSetter(saver);
+        setter.setOptionValue("log-file-path", mReportDir.getAbsolutePath());
+        setter.setOptionValue("parallel-compression", Boolean.toString(parallel));
+        if (level != null) {
+            setter.setOptionValue("compression-level", LogDataType.LOGCAT.name(), level);
+        }
+        saver.invocationStarted(mContext);
+        long start = System.currentTimeMillis();
+        for (File log : mLogs) {
+            try (InputStreamSource source = new FileInputStreamSource(log)) {
+                saver.saveLogDataSource(log.getName(), LogDataType.LOGCAT, source);
+            }
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        saver.invocationEnded(elapsed);
+        return elapsed;
+    }
+
+    /** Create a logcat like file, compressible but not trivially. */
+    private static File createLogcat(File file, int seed) throws IOException {
+        Random random = new Random(seed);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            long size = 0;
+            while (size < LOG_SIZE) {
+                String line =
+                        String.format(
+                                "01-01 %02d:%02d:%02d.%03d  %4d  %4d %s tag%d: message %d\n",
+                                random.nextInt(24),
+                                random.nextInt(60),
+                                random.nextInt(60),
+                                random.nextInt(1000),
+                                random.nextInt(9999),
+                                random.nextInt(9999),
+                                "VDIWE".charAt(random.nextInt(5)),
+                                random.nextInt(50),
+                                random.nextInt());
+                writer.write(line);
+                size += line.length();
+            }
+        }
+        return file;
+    }
+}
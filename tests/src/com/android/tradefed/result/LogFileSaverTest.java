@@ -223,6 +223,31 @@ public class LogFileSaverTest extends TestCase {
         }
     }
 
+    /**
+     * Test for {@link LogFileSaver#saveAndZipLogData} when blocks are compressed in parallel.
+     */
+    public void testSaveAndZipLogData_parallel() throws IOException {
+        File logFile = null;
+        ZipFile zipFile = null;
+        try {
+            LogFileSaver saver = new LogFileSaver(new BuildInfo(), mRootDir);
+            saver.setParallelCompression(true);
+            final String testData = "Here's some test data, blah";
+            ByteArrayInputStream mockInput = new ByteArrayInputStream(testData.getBytes());
+            logFile = saver.saveAndZipLogData("testSaveLogData", LogDataType.TEXT, mockInput);
+
+            zipFile = new ZipFile(logFile);
+            String actualLogString = StreamUtil.getStringFromStream(zipFile.getInputStream(
+                    new ZipEntry("testSaveLogData.txt")));
+            assertEquals(testData, actualLogString);
+        } finally {
+            if (zipFile != null) {
+                zipFile.close();
+            }
+            FileUtil.deleteFile(logFile);
+        }
+    }
+
     /**
      * Simple normal case test for {@link LogFileSaver#createCompressedLogFile} and
      * {@link LogFileSaver#createGZipLogStream(File)}
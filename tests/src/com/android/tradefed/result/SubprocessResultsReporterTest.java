@@ -31,6 +31,8 @@ import org.junit.runners.JUnit4;
 
 import java.io.File;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Unit Tests for {@link SubprocessResultsReporter}
@@ -126,4 +128,68 @@ public class SubprocessResultsReporterTest {
             receiver.close();
         }
     }
+
+    /** Test that events sent with the binary protocol are received on the other hand. */
+    @Test
+    public void testPrintEvent_printToSocketBinary() throws Exception {
+        TestIdentifier testId = new TestIdentifier("com.fakeclass", "faketest");
+        ITestInvocationListener mMockListener = EasyMock.createMock(ITestInvocationListener.class);
+        SubprocessTestResultsParser receiver =
+                new SubprocessTestResultsParser(mMockListener, true, new InvocationContext());
+        try {
+            OptionSetter setter = new OptionSetter(mReporter);
+            setter.setOptionValue(
+                    "subprocess-report-port", Integer.toString(receiver.getSocketServerPort()));
+            setter.setOptionValue("subprocess-binary-events", "true");
+            Map<String, String> metrics = new HashMap<>();
+            metrics.put("key", "value");
+            // mirror calls between receiver and sender.
+            mMockListener.testRunStarted("run", 2);
+            mMockListener.testStarted(testId, 5l);
+            mMockListener.testFailed(testId, "fake failure");
+            mMockListener.testEnded(testId, 10l, metrics);
+            mMockListener.testIgnored(testId);
+            mMockListener.testRunEnded(100l, Collections.emptyMap());
+            mMockListener.invocationFailed((Throwable) EasyMock.anyObject());
+            EasyMock.replay(mMockListener);
+            mReporter.testRunStarted("run", 2);
+            mReporter.testStarted(testId, 5l);
+            mReporter.testFailed(testId, "fake failure");
+            mReporter.testEnded(testId, 10l, metrics);
+            mReporter.testIgnored(testId);
+            mReporter.testRunEnded(100l, Collections.emptyMap());
+            mReporter.invocationFailed(new Throwable());
+            mReporter.close();
+            assertTrue(receiver.joinReceiver(500));
+            EasyMock.verify(mMockListener);
+        } finally {
+            receiver.close();
+        }
+    }
+
+    /**
+     * Test that the binary events are sent and the socket closed once the invocation ended, since
+     * the reporter is not closed by the framework.
+     */
+    @Test
+    public void testInvocationEnded_binary() throws Exception {
+        TestIdentifier testId = new TestIdentifier("com.fakeclass", "faketest");
+        ITestInvocationListener mMockListener = EasyMock.createMock(ITestInvocationListener.class);
+        SubprocessTestResultsParser receiver =
+                new SubprocessTestResultsParser(mMockListener, true, new InvocationContext());
+        try {
+            OptionSetter setter = new OptionSetter(mReporter);
+            setter.setOptionValue(
+                    "subprocess-report-port", Integer.toString(receiver.getSocketServerPort()));
+            setter.setOptionValue("subprocess-binary-events", "true");
+            mMockListener.testIgnored(testId);
+            EasyMock.replay(mMockListener);
+            mReporter.testIgnored(testId);
+            mReporter.invocationEnded(500l);
+            assertTrue(receiver.joinReceiver(500));
+            EasyMock.verify(mMockListener);
+        } finally {
+            receiver.close();
+        }
+    }
 }
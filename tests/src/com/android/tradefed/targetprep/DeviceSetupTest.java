@@ -20,6 +20,7 @@ import com.android.ddmlib.IDevice;
 import com.android.tradefed.build.DeviceBuildInfo;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.build.IDeviceBuildInfo;
+import com.android.tradefed.config.OptionSetter;
 import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.device.TcpDevice;
@@ -110,6 +111,66 @@ public class DeviceSetupTest extends TestCase {
         EasyMock.verify(mMockDevice);
     }
 
+    /**
+     * Test that the system properties, then the settings and commands, are each applied with a
+     * single shell command when batching them.
+     */
+    public void testSetup_batch() throws Exception {
+        TestDeviceOptions options = new TestDeviceOptions();
+        EasyMock.expect(mMockDevice.getOptions()).andReturn(options).once();
+        EasyMock.expect(mMockDevice.enableAdbRoot()).andReturn(Boolean.TRUE);
+        EasyMock.expect(mMockDevice.getApiLevel()).andReturn(DEFAULT_API_LEVEL).times(2);
+        EasyMock.expect(
+                        mMockDevice.executeShellCommand(
+                                EasyMock.and(
+                                        EasyMock.contains("ro.test_harness=1"),
+                                        EasyMock.contains("chmod 644 /data/local.prop"))))
+                .andReturn("\n@@TF_STEP_END 0 0\n\n@@TF_STEP_END 1 0\n");
+        mMockDevice.reboot();
+        EasyMock.expect(
+                        mMockDevice.executeShellCommand(
+                                EasyMock.and(
+                                        EasyMock.contains("'svc power stayon true'"),
+                                        EasyMock.contains(
+                                                "'settings put global airplane_mode_on 1'"))))
+                .andReturn("");
+        doCheckExternalStoreSpaceExpectations();
+        EasyMock.expect(mMockDevice.clearErrorDialogs()).andReturn(Boolean.TRUE);
+        EasyMock.replay(mMockDevice);
+
+        OptionSetter setter = new OptionSetter(mDeviceSetup);
+        setter.setOptionValue("batch-shell-commands", "true");
+        mDeviceSetup.setAirplaneMode(BinaryState.ON);
+        mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
+
+        EasyMock.verify(mMockDevice);
+    }
+
+    /**
+     * Test that a failure to write /data/local.prop is reported when batching shell commands.
+     */
+    public void testSetup_batch_setPropFails() throws Exception {
+        TestDeviceOptions options = new TestDeviceOptions();
+        EasyMock.expect(mMockDevice.getOptions()).andReturn(options).once();
+        EasyMock.expect(mMockDevice.enableAdbRoot()).andReturn(Boolean.TRUE);
+        EasyMock.expect(mMockDevice.getApiLevel()).andReturn(DEFAULT_API_LEVEL);
+        EasyMock.expect(mMockDevice.executeShellCommand(EasyMock.contains("/data/local.prop")))
+                .andReturn("read-only file system\n\n@@TF_STEP_END 0 1\n"
+                        + "\n@@TF_STEP_END 1 1\n");
+        EasyMock.replay(mMockDevice);
+
+        OptionSetter setter = new OptionSetter(mDeviceSetup);
+        setter.setOptionValue("batch-shell-commands", "true");
+        try {
+            mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
+            fail("TargetSetupError expected");
+        } catch (TargetSetupError e) {
+            // Expected
+        }
+
+        EasyMock.verify(mMockDevice);
+    }
+
     public void testSetup_airplane_mode_off() throws DeviceNotAvailableException, TargetSetupError {
         doSetupExpectations();
         doCheckExternalStoreSpaceExpectations();
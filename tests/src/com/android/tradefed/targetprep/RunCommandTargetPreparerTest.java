@@ -125,6 +125,28 @@ public class RunCommandTargetPreparerTest {
         EasyMock.verify(mMockDevice, mMockBuildInfo);
     }
 
+    /**
+     * Test that {@link RunCommandTargetPreparer#setUp(ITestDevice, IBuildInfo)} runs all the
+     * commands with a single shell command when batching them.
+     */
+    @Test
+    public void testSetUp_batch() throws Exception {
+        OptionSetter setter = new OptionSetter(mPreparer);
+        setter.setOptionValue("run-command", "mkdir test");
+        setter.setOptionValue("run-command", "touch test/file");
+        setter.setOptionValue("batch-shell-commands", "true");
+        EasyMock.expect(mMockDevice.getSerialNumber()).andReturn("SERIAL").anyTimes();
+        EasyMock.expect(
+                        mMockDevice.executeShellCommand(
+                                EasyMock.and(
+                                        EasyMock.contains("'mkdir test'"),
+                                        EasyMock.contains("'touch test/file'"))))
+                .andReturn("\n@@TF_STEP_END 0 0\n\n@@TF_STEP_END 1 0\n");
+        EasyMock.replay(mMockDevice, mMockBuildInfo);
+        mPreparer.setUp(mMockDevice, mMockBuildInfo);
+        EasyMock.verify(mMockDevice, mMockBuildInfo);
+    }
+
     /**
      * Test that {@link RunCommandTargetPreparer#setUp(ITestDevice, IBuildInfo)} and
      * {@link RunCommandTargetPreparer#tearDown(ITestDevice, IBuildInfo, Throwable)} is properly
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.targetprep;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.android.tradefed.device.ITestDevice;
+
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+
+/** Unit tests for {@link ShellCommandBatch}. */
+@RunWith(JUnit4.class)
+public class ShellCommandBatchTest {
+
+    private ShellCommandBatch mBatch;
+    private ITestDevice mMockDevice;
+
+    @Before
+    public void setUp() {
+        mBatch = new ShellCommandBatch();
+        mMockDevice = EasyMock.createMock(ITestDevice.class);
+        EasyMock.expect(mMockDevice.getSerialNumber()).andStubReturn("SERIAL");
+        EasyMock.expect(mMockDevice.getDeviceDescriptor()).andStubReturn(null);
+    }
+
+    /** Test that the output and exit code of the script are attributed to each step. */
+    @Test
+    public void testRun() throws Exception {
+        mBatch.addCommand("echo 'hello'");
+        mBatch.addFile("key=value\n", "/data/local/tmp/config");
+        mBatch.addCommand("false");
+        Capture<String> script = new Capture<>();
+        EasyMock.expect(mMockDevice.executeShellCommand(EasyMock.capture(script)))
+                .andReturn(
+                        "hello\r\n\r\n@@TF_STEP_END 0 0\r\n"
+                                + "\r\n@@TF_STEP_END 1 0\r\n"
+                                + "\r\n@@TF_STEP_END 2 1\r\n");
+        EasyMock.replay(mMockDevice);
+        List<ShellCommandBatch.Step> steps = mBatch.run(mMockDevice);
+        EasyMock.verify(mMockDevice);
+
+        assertTrue(script.getValue().contains("sh -c 'echo '\\''hello'\\'''"));
+        assertTrue(
+                script.getValue().contains("printf %s 'key=value\n' > '/data/local/tmp/config'"));
+        assertEquals(3, steps.size());
+        assertTrue(steps.get(0).isSuccess());
+        assertEquals("hello\n", steps.get(0).getOutput());
+        assertTrue(steps.get(1).isSuccess());
+        assertEquals("", steps.get(1).getOutput());
+        assertEquals("false", steps.get(2).getDescription());
+        assertEquals(1, steps.get(2).getExitCode());
+        assertTrue(mBatch.isEmpty());
+    }
+
+    /** Test that the steps after an interruption of the script are reported as not run. */
+    @Test
+    public void testRun_interrupted() throws Exception {
+        mBatch.addCommand("reboot");
+        mBatch.addCommand("echo done");
+        EasyMock.expect(mMockDevice.executeShellCommand(EasyMock.<String>anyObject()))
+                .andReturn("\n@@TF_STEP_END 0 0\n");
+        EasyMock.replay(mMockDevice);
+        List<ShellCommandBatch.Step> steps = mBatch.run(mMockDevice);
+        EasyMock.verify(mMockDevice);
+
+        assertTrue(steps.get(0).isSuccess());
+        assertFalse(steps.get(1).isSuccess());
+        assertEquals(ShellCommandBatch.NOT_RUN, steps.get(1).getExitCode());
+    }
+
+    /** Test that a long script is pushed to the device before running it. */
+    @Test
+    public void testRun_pushed() throws Exception {
+        for (int i = 0; i < ShellCommandBatch.MAX_INLINE_LENGTH / 10; i++) {
+            mBatch.addCommand(String.format("settings put global key%d %d", i, i));
+        }
+        Capture<String> remoteScript = new Capture<>();
+        EasyMock.expect(
+                        mMockDevice.pushString(
+                                EasyMock.contains("settings put global key0 0"),
+                                EasyMock.capture(remoteScript)))
+                .andReturn(true);
+        Capture<String> command = new Capture<>();
+        EasyMock.expect(mMockDevice.executeShellCommand(EasyMock.capture(command)))
+                .andReturn("");
+        EasyMock.replay(mMockDevice);
+        mBatch.run(mMockDevice);
+        EasyMock.verify(mMockDevice);
+
+        assertTrue(remoteScript.getValue().startsWith("/data/local/tmp/"));
+        assertEquals(
+                String.format("sh %s; rm -f %s", remoteScript.getValue(), remoteScript.getValue()),
+                command.getValue());
+    }
+
+    /** Test that a failure to push the script is reported. */
+    @Test
+    public void testRun_pushFailed() throws Exception {
+        for (int i = 0; i < ShellCommandBatch.MAX_INLINE_LENGTH / 10; i++) {
+            mBatch.addCommand(String.format("settings put global key%d %d", i, i));
+        }
+        EasyMock.expect(mMockDevice.pushString(EasyMock.anyObject(), EasyMock.anyObject()))
+                .andReturn(false);
+        EasyMock.replay(mMockDevice);
+        try {
+            mBatch.run(mMockDevice);
+            fail("TargetSetupError not thrown");
+        } catch (TargetSetupError expected) {
+            // expected
+        }
+        EasyMock.verify(mMockDevice);
+    }
+}
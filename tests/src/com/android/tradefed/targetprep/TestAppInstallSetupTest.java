@@ -108,6 +108,31 @@ public class TestAppInstallSetupTest {
         EasyMock.verify(mMockBuildInfo, mMockTestDevice);
     }
 
+    /**
+     * Test that with skip-installed-apks an apk is not installed again when the device already has
+     * the same content for the package.
+     */
+    @Test
+    public void testSetup_skipInstalled() throws Exception {
+        mSetter.setOptionValue("cleanup-apks", "false");
+        mSetter.setOptionValue("skip-installed-apks", "true");
+        String md5 = FileUtil.calculateMd5(fakeApk);
+        EasyMock.expect(
+                        mMockTestDevice.installPackage(
+                                (File) EasyMock.anyObject(), EasyMock.eq(true)))
+                .andReturn(null)
+                .once();
+        EasyMock.expect(mMockTestDevice.executeShellCommand("pm path " + PACKAGE_NAME))
+                .andReturn("package:/data/app/base.apk\n");
+        EasyMock.expect(mMockTestDevice.executeShellCommand("md5sum /data/app/base.apk"))
+                .andReturn(md5 + "  /data/app/base.apk\n");
+        EasyMock.replay(mMockBuildInfo, mMockTestDevice);
+        // the first install is recorded, the second one is skipped
+        mPrep.setUp(mMockTestDevice, mMockBuildInfo);
+        mPrep.setUp(mMockTestDevice, mMockBuildInfo);
+        EasyMock.verify(mMockBuildInfo, mMockTestDevice);
+    }
+
     @Test
     public void testInstallFailure() throws Exception {
         final String failure = "INSTALL_PARSE_FAILED_MANIFEST_MALFORMED";
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.testtype.suite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tradefed.util.FileUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.Set;
+
+/** Unit tests for {@link SuiteModuleIndex}. */
+@RunWith(JUnit4.class)
+public class SuiteModuleIndexTest {
+
+    private File mConfigDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mConfigDir = FileUtil.createTempDir("suite-module-index");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.recursiveDelete(mConfigDir);
+    }
+
+    /** Test that the top level suite tags of a configuration file are indexed. */
+    @Test
+    public void testGetSuiteTags_file() throws Exception {
+        File config = new File(mConfigDir, "module.xml");
+        FileUtil.writeToFile(
+                "<configuration description=\"module\">\n"
+                        + "    <option name=\"test-suite-tag\" value=\"suite1\" />\n"
+                        + "    <option name=\"config-descriptor:test-suite-tag\" "
+                        + "value=\"suite2\" />\n"
+                        + "    <test class=\"com.android.tradefed.testtype.StubTest\">\n"
+                        + "        <option name=\"test-suite-tag\" value=\"not-a-tag\" />\n"
+                        + "    </test>\n"
+                        + "</configuration>",
+                config);
+        Set<String> tags = SuiteModuleIndex.getSuiteTags(config.getAbsolutePath());
+        assertEquals(2, tags.size());
+        assertTrue(tags.contains("suite1"));
+        assertTrue(tags.contains("suite2"));
+    }
+
+    /** Test that the index is refreshed when a configuration file changes. */
+    @Test
+    public void testGetSuiteTags_modified() throws Exception {
+        File config = new File(mConfigDir, "module.xml");
+        FileUtil.writeToFile(
+                "<configuration><option name=\"test-suite-tag\" value=\"suite1\" />"
+                        + "</configuration>",
+                config);
+        assertTrue(SuiteModuleIndex.getSuiteTags(config.getAbsolutePath()).contains("suite1"));
+        FileUtil.writeToFile(
+                "<configuration><option name=\"test-suite-tag\" value=\"suite2\" /><!-- -->"
+                        + "</configuration>",
+                config);
+        assertTrue(SuiteModuleIndex.getSuiteTags(config.getAbsolutePath()).contains("suite2"));
+    }
+
+    /** Test that the tags of a configuration including other ones are unknown. */
+    @Test
+    public void testGetSuiteTags_include() throws Exception {
+        File config = new File(mConfigDir, "module.xml");
+        FileUtil.writeToFile(
+                "<configuration>\n"
+                        + "    <option name=\"test-suite-tag\" value=\"suite1\" />\n"
+                        + "    <include name=\"other\" />\n"
+                        + "</configuration>",
+                config);
+        assertNull(SuiteModuleIndex.getSuiteTags(config.getAbsolutePath()));
+    }
+
+    /** Test that configurations bundled in the classpath are indexed. */
+    @Test
+    public void testGetSuiteTags_bundled() {
+        Set<String> tags = SuiteModuleIndex.getSuiteTags("suite/stub1");
+        assertTrue(tags.contains("example-suite"));
+        assertTrue(tags.contains("example-suite2"));
+    }
+}
@@ -67,7 +67,8 @@ public class TestFailureListenerTest {
         InputStreamSource fakeSource = new ByteArrayInputStreamSource(fakeData);
         EasyMock.expect(mMockDevice.getDeviceDate()).andReturn(startDate);
         // Screenshot routine
-        EasyMock.expect(mMockDevice.getScreenshot()).andReturn(fakeSource);
+        EasyMock.expect(mMockDevice.getScreenshotAsync(EasyMock.eq("PNG"), EasyMock.eq(true)))
+                .andReturn(fakeSource);
         mMockListener.testLog(
                 EasyMock.eq(testId.toString() + "-SERIAL-screenshot"),
                 EasyMock.eq(LogDataType.PNG),
@@ -115,7 +116,8 @@ public class TestFailureListenerTest {
         DeviceNotAvailableException dnae = new DeviceNotAvailableException();
         EasyMock.expect(mMockDevice.getDeviceDate()).andThrow(dnae);
         // Screenshot routine
-        EasyMock.expect(mMockDevice.getScreenshot()).andThrow(dnae);
+        EasyMock.expect(mMockDevice.getScreenshotAsync(EasyMock.eq("PNG"), EasyMock.eq(true)))
+                .andThrow(dnae);
         // logcat routine
         EasyMock.expect(mMockDevice.getLogcat(EasyMock.anyInt())).andReturn(fakeSource);
         mMockListener.testLog(
@@ -18,6 +18,10 @@ package com.android.tradefed.util;
 
 import junit.framework.TestCase;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
 /** Tests for {@link AaptParser}. */
 public class AaptParserTest extends TestCase {
 
@@ -139,4 +143,51 @@ public class AaptParserTest extends TestCase {
         assertEquals("arm64-v8a", p.getNativeCode().get(0));
         assertEquals("armeabi-v7a", p.getNativeCode().get(1));
     }
+
+    /** Test that an apk whose aapt output is cached is parsed without running aapt. */
+    public void testParseFile_cached() throws Exception {
+        File defaultCacheDir = AaptParser.getCacheDir();
+        File tmpDir = FileUtil.createTempDir("aapt-cache");
+        File cacheDir = new File(tmpDir, "cache");
+        File apk = FileUtil.createTempFile("fake", ".apk");
+        try {
+            assertTrue(FileUtil.mkdirPrivate(cacheDir));
+            AaptParser.setCacheDir(cacheDir);
+            FileUtil.writeToFile("not an apk, aapt would fail", apk);
+            File entry = new File(cacheDir,
+                    String.format("%s-%d", AaptParser.getContentHash(apk), apk.length()));
+            FileUtil.writeToFile(
+                    "package: name='com.android.foo' versionCode='13' versionName='2.3'\n", entry);
+            AaptParser p = AaptParser.parse(apk);
+            assertNotNull(p);
+            assertEquals("com.android.foo", p.getPackageName());
+            assertEquals("13", p.getVersionCode());
+        } finally {
+            AaptParser.setCacheDir(defaultCacheDir);
+            FileUtil.deleteFile(apk);
+            FileUtil.recursiveDelete(tmpDir);
+        }
+    }
+
+    /** Test that the cached aapt output is ignored if other users can write to the cache. */
+    public void testParseFile_cacheNotPrivate() throws Exception {
+        File defaultCacheDir = AaptParser.getCacheDir();
+        File cacheDir = FileUtil.createTempDir("aapt-cache");
+        File apk = FileUtil.createTempFile("fake", ".apk");
+        try {
+            Files.setPosixFilePermissions(
+                    cacheDir.toPath(), PosixFilePermissions.fromString("rwxrwxrwx"));
+            AaptParser.setCacheDir(cacheDir);
+            FileUtil.writeToFile("not an apk, aapt would fail", apk);
+            File entry = new File(cacheDir,
+                    String.format("%s-%d", AaptParser.getContentHash(apk), apk.length()));
+            FileUtil.writeToFile(
+                    "package: name='com.android.foo' versionCode='13' versionName='2.3'\n", entry);
+            assertNull(AaptParser.parse(apk));
+        } finally {
+            AaptParser.setCacheDir(defaultCacheDir);
+            FileUtil.deleteFile(apk);
+            FileUtil.recursiveDelete(cacheDir);
+        }
+    }
 }
@@ -16,6 +16,7 @@
 package com.android.tradefed.util;
 
 import com.android.tradefed.log.ITestLogger;
+import com.android.tradefed.result.InputStreamSource;
 import com.android.tradefed.result.LogDataType;
 
 import org.easymock.EasyMock;
@@ -109,6 +110,28 @@ public class BugreportTest {
         }
     }
 
+    /**
+     * Test {@link Bugreport#getMainFileSource()} for a zipped bugreport, read from the zip without
+     * extracting it.
+     */
+    @Test
+    public void testBugreport_getMainFileSource() throws IOException {
+        mBugreport = new Bugreport(mZipFile, true);
+        try {
+            InputStreamSource source = mBugreport.getMainFileSource();
+            Assert.assertNotNull(source);
+            Assert.assertEquals(BUGREPORT_CONTENT.length(), source.size());
+            Assert.assertEquals(BUGREPORT_CONTENT,
+                    StreamUtil.getStringFromStream(source.createInputStream()));
+            // the source can be read more than once
+            Assert.assertEquals(BUGREPORT_CONTENT,
+                    StreamUtil.getStringFromStream(source.createInputStream()));
+            Assert.assertNull(mBugreport.getFileSourceByName("does_not_exist"));
+        } finally {
+            mBugreport.close();
+        }
+    }
+
     /**
      * Test {@link Bugreport#getFileByName(String)} for a zipped bugreport.
      */
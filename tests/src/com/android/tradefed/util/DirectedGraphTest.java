@@ -51,6 +51,20 @@ public class DirectedGraphTest extends TestCase {
         assertTrue(graph.isDag());
     }
 
+    public void testIsReachable() {
+        DirectedGraph<Integer> graph = new DirectedGraph<Integer>();
+        graph.addEdge(0, 1); graph.addEdge(1, 2); graph.addEdge(0, 3);
+        assertTrue(graph.isReachable(0, 2));
+        assertTrue(graph.isReachable(3, 3));
+        assertFalse(graph.isReachable(2, 0));
+        assertFalse(graph.isReachable(3, 1));
+        assertFalse(graph.isReachable(4, 0));
+        // adding 2 -> 0 creates a cycle since 0 reaches 2
+        graph.addEdge(2, 0);
+        assertFalse(graph.isDag());
+        assertTrue(graph.isReachable(2, 1));
+    }
+
     public void testRemoveUnexistingVertex() {
         DirectedGraph<Integer> graph = new DirectedGraph<Integer>();
         try {
@@ -27,7 +27,9 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.Set;
 
 /** Unit tests for {@link FileUtil} */
@@ -122,6 +124,30 @@ public class FileUtilTest {
         }
     }
 
+    /**
+     * test {@link FileUtil#mkdirPrivate(File)} creates a directory only accessible to its owner,
+     * and rejects an existing directory accessible to other users.
+     */
+    @Test
+    public void testMkdirPrivate() throws IOException {
+        File testDir = FileUtil.createTempDir("testMkdirPrivate");
+        try {
+            File privateDir = new File(testDir, "parent/private");
+            assertTrue(FileUtil.mkdirPrivate(privateDir));
+            assertEquals(
+                    "rwx------",
+                    PosixFilePermissions.toString(
+                            Files.getPosixFilePermissions(privateDir.toPath())));
+            // existing private directory
+            assertTrue(FileUtil.mkdirPrivate(privateDir));
+            Files.setPosixFilePermissions(
+                    privateDir.toPath(), PosixFilePermissions.fromString("rwxrwxr-x"));
+            assertFalse(FileUtil.mkdirPrivate(privateDir));
+        } finally {
+            FileUtil.recursiveDelete(testDir);
+        }
+    }
+
     /**
      * test {@link FileUtil#createTempFile(String, String)} with a very long file name. FileSystem
      * should not throw any exception.
@@ -415,4 +441,67 @@ public class FileUtilTest {
             FileUtil.recursiveDelete(illegalRoot);
         }
     }
+
+    /** Test {@link FileUtil#hardlinkFile(File, File)} creates a link to the same inode. */
+    @Test
+    public void testHardlinkFile() throws IOException {
+        File tmpDir = FileUtil.createTempDir("hardlink_test");
+        try {
+            File origFile = new File(tmpDir, "orig");
+            FileUtil.writeToFile("content", origFile);
+            File destFile = new File(tmpDir, "dest");
+            FileUtil.hardlinkFile(origFile, destFile);
+            assertEquals("content", FileUtil.readStringFromFile(destFile));
+            assertEquals(
+                    Files.getAttribute(origFile.toPath(), "unix:ino"),
+                    Files.getAttribute(destFile.toPath(), "unix:ino"));
+        } finally {
+            FileUtil.recursiveDelete(tmpDir);
+        }
+    }
+
+    /** Test {@link FileUtil#hardlinkFile(File, File)} when the destination already exists. */
+    @Test
+    public void testHardlinkFile_destExists() throws IOException {
+        File tmpDir = FileUtil.createTempDir("hardlink_test");
+        try {
+            File origFile = new File(tmpDir, "orig");
+            FileUtil.writeToFile("content", origFile);
+            File destFile = new File(tmpDir, "dest");
+            FileUtil.writeToFile("other content", destFile);
+            FileUtil.hardlinkFile(origFile, destFile);
+            fail("Should have thrown an exception.");
+        } catch (IOException expected) {
+            // expected
+        } finally {
+            FileUtil.recursiveDelete(tmpDir);
+        }
+    }
+
+    /** Test {@link FileUtil#recursiveHardlink(File, File)} on a nested directory. */
+    @Test
+    public void testRecursiveHardlink() throws IOException {
+        File sourceDir = FileUtil.createTempDir("hardlink_source");
+        File destDir = FileUtil.createTempDir("hardlink_dest");
+        try {
+            // enough files in one directory to be split across several tasks
+            for (int i = 0; i < 600; i++) {
+                FileUtil.writeToFile("content" + i, new File(sourceDir, "file" + i));
+            }
+            File nestedDir = new File(sourceDir, "sub/subsub");
+            nestedDir.mkdirs();
+            FileUtil.writeToFile("nested", new File(nestedDir, "nested"));
+            FileUtil.recursiveHardlink(sourceDir, destDir);
+            for (int i = 0; i < 600; i++) {
+                assertEquals(
+                        "content" + i,
+                        FileUtil.readStringFromFile(new File(destDir, "file" + i)));
+            }
+            assertEquals(
+                    "nested", FileUtil.readStringFromFile(new File(destDir, "sub/subsub/nested")));
+        } finally {
+            FileUtil.recursiveDelete(sourceDir);
+            FileUtil.recursiveDelete(destDir);
+        }
+    }
 }
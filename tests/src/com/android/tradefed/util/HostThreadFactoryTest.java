@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tradefed.log.ILogRegistry;
+import com.android.tradefed.log.LogUtil.CLog;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for {@link HostThreadFactory}. */
+@RunWith(JUnit4.class)
+public class HostThreadFactoryTest {
+
+    private ILogRegistry mPreviousRegistry = CLog.getLogRegistry();
+
+    @After
+    public void tearDown() {
+        CLog.setLogRegistry(mPreviousRegistry);
+    }
+
+    /**
+     * Test that the threads are created in the host group, not in the group of the thread creating
+     * them.
+     */
+    @Test
+    public void testNewThread() throws Exception {
+        final HostThreadFactory factory = new HostThreadFactory("test-");
+        final Thread[] created = new Thread[1];
+        final Runnable task =
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        // ignore
+                    }
+                };
+        ThreadGroup invocationGroup = new ThreadGroup("invocation");
+        Thread invocation =
+                new Thread(
+                        invocationGroup,
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                created[0] = factory.newThread(task);
+                            }
+                        });
+        invocation.start();
+        invocation.join();
+        assertEquals("test-1", created[0].getName());
+        assertTrue(created[0].isDaemon());
+        assertSame(HostThreadFactory.getHostThreadGroup(), created[0].getThreadGroup());
+        assertNull(HostThreadFactory.getHostThreadGroup().getParent().getParent());
+    }
+
+    /** Test that a wrapped task logs to the logger of the thread that wrapped it. */
+    @Test
+    public void testWrap() throws Exception {
+        ILogRegistry registry = Mockito.mock(ILogRegistry.class);
+        ThreadGroup invocationGroup = new ThreadGroup("invocation");
+        // the thread wrapping the task, then the thread running it without override
+        Mockito.when(registry.getLoggingThreadGroup())
+                .thenReturn(invocationGroup, Thread.currentThread().getThreadGroup());
+        CLog.setLogRegistry(registry);
+        Callable<String> task =
+                HostThreadFactory.wrap(
+                        new Callable<String>() {
+                            @Override
+                            public String call() {
+                                return "done";
+                            }
+                        });
+        assertEquals("done", task.call());
+        InOrder inOrder = Mockito.inOrder(registry);
+        inOrder.verify(registry).setLoggingThreadGroup(invocationGroup);
+        inOrder.verify(registry).setLoggingThreadGroup(null);
+    }
+
+    /**
+     * Test that a wrapped task restores the logger used by the thread running it, when run inside
+     * another wrapped task.
+     */
+    @Test
+    public void testWrap_nested() throws Exception {
+        ILogRegistry registry = Mockito.mock(ILogRegistry.class);
+        ThreadGroup invocationGroup = new ThreadGroup("invocation");
+        ThreadGroup otherGroup = new ThreadGroup("other");
+        // the thread wrapping the task, then the thread running it inside a task of otherGroup
+        Mockito.when(registry.getLoggingThreadGroup()).thenReturn(invocationGroup, otherGroup);
+        CLog.setLogRegistry(registry);
+        Runnable task =
+                HostThreadFactory.wrap(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                // ignore
+                            }
+                        });
+        task.run();
+        InOrder inOrder = Mockito.inOrder(registry);
+        inOrder.verify(registry).setLoggingThreadGroup(invocationGroup);
+        inOrder.verify(registry).setLoggingThreadGroup(otherGroup);
+    }
+
+    /**
+     * Test that the workers of a fork-join pool are created in the host group, not in the group of
+     * the thread submitting the first task.
+     */
+    @Test
+    public void testNewForkJoinPool() throws Exception {
+        final ForkJoinPool pool = HostThreadFactory.newForkJoinPool(2);
+        final Thread[] worker = new Thread[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        ThreadGroup invocationGroup = new ThreadGroup("invocation");
+        Thread invocation =
+                new Thread(
+                        invocationGroup,
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                // not joined, so that only a worker can run it
+                                pool.execute(
+                                        new Runnable() {
+                                            @Override
+                                            public void run() {
+                                                worker[0] = Thread.currentThread();
+                                                done.countDown();
+                                            }
+                                        });
+                            }
+                        });
+        invocation.start();
+        invocation.join();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertNotSame(invocation, worker[0]);
+        assertTrue(worker[0].isDaemon());
+        assertSame(HostThreadFactory.getHostThreadGroup(), worker[0].getThreadGroup());
+    }
+}
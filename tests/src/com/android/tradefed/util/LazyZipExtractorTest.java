@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.Arrays;
+
+/** Unit tests for {@link LazyZipExtractor}. */
+@RunWith(JUnit4.class)
+public class LazyZipExtractorTest {
+
+    private File mSrcDir;
+    private File mZip;
+    private File mDestDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mSrcDir = FileUtil.createTempDir("lazy-zip-src");
+        File module1 = new File(mSrcDir, "testcases/module1");
+        module1.mkdirs();
+        FileUtil.writeToFile("config1", new File(module1, "module1.config"));
+        FileUtil.writeToFile("apk1", new File(module1, "module1.apk"));
+        File module2 = new File(mSrcDir, "testcases/module2");
+        module2.mkdirs();
+        FileUtil.writeToFile("config2", new File(module2, "module2.config"));
+        FileUtil.writeToFile("apk2", new File(module2, "module2.apk"));
+        mZip = FileUtil.createTempFile("lazy-zip", ".zip");
+        ZipUtil.createZip(Arrays.asList(mSrcDir.listFiles()), mZip);
+        mDestDir = FileUtil.createTempDir("lazy-zip-dest");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.recursiveDelete(mSrcDir);
+        FileUtil.recursiveDelete(mDestDir);
+        FileUtil.deleteFile(mZip);
+    }
+
+    /** Test that only the configs, then only the requested module directory, are extracted. */
+    @Test
+    public void testExtract() throws Exception {
+        try (LazyZipExtractor extractor = new LazyZipExtractor(mZip, mDestDir)) {
+            extractor.extractEntriesEndingWith(".config");
+            assertEquals(2, extractor.getExtractedCount());
+            assertTrue(new File(mDestDir, "testcases/module1/module1.config").isFile());
+            assertTrue(new File(mDestDir, "testcases/module2/module2.config").isFile());
+            assertFalse(new File(mDestDir, "testcases/module1/module1.apk").exists());
+
+            File module1 = extractor.extractPath("testcases/module1");
+            assertEquals(new File(mDestDir, "testcases/module1"), module1);
+            assertEquals("apk1", FileUtil.readStringFromFile(new File(module1, "module1.apk")));
+            assertFalse(new File(mDestDir, "testcases/module2/module2.apk").exists());
+            // the directory entry and the apk, the config was already extracted
+            assertEquals(4, extractor.getExtractedCount());
+            assertTrue(extractor.getExtractedCount() < extractor.getEntryCount());
+
+            // extracting again does nothing
+            extractor.extractPath("testcases/module1");
+            assertEquals(4, extractor.getExtractedCount());
+        }
+    }
+}
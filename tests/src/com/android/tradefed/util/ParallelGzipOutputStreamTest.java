@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** Unit tests for {@link ParallelGzipOutputStream} and {@link ParallelDeflateOutputStream}. */
+@RunWith(JUnit4.class)
+public class ParallelGzipOutputStreamTest {
+
+    /** Test that empty data gives a valid gzip file. */
+    @Test
+    public void testGzip_empty() throws Exception {
+        assertArrayEquals(new byte[0], gunzip(gzip(new byte[0], Deflater.DEFAULT_COMPRESSION)));
+    }
+
+    /** Test that data smaller than a block is compressed. */
+    @Test
+    public void testGzip_small() throws Exception {
+        byte[] data = "01-01 00:00:00.000  1000  1000 I tag: some log line\n".getBytes();
+        assertArrayEquals(data, gunzip(gzip(data, Deflater.DEFAULT_COMPRESSION)));
+    }
+
+    /**
+     * Test that data of several blocks, not ending on a block boundary, is compressed as a single
+     * stream about as well as with {@link GZIPOutputStream}.
+     */
+    @Test
+    public void testGzip_multipleBlocks() throws Exception {
+        byte[] data = createLogData(5 * ParallelDeflateOutputStream.BLOCK_SIZE + 1234);
+        byte[] compressed = gzip(data, Deflater.DEFAULT_COMPRESSION);
+        assertArrayEquals(data, gunzip(compressed));
+
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(sequential)) {
+            out.write(data);
+        }
+        assertTrue(compressed.length < sequential.size() * 1.1);
+    }
+
+    /** Test that data written byte by byte at all levels is compressed. */
+    @Test
+    public void testGzip_levels() throws Exception {
+        byte[] data = createLogData(2 * ParallelDeflateOutputStream.BLOCK_SIZE);
+        for (int level = Deflater.NO_COMPRESSION; level <= Deflater.BEST_COMPRESSION; level++) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed, level)) {
+                for (byte b : data) {
+                    out.write(b);
+                }
+            }
+            assertArrayEquals(data, gunzip(compressed.toByteArray()));
+        }
+    }
+
+    /** Test the CRC32 and sizes of the raw deflate data. */
+    @Test
+    public void testDeflate_crcAndSizes() throws Exception {
+        byte[] data = createLogData(3 * ParallelDeflateOutputStream.BLOCK_SIZE);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ParallelDeflateOutputStream out =
+                new ParallelDeflateOutputStream(compressed, Deflater.BEST_SPEED);
+        out.write(data);
+        out.close();
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        assertEquals(crc.getValue(), out.getCrc());
+        assertEquals(data.length, out.getBytesRead());
+        assertEquals(compressed.size(), out.getBytesWritten());
+        InputStream inflated =
+                new InflaterInputStream(
+                        new ByteArrayInputStream(compressed.toByteArray()), new Inflater(true));
+        assertArrayEquals(data, readAll(inflated));
+    }
+
+    private static byte[] gzip(byte[] data, int level) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed, level)) {
+            out.write(data);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        return readAll(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamUtil.copyStreams(in, out);
+        in.close();
+        return out.toByteArray();
+    }
+
+    /** Create logcat like data, compressible but not trivially. */
+    private static byte[] createLogData(int size) {
+        Random random = new Random(0);
+        StringBuilder data = new StringBuilder(size + 100);
+        while (data.length() < size) {
+            data.append(
+                    String.format(
+                            "01-01 00:%02d:%02d.%03d  %4d  %4d I tag%d: message %d\n",
+                            random.nextInt(60),
+                            random.nextInt(60),
+                            random.nextInt(1000),
+                            random.nextInt(9999),
+                            random.nextInt(9999),
+                            random.nextInt(20),
+                            random.nextInt()));
+        }
+        return data.substring(0, size).getBytes();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Longer running stress java app measuring the per-command overhead of {@link RunUtil}.
+ *
+ * <p>Runs 10k trivial commands, sequentially and from several concurrent callers like the device
+ * pollers of a large host, and prints the average time per command and the number of threads
+ * started.
+ *
+ * <p>Lacks automated verification - intended to be executed manually or under a profiler.
+ */
+public class RunUtilStressApp extends TestCase {
+
+    private static final int COMMANDS = 10000;
+    private static final int CALLERS = 20;
+    private static final long TIMEOUT_MS = 10000;
+
+    public void testSequentialCommands() throws Exception {
+        runCommands(1);
+    }
+
+    public void testConcurrentCommands() throws Exception {
+        runCommands(CALLERS);
+    }
+
+    private void runCommands(int callers) throws Exception {
+        final RunUtil runUtil = new RunUtil();
+        // warm up
+        runUtil.runTimedCmd(TIMEOUT_MS, "true");
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long startedThreads = threads.getTotalStartedThreadCount();
+        final AtomicInteger failures = new AtomicInteger();
+        final int commandsPerCaller = COMMANDS / callers;
+        long start = System.nanoTime();
+        List<Thread> callerThreads = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            Thread caller =
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            for (int j = 0; j < commandsPerCaller; j++) {
+                                CommandResult result = runUtil.runTimedCmd(TIMEOUT_MS, "true");
+                                if (!CommandStatus.SUCCESS.equals(result.getStatus())) {
+                                    failures.incrementAndGet();
+                                }
+                            }
+                        }
+                    };
+            caller.start();
+            callerThreads.add(caller);
+        }
+        for (Thread caller : callerThreads) {
+            caller.join();
+        }
+        long elapsedUs = (System.nanoTime() - start) / 1000;
+        System.out.println(
+                String.format(
+                        "%d commands from %d callers in %d ms: %d us per command, "
+                                + "%d threads started, %d failures",
+                        commandsPerCaller * callers,
+                        callers,
+                        elapsedUs / 1000,
+                        elapsedUs * callers / (commandsPerCaller * callers),
+                        threads.getTotalStartedThreadCount() - startedThreads - callers,
+                        failures.get()));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import com.android.tradefed.invoker.shard.RuntimeHintComparator;
+import com.android.tradefed.result.ITestInvocationListener;
+import com.android.tradefed.testtype.IRemoteTest;
+import com.android.tradefed.testtype.IRuntimeHintProvider;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Stress java app that measures how much the {@link RuntimeHistoryStore} improves the balancing of
+ * a sharded suite.
+ *
+ * <p>Simulates the dynamic sharding pool on a synthetic suite whose module runtimes follow a
+ * long-tailed distribution, first with the default runtime hints then with hints learned from a
+ * few recorded runs, and prints the makespan of each compared to the ideal one.
+ *
+ * <p>Lacks automated verification - intended to be executed manually.
+ */
+public class RuntimeHistoryStoreStressApp extends TestCase {
+
+    private static final int MODULES = 500;
+    private static final int SHARDS = 20;
+    private static final int RECORDED_RUNS = 3;
+    private static final long DEFAULT_HINT = 60000l;
+
+    /** Fake module with a real runtime and a hint coming from the store if available. */
+    private static class FakeModule implements IRemoteTest, IRuntimeHintProvider {
+        final String mKey;
+        final long mRuntime;
+        final Map<String, Long> mHistory;
+
+        FakeModule(String key, long runtime, Map<String, Long> history) {
+            mKey = key;
+            mRuntime = runtime;
+            mHistory = history;
+        }
+
+        @Override
+        public long getRuntimeHint() {
+            Long recorded = mHistory == null ? null : mHistory.get(mKey);
+            return recorded == null ? DEFAULT_HINT : recorded;
+        }
+
+        @Override
+        public void run(ITestInvocationListener listener) {
+            // ignore
+        }
+    }
+
+    public void testShardBalancing() {
+        Random random = new Random(42);
+        List<Long> runtimes = new ArrayList<>();
+        long total = 0l;
+        for (int i = 0; i < MODULES; i++) {
+            // log-normal distribution: most modules are short, a few are very long.
+            long runtime = (long) (DEFAULT_HINT * Math.exp(random.nextGaussian() * 1.5));
+            runtimes.add(runtime);
+            total += runtime;
+        }
+        RuntimeHistoryStore store = new RuntimeHistoryStore(null);
+        for (int run = 0; run < RECORDED_RUNS; run++) {
+            for (int i = 0; i < MODULES; i++) {
+                // recorded runtimes are noisy
+                double noise = 1 + random.nextGaussian() * 0.1;
+                store.record("module" + i, (long) (runtimes.get(i) * noise));
+            }
+        }
+        long ideal = total / SHARDS;
+        long withoutHistory = simulate(runtimes, null, random);
+        long withHistory = simulate(runtimes, store.getRuntimes(), random);
+        System.out.println(
+                String.format(
+                        "Ideal makespan: %s, default hints: %s (+%d%%), recorded hints: %s "
+                                + "(+%d%%)",
+                        TimeUtil.formatElapsedTime(ideal),
+                        TimeUtil.formatElapsedTime(withoutHistory),
+                        (withoutHistory - ideal) * 100 / ideal,
+                        TimeUtil.formatElapsedTime(withHistory),
+                        (withHistory - ideal) * 100 / ideal));
+    }
+
+    /** Returns the makespan of running the modules on the shards through the sharding pool. */
+    private long simulate(List<Long> runtimes, Map<String, Long> history, Random random) {
+        List<IRemoteTest> modules = new ArrayList<>();
+        for (int i = 0; i < runtimes.size(); i++) {
+            modules.add(new FakeModule("module" + i, runtimes.get(i), history));
+        }
+        Collections.shuffle(modules, random);
+        PriorityQueue<IRemoteTest> pool = new PriorityQueue<>(new RuntimeHintComparator(modules));
+        pool.addAll(modules);
+        // each shard is represented by the time at which it becomes free
+        PriorityQueue<Long> shards = new PriorityQueue<>();
+        for (int i = 0; i < SHARDS; i++) {
+            shards.add(0l);
+        }
+        long makespan = 0l;
+        while (!pool.isEmpty()) {
+            long free = shards.poll();
+            long end = free + ((FakeModule) pool.poll()).mRuntime;
+            makespan = Math.max(makespan, end);
+            shards.add(end);
+        }
+        return makespan;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.Map;
+
+/** Unit tests for {@link RuntimeHistoryStore}. */
+@RunWith(JUnit4.class)
+public class RuntimeHistoryStoreTest {
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = FileUtil.createTempDir("runtime-history-test");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.recursiveDelete(mDir);
+    }
+
+    /** Test that an unknown key has no runtime. */
+    @Test
+    public void testGetRuntime_unknown() {
+        RuntimeHistoryStore store = new RuntimeHistoryStore(mDir);
+        assertNull(store.getRuntime(RuntimeHistoryStore.createKey("module", "arm64-v8a")));
+    }
+
+    /** Test that new observations move the estimate toward the observed value. */
+    @Test
+    public void testRecord() {
+        RuntimeHistoryStore store = new RuntimeHistoryStore(mDir);
+        String key = RuntimeHistoryStore.createKey("module", "arm64-v8a");
+        store.record(key, 1000l);
+        assertEquals(1000l, store.getRuntime(key).longValue());
+        store.record(key, 2000l);
+        long estimate = store.getRuntime(key);
+        assertTrue(estimate > 1000l && estimate < 2000l);
+    }
+
+    /** Test that the history is shared with other stores using the same files. */
+    @Test
+    public void testRecord_persisted() {
+        String key = RuntimeHistoryStore.createKey("module", null);
+        new RuntimeHistoryStore(mDir).record(key, 5000l);
+        RuntimeHistoryStore other = new RuntimeHistoryStore(mDir);
+        assertEquals(5000l, other.getRuntime(key).longValue());
+        // new records are picked up by an already loaded store
+        new RuntimeHistoryStore(mDir).record(key, 5000l);
+        assertEquals(5000l, other.getRuntime(key).longValue());
+    }
+
+    /** Test that a store without a directory keeps the history in memory. */
+    @Test
+    public void testRecord_inMemory() {
+        RuntimeHistoryStore store = new RuntimeHistoryStore(null);
+        store.record("key", 10l);
+        assertEquals(10l, store.getRuntime("key").longValue());
+    }
+
+    /** Test that a snapshot of the runtimes does not change when new runtimes are recorded. */
+    @Test
+    public void testGetRuntimes() {
+        RuntimeHistoryStore store = new RuntimeHistoryStore(mDir);
+        store.record("key", 1000l);
+        Map<String, Long> runtimes = store.getRuntimes();
+        assertEquals(1000l, runtimes.get("key").longValue());
+        store.record("key", 3000l);
+        store.record("other", 10l);
+        assertEquals(1000l, runtimes.get("key").longValue());
+        assertNull(runtimes.get("other"));
+        assertEquals(2, store.getRuntimes().size());
+    }
+}
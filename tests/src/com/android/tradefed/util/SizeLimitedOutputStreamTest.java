@@ -19,6 +19,7 @@ package com.android.tradefed.util;
 
 import junit.framework.TestCase;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -59,4 +60,47 @@ public class SizeLimitedOutputStreamTest extends TestCase {
             outStream.delete();
         }
     }
+
+    /** Test reading the data since an index entry, including after the entry file was dropped. */
+    public void testWriteDataSince() throws IOException {
+        SizeLimitedOutputStream outStream = new SizeLimitedOutputStream(20, 4, "foo", "bar");
+        File dest = FileUtil.createTempFile("size-limited", ".txt");
+        try {
+            outStream.write("0123".getBytes());
+            outStream.addIndexEntry(10);
+            outStream.write("45".getBytes());
+            outStream.addIndexEntry(20);
+            outStream.write("6789".getBytes());
+            outStream.writeDataSince(5, dest);
+            assertEquals("0123456789", FileUtil.readStringFromFile(dest));
+            outStream.writeDataSince(15, dest);
+            assertEquals("456789", FileUtil.readStringFromFile(dest));
+            outStream.writeDataSince(25, dest);
+            assertEquals("6789", FileUtil.readStringFromFile(dest));
+            // the first file with entry 10 is dropped, entry 20 is still there.
+            outStream.write("abcdefghijkl".getBytes());
+            outStream.writeDataSince(15, dest);
+            assertEquals("56789abcdefghijkl", FileUtil.readStringFromFile(dest));
+            outStream.writeDataSince(25, dest);
+            assertEquals("6789abcdefghijkl", FileUtil.readStringFromFile(dest));
+        } finally {
+            outStream.delete();
+            FileUtil.deleteFile(dest);
+        }
+    }
+
+    /** Test reading the last bytes of data across backing files. */
+    public void testGetLastData() throws IOException {
+        SizeLimitedOutputStream outStream = new SizeLimitedOutputStream(20, 4, "foo", "bar");
+        try {
+            assertEquals(0, outStream.getLastData(10).length);
+            outStream.write("0123456789abcdefghij".getBytes());
+            assertEquals("fghij", new String(outStream.getLastData(5)));
+            assertEquals("6789abcdefghij", new String(outStream.getLastData(14)));
+            // only the last 3 complete files and the current one are kept
+            assertEquals("56789abcdefghij", new String(outStream.getLastData(100)));
+        } finally {
+            outStream.delete();
+        }
+    }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.config.OptionSetter;
+import com.android.tradefed.invoker.InvocationContext;
+import com.android.tradefed.result.ITestInvocationListener;
+import com.android.tradefed.result.SubprocessResultsReporter;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Longer running stress java app for the subprocess events protocols.
+ *
+ * <p>Sends the events of a large test run from a {@link SubprocessResultsReporter} to a {@link
+ * SubprocessTestResultsParser} in the same JVM, first with the json lines protocol then with the
+ * binary protocol, and prints the throughput of each in events per second.
+ *
+ * <p>Lacks automated verification - intended to be executed manually or under a profiler.
+ */
+public class SubprocessEventStressApp extends TestCase {
+
+    private static final int TESTS = 100000;
+
+    /** Listener only counting the tests it receives. */
+    private static class CountingListener implements ITestInvocationListener {
+        final AtomicLong mTests = new AtomicLong();
+
+        @Override
+        public void testEnded(
+                TestIdentifier test, long endTime, Map<String, String> testMetrics) {
+            mTests.incrementAndGet();
+        }
+    }
+
+    public void testThroughput() throws Exception {
+        // first run warms up both sides
+        runEvents(false);
+        long json = runEvents(false);
+        long binary = runEvents(true);
+        System.out.println(
+                String.format(
+                        "%d tests: json protocol %d events/s, binary protocol %d events/s",
+                        TESTS, json, binary));
+    }
+
+    /** Returns the number of events per second sent with the given protocol. */
+    private long runEvents(boolean binary) throws Exception {
+        CountingListener listener = new CountingListener();
+        SubprocessTestResultsParser parser =
+                new SubprocessTestResultsParser(listener, true, new InvocationContext());
+        SubprocessResultsReporter reporter = new SubprocessResultsReporter();
+        try {
+            OptionSetter setter = new OptionSetter(reporter);
+            setter.setOptionValue(
+                    "subprocess-report-port", Integer.toString(parser.getSocketServerPort()));
+            setter.setOptionValue("subprocess-binary-events", Boolean.toString(binary));
+            Map<String, String> metrics = new HashMap<>();
+            metrics.put("metric", "value");
+            long start = System.nanoTime();
+            reporter.testRunStarted("stress", TESTS);
+            for (int i = 0; i < TESTS; i++) {
+                TestIdentifier test = new TestIdentifier("com.android.StressClass", "test" + i);
+                reporter.testStarted(test, i);
+                reporter.testEnded(test, i, metrics);
+            }
+            reporter.testRunEnded(TESTS, metrics);
+            reporter.close();
+            assertTrue(parser.joinReceiver(10 * 60 * 1000));
+            long elapsed = System.nanoTime() - start;
+            assertEquals(TESTS, listener.mTests.get());
+            return (2l * TESTS + 2) * 1000000000l / elapsed;
+        } finally {
+            parser.close();
+        }
+    }
+}
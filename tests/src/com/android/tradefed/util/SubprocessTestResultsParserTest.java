@@ -18,7 +18,11 @@ package com.android.tradefed.util;
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.invoker.InvocationContext;
 import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.proto.SubprocessEventProto.SubprocessEvent;
 import com.android.tradefed.result.ITestInvocationListener;
+import com.android.tradefed.util.SubprocessEventHelper.TestEndedEventInfo;
+import com.android.tradefed.util.SubprocessEventHelper.TestRunStartedEventInfo;
+import com.android.tradefed.util.SubprocessEventHelper.TestStartedEventInfo;
 
 import junit.framework.TestCase;
 
@@ -30,6 +34,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.util.Map;
@@ -303,6 +308,59 @@ public class SubprocessTestResultsParserTest extends TestCase {
         }
     }
 
+    /**
+     * Report results received from socket with the binary protocol, including an event sent in
+     * its json form and an unknown event.
+     */
+    @SuppressWarnings("unchecked")
+    public void testParser_receiveBinaryFromSocket() throws Exception {
+        ITestInvocationListener mockRunListener =
+                EasyMock.createMock(ITestInvocationListener.class);
+        mockRunListener.testRunStarted("arm64-v8a CtsGestureTestCases", 4);
+        mockRunListener.testStarted(new TestIdentifier("class", "test"), 5l);
+        mockRunListener.testEnded(
+                EasyMock.eq(new TestIdentifier("class", "test")),
+                EasyMock.eq(10l),
+                (Map<String, String>) EasyMock.anyObject());
+        mockRunListener.testRunFailed("reason");
+        EasyMock.replay(mockRunListener);
+        SubprocessTestResultsParser resultParser = null;
+        Socket socket = null;
+        try {
+            resultParser =
+                    new SubprocessTestResultsParser(mockRunListener, true, new InvocationContext());
+            socket = new Socket("localhost", resultParser.getSocketServerPort());
+            OutputStream out = socket.getOutputStream();
+            out.write(SubprocessEventHelper.BINARY_PROTOCOL_HEADER);
+            out.write(
+                    SubprocessEventHelper.encodeBinaryEvent(
+                            SubprocessTestResultsParser.StatusKeys.TEST_RUN_STARTED,
+                            new TestRunStartedEventInfo("arm64-v8a CtsGestureTestCases", 4)));
+            out.write(
+                    SubprocessEventHelper.encodeBinaryEvent(
+                            SubprocessTestResultsParser.StatusKeys.TEST_STARTED,
+                            new TestStartedEventInfo("class", "test", 5l)));
+            // unknown event, it is skipped.
+            SubprocessEvent.newBuilder().setKey("UNKNOWN").build().writeDelimitedTo(out);
+            out.write(
+                    SubprocessEventHelper.encodeBinaryEvent(
+                            SubprocessTestResultsParser.StatusKeys.TEST_ENDED,
+                            new TestEndedEventInfo("class", "test", 10l, null)));
+            // event without a binary form is sent as json.
+            out.write(
+                    SubprocessEventHelper.encodeBinaryEvent(
+                            SubprocessTestResultsParser.StatusKeys.TEST_RUN_FAILED,
+                            "{\"reason\":\"reason\"}"));
+            out.flush();
+            StreamUtil.close(socket);
+            assertTrue(resultParser.joinReceiver(500));
+            EasyMock.verify(mockRunListener);
+        } finally {
+            StreamUtil.close(resultParser);
+            StreamUtil.close(socket);
+        }
+    }
+
     /**
      * When the receiver thread fails to join then an exception is thrown.
      */
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Longer running stress java app measuring the extraction of a large tests zip by {@link
+ * ZipUtil2}.
+ *
+ * <p>Creates a synthetic zip of about 5 GB and 100k entries, most of them small files spread in
+ * module directories plus a few large image-like files, some of them stored. Prints the time to
+ * extract it sequentially, as before, in parallel, and lazily for 5% of the modules.
+ *
+ * <p>Lacks automated verification - intended to be executed manually or under a profiler.
+ */
+public class ZipExtractStressApp extends TestCase {
+
+    private static final int MODULES = 1000;
+    private static final int FILES_PER_MODULE = 100;
+    private static final int SMALL_FILE_SIZE = 32 * 1024;
+    private static final int LARGE_FILES = 4;
+    private static final long LARGE_FILE_SIZE = 512L * 1024 * 1024;
+    private static final int LAZY_MODULES = MODULES / 20;
+
+    public void testExtract() throws Exception {
+        File zip = FileUtil.createTempFile("zip-stress", ".zip");
+        File destDir = null;
+        try {
+            long start = System.currentTimeMillis();
+            createZip(zip);
+            System.out.println(
+                    String.format(
+                            "Created a %d MB zip in %s",
+                            zip.length() / (1024 * 1024),
+                            TimeUtil.formatElapsedTime(System.currentTimeMillis() - start)));
+
+            destDir = FileUtil.createTempDir("zip-stress-sequential");
+            start = System.currentTimeMillis();
+            try (ZipFile zipFile = new ZipFile(zip)) {
+                extractSequentially(zipFile, destDir);
+            }
+            long sequential = System.currentTimeMillis() - start;
+            FileUtil.recursiveDelete(destDir);
+
+            destDir = FileUtil.createTempDir("zip-stress-parallel");
+            start = System.currentTimeMillis();
+            try (ZipFile zipFile = new ZipFile(zip)) {
+                ZipUtil2.extractZip(zipFile, destDir);
+            }
+            long parallel = System.currentTimeMillis() - start;
+            FileUtil.recursiveDelete(destDir);
+
+            destDir = FileUtil.createTempDir("zip-stress-lazy");
+            start = System.currentTimeMillis();
+            try (LazyZipExtractor extractor = new LazyZipExtractor(zip, destDir)) {
+                extractor.extractEntriesEndingWith(".config");
+                for (int i = 0; i < LAZY_MODULES; i++) {
+                    extractor.extractPath(String.format("testcases/module%d", i * 20));
+                }
+            }
+            long lazy = System.currentTimeMillis() - start;
+            System.out.println(
+                    String.format(
+                            "Extracted sequentially in %s, in parallel in %s, "
+                                    + "configs and %d modules lazily in %s",
+                            TimeUtil.formatElapsedTime(sequential),
+                            TimeUtil.formatElapsedTime(parallel),
+                            LAZY_MODULES,
+                            TimeUtil.formatElapsedTime(lazy)));
+        } finally {
+            FileUtil.recursiveDelete(destDir);
+            FileUtil.deleteFile(zip);
+        }
+    }
+
+    /** Extracts the zip the way {@link ZipUtil2} did before extracting in parallel. */
+    private void extractSequentially(ZipFile zipFile, File destDir) throws IOException {
+        Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
+        while (entries.hasMoreElements()) {
+            ZipArchiveEntry entry = entries.nextElement();
+            File childFile = new File(destDir, entry.getName());
+            childFile.getParentFile().mkdirs();
+            if (entry.isDirectory()) {
+                childFile.mkdirs();
+            } else {
+                FileUtil.writeToFile(zipFile.getInputStream(entry), childFile);
+            }
+        }
+    }
+
+    private void createZip(File zip) throws IOException {
+        Random random = new Random(42);
+        // half random, half zeroes: compresses about 2x, like binaries
+        byte[] content = new byte[SMALL_FILE_SIZE];
+        random.nextBytes(content);
+        for (int i = content.length / 2; i < content.length; i++) {
+            content[i] = 0;
+        }
+        try (ZipOutputStream out =
+                new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zip)))) {
+            for (int module = 0; module < MODULES; module++) {
+                String dir = String.format("testcases/module%d/", module);
+                out.putNextEntry(new ZipEntry(dir + String.format("module%d.config", module)));
+                out.write("<configuration />".getBytes());
+                out.closeEntry();
+                for (int file = 1; file < FILES_PER_MODULE; file++) {
+                    out.putNextEntry(new ZipEntry(dir + String.format("file%d.so", file)));
+                    out.write(content);
+                    out.closeEntry();
+                }
+            }
+            for (int i = 0; i < LARGE_FILES; i++) {
+                ZipEntry entry = new ZipEntry(String.format("images/image%d.img", i));
+                if (i % 2 == 0) {
+                    // stored entries need their size and crc upfront
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(LARGE_FILE_SIZE);
+                    entry.setCompressedSize(LARGE_FILE_SIZE);
+                    entry.setCrc(computeLargeFileCrc(content));
+                }
+                out.putNextEntry(entry);
+                writeLargeFile(out, content);
+                out.closeEntry();
+            }
+        }
+    }
+
+    private void writeLargeFile(ZipOutputStream out, byte[] content) throws IOException {
+        for (long written = 0; written < LARGE_FILE_SIZE; written += content.length) {
+            out.write(content);
+        }
+    }
+
+    private long computeLargeFileCrc(byte[] content) {
+        CRC32 crc = new CRC32();
+        for (long written = 0; written < LARGE_FILE_SIZE; written += content.length) {
+            crc.update(content);
+        }
+        return crc.getValue();
+    }
+}
@@ -17,19 +17,23 @@ package com.android.tradefed.util;
 
 import static org.junit.Assert.fail;
 
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.zip.Deflater;
 
 /**
  * Unit tests for {@link ZipUtil2}
@@ -102,6 +106,62 @@ public class ZipUtil2Test {
         }
     }
 
+    /**
+     * Test that {@link ZipUtil2#extractZip(ZipFile, File)} extracts all the entries of a zip with
+     * more entries than handled by a single extraction task.
+     */
+    @Test
+    public void testExtractZip_manyEntries() throws Exception {
+        final File srcDir = createTempDir("ZipUtil2Test_src");
+        for (int i = 0; i < 500; i++) {
+            File file = new File(srcDir, String.format("dir%d/file%d", i % 7, i));
+            file.getParentFile().mkdirs();
+            FileUtil.writeToFile("content" + i, file);
+        }
+        final File zip = createTempFile("ZipUtil2Test", ".zip");
+        ZipUtil.createZip(Arrays.asList(srcDir.listFiles()), zip);
+        final File destDir = createTempDir("ZipUtil2Test");
+        ZipFile zipFile = null;
+        try {
+            zipFile = new ZipFile(zip);
+            ZipUtil2.extractZip(zipFile, destDir);
+            for (int i = 0; i < 500; i++) {
+                File file = new File(destDir, String.format("dir%d/file%d", i % 7, i));
+                Assert.assertEquals("content" + i, FileUtil.readStringFromFile(file));
+            }
+        } finally {
+            ZipFile.closeQuietly(zipFile);
+        }
+    }
+
+    /**
+     * Test that {@link ZipUtil2#extractZip(ZipFile, File, java.util.Collection)} only extracts the
+     * entries under the given paths.
+     */
+    @Test
+    public void testExtractZip_prefixes() throws Exception {
+        final File srcDir = createTempDir("ZipUtil2Test_src");
+        FileUtil.writeToFile("a", new File(srcDir, "module"));
+        new File(srcDir, "module1/lib").mkdirs();
+        FileUtil.writeToFile("b", new File(srcDir, "module1/lib/lib.so"));
+        new File(srcDir, "module2").mkdirs();
+        FileUtil.writeToFile("c", new File(srcDir, "module2/module2.config"));
+        final File zip = createTempFile("ZipUtil2Test", ".zip");
+        ZipUtil.createZip(Arrays.asList(srcDir.listFiles()), zip);
+        final File destDir = createTempDir("ZipUtil2Test");
+        ZipFile zipFile = null;
+        try {
+            zipFile = new ZipFile(zip);
+            ZipUtil2.extractZip(zipFile, destDir, Arrays.asList("module1"));
+            Assert.assertEquals("b", FileUtil.readStringFromFile(
+                    new File(destDir, "module1/lib/lib.so")));
+            Assert.assertFalse(new File(destDir, "module").exists());
+            Assert.assertFalse(new File(destDir, "module2").exists());
+        } finally {
+            ZipFile.closeQuietly(zipFile);
+        }
+    }
+
     /**
      * Test that {@link ZipUtil2#extractZipToTemp(File, String)} properly throws when an incorrect
      * zip is presented.
@@ -119,6 +179,28 @@ public class ZipUtil2Test {
         }
     }
 
+    /**
+     * Test that {@link ZipUtil2#createSingleEntryZip(InputStream, String, File, int)} creates a
+     * readable zip, for data larger than a compressed block.
+     */
+    @Test
+    public void testCreateSingleEntryZip() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; content.length() < 3 * ParallelDeflateOutputStream.BLOCK_SIZE; i++) {
+            content.append(String.format("01-01 00:00:00.000  1000  1000 I tag: line %d\n", i));
+        }
+        File zip = createTempFile("ziputiltest", ".zip");
+        ZipUtil2.createSingleEntryZip(new ByteArrayInputStream(content.toString().getBytes()),
+                "logcat.txt", zip, Deflater.BEST_SPEED);
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            ZipArchiveEntry entry = zipFile.getEntry("logcat.txt");
+            Assert.assertNotNull(entry);
+            Assert.assertEquals(content.length(), entry.getSize());
+            Assert.assertEquals(content.toString(),
+                    StreamUtil.getStringFromStream(zipFile.getInputStream(entry)));
+        }
+    }
+
     private File getTestDataFile(String name) throws IOException {
         final InputStream inputStream =
                 getClass().getResourceAsStream(String.format("/util/%s.zip", name));